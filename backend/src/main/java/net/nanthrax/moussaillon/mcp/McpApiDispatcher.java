@@ -0,0 +1,469 @@
+package net.nanthrax.moussaillon.mcp;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.RestPath;
+import org.jboss.resteasy.reactive.RestQuery;
+
+import io.quarkus.arc.Arc;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Any;
+import jakarta.enterprise.inject.spi.Bean;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.ws.rs.BeanParam;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.PUT;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Routes the MCP API calls straight to the JAX-RS resource methods, without going through a
+ * socket and the HTTP stack again. The routes are read once from the resource beans; the
+ * methods needing anything else than path, query, JSON body and {@code @BeanParam} query
+ * parameters (headers, context, multipart, asynchronous results) are left to the HTTP loopback.
+ */
+@ApplicationScoped
+public class McpApiDispatcher {
+
+    private static final Logger LOG = Logger.getLogger(McpApiDispatcher.class);
+
+    private static final Pattern VARIABLE = Pattern.compile("\\{\\s*(\\w[\\w.-]*)\\s*(?::\\s*((?:[^{}]|\\{[^{}]*})*))?}");
+
+    private final Jsonb jsonb = JsonbBuilder.create();
+
+    private volatile List<Route> routes;
+
+    /**
+     * Outcome of an in-process call: the HTTP status and the entity, not serialized.
+     */
+    public record Resultat(int status, Object entity) {}
+
+    /**
+     * Calls the resource method matching the request, or returns null when no route can be
+     * served in process and the caller should go through HTTP.
+     */
+    public Resultat appeler(String httpMethod, String path, Map<?, ?> query, Object body) {
+        if (path.indexOf('?') >= 0 || path.indexOf('#') >= 0) {
+            return null;
+        }
+        String chemin = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        String template = null;
+        for (Route route : routes()) {
+            if (template != null && !template.equals(route.template)) {
+                break;
+            }
+            Matcher matcher = route.pattern.matcher(chemin);
+            if (!matcher.matches()) {
+                continue;
+            }
+            // The best matching template wins, then the HTTP method is looked up among its routes
+            template = route.template;
+            if (!route.httpMethod.equals(httpMethod)) {
+                continue;
+            }
+            if (!route.enProcessus) {
+                return null;
+            }
+            return invoquer(route, matcher, query, body);
+        }
+        return template != null ? new Resultat(Response.Status.METHOD_NOT_ALLOWED.getStatusCode(), "") : null;
+    }
+
+    private Resultat invoquer(Route route, Matcher matcher, Map<?, ?> query, Object body) {
+        Object[] args = new Object[route.arguments.size()];
+        for (int i = 0; i < args.length; i++) {
+            Argument argument = route.arguments.get(i);
+            try {
+                args[i] = switch (argument.source) {
+                    case PATH -> convertir(URLDecoder.decode(matcher.group("v" + argument.groupe).replace("+", "%2B"), StandardCharsets.UTF_8), argument.type);
+                    case QUERY -> convertir(valeur(query, argument.nom, argument.defaut), argument.type);
+                    case BODY -> jsonb.fromJson(body != null ? jsonb.toJson(body) : "{}", argument.genericType);
+                    case BEAN -> lierBean(argument, query);
+                };
+            } catch (RuntimeException e) {
+                // Same statuses as the HTTP stack: unparsable path segment is 404, anything else 400
+                int status = argument.source == Source.PATH ? 404 : 400;
+                return new Resultat(status, e.getMessage() != null ? e.getMessage() : "");
+            }
+        }
+
+        try {
+            Object instance = Arc.container().instance(route.beanClass).get();
+            Object entity = route.method.invoke(instance, args);
+            if (entity instanceof Response response) {
+                return new Resultat(response.getStatus(), response.hasEntity() ? response.getEntity() : "");
+            }
+            if (route.method.getReturnType() == void.class || entity == null) {
+                return new Resultat(Response.Status.NO_CONTENT.getStatusCode(), "");
+            }
+            return new Resultat(Response.Status.OK.getStatusCode(), entity);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof WebApplicationException wae) {
+                Response response = wae.getResponse();
+                return new Resultat(response.getStatus(), response.hasEntity() ? response.getEntity() : "");
+            }
+            LOG.warnf(cause, "Erreur lors de l'appel MCP de %s %s", route.httpMethod, route.template);
+            return new Resultat(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), cause.getMessage() != null ? cause.getMessage() : "");
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fills a {@code @BeanParam} from the query; its {@code @Context} fields stay null.
+     */
+    private static Object lierBean(Argument argument, Map<?, ?> query) {
+        Object bean;
+        try {
+            bean = argument.type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Field champ : argument.champs) {
+            DefaultValue defaut = champ.getAnnotation(DefaultValue.class);
+            String valeur = valeur(query, champ.getAnnotation(QueryParam.class).value(), defaut != null ? defaut.value() : null);
+            try {
+                champ.set(bean, convertir(valeur, champ.getType()));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return bean;
+    }
+
+    private static String valeur(Map<?, ?> query, String nom, String defaut) {
+        Object valeur = query != null ? query.get(nom) : null;
+        return valeur != null ? valeur.toString() : defaut;
+    }
+
+    static Object convertir(String valeur, Class<?> type) {
+        if (valeur == null) {
+            if (!type.isPrimitive()) {
+                return null;
+            }
+            return type == boolean.class ? Boolean.FALSE : convertir("0", type);
+        }
+        if (type == String.class) {
+            return valeur;
+        }
+        if (type == long.class || type == Long.class) {
+            return Long.valueOf(valeur.trim());
+        }
+        if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(valeur.trim());
+        }
+        if (type == double.class || type == Double.class) {
+            return Double.valueOf(valeur.trim());
+        }
+        if (type == float.class || type == Float.class) {
+            return Float.valueOf(valeur.trim());
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return Boolean.valueOf(valeur.trim());
+        }
+        if (type.isEnum()) {
+            return enumValeur(type, valeur.trim());
+        }
+        Method fabrique = fabrique(type);
+        if (fabrique == null) {
+            throw new IllegalArgumentException("Type de parametre non supporte: " + type.getName());
+        }
+        try {
+            return fabrique.invoke(null, valeur);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException(e.getCause().getMessage(), e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumValeur(Class<?> type, String valeur) {
+        return Enum.valueOf((Class<? extends Enum>) type, valeur);
+    }
+
+    /**
+     * Static String/CharSequence factory (valueOf, fromString, parse) as accepted by JAX-RS.
+     */
+    private static Method fabrique(Class<?> type) {
+        for (String nom : List.of("valueOf", "fromString", "parse")) {
+            for (Class<?> argument : List.of(String.class, CharSequence.class)) {
+                try {
+                    Method method = type.getMethod(nom, argument);
+                    if (Modifier.isStatic(method.getModifiers()) && type.isAssignableFrom(method.getReturnType())) {
+                        return method;
+                    }
+                } catch (NoSuchMethodException e) {
+                    // try the next factory
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean simple(Class<?> type) {
+        return type.isPrimitive() || type == String.class || Number.class.isAssignableFrom(type) || type == Boolean.class
+                || type.isEnum() || fabrique(type) != null;
+    }
+
+    private List<Route> routes() {
+        List<Route> resultat = routes;
+        if (resultat == null) {
+            synchronized (this) {
+                if (routes == null) {
+                    routes = construireRoutes();
+                }
+                resultat = routes;
+            }
+        }
+        return resultat;
+    }
+
+    private List<Route> construireRoutes() {
+        List<Route> resultat = new ArrayList<>();
+        for (Bean<?> bean : Arc.container().beanManager().getBeans(Object.class, Any.Literal.INSTANCE)) {
+            Class<?> beanClass = bean.getBeanClass();
+            Path racine = beanClass.getAnnotation(Path.class);
+            if (racine == null || beanClass == McpServerResource.class) {
+                continue;
+            }
+            for (Method method : beanClass.getMethods()) {
+                String httpMethod = httpMethod(method);
+                if (httpMethod == null) {
+                    continue;
+                }
+                Path sousChemin = method.getAnnotation(Path.class);
+                resultat.add(new Route(beanClass, method, httpMethod, joindre(racine.value(), sousChemin != null ? sousChemin.value() : "")));
+            }
+        }
+        // JAX-RS precedence: the most literal characters first, then the most variables
+        resultat.sort(Comparator.comparingInt((Route route) -> -route.litteraux)
+                .thenComparingInt(route -> -route.variables)
+                .thenComparing(route -> route.template));
+        LOG.debugf("%d routes MCP en processus", resultat.stream().filter(route -> route.enProcessus).count());
+        return List.copyOf(resultat);
+    }
+
+    private static String httpMethod(Method method) {
+        if (method.isAnnotationPresent(GET.class)) {
+            return "GET";
+        }
+        if (method.isAnnotationPresent(POST.class)) {
+            return "POST";
+        }
+        if (method.isAnnotationPresent(PUT.class)) {
+            return "PUT";
+        }
+        if (method.isAnnotationPresent(DELETE.class)) {
+            return "DELETE";
+        }
+        return null;
+    }
+
+    private static String joindre(String racine, String sousChemin) {
+        String chemin = "/" + racine.replaceAll("^/+|/+$", "");
+        String suite = sousChemin.replaceAll("^/+|/+$", "");
+        if (suite.isEmpty()) {
+            return chemin;
+        }
+        return (chemin.equals("/") ? "" : chemin) + "/" + suite;
+    }
+
+    private enum Source {
+        PATH,
+        QUERY,
+        BODY,
+        BEAN
+    }
+
+    private record Argument(Source source, String nom, int groupe, Class<?> type, Type genericType, String defaut, List<Field> champs) {
+
+        Argument(Source source, String nom, int groupe, Class<?> type, Type genericType, String defaut) {
+            this(source, nom, groupe, type, genericType, defaut, List.of());
+        }
+    }
+
+    private static final class Route {
+
+        final Class<?> beanClass;
+        final Method method;
+        final String httpMethod;
+        final String template;
+        final Pattern pattern;
+        final int litteraux;
+        final int variables;
+        final List<Argument> arguments = new ArrayList<>();
+        final boolean enProcessus;
+
+        Route(Class<?> beanClass, Method method, String httpMethod, String template) {
+            this.beanClass = beanClass;
+            this.method = method;
+            this.httpMethod = httpMethod;
+            this.template = template;
+
+            List<String> noms = new ArrayList<>();
+            StringBuilder regex = new StringBuilder();
+            Matcher matcher = VARIABLE.matcher(template);
+            int position = 0;
+            int literal = 0;
+            while (matcher.find()) {
+                regex.append(Pattern.quote(template.substring(position, matcher.start())));
+                literal += matcher.start() - position;
+                // Named groups, so that the groups of a custom regex do not shift the variables
+                String expression = matcher.group(2) != null ? matcher.group(2).trim() : "[^/]+";
+                regex.append("(?<v").append(noms.size()).append('>').append(expression).append(')');
+                noms.add(matcher.group(1));
+                position = matcher.end();
+            }
+            regex.append(Pattern.quote(template.substring(position)));
+            literal += template.length() - position;
+            this.pattern = Pattern.compile(regex.toString());
+            this.litteraux = literal;
+            this.variables = noms.size();
+            this.enProcessus = lierArguments(noms);
+        }
+
+        private boolean lierArguments(List<String> noms) {
+            Class<?> retour = method.getReturnType();
+            if (CompletionStage.class.isAssignableFrom(retour) || Uni.class.isAssignableFrom(retour) || Multi.class.isAssignableFrom(retour)) {
+                return false;
+            }
+            Produces produces = method.isAnnotationPresent(Produces.class) ? method.getAnnotation(Produces.class) : beanClass.getAnnotation(Produces.class);
+            if (produces != null && Arrays.stream(produces.value()).noneMatch(type -> type.startsWith(MediaType.APPLICATION_JSON) || type.startsWith(MediaType.TEXT_PLAIN))) {
+                return false;
+            }
+
+            List<String> libres = new ArrayList<>(noms);
+            boolean corps = false;
+            for (Parameter parameter : method.getParameters()) {
+                Class<?> type = parameter.getType();
+                String defaut = parameter.isAnnotationPresent(DefaultValue.class) ? parameter.getAnnotation(DefaultValue.class).value() : null;
+                String pathParam = parameter.isAnnotationPresent(PathParam.class) ? parameter.getAnnotation(PathParam.class).value()
+                        : parameter.isAnnotationPresent(RestPath.class) ? nom(parameter.getAnnotation(RestPath.class).value(), parameter) : null;
+                String queryParam = parameter.isAnnotationPresent(QueryParam.class) ? parameter.getAnnotation(QueryParam.class).value()
+                        : parameter.isAnnotationPresent(RestQuery.class) ? nom(parameter.getAnnotation(RestQuery.class).value(), parameter) : null;
+
+                if (pathParam != null) {
+                    if (!noms.contains(pathParam) || !simple(type)) {
+                        return false;
+                    }
+                    libres.remove(pathParam);
+                    arguments.add(new Argument(Source.PATH, pathParam, noms.indexOf(pathParam), type, type, defaut));
+                } else if (queryParam != null) {
+                    if (queryParam.isEmpty() || !simple(type)) {
+                        return false;
+                    }
+                    arguments.add(new Argument(Source.QUERY, queryParam, 0, type, type, defaut));
+                } else if (parameter.isAnnotationPresent(BeanParam.class)) {
+                    List<Field> champs = champsBean(type);
+                    if (champs == null) {
+                        return false;
+                    }
+                    arguments.add(new Argument(Source.BEAN, null, 0, type, type, null, champs));
+                } else if (jaxrs(parameter)) {
+                    // @Context, headers, forms, cookies: only the HTTP stack can provide them
+                    return false;
+                } else if (simple(type)) {
+                    // Unannotated simple parameter: path variable of the same name, or the next unbound one
+                    String nom = parameter.isNamePresent() && libres.contains(parameter.getName()) ? parameter.getName()
+                            : libres.isEmpty() ? null : libres.get(0);
+                    if (nom == null) {
+                        return false;
+                    }
+                    libres.remove(nom);
+                    arguments.add(new Argument(Source.PATH, nom, noms.indexOf(nom), type, type, defaut));
+                } else {
+                    if (corps) {
+                        return false;
+                    }
+                    corps = true;
+                    arguments.add(new Argument(Source.BODY, null, 0, type, parameter.getParameterizedType(), null));
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Query fields of a {@code @BeanParam} class, or null when it also needs something only
+         * the HTTP stack provides (headers, forms, ...). {@code @Context} fields are left out.
+         */
+        private static List<Field> champsBean(Class<?> type) {
+            try {
+                type.getConstructor();
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+            List<Field> champs = new ArrayList<>();
+            for (Field champ : type.getFields()) {
+                if (Modifier.isStatic(champ.getModifiers()) || champ.isAnnotationPresent(Context.class)) {
+                    continue;
+                }
+                if (champ.isAnnotationPresent(QueryParam.class)) {
+                    if (!simple(champ.getType()) || Modifier.isFinal(champ.getModifiers())) {
+                        return null;
+                    }
+                    champs.add(champ);
+                } else if (jaxrs(champ.getAnnotations())) {
+                    return null;
+                }
+            }
+            for (Field champ : type.getDeclaredFields()) {
+                // Non-public injected fields are not bound here
+                if (!Modifier.isPublic(champ.getModifiers()) && jaxrs(champ.getAnnotations())) {
+                    return null;
+                }
+            }
+            return champs;
+        }
+
+        private static String nom(String valeur, Parameter parameter) {
+            return !valeur.isEmpty() ? valeur : parameter.isNamePresent() ? parameter.getName() : "";
+        }
+
+        private static boolean jaxrs(Parameter parameter) {
+            return jaxrs(parameter.getAnnotations());
+        }
+
+        private static boolean jaxrs(Annotation[] annotations) {
+            for (Annotation annotation : annotations) {
+                String paquet = annotation.annotationType().getPackageName();
+                boolean http = paquet.equals("jakarta.ws.rs") || paquet.equals("jakarta.ws.rs.core") || paquet.startsWith("org.jboss.resteasy.reactive");
+                if (http && annotation.annotationType() != DefaultValue.class) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
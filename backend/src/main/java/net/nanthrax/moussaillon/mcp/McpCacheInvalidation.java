@@ -0,0 +1,27 @@
+package net.nanthrax.moussaillon.mcp;
+
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+
+/**
+ * Drops the cached MCP reads of a resource root when the REST API successfully writes to it.
+ */
+public class McpCacheInvalidation {
+
+    @Inject
+    McpResultCache cache;
+
+    @ServerResponseFilter
+    public void invalider(ContainerRequestContext request, ContainerResponseContext response) {
+        String method = request.getMethod();
+        if ("GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method) || response.getStatus() >= 400) {
+            return;
+        }
+        String path = request.getUriInfo().getPath();
+        cache.invalider(path.startsWith("/") ? path : "/" + path);
+    }
+
+}
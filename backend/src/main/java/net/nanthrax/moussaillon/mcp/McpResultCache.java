@@ -0,0 +1,72 @@
+package net.nanthrax.moussaillon.mcp;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import net.nanthrax.moussaillon.services.ExpiringCache;
+
+/**
+ * Results of the read-only MCP API calls, keyed by path and query. A write to a resource
+ * root (through MCP or the REST API) drops the cached reads of that root; any other read
+ * expires after {@code mcp.cache.ttl}.
+ */
+@ApplicationScoped
+public class McpResultCache {
+
+    @ConfigProperty(name = "mcp.cache.ttl", defaultValue = "30s")
+    Duration ttl;
+
+    @ConfigProperty(name = "mcp.cache.max-entries", defaultValue = "500")
+    int maxEntries;
+
+    private ExpiringCache<Cle, String> cache;
+
+    private record Cle(String racine, String path, String query) {}
+
+    @PostConstruct
+    void init() {
+        cache = new ExpiringCache<>(ttl, maxEntries);
+    }
+
+    public String get(String path, Map<?, ?> query) {
+        String racine = McpServerResource.racine(path);
+        return racine != null ? cache.get(new Cle(racine, path, canonique(query))) : null;
+    }
+
+    public void put(String path, Map<?, ?> query, String result) {
+        String racine = McpServerResource.racine(path);
+        if (racine != null) {
+            cache.put(new Cle(racine, path, canonique(query)), result);
+        }
+    }
+
+    public void invalider(String path) {
+        String racine = McpServerResource.racine(path);
+        if (racine != null) {
+            cache.invalidate(cle -> cle.racine().equals(racine));
+        }
+    }
+
+    public ExpiringCache.Stats stats() {
+        return cache.stats();
+    }
+
+    private static String canonique(Map<?, ?> query) {
+        if (query == null || query.isEmpty()) {
+            return "";
+        }
+        Map<String, String> trie = new TreeMap<>();
+        for (Map.Entry<?, ?> entry : query.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                trie.put(entry.getKey().toString(), entry.getValue().toString());
+            }
+        }
+        return trie.toString();
+    }
+
+}
@@ -1,10 +1,8 @@
 package net.nanthrax.moussaillon.mcp;
 
 import java.io.UnsupportedEncodingException;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -23,14 +21,17 @@ import java.util.stream.Collectors;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import net.nanthrax.moussaillon.services.ExpiringCache;
 
 @Path("/mcp")
 @ApplicationScoped
@@ -73,6 +74,15 @@ public class McpServerResource {
     @ConfigProperty(name = "quarkus.http.port", defaultValue = "8080")
     int backendPort;
 
+    @Inject
+    McpApiDispatcher dispatcher;
+
+    @Inject
+    McpResultCache resultCache;
+
+    // Tool result already serialized to JSON
+    private record JsonBrut(String json) {}
+
     @POST
     public Response handle(Map<String, Object> request) {
         Object id = request.get("id");
@@ -94,7 +104,11 @@ public class McpServerResource {
                 return Response.ok(jsonRpcResult(id, toolsListResult())).build();
             }
             if ("tools/call".equals(method)) {
-                return Response.ok(jsonRpcResult(id, toolsCallResult(params))).build();
+                Object result = toolsCallResult(params);
+                if (result instanceof JsonBrut brut) {
+                    return Response.ok(jsonRpcResultBrut(id, brut.json())).build();
+                }
+                return Response.ok(jsonRpcResult(id, result)).build();
             }
             return Response.ok(jsonRpcError(id, -32601, "Method not found: " + method, null)).build();
         } catch (IllegalArgumentException ex) {
@@ -104,6 +118,12 @@ public class McpServerResource {
         }
     }
 
+    @GET
+    @Path("/cache")
+    public ExpiringCache.Stats cache() {
+        return resultCache.stats();
+    }
+
     private Map<String, Object> initializeResult() {
         Map<String, Object> serverInfo = new LinkedHashMap<String, Object>();
         serverInfo.put("name", "moussaillon-quarkus-mcp");
@@ -178,7 +198,7 @@ public class McpServerResource {
         return tool;
     }
 
-    private Map<String, Object> toolsCallResult(Map<String, Object> params) {
+    private Object toolsCallResult(Map<String, Object> params) {
         String toolName = asString(params.get("name"));
         Map<String, Object> arguments = asMapOrEmpty(params.get("arguments"));
 
@@ -193,7 +213,7 @@ public class McpServerResource {
         throw new IllegalArgumentException("Unknown tool: " + toolName);
     }
 
-    private Map<String, Object> callApiResource(Map<String, Object> arguments) {
+    private Object callApiResource(Map<String, Object> arguments) {
         String rawMethod = asString(arguments.get("method"));
         if (rawMethod == null || rawMethod.trim().isEmpty()) {
             throw new IllegalArgumentException("Field 'method' is required");
@@ -215,6 +235,43 @@ public class McpServerResource {
             throw new IllegalArgumentException("Path not allowed by MCP API whitelist: " + path);
         }
 
+        Map<?, ?> query = asMapOrNull(arguments.get("query"));
+        boolean lecture = "GET".equals(method);
+        if (lecture) {
+            String cached = resultCache.get(path, query);
+            if (cached != null) {
+                return new JsonBrut(cached);
+            }
+        }
+
+        McpApiDispatcher.Resultat resultat = dispatcher.appeler(method, path, query, arguments.get("body"));
+        if (resultat == null) {
+            resultat = loopback(method, path, arguments);
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("status", Integer.valueOf(resultat.status()));
+        payload.put("path", path);
+        payload.put("method", method);
+        payload.put("body", resultat.entity());
+
+        // The entity is serialized once, then embedded both as text and as structured content
+        String json = jsonb.toJson(payload);
+        String result = "{\"content\":[{\"type\":\"text\",\"text\":" + jsonb.toJson(json) + "}],"
+                + "\"structuredContent\":" + json + ","
+                + "\"isError\":" + (resultat.status() >= 400) + "}";
+        if (resultat.status() < 400) {
+            if (lecture) {
+                resultCache.put(path, query, result);
+            } else {
+                // In-process writes do not go through the response filters
+                resultCache.invalider(path);
+            }
+        }
+        return new JsonBrut(result);
+    }
+
+    private McpApiDispatcher.Resultat loopback(String method, String path, Map<String, Object> arguments) {
         String url = "http://127.0.0.1:" + backendPort + path + buildQueryString(arguments.get("query"));
         HttpURLConnection connection = null;
         try {
@@ -239,24 +296,7 @@ public class McpServerResource {
 
             int status = connection.getResponseCode();
             String responseBody = readResponseBody(connection, status);
-            Object parsedBody = parseJsonOrText(responseBody);
-
-            Map<String, Object> payload = new LinkedHashMap<String, Object>();
-            payload.put("status", Integer.valueOf(status));
-            payload.put("path", path);
-            payload.put("method", method);
-            payload.put("body", parsedBody);
-
-            Map<String, Object> result = new LinkedHashMap<String, Object>();
-            List<Map<String, Object>> content = new ArrayList<Map<String, Object>>();
-            Map<String, Object> text = new LinkedHashMap<String, Object>();
-            text.put("type", "text");
-            text.put("text", jsonb.toJson(payload));
-            content.add(text);
-            result.put("content", content);
-            result.put("structuredContent", payload);
-            result.put("isError", Boolean.valueOf(status >= 400));
-            return result;
+            return new McpApiDispatcher.Resultat(status, parseJsonOrText(responseBody));
         } catch (IOException e) {
             throw new IllegalStateException("Failed to call backend API: " + e.getMessage(), e);
         } finally {
@@ -272,26 +312,28 @@ public class McpServerResource {
             return "";
         }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
         try {
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                body.append(line);
-            }
-            return body.toString();
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
         } finally {
-            reader.close();
+            inputStream.close();
         }
     }
 
     private boolean isWhitelistedPath(String path) {
+        return racine(path) != null;
+    }
+
+    /**
+     * Returns the whitelisted resource root of a path, or null when it is not exposed.
+     */
+    static String racine(String path) {
+        String racine = null;
         for (String root : SERVICE_ROOT_PATHS) {
-            if (path.equals(root) || path.startsWith(root + "/")) {
-                return true;
+            if ((path.equals(root) || path.startsWith(root + "/")) && (racine == null || root.length() > racine.length())) {
+                racine = root;
             }
         }
-        return false;
+        return racine;
     }
 
     private String buildQueryString(Object queryObject) {
@@ -353,6 +395,10 @@ public class McpServerResource {
         return Collections.emptyMap();
     }
 
+    private Map<?, ?> asMapOrNull(Object value) {
+        return value instanceof Map<?, ?> ? (Map<?, ?>) value : null;
+    }
+
     private Map<String, Object> toolTextResult(String text) {
         Map<String, Object> textNode = new LinkedHashMap<String, Object>();
         textNode.put("type", "text");
@@ -374,6 +420,10 @@ public class McpServerResource {
         return response;
     }
 
+    private String jsonRpcResultBrut(Object id, String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + (id == null ? "null" : jsonb.toJson(id)) + ",\"result\":" + result + "}";
+    }
+
     private Map<String, Object> jsonRpcError(Object id, int code, String message, Object data) {
         Map<String, Object> error = new LinkedHashMap<String, Object>();
         error.put("code", Integer.valueOf(code));
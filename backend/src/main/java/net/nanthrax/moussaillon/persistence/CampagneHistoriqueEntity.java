@@ -19,6 +19,10 @@ public class CampagneHistoriqueEntity extends PanacheEntity {
 
     public int nombreDestinataires;
 
+    public int nombreEnvoyes;
+
+    public int nombreEchecs;
+
     public String statut;
 
     @Column(length = 2000)
@@ -5,11 +5,14 @@ import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 
 import java.sql.Timestamp;
 
 @Entity
+@Table(indexes = @Index(name = "idx_email_sequence_historique_cible", columnList = "cible, cibleId, etape_id"))
 public class EmailSequenceHistoriqueEntity extends PanacheEntity {
 
     @Enumerated(EnumType.STRING)
@@ -1,12 +1,16 @@
 package net.nanthrax.moussaillon.persistence;
 
+import org.hibernate.jpa.HibernateHints;
+
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EnumType;
 import jakarta.persistence.Enumerated;
 
 @Entity
+@Cacheable
 public class EmailTemplateEntity extends PanacheEntity {
 
     public enum Type {
@@ -28,7 +32,8 @@ public class EmailTemplateEntity extends PanacheEntity {
     public String description;
 
     public static EmailTemplateEntity findByType(Type type) {
-        return find("type", type).firstResult();
+        // Read on every email sent: served from the query cache until a template is written
+        return find("type", type).withHint(HibernateHints.HINT_CACHEABLE, true).firstResult();
     }
 
 }
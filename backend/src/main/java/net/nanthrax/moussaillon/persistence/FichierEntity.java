@@ -0,0 +1,46 @@
+package net.nanthrax.moussaillon.persistence;
+
+import java.sql.Timestamp;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Metadata of a file stored under the data directory, resolved once at upload time.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_fichier_repertoire_nom", columnNames = { "repertoire", "nom" }),
+        indexes = @Index(name = "idx_fichier_sha256", columnList = "repertoire, sha256"))
+public class FichierEntity extends PanacheEntity {
+
+    // "images" or "documents"
+    @Column(nullable = false)
+    public String repertoire;
+
+    // Stored file name, as found in the URLs
+    @Column(nullable = false)
+    public String nom;
+
+    // Content hash, also the base of the stored name for the files uploaded since it exists
+    public String sha256;
+
+    public String nomOriginal;
+
+    @Column(nullable = false)
+    public String contentType;
+
+    public long taille;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp dateCreation;
+
+    public static FichierEntity findByNom(String repertoire, String nom) {
+        return find("repertoire = ?1 and nom = ?2", repertoire, nom).firstResult();
+    }
+
+}
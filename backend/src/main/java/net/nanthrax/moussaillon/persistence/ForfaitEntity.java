@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.ArrayList;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.ManyToMany;
@@ -11,6 +12,7 @@ import jakarta.persistence.OneToMany;
 import jakarta.persistence.JoinColumn;
 
 @Entity
+@Cacheable
 public class ForfaitEntity extends PanacheEntity {
 
     public String nom;
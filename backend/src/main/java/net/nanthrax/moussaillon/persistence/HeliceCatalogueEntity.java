@@ -6,11 +6,13 @@ import java.util.List;
 import jakarta.json.bind.annotation.JsonbTransient;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.Entity;
 
 @Entity
+@Cacheable
 public class HeliceCatalogueEntity extends PanacheEntity {
 
     @Column(nullable = false)
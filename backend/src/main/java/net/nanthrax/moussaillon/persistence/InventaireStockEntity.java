@@ -0,0 +1,28 @@
+package net.nanthrax.moussaillon.persistence;
+
+import java.sql.Timestamp;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * Stock of a produit at the date of a periodic inventory, computed from the movement ledger.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_inventaire_stock_date", columnList = "date, produitId"))
+public class InventaireStockEntity extends PanacheEntity {
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    @Column(nullable = false)
+    public Timestamp date;
+
+    @Column(nullable = false)
+    public long produitId;
+
+    public int stock;
+
+}
@@ -0,0 +1,35 @@
+package net.nanthrax.moussaillon.persistence;
+
+import java.sql.Timestamp;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+
+@Entity
+public class JobCheckpointEntity extends PanacheEntity {
+
+    @Column(nullable = false, unique = true)
+    public String nom;
+
+    // Last id fully processed by the current run
+    public long dernierId;
+
+    public boolean termine;
+
+    public int traites;
+
+    public int envoyes;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp dateDebut;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp dateMaj;
+
+    public static JobCheckpointEntity findByNom(String nom) {
+        return find("nom", nom).firstResult();
+    }
+
+}
@@ -0,0 +1,71 @@
+package net.nanthrax.moussaillon.persistence;
+
+import java.sql.Timestamp;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.json.bind.annotation.JsonbTransient;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Index;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_mail_outbox_statut", columnList = "statut, prochainEssai"),
+        @Index(name = "idx_mail_outbox_historique", columnList = "campagneHistorique_id")
+})
+public class MailOutboxEntity extends PanacheEntity {
+
+    public enum Statut {
+        EN_ATTENTE,
+        EN_COURS,
+        ENVOYE,
+        ECHEC
+    }
+
+    public enum Origine {
+        CAMPAGNE,
+        RAPPEL,
+        SEQUENCE
+    }
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    public Statut statut = Statut.EN_ATTENTE;
+
+    @Enumerated(EnumType.STRING)
+    public Origine origine;
+
+    @JsonbTransient
+    @ManyToOne
+    public CampagneHistoriqueEntity campagneHistorique;
+
+    @Column(nullable = false)
+    public String destinataire;
+
+    public String sujet;
+
+    // Rendered body: longer than the template it comes from once the variables are substituted
+    @JsonbTransient
+    @Column(columnDefinition = "TEXT")
+    public String contenu;
+
+    public int tentatives;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp dateCreation;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp prochainEssai;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    public Timestamp dateEnvoi;
+
+    @Column(length = 2000)
+    public String erreur;
+
+}
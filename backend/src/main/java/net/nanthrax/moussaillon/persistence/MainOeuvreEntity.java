@@ -1,9 +1,11 @@
 package net.nanthrax.moussaillon.persistence;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Entity;
 
 @Entity
+@Cacheable
 public class MainOeuvreEntity extends PanacheEntity {
 
     public String nom;
@@ -0,0 +1,25 @@
+package net.nanthrax.moussaillon.persistence;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * Id given by an NDJSON import to a row that did not exist under its exported id, so that
+ * the references of the files imported next, and later imports of the same row, follow it.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"entite", "ancienId"}))
+public class MigrationIdEntity extends PanacheEntity {
+
+    // Simple name of the entity class
+    @Column(nullable = false)
+    public String entite;
+
+    public long ancienId;
+
+    public long nouvelId;
+
+}
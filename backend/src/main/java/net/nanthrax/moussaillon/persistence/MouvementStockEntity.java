@@ -0,0 +1,48 @@
+package net.nanthrax.moussaillon.persistence;
+
+import java.sql.Timestamp;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(indexes = {
+        @Index(name = "idx_mouvement_stock_produit_date", columnList = "produitId, date"),
+        @Index(name = "idx_mouvement_stock_date", columnList = "date")
+})
+public class MouvementStockEntity extends PanacheEntity {
+
+    public enum Motif {
+        OUVERTURE,
+        VENTE,
+        RECEPTION,
+        AJUSTEMENT,
+        IMPORT
+    }
+
+    // Plain id rather than a relation: the ledger outlives the deleted produits
+    @Column(nullable = false)
+    public long produitId;
+
+    public int quantite;
+
+    // Stock of the produit right after the movement
+    public int stock;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    public Motif motif;
+
+    public String reference;
+
+    @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+    @Column(nullable = false)
+    public Timestamp date;
+
+}
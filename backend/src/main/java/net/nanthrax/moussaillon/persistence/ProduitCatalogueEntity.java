@@ -1,13 +1,18 @@
 package net.nanthrax.moussaillon.persistence;
 
+import org.hibernate.annotations.ColumnDefault;
+
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.Version;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
+@Cacheable
 public class ProduitCatalogueEntity extends PanacheEntity {
 
     @Column(nullable = false, unique = true)
@@ -52,4 +57,9 @@ public class ProduitCatalogueEntity extends PanacheEntity {
 
     public double prixVenteTTC;
 
+    // Bumped by every change, stock movements included (see StockLedger)
+    @Version
+    @ColumnDefault("0")
+    public long version;
+
 }
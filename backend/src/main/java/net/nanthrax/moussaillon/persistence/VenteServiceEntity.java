@@ -10,7 +10,9 @@ import jakarta.json.bind.annotation.JsonbTypeAdapter;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Entity;
 import jakarta.persistence.FetchType;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
+import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
@@ -24,6 +26,7 @@ public class VenteServiceEntity extends PanacheEntity {
     public int quantite;
 
     @ManyToMany(fetch = FetchType.EAGER)
+    @JoinTable(indexes = @Index(name = "idx_vente_service_technicien", columnList = "techniciens_id"))
     public List<TechnicienEntity> techniciens = new ArrayList<>();
 
     @JsonbTypeAdapter(TimestampJsonbAdapter.class)
@@ -1,33 +1,51 @@
 package net.nanthrax.moussaillon.services;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.net.URI;
 import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.ResponseHeader;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
+import io.smallrye.mutiny.Multi;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import net.nanthrax.moussaillon.services.AiChatStreams.AnthropicStreamState;
+import net.nanthrax.moussaillon.services.AiChatStreams.ChatStream;
+import net.nanthrax.moussaillon.services.AiChatStreams.OpenAiStreamState;
+import net.nanthrax.moussaillon.services.AiChatStreams.SseSubscriber;
 
 @Path("/ai/chat")
 @ApplicationScoped
@@ -50,51 +68,212 @@ public class AiChatResource {
     @ConfigProperty(name = "ai.anthropic.model", defaultValue = "claude-haiku-4-5-20251001")
     String anthropicModel;
 
+    @ConfigProperty(name = "ai.openai.base-url", defaultValue = "https://api.openai.com")
+    String openAiBaseUrl;
+
+    @ConfigProperty(name = "ai.anthropic.base-url", defaultValue = "https://api.anthropic.com")
+    String anthropicBaseUrl;
+
     @ConfigProperty(name = "ai.anthropic.mcp.enabled", defaultValue = "true")
     boolean anthropicMcpEnabled;
 
+    // MCP server called for the tools; this backend's own /mcp when not set
+    @ConfigProperty(name = "ai.anthropic.mcp.endpoint")
+    Optional<String> mcpEndpoint;
+
+    // Beyond this age the MCP tool list is checked again; the converted schema is only rebuilt when it changed
+    @ConfigProperty(name = "ai.anthropic.mcp.tools-max-age", defaultValue = "10m")
+    Duration mcpToolsMaxAge;
+
+    @ConfigProperty(name = "ai.http.connect-timeout", defaultValue = "10s")
+    Duration connectTimeout;
+
+    @ConfigProperty(name = "ai.http.request-timeout", defaultValue = "120s")
+    Duration requestTimeout;
+
+    // Final answers to the same question (case, accents and punctuation aside) are reused for a short while
+    @ConfigProperty(name = "ai.cache.enabled", defaultValue = "false")
+    boolean answerCacheEnabled;
+
+    @ConfigProperty(name = "ai.cache.ttl", defaultValue = "2m")
+    Duration answerCacheTtl;
+
+    @ConfigProperty(name = "ai.cache.max-entries", defaultValue = "200")
+    int answerCacheMaxEntries;
+
     @ConfigProperty(name = "quarkus.http.port", defaultValue = "8080")
     int backendPort;
 
     private final Jsonb jsonb = JsonbBuilder.create();
 
+    private HttpClient httpClient;
+
+    private volatile McpTools mcpTools;
+
+    private CompletableFuture<McpTools> mcpToolsRefresh;
+
+    private ExpiringCache<String, Map<String, Object>> answers;
+
+    private record McpTools(List<Map<String, Object>> anthropicTools, String fingerprint, long loadedAt) {}
+
+    @PostConstruct
+    void init() {
+        answers = new ExpiringCache<>(answerCacheTtl, answerCacheMaxEntries);
+    }
+
+    @GET
+    @Path("/cache")
+    public ExpiringCache.Stats cache() {
+        return answers.stats();
+    }
+
     @POST
-    public Response chat(Map<String, Object> request) {
+    public CompletionStage<Response> chat(Map<String, Object> request) {
         String provider = asString(request.get("provider"));
         String message = asString(request.get("message"));
 
         if (provider == null || provider.trim().isEmpty()) {
-            return errorResponse(400, "INVALID_REQUEST", "Le champ 'provider' est requis", null);
+            return CompletableFuture.completedFuture(errorResponse(400, "INVALID_REQUEST", "Le champ 'provider' est requis", null));
         }
         if (message == null || message.trim().isEmpty()) {
-            return errorResponse(400, "INVALID_REQUEST", "Le champ 'message' est requis", provider);
+            return CompletableFuture.completedFuture(errorResponse(400, "INVALID_REQUEST", "Le champ 'message' est requis", provider));
+        }
+
+        String normalizedProvider = provider.trim().toLowerCase();
+        String cacheKey = answerCacheKey(normalizedProvider, message);
+        Map<String, Object> cached = cacheKey != null ? answers.get(cacheKey) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Response.ok(cached).build());
         }
 
+        CompletableFuture<Map<String, Object>> answer;
         try {
-            String normalizedProvider = provider.trim().toLowerCase();
             if ("openai".equals(normalizedProvider)) {
-                return Response.ok(callOpenAi(message)).build();
+                answer = callOpenAi(message);
+            } else if ("anthropic".equals(normalizedProvider)) {
+                answer = callAnthropic(message);
+            } else {
+                return CompletableFuture.completedFuture(errorResponse(400, "INVALID_PROVIDER",
+                        "Provider inconnu: " + provider + ". Utilisez 'openai' ou 'anthropic'.", provider));
+            }
+        } catch (Exception e) {
+            answer = CompletableFuture.failedFuture(e);
+        }
+
+        return answer.handle((response, error) -> {
+            if (error != null) {
+                return failureResponse(error, provider);
             }
-            if ("anthropic".equals(normalizedProvider)) {
-                return Response.ok(callAnthropic(message)).build();
+            if (cacheKey != null) {
+                answers.put(cacheKey, response);
+            }
+            return Response.ok(response).build();
+        });
+    }
+
+    /**
+     * Same conversation as {@link #chat}, streamed as Server-Sent Events: "token" events carry
+     * the text as the provider produces it, "tool_call"/"tool_result" events the MCP round
+     * trips, and the stream ends with a "done" event holding the full answer, or "error".
+     */
+    @POST
+    @Path("/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @ResponseHeader(name = "X-Accel-Buffering", value = "no")
+    public Multi<Map<String, Object>> stream(Map<String, Object> request) {
+        String provider = asString(request.get("provider"));
+        String message = asString(request.get("message"));
+
+        if (provider == null || provider.trim().isEmpty()) {
+            throw new WebApplicationException(errorResponse(400, "INVALID_REQUEST", "Le champ 'provider' est requis", null));
+        }
+        if (message == null || message.trim().isEmpty()) {
+            throw new WebApplicationException(errorResponse(400, "INVALID_REQUEST", "Le champ 'message' est requis", provider));
+        }
+        String normalizedProvider = provider.trim().toLowerCase();
+        if (!"openai".equals(normalizedProvider) && !"anthropic".equals(normalizedProvider)) {
+            throw new WebApplicationException(errorResponse(400, "INVALID_PROVIDER",
+                    "Provider inconnu: " + provider + ". Utilisez 'openai' ou 'anthropic'.", provider));
+        }
+
+        String cacheKey = answerCacheKey(normalizedProvider, message);
+        Map<String, Object> cached = cacheKey != null ? answers.get(cacheKey) : null;
+        if (cached != null) {
+            Map<String, Object> done = event("done");
+            done.putAll(cached);
+            return Multi.createFrom().item(done);
+        }
+
+        return Multi.createFrom().emitter(emitter -> {
+            ChatStream stream = new ChatStream(emitter);
+            emitter.onTermination(stream::cancel);
+
+            CompletableFuture<Map<String, Object>> answer;
+            try {
+                answer = "openai".equals(normalizedProvider) ? streamOpenAi(message, stream) : streamAnthropic(message, stream);
+            } catch (Exception e) {
+                answer = CompletableFuture.failedFuture(e);
             }
-            return errorResponse(400, "INVALID_PROVIDER",
-                    "Provider inconnu: " + provider + ". Utilisez 'openai' ou 'anthropic'.", provider);
-        } catch (WebApplicationException e) {
+            answer.whenComplete((response, error) -> {
+                if (error == null) {
+                    if (cacheKey != null) {
+                        answers.put(cacheKey, response);
+                    }
+                    Map<String, Object> done = event("done");
+                    done.putAll(response);
+                    stream.emit(done);
+                } else if (!stream.isCancelled()) {
+                    Response failure = failureResponse(error, provider);
+                    Map<String, Object> event = event("error");
+                    event.putAll(asMapOrEmpty(failure.getEntity()));
+                    stream.emit(event);
+                }
+                stream.complete();
+            });
+        });
+    }
+
+    /**
+     * Key of the answer cache: the provider and the question stripped of case, accents and
+     * punctuation, so that "Stock bas ?" and "stock bas" share their answer. Null when the
+     * cache is disabled.
+     */
+    private String answerCacheKey(String provider, String message) {
+        if (!answerCacheEnabled) {
+            return null;
+        }
+        String normalized = Normalizer.normalize(message.toLowerCase(Locale.ROOT), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .replaceAll("[^a-z0-9]+", " ")
+                .trim();
+        return provider + "|" + normalized;
+    }
+
+    private Response failureResponse(Throwable error, String provider) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof WebApplicationException e) {
             int status = e.getResponse() != null ? e.getResponse().getStatus() : 500;
             String detail = extractExceptionMessage(e);
             LOG.errorf("AI chat error status=%d provider=%s detail=%s", Integer.valueOf(status), provider, detail);
             return errorResponse(status, "AI_PROVIDER_ERROR", detail, provider);
-        } catch (Exception e) {
-            String traceId = UUID.randomUUID().toString();
-            LOG.errorf(e, "AI chat unexpected error traceId=%s provider=%s", traceId, provider);
-            return errorResponse(500, "AI_INTERNAL_ERROR",
-                    "Erreur interne IA [traceId=" + traceId + ", detail=" + sanitizeBodyForMessage(e.getMessage()) + "]",
-                    provider);
         }
+        String traceId = UUID.randomUUID().toString();
+        LOG.errorf(cause, "AI chat unexpected error traceId=%s provider=%s", traceId, provider);
+        return errorResponse(500, "AI_INTERNAL_ERROR",
+                "Erreur interne IA [traceId=" + traceId + ", detail=" + sanitizeBodyForMessage(cause.getMessage()) + "]",
+                provider);
     }
 
-    private Map<String, Object> callOpenAi(String userMessage) {
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private CompletableFuture<Map<String, Object>> callOpenAi(String userMessage) {
         if (openAiApiKey == null || openAiApiKey.trim().isEmpty()) {
             throw new WebApplicationException("La clé OpenAI est absente (ai.openai.api-key)", 500);
         }
@@ -116,78 +295,225 @@ public class AiChatResource {
         payload.put("temperature", Double.valueOf(0.2));
         payload.put("messages", messages);
 
-        String responseBody = callJsonApi(
-                "https://api.openai.com/v1/chat/completions",
-                "POST",
+        return callJsonApi(
+                openAiBaseUrl + "/v1/chat/completions",
+                payload,
+                buildHeaders("Authorization", "Bearer " + openAiApiKey))
+                .thenApply(responseBody -> {
+                    String answer = extractOpenAiAnswer(fromJsonMap(responseBody));
+
+                    Map<String, Object> response = new LinkedHashMap<String, Object>();
+                    response.put("provider", "openai");
+                    response.put("model", openAiModel);
+                    response.put("answer", answer);
+                    return response;
+                });
+    }
+
+    private CompletableFuture<Map<String, Object>> callAnthropic(String userMessage) {
+        if (anthropicApiKey == null || anthropicApiKey.trim().isEmpty()) {
+            throw new WebApplicationException("La clé Anthropic est absente (ai.anthropic.api-key)", 500);
+        }
+
+        CompletableFuture<List<Map<String, Object>>> tools = anthropicMcpEnabled
+                ? anthropicTools()
+                : CompletableFuture.completedFuture(Collections.<Map<String, Object>>emptyList());
+
+        List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
+        messages.add(buildAnthropicTextMessage("user", userMessage));
+
+        return tools.thenCompose(anthropicTools -> anthropicRound(messages, anthropicTools, 0));
+    }
+
+    private CompletableFuture<Map<String, Object>> anthropicRound(List<Map<String, Object>> messages, List<Map<String, Object>> tools, int round) {
+        if (round > MAX_MCP_TOOL_ROUNDS) {
+            return CompletableFuture.failedFuture(new WebApplicationException(
+                    "Limite de tours outils MCP atteinte sans réponse finale (MAX_MCP_TOOL_ROUNDS=" + MAX_MCP_TOOL_ROUNDS + ")",
+                    502));
+        }
+
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("model", anthropicModel);
+        payload.put("max_tokens", Integer.valueOf(700));
+        payload.put("system", AI_SYSTEM_PROMPT);
+        payload.put("messages", messages);
+        if (!tools.isEmpty()) {
+            payload.put("tools", tools);
+        }
+
+        return callJsonApi(
+                anthropicBaseUrl + "/v1/messages",
                 payload,
-                buildHeaders("Authorization", "Bearer " + openAiApiKey));
+                buildHeaders(
+                        "x-api-key", anthropicApiKey,
+                        "anthropic-version", "2023-06-01"))
+                .thenCompose(responseBody -> {
+                    Map<String, Object> parsed = fromJsonMap(responseBody);
+                    List<Map<String, Object>> toolUses = extractAnthropicToolUses(parsed);
+                    if (toolUses.isEmpty()) {
+                        String answer = extractAnthropicAnswer(parsed);
+
+                        Map<String, Object> response = new LinkedHashMap<String, Object>();
+                        response.put("provider", "anthropic");
+                        response.put("model", anthropicModel);
+                        response.put("answer", answer);
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    List<Map<String, Object>> assistantBlocks = asListOfMaps(parsed.get("content"));
+                    if (!assistantBlocks.isEmpty()) {
+                        messages.add(buildAnthropicBlocksMessage("assistant", assistantBlocks));
+                    }
+
+                    // The tool calls of a round are independent, they run concurrently
+                    List<CompletableFuture<Map<String, Object>>> toolResults = new ArrayList<CompletableFuture<Map<String, Object>>>();
+                    for (Map<String, Object> toolUse : toolUses) {
+                        toolResults.add(invokeMcpToolAndBuildResultBlock(toolUse));
+                    }
+                    return CompletableFuture.allOf(toolResults.toArray(new CompletableFuture[0])).thenCompose(done -> {
+                        List<Map<String, Object>> toolResultBlocks = new ArrayList<Map<String, Object>>();
+                        for (CompletableFuture<Map<String, Object>> toolResult : toolResults) {
+                            toolResultBlocks.add(toolResult.join());
+                        }
+                        messages.add(buildAnthropicBlocksMessage("user", toolResultBlocks));
+                        return anthropicRound(messages, tools, round + 1);
+                    });
+                });
+    }
+
+    private CompletableFuture<Map<String, Object>> streamOpenAi(String userMessage, ChatStream stream) {
+        if (openAiApiKey == null || openAiApiKey.trim().isEmpty()) {
+            throw new WebApplicationException("La clé OpenAI est absente (ai.openai.api-key)", 500);
+        }
+
+        Map<String, Object> system = new LinkedHashMap<String, Object>();
+        system.put("role", "system");
+        system.put("content", AI_SYSTEM_PROMPT);
+
+        Map<String, Object> user = new LinkedHashMap<String, Object>();
+        user.put("role", "user");
+        user.put("content", userMessage);
 
-        Map<String, Object> parsed = fromJsonMap(responseBody);
-        String answer = extractOpenAiAnswer(parsed);
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("model", openAiModel);
+        payload.put("temperature", Double.valueOf(0.2));
+        payload.put("messages", List.of(system, user));
+        payload.put("stream", Boolean.TRUE);
 
-        Map<String, Object> response = new LinkedHashMap<String, Object>();
-        response.put("provider", "openai");
-        response.put("model", openAiModel);
-        response.put("answer", answer);
-        return response;
+        OpenAiStreamState state = new OpenAiStreamState(text -> stream.emit(event("token", "text", text)));
+
+        return callStreamingApi(
+                openAiBaseUrl + "/v1/chat/completions",
+                payload,
+                buildHeaders("Authorization", "Bearer " + openAiApiKey),
+                state,
+                stream)
+                .thenApply(done -> {
+                    String answer = state.text();
+
+                    Map<String, Object> response = new LinkedHashMap<String, Object>();
+                    response.put("provider", "openai");
+                    response.put("model", openAiModel);
+                    response.put("answer", answer.isEmpty() ? "Aucune réponse renvoyée par OpenAI." : answer);
+                    return response;
+                });
     }
 
-    private Map<String, Object> callAnthropic(String userMessage) {
+    private CompletableFuture<Map<String, Object>> streamAnthropic(String userMessage, ChatStream stream) {
         if (anthropicApiKey == null || anthropicApiKey.trim().isEmpty()) {
             throw new WebApplicationException("La clé Anthropic est absente (ai.anthropic.api-key)", 500);
         }
 
-        List<Map<String, Object>> tools = anthropicMcpEnabled ? fetchAnthropicToolsFromMcp() : Collections.emptyList();
+        CompletableFuture<List<Map<String, Object>>> tools = anthropicMcpEnabled
+                ? anthropicTools()
+                : CompletableFuture.completedFuture(Collections.<Map<String, Object>>emptyList());
 
         List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
         messages.add(buildAnthropicTextMessage("user", userMessage));
 
-        Map<String, Object> parsed = new LinkedHashMap<String, Object>();
-        for (int round = 0; round <= MAX_MCP_TOOL_ROUNDS; round++) {
-            Map<String, Object> payload = new LinkedHashMap<String, Object>();
-            payload.put("model", anthropicModel);
-            payload.put("max_tokens", Integer.valueOf(700));
-            payload.put("system", AI_SYSTEM_PROMPT);
-            payload.put("messages", messages);
-            if (!tools.isEmpty()) {
-                payload.put("tools", tools);
-            }
-
-            String responseBody = callJsonApi(
-                    "https://api.anthropic.com/v1/messages",
-                    "POST",
-                    payload,
-                    buildHeaders(
-                            "x-api-key", anthropicApiKey,
-                            "anthropic-version", "2023-06-01"));
-
-            parsed = fromJsonMap(responseBody);
-            List<Map<String, Object>> toolUses = extractAnthropicToolUses(parsed);
-            if (toolUses.isEmpty()) {
-                String answer = extractAnthropicAnswer(parsed);
-
-                Map<String, Object> response = new LinkedHashMap<String, Object>();
-                response.put("provider", "anthropic");
-                response.put("model", anthropicModel);
-                response.put("answer", answer);
-                return response;
-            }
+        return tools.thenCompose(anthropicTools -> streamAnthropicRound(messages, anthropicTools, 0, stream));
+    }
 
-            List<Map<String, Object>> assistantBlocks = asListOfMaps(parsed.get("content"));
-            if (!assistantBlocks.isEmpty()) {
-                messages.add(buildAnthropicBlocksMessage("assistant", assistantBlocks));
-            }
+    private CompletableFuture<Map<String, Object>> streamAnthropicRound(List<Map<String, Object>> messages, List<Map<String, Object>> tools,
+                                                                        int round, ChatStream stream) {
+        if (round > MAX_MCP_TOOL_ROUNDS) {
+            return CompletableFuture.failedFuture(new WebApplicationException(
+                    "Limite de tours outils MCP atteinte sans réponse finale (MAX_MCP_TOOL_ROUNDS=" + MAX_MCP_TOOL_ROUNDS + ")",
+                    502));
+        }
+        if (stream.isCancelled()) {
+            return CompletableFuture.failedFuture(new CancellationException());
+        }
 
-            List<Map<String, Object>> toolResultBlocks = new ArrayList<Map<String, Object>>();
-            for (Map<String, Object> toolUse : toolUses) {
-                toolResultBlocks.add(invokeMcpToolAndBuildResultBlock(toolUse));
-            }
-            messages.add(buildAnthropicBlocksMessage("user", toolResultBlocks));
+        Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("model", anthropicModel);
+        payload.put("max_tokens", Integer.valueOf(700));
+        payload.put("system", AI_SYSTEM_PROMPT);
+        payload.put("messages", messages);
+        payload.put("stream", Boolean.TRUE);
+        if (!tools.isEmpty()) {
+            payload.put("tools", tools);
         }
 
-        throw new WebApplicationException(
-                "Limite de tours outils MCP atteinte sans réponse finale (MAX_MCP_TOOL_ROUNDS=" + MAX_MCP_TOOL_ROUNDS + ")",
-                502);
+        AnthropicStreamState state = new AnthropicStreamState(text -> stream.emit(event("token", "text", text)));
+        return callStreamingApi(
+                anthropicBaseUrl + "/v1/messages",
+                payload,
+                buildHeaders(
+                        "x-api-key", anthropicApiKey,
+                        "anthropic-version", "2023-06-01"),
+                state,
+                stream)
+                .thenCompose(done -> {
+                    if (state.error() != null) {
+                        throw new WebApplicationException("Erreur fournisseur IA [response=" + sanitizeBodyForMessage(state.error()) + "]", 502);
+                    }
+                    List<Map<String, Object>> assistantBlocks = state.contentBlocks();
+                    List<Map<String, Object>> toolUses = new ArrayList<Map<String, Object>>();
+                    for (Map<String, Object> block : assistantBlocks) {
+                        if ("tool_use".equals(asString(block.get("type")))) {
+                            toolUses.add(block);
+                        }
+                    }
+                    if (toolUses.isEmpty()) {
+                        String answer = state.text();
+
+                        Map<String, Object> response = new LinkedHashMap<String, Object>();
+                        response.put("provider", "anthropic");
+                        response.put("model", anthropicModel);
+                        response.put("answer", answer.isEmpty() ? "Aucune réponse renvoyée par Anthropic." : answer);
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    messages.add(buildAnthropicBlocksMessage("assistant", assistantBlocks));
+
+                    List<CompletableFuture<Map<String, Object>>> toolResults = new ArrayList<CompletableFuture<Map<String, Object>>>();
+                    for (Map<String, Object> toolUse : toolUses) {
+                        String toolName = asString(toolUse.get("name"));
+                        stream.emit(event("tool_call", "name", toolName, "input", toolUse.get("input")));
+                        toolResults.add(invokeMcpToolAndBuildResultBlock(toolUse).thenApply(block -> {
+                            stream.emit(event("tool_result", "name", toolName, "isError", Boolean.valueOf(Boolean.TRUE.equals(block.get("is_error")))));
+                            return block;
+                        }));
+                    }
+                    return CompletableFuture.allOf(toolResults.toArray(new CompletableFuture[0])).thenCompose(all -> {
+                        List<Map<String, Object>> toolResultBlocks = new ArrayList<Map<String, Object>>();
+                        for (CompletableFuture<Map<String, Object>> toolResult : toolResults) {
+                            toolResultBlocks.add(toolResult.join());
+                        }
+                        messages.add(buildAnthropicBlocksMessage("user", toolResultBlocks));
+                        return streamAnthropicRound(messages, tools, round + 1, stream);
+                    });
+                });
+    }
+
+    private Map<String, Object> event(String type, Object... items) {
+        Map<String, Object> event = new LinkedHashMap<String, Object>();
+        event.put("type", type);
+        for (int i = 0; i + 1 < items.length; i += 2) {
+            event.put(String.valueOf(items[i]), items[i + 1]);
+        }
+        return event;
     }
 
     private Map<String, Object> buildAnthropicTextMessage(String role, String content) {
@@ -204,19 +530,76 @@ public class AiChatResource {
         return message;
     }
 
-    private List<Map<String, Object>> fetchAnthropicToolsFromMcp() {
+    /**
+     * Returns the MCP tools in the Anthropic format. The schema is kept in memory: past
+     * ai.anthropic.mcp.tools-max-age it is checked again in the background while the cached
+     * one keeps being used, and it is only rebuilt when the tool set actually changed.
+     */
+    private CompletableFuture<List<Map<String, Object>>> anthropicTools() {
+        McpTools cached = mcpTools;
+        if (cached == null) {
+            return refreshMcpTools().thenApply(McpTools::anthropicTools);
+        }
+        if (System.currentTimeMillis() - cached.loadedAt() > mcpToolsMaxAge.toMillis()) {
+            refreshMcpTools().exceptionally(e -> {
+                LOG.warnf("Rafraichissement des outils MCP impossible: %s", sanitizeBodyForMessage(unwrap(e).getMessage()));
+                return null;
+            });
+        }
+        return CompletableFuture.completedFuture(cached.anthropicTools());
+    }
+
+    private synchronized CompletableFuture<McpTools> refreshMcpTools() {
+        if (mcpToolsRefresh != null) {
+            return mcpToolsRefresh;
+        }
+        CompletableFuture<McpTools> refresh = fetchMcpTools().thenApply(tools -> {
+            String fingerprint = jsonb.toJson(tools);
+            McpTools previous = mcpTools;
+            McpTools loaded;
+            if (previous != null && previous.fingerprint().equals(fingerprint)) {
+                loaded = new McpTools(previous.anthropicTools(), fingerprint, System.currentTimeMillis());
+            } else {
+                loaded = new McpTools(toAnthropicTools(tools), fingerprint, System.currentTimeMillis());
+                LOG.infof("Outils MCP charges: %d", Integer.valueOf(loaded.anthropicTools().size()));
+            }
+            mcpTools = loaded;
+            return loaded;
+        });
+        mcpToolsRefresh = refresh;
+        refresh.whenComplete((tools, error) -> {
+            synchronized (this) {
+                if (mcpToolsRefresh == refresh) {
+                    mcpToolsRefresh = null;
+                }
+            }
+        });
+        return refresh;
+    }
+
+    /**
+     * Drops the cached MCP tool schema, loaded again by the next question.
+     */
+    void oublierOutilsMcp() {
+        mcpTools = null;
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> fetchMcpTools() {
         Map<String, Object> request = new LinkedHashMap<String, Object>();
         request.put("jsonrpc", "2.0");
         request.put("id", UUID.randomUUID().toString());
         request.put("method", "tools/list");
         request.put("params", Collections.emptyMap());
 
-        String responseBody = callJsonApi(resolveMcpEndpoint(), "POST", request, Collections.emptyMap());
-        Map<String, Object> response = fromJsonMap(responseBody);
-        ensureMcpNoError(response);
+        return callJsonApi(resolveMcpEndpoint(), request, Collections.emptyMap()).thenApply(responseBody -> {
+            Map<String, Object> response = fromJsonMap(responseBody);
+            ensureMcpNoError(response);
+            Map<String, Object> result = asMapOrEmpty(response.get("result"));
+            return asListOfMaps(result.get("tools"));
+        });
+    }
 
-        Map<String, Object> result = asMapOrEmpty(response.get("result"));
-        List<Map<String, Object>> mcpTools = asListOfMaps(result.get("tools"));
+    private List<Map<String, Object>> toAnthropicTools(List<Map<String, Object>> mcpTools) {
         if (mcpTools.isEmpty()) {
             return Collections.emptyList();
         }
@@ -241,10 +624,10 @@ public class AiChatResource {
             tool.put("input_schema", inputSchema);
             anthropicTools.add(tool);
         }
-        return anthropicTools;
+        return Collections.unmodifiableList(anthropicTools);
     }
 
-    private Map<String, Object> invokeMcpToolAndBuildResultBlock(Map<String, Object> toolUse) {
+    private CompletableFuture<Map<String, Object>> invokeMcpToolAndBuildResultBlock(Map<String, Object> toolUse) {
         String toolUseId = asString(toolUse.get("id"));
         String toolName = asString(toolUse.get("name"));
         Map<String, Object> toolInput = asMapOrEmpty(toolUse.get("input"));
@@ -253,24 +636,29 @@ public class AiChatResource {
         block.put("type", "tool_result");
         block.put("tool_use_id", toolUseId == null ? "" : toolUseId);
 
-        try {
-            Map<String, Object> mcpResult = callMcpTool(toolName, toolInput);
-            block.put("content", jsonb.toJson(mcpResult));
-            if (Boolean.TRUE.equals(mcpResult.get("isError"))) {
-                block.put("is_error", Boolean.TRUE);
+        return callMcpTool(toolName, toolInput).handle((mcpResult, failure) -> {
+            if (failure == null) {
+                block.put("content", jsonb.toJson(mcpResult));
+                if (Boolean.TRUE.equals(mcpResult.get("isError"))) {
+                    block.put("is_error", Boolean.TRUE);
+                }
+                return block;
+            }
+            String detail = unwrap(failure).getMessage();
+            if (detail != null && detail.contains("Unknown tool")) {
+                // The tool set changed on the MCP side: reload it on the next question
+                oublierOutilsMcp();
             }
-            return block;
-        } catch (Exception e) {
             Map<String, Object> error = new LinkedHashMap<String, Object>();
             error.put("isError", Boolean.TRUE);
-            error.put("message", "Erreur invocation MCP: " + sanitizeBodyForMessage(e.getMessage()));
+            error.put("message", "Erreur invocation MCP: " + sanitizeBodyForMessage(detail));
             block.put("is_error", Boolean.TRUE);
             block.put("content", jsonb.toJson(error));
             return block;
-        }
+        });
     }
 
-    private Map<String, Object> callMcpTool(String toolName, Map<String, Object> arguments) {
+    private CompletableFuture<Map<String, Object>> callMcpTool(String toolName, Map<String, Object> arguments) {
         Map<String, Object> params = new LinkedHashMap<String, Object>();
         params.put("name", toolName);
         params.put("arguments", arguments == null ? Collections.emptyMap() : arguments);
@@ -281,18 +669,19 @@ public class AiChatResource {
         request.put("method", "tools/call");
         request.put("params", params);
 
-        String responseBody = callJsonApi(resolveMcpEndpoint(), "POST", request, Collections.emptyMap());
-        Map<String, Object> response = fromJsonMap(responseBody);
-        ensureMcpNoError(response);
+        return callJsonApi(resolveMcpEndpoint(), request, Collections.emptyMap()).thenApply(responseBody -> {
+            Map<String, Object> response = fromJsonMap(responseBody);
+            ensureMcpNoError(response);
 
-        Map<String, Object> result = asMapOrEmpty(response.get("result"));
-        if (result.isEmpty()) {
-            Map<String, Object> empty = new LinkedHashMap<String, Object>();
-            empty.put("isError", Boolean.TRUE);
-            empty.put("message", "Réponse MCP invalide: result absent");
-            return empty;
-        }
-        return result;
+            Map<String, Object> result = asMapOrEmpty(response.get("result"));
+            if (result.isEmpty()) {
+                Map<String, Object> empty = new LinkedHashMap<String, Object>();
+                empty.put("isError", Boolean.TRUE);
+                empty.put("message", "Réponse MCP invalide: result absent");
+                return empty;
+            }
+            return result;
+        });
     }
 
     private void ensureMcpNoError(Map<String, Object> mcpResponse) {
@@ -306,56 +695,106 @@ public class AiChatResource {
     }
 
     private String resolveMcpEndpoint() {
-        String envEndpoint = System.getenv("AI_MCP_ENDPOINT");
-        if (envEndpoint != null && !envEndpoint.trim().isEmpty()) {
-            return envEndpoint.trim();
+        if (mcpEndpoint.isPresent() && !mcpEndpoint.get().isBlank()) {
+            return mcpEndpoint.get().trim();
         }
         return "http://127.0.0.1:" + backendPort + "/mcp";
     }
 
-    private String callJsonApi(String endpoint, String method, Map<String, Object> payload, Map<String, String> headers) {
-        HttpURLConnection connection = null;
+    /**
+     * Posts a JSON payload without holding a thread while the provider answers. All the calls
+     * share one pooled client, which negotiates HTTP/2 with the providers over TLS.
+     */
+    private CompletableFuture<String> callJsonApi(String endpoint, Map<String, Object> payload, Map<String, String> headers) {
         String traceId = UUID.randomUUID().toString();
         String endpointSummary = summarizeEndpoint(endpoint);
-        try {
-            connection = (HttpURLConnection) new URL(endpoint).openConnection();
-            connection.setRequestMethod(method);
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Accept", "application/json");
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                connection.setRequestProperty(header.getKey(), header.getValue());
-            }
 
-            byte[] payloadBytes = jsonb.toJson(payload).getBytes(StandardCharsets.UTF_8);
-            OutputStream outputStream = connection.getOutputStream();
-            try {
-                outputStream.write(payloadBytes);
-                outputStream.flush();
-            } finally {
-                outputStream.close();
-            }
+        HttpRequest request = jsonRequest(endpoint, payload, headers, "application/json");
+        return httpClient().sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw callError(traceId, endpointSummary, error);
+                    }
+                    if (response.statusCode() >= 400) {
+                        throw upstreamError(traceId, endpointSummary, response.statusCode(), response.body());
+                    }
+                    return response.body();
+                });
+    }
 
-            int status = connection.getResponseCode();
-            String body = readResponseBody(connection, status);
-            if (status >= 400) {
-                String message = "Erreur fournisseur IA [traceId=" + traceId
-                        + ", endpoint=" + endpointSummary
-                        + ", upstreamStatus=" + status
-                        + ", response=" + sanitizeBodyForMessage(body) + "]";
-                throw new WebApplicationException(message, 502);
-            }
-            return body;
-        } catch (IOException e) {
-            String message = "Erreur d'appel fournisseur IA [traceId=" + traceId
-                    + ", endpoint=" + endpointSummary
-                    + ", exception=" + e.getClass().getSimpleName()
-                    + ", detail=" + sanitizeBodyForMessage(e.getMessage()) + "]";
-            throw new WebApplicationException(message, 502);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+    /**
+     * Posts a payload asking for a Server-Sent Events answer and hands every event to the
+     * listener as its lines arrive. Completes once the provider closed the stream.
+     */
+    private CompletableFuture<Void> callStreamingApi(String endpoint, Map<String, Object> payload, Map<String, String> headers,
+                                                     BiConsumer<String, String> listener, ChatStream stream) {
+        String traceId = UUID.randomUUID().toString();
+        String endpointSummary = summarizeEndpoint(endpoint);
+
+        HttpRequest request = jsonRequest(endpoint, payload, headers, MediaType.SERVER_SENT_EVENTS);
+        HttpResponse.BodyHandler<Void> handler = info -> info.statusCode() >= 400
+                ? HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8), body -> {
+                    throw upstreamError(traceId, endpointSummary, info.statusCode(), body);
+                })
+                : HttpResponse.BodySubscribers.fromLineSubscriber(new SseSubscriber(listener, stream), subscriber -> null,
+                        StandardCharsets.UTF_8, null);
+        return httpClient().sendAsync(request, handler)
+                .handle((response, error) -> {
+                    if (error != null) {
+                        Throwable cause = unwrap(error);
+                        throw cause instanceof WebApplicationException e ? e : callError(traceId, endpointSummary, cause);
+                    }
+                    return null;
+                });
+    }
+
+    private HttpRequest jsonRequest(String endpoint, Map<String, Object> payload, Map<String, String> headers, String accept) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", accept)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonb.toJson(payload), StandardCharsets.UTF_8));
+        if (endpoint.startsWith("http://")) {
+            // No h2c upgrade dance with the plain HTTP MCP endpoint
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        return builder.build();
+    }
+
+    private WebApplicationException callError(String traceId, String endpointSummary, Throwable error) {
+        Throwable cause = unwrap(error);
+        String message = "Erreur d'appel fournisseur IA [traceId=" + traceId
+                + ", endpoint=" + endpointSummary
+                + ", exception=" + cause.getClass().getSimpleName()
+                + ", detail=" + sanitizeBodyForMessage(cause.getMessage()) + "]";
+        return new WebApplicationException(message, 502);
+    }
+
+    private WebApplicationException upstreamError(String traceId, String endpointSummary, int status, String body) {
+        String message = "Erreur fournisseur IA [traceId=" + traceId
+                + ", endpoint=" + endpointSummary
+                + ", upstreamStatus=" + status
+                + ", response=" + sanitizeBodyForMessage(body) + "]";
+        return new WebApplicationException(message, 502);
+    }
+
+    private synchronized HttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (httpClient != null) {
+            httpClient.shutdownNow();
         }
     }
 
@@ -408,25 +847,6 @@ public class AiChatResource {
         return "Erreur IA sans détails";
     }
 
-    private String readResponseBody(HttpURLConnection connection, int status) throws IOException {
-        InputStream inputStream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
-        if (inputStream == null) {
-            return "";
-        }
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
-        try {
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                body.append(line);
-            }
-            return body.toString();
-        } finally {
-            reader.close();
-        }
-    }
-
     @SuppressWarnings("unchecked")
     private Map<String, Object> fromJsonMap(String content) {
         Object parsed = jsonb.fromJson(content, Object.class);
@@ -0,0 +1,310 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.jboss.logging.Logger;
+
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+
+/**
+ * Streaming side of {@link AiChatResource}: reading the Server-Sent Events of the providers
+ * line by line, rebuilding the answers from their deltas, and relaying them to the client
+ * connection.
+ */
+final class AiChatStreams {
+
+    private static final Logger LOG = Logger.getLogger(AiChatStreams.class);
+
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    private AiChatStreams() {
+    }
+
+    /**
+     * The SSE connection of one streamed chat: serializes the emissions and stops reading
+     * the provider stream when the client goes away.
+     */
+    static final class ChatStream {
+
+        private final MultiEmitter<? super Map<String, Object>> emitter;
+
+        private volatile boolean cancelled;
+
+        private volatile Flow.Subscription subscription;
+
+        ChatStream(MultiEmitter<? super Map<String, Object>> emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized void emit(Map<String, Object> event) {
+            if (!cancelled) {
+                emitter.emit(event);
+            }
+        }
+
+        synchronized void complete() {
+            if (!cancelled) {
+                emitter.complete();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void attach(Flow.Subscription current) {
+            subscription = current;
+            if (cancelled) {
+                current.cancel();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
+    /**
+     * Splits the provider response lines into Server-Sent Events (event name, data).
+     */
+    static final class SseSubscriber implements Flow.Subscriber<String> {
+
+        private final BiConsumer<String, String> listener;
+
+        private final ChatStream stream;
+
+        private final StringBuilder data = new StringBuilder();
+
+        private String event;
+
+        SseSubscriber(BiConsumer<String, String> listener, ChatStream stream) {
+            this.listener = listener;
+            this.stream = stream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            stream.attach(subscription);
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                dispatch();
+                return;
+            }
+            if (line.startsWith(":")) {
+                return;
+            }
+            int colon = line.indexOf(':');
+            String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            if ("event".equals(field)) {
+                event = value;
+            } else if ("data".equals(field)) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // reported through the response future
+        }
+
+        @Override
+        public void onComplete() {
+            dispatch();
+        }
+
+        private void dispatch() {
+            if (data.length() > 0) {
+                try {
+                    listener.accept(event, data.toString());
+                } catch (RuntimeException e) {
+                    LOG.debugf("Evenement IA ignore (%s): %s", event, e.getMessage());
+                }
+            }
+            event = null;
+            data.setLength(0);
+        }
+    }
+
+    /**
+     * Concatenates the text deltas of an OpenAI chat completion stream, forwarding them as
+     * they come; the terminal "[DONE]" carries nothing.
+     */
+    static final class OpenAiStreamState implements BiConsumer<String, String> {
+
+        private final Consumer<String> tokens;
+
+        private final StringBuilder answer = new StringBuilder();
+
+        OpenAiStreamState(Consumer<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public void accept(String name, String data) {
+            if ("[DONE]".equals(data)) {
+                return;
+            }
+            List<Map<String, Object>> choices = asListOfMaps(fromJsonMap(data).get("choices"));
+            if (choices.isEmpty()) {
+                return;
+            }
+            String text = asString(asMapOrEmpty(choices.get(0).get("delta")).get("content"));
+            if (text != null && !text.isEmpty()) {
+                answer.append(text);
+                tokens.accept(text);
+            }
+        }
+
+        String text() {
+            return answer.toString();
+        }
+    }
+
+    /**
+     * Rebuilds the content blocks of an Anthropic message from its stream, forwarding the
+     * text deltas as they come.
+     */
+    static final class AnthropicStreamState implements BiConsumer<String, String> {
+
+        private final Consumer<String> tokens;
+
+        private final Map<Integer, Map<String, Object>> blocks = new TreeMap<Integer, Map<String, Object>>();
+
+        private final Map<Integer, StringBuilder> texts = new HashMap<Integer, StringBuilder>();
+
+        private final Map<Integer, StringBuilder> inputs = new HashMap<Integer, StringBuilder>();
+
+        private String error;
+
+        AnthropicStreamState(Consumer<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public void accept(String name, String data) {
+            Map<String, Object> event = fromJsonMap(data);
+            String type = asString(event.get("type"));
+            Integer index = event.get("index") instanceof Number number ? Integer.valueOf(number.intValue()) : null;
+            if ("content_block_start".equals(type) && index != null) {
+                blocks.put(index, new LinkedHashMap<String, Object>(asMapOrEmpty(event.get("content_block"))));
+            } else if ("content_block_delta".equals(type) && index != null) {
+                Map<String, Object> delta = asMapOrEmpty(event.get("delta"));
+                String deltaType = asString(delta.get("type"));
+                if ("text_delta".equals(deltaType)) {
+                    String text = asString(delta.get("text"));
+                    if (text != null && !text.isEmpty()) {
+                        texts.computeIfAbsent(index, i -> new StringBuilder()).append(text);
+                        tokens.accept(text);
+                    }
+                } else if ("input_json_delta".equals(deltaType)) {
+                    String partial = asString(delta.get("partial_json"));
+                    if (partial != null) {
+                        inputs.computeIfAbsent(index, i -> new StringBuilder()).append(partial);
+                    }
+                }
+            } else if ("error".equals(type)) {
+                error = asString(asMapOrEmpty(event.get("error")).get("message"));
+            }
+        }
+
+        /**
+         * Message of the "error" event the provider sent mid-stream, if any.
+         */
+        String error() {
+            return error;
+        }
+
+        List<Map<String, Object>> contentBlocks() {
+            List<Map<String, Object>> content = new ArrayList<Map<String, Object>>();
+            for (Map.Entry<Integer, Map<String, Object>> entry : blocks.entrySet()) {
+                Map<String, Object> block = entry.getValue();
+                String type = asString(block.get("type"));
+                if ("text".equals(type)) {
+                    StringBuilder text = texts.get(entry.getKey());
+                    if (text == null || text.length() == 0) {
+                        continue;
+                    }
+                    block.put("text", text.toString());
+                } else if ("tool_use".equals(type)) {
+                    StringBuilder input = inputs.get(entry.getKey());
+                    block.put("input", input == null || input.toString().isBlank() ? new LinkedHashMap<String, Object>() : fromJsonMap(input.toString()));
+                }
+                content.add(block);
+            }
+            return content;
+        }
+
+        String text() {
+            StringBuilder answer = new StringBuilder();
+            for (StringBuilder text : new TreeMap<Integer, StringBuilder>(texts).values()) {
+                if (answer.length() > 0) {
+                    answer.append("\n");
+                }
+                answer.append(text);
+            }
+            return answer.toString();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> fromJsonMap(String content) {
+        Object parsed = JSONB.fromJson(content, Object.class);
+        if (!(parsed instanceof Map<?, ?>)) {
+            return new LinkedHashMap<String, Object>();
+        }
+        return (Map<String, Object>) parsed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> asListOfMaps(Object value) {
+        if (!(value instanceof List<?> source)) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> out = new ArrayList<Map<String, Object>>();
+        for (Object item : source) {
+            if (item instanceof Map<?, ?>) {
+                out.add((Map<String, Object>) item);
+            }
+        }
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMapOrEmpty(Object value) {
+        if (value instanceof Map<?, ?>) {
+            return (Map<String, Object>) value;
+        }
+        return Collections.emptyMap();
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+}
@@ -1,5 +1,7 @@
 package net.nanthrax.moussaillon.services;
 
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
@@ -12,23 +14,26 @@ import java.util.List;
 @Consumes(MediaType.APPLICATION_JSON)
 public class BateauCatalogueResource {
 
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
     @GET
-    public List<BateauCatalogueEntity> listAll() {
-        return BateauCatalogueEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(BateauCatalogueEntity.class, page);
     }
 
     @GET
     @Path("/search")
-    public List<BateauCatalogueEntity> search(@QueryParam("q") String q) {
+    public List<BateauCatalogueEntity> search(@QueryParam("q") String q, @QueryParam("limit") Integer limit) {
         if (q == null || q.trim().isEmpty()) {
             return BateauCatalogueEntity.listAll();
         }
-        String likePattern = "%" + q.toLowerCase() + "%";
-        // Search in modele, marque, type, description
-        return BateauCatalogueEntity.list(
-            "LOWER(modele) LIKE ?1 OR LOWER(marque) LIKE ?1 OR LOWER(type) LIKE ?1 OR LOWER(description) LIKE ?1",
-            likePattern
-        );
+        // Ranked on modele, marque, type, description
+        return SearchIndex.ordonner(searchIndex.chercher(SearchIndex.Type.CATALOGUE_BATEAUX, q, limit),
+                ids -> BateauCatalogueEntity.list("id in ?1", ids));
     }
 
     @GET
@@ -46,6 +51,7 @@ public class BateauCatalogueResource {
     public Response create(BateauCatalogueEntity bateauCatalogue) {
         bateauCatalogue.id = null;
         BateauCatalogueEntity.persist(bateauCatalogue);
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.CATALOGUE_BATEAUX, bateauCatalogue));
         return Response.status(Response.Status.CREATED).entity(bateauCatalogue).build();
     }
 
@@ -92,6 +98,7 @@ public class BateauCatalogueResource {
         entity.montantTVA = updatedBateauCatalogue.montantTVA;
         entity.prixVenteTTC = updatedBateauCatalogue.prixVenteTTC;
         entity.fournisseurs = updatedBateauCatalogue.fournisseurs;
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.CATALOGUE_BATEAUX, entity));
         return Response.ok(entity).build();
     }
 
@@ -104,6 +111,7 @@ public class BateauCatalogueResource {
             throw new NotFoundException();
         }
         entity.delete();
+        searchEvents.fire(SearchIndex.Modification.retirer(SearchIndex.Type.CATALOGUE_BATEAUX, id));
         return Response.noContent().build();
     }
 }
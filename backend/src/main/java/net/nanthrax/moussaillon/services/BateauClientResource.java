@@ -1,5 +1,7 @@
 package net.nanthrax.moussaillon.services;
 
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -19,6 +21,12 @@ import java.util.List;
 @Consumes(MediaType.APPLICATION_JSON)
 public class BateauClientResource {
 
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
     @GET
     public List<BateauClientEntity> listAll() {
         return BateauClientEntity.listAll();
@@ -36,12 +44,12 @@ public class BateauClientResource {
 
     @GET
     @Path("/search")
-    public List<BateauClientEntity> search(@QueryParam("q") String q) {
+    public List<BateauClientEntity> search(@QueryParam("q") String q, @QueryParam("limit") Integer limit) {
         if (q == null || q.trim().isEmpty()) {
             return BateauClientEntity.listAll();
         }
-        String likePattern = "%" + q.toLowerCase() + "%";
-        return BateauClientEntity.list("LOWER(name) like ?1 or LOWER(immatriculation) like ?1", likePattern);
+        return SearchIndex.ordonner(searchIndex.chercher(SearchIndex.Type.BATEAUX, q, limit),
+                ids -> BateauClientEntity.list("id in ?1", ids));
     }
 
     @POST
@@ -100,6 +108,7 @@ public class BateauClientResource {
             entity.dateCreation = new Timestamp(System.currentTimeMillis());
         }
         entity.persist();
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.BATEAUX, entity));
         return Response.status(Response.Status.CREATED).entity(entity).build();
     }
 
@@ -179,6 +188,7 @@ public class BateauClientResource {
             entity.equipements = new ArrayList<>();
         }
 
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.BATEAUX, entity));
         return Response.ok(entity).build();
     }
 
@@ -190,6 +200,7 @@ public class BateauClientResource {
         if (!deleted) {
             throw new NotFoundException();
         }
+        searchEvents.fire(SearchIndex.Modification.retirer(SearchIndex.Type.BATEAUX, id));
         return Response.noContent().build();
     }
 }
@@ -0,0 +1,89 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Second-level cache of the read-mostly entities (societe, email templates, reference values,
+ * forfaits, services, main d'oeuvre and catalogue). Hibernate updates or evicts the cached rows
+ * on every write of this replica; the whole cache is also dropped every
+ * {@code cache.entites.ttl}.
+ */
+@Path("/cache")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+public class CacheResource {
+
+    private static final Logger LOG = Logger.getLogger(CacheResource.class);
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    public static class Region {
+        public String region;
+        public long taille;
+        public long hits;
+        public long misses;
+        public long puts;
+        public double tauxSucces;
+    }
+
+    @GET
+    public List<Region> stats() {
+        Statistics statistics = sessionFactory.getStatistics();
+        List<Region> regions = new ArrayList<>();
+        String[] noms = statistics.getSecondLevelCacheRegionNames();
+        Arrays.sort(noms);
+        for (String nom : noms) {
+            CacheRegionStatistics stats = statistics.getCacheRegionStatistics(nom);
+            if (stats != null) {
+                regions.add(region(nom, stats.getElementCountInMemory(), stats.getHitCount(), stats.getMissCount(), stats.getPutCount()));
+            }
+        }
+        regions.add(region("requetes", -1, statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount()));
+        return regions;
+    }
+
+    @DELETE
+    public Response vider() {
+        sessionFactory.getCache().evictAllRegions();
+        return Response.status(204).build();
+    }
+
+    @Scheduled(every = "${cache.entites.ttl:60s}", delayed = "${cache.entites.ttl:60s}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void expirer() {
+        sessionFactory.getCache().evictAllRegions();
+        LOG.debug("Cache de second niveau vide");
+    }
+
+    private static Region region(String nom, long taille, long hits, long misses, long puts) {
+        Region region = new Region();
+        region.region = nom;
+        region.taille = taille;
+        region.hits = hits;
+        region.misses = misses;
+        region.puts = puts;
+        long total = hits + misses;
+        region.tauxSucces = total == 0 ? 0 : (double) hits / total;
+        return region;
+    }
+
+}
@@ -2,15 +2,15 @@ package net.nanthrax.moussaillon.services;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
-import io.quarkus.mailer.Mail;
-import io.quarkus.mailer.Mailer;
 import io.quarkus.panache.common.Sort;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.persistence.TypedQuery;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -20,16 +20,13 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import net.nanthrax.moussaillon.persistence.BateauClientEntity;
 import net.nanthrax.moussaillon.persistence.CampagneEntity;
 import net.nanthrax.moussaillon.persistence.CampagneHistoriqueEntity;
-import net.nanthrax.moussaillon.persistence.ClientEntity;
-import net.nanthrax.moussaillon.persistence.FournisseurEntity;
-import net.nanthrax.moussaillon.persistence.MoteurClientEntity;
-import net.nanthrax.moussaillon.persistence.RemorqueClientEntity;
+import net.nanthrax.moussaillon.persistence.MailOutboxEntity;
 
 @Path("/campagnes")
 @ApplicationScoped
@@ -38,7 +35,7 @@ import net.nanthrax.moussaillon.persistence.RemorqueClientEntity;
 public class CampagneResource {
 
     @Inject
-    Mailer mailer;
+    MailOutbox mailOutbox;
 
     @GET
     public List<CampagneEntity> getAll() {
@@ -98,6 +95,7 @@ public class CampagneResource {
         if (entity == null) {
             throw new WebApplicationException("Campagne non trouvee", Response.Status.NOT_FOUND);
         }
+        MailOutboxEntity.delete("campagneHistorique.id in (select h.id from CampagneHistoriqueEntity h where h.campagne.id = ?1)", id);
         CampagneHistoriqueEntity.delete("campagne.id", id);
         entity.delete();
     }
@@ -112,6 +110,25 @@ public class CampagneResource {
         return resolveDestinataires(entity.cible, entity.canal, entity.cibleFiltre);
     }
 
+    @GET
+    @Path("/{id}/destinataires/nombre")
+    public Apercu getNombreDestinataires(@PathParam("id") long id) {
+        CampagneEntity entity = CampagneEntity.findById(id);
+        if (entity == null) {
+            throw new WebApplicationException("Campagne non trouvee", Response.Status.NOT_FOUND);
+        }
+        return new Apercu(countDestinataires(entity.cible, entity.canal, entity.cibleFiltre));
+    }
+
+    @GET
+    @Path("/apercu")
+    public Apercu apercu(@QueryParam("cible") CampagneEntity.Cible cible, @QueryParam("canal") CampagneEntity.Canal canal, @QueryParam("cibleFiltre") String cibleFiltre) {
+        if (cible == null) {
+            throw new WebApplicationException("La cible est obligatoire", Response.Status.BAD_REQUEST);
+        }
+        return new Apercu(countDestinataires(cible, canal != null ? canal : CampagneEntity.Canal.EMAIL, cibleFiltre));
+    }
+
     @GET
     @Path("/{id}/historique")
     public List<CampagneHistoriqueEntity> getHistorique(@PathParam("id") long id) {
@@ -122,6 +139,16 @@ public class CampagneResource {
         return CampagneHistoriqueEntity.list("campagne.id", Sort.descending("dateEnvoi"), id);
     }
 
+    @GET
+    @Path("/{id}/historique/{historiqueId}/envois")
+    public List<MailOutboxEntity> getEnvois(@PathParam("id") long id, @PathParam("historiqueId") long historiqueId) {
+        CampagneHistoriqueEntity historique = CampagneHistoriqueEntity.findById(historiqueId);
+        if (historique == null || historique.campagne == null || historique.campagne.id != id) {
+            throw new WebApplicationException("Historique de campagne non trouve", Response.Status.NOT_FOUND);
+        }
+        return MailOutboxEntity.list("campagneHistorique.id", Sort.by("id"), historiqueId);
+    }
+
     public static class EnvoyerRequest {
         public Timestamp dateProgrammee;
     }
@@ -178,27 +205,6 @@ public class CampagneResource {
             throw new WebApplicationException("Aucun destinataire trouve pour les criteres selectionnes", Response.Status.BAD_REQUEST);
         }
 
-        String erreur = null;
-        String statut = "SUCCES";
-
-        if (entity.canal == CampagneEntity.Canal.EMAIL) {
-            int envoyes = 0;
-            for (Destinataire dest : destinataires) {
-                try {
-                    mailer.send(Mail.withHtml(dest.email, entity.sujet, entity.contenu));
-                    envoyes++;
-                } catch (Exception e) {
-                    erreur = e.getMessage();
-                }
-            }
-            if (envoyes == 0) {
-                statut = "ECHEC";
-            } else if (envoyes < destinataires.size()) {
-                statut = "PARTIEL";
-            }
-        }
-        // SMS: not implemented yet (requires SMS gateway)
-
         entity.nombreDestinataires = destinataires.size();
         entity.dateEnvoi = new Timestamp(System.currentTimeMillis());
         entity.statut = CampagneEntity.Statut.ENVOYEE;
@@ -208,117 +214,82 @@ public class CampagneResource {
         historique.campagne = entity;
         historique.dateEnvoi = entity.dateEnvoi;
         historique.nombreDestinataires = destinataires.size();
-        historique.statut = statut;
-        historique.erreur = erreur;
+        // Email delivery happens in the background, MailOutbox sets the final status
+        historique.statut = entity.canal == CampagneEntity.Canal.EMAIL ? "EN_COURS" : "SUCCES";
         historique.persist();
+
+        if (entity.canal == CampagneEntity.Canal.EMAIL) {
+            for (Destinataire dest : destinataires) {
+                mailOutbox.enqueue(MailOutboxEntity.Origine.CAMPAGNE, dest.email, entity.sujet, entity.contenu, historique);
+            }
+        }
+        // SMS: not implemented yet (requires SMS gateway)
     }
 
     List<Destinataire> resolveDestinataires(CampagneEntity.Cible cible, CampagneEntity.Canal canal, String cibleFiltre) {
-        Set<Destinataire> result = new HashSet<>();
+        Set<Destinataire> result = new LinkedHashSet<>();
+        DestinatairesQuery query = destinatairesQuery(cible, canal);
+        TypedQuery<Object[]> select = CampagneEntity.getEntityManager()
+                .createQuery("SELECT " + query.nom() + ", " + query.contact() + query.from(), Object[].class);
+        if (query.filtre()) {
+            select.setParameter(1, cibleFiltre);
+        }
+        try (Stream<Object[]> rows = select.getResultStream()) {
+            rows.forEach(row -> result.add(new Destinataire((String) row[0], (String) row[1])));
+        }
+        return new ArrayList<>(result);
+    }
 
-        if (cible == CampagneEntity.Cible.FOURNISSEUR) {
-            List<FournisseurEntity> fournisseurs = FournisseurEntity.listAll();
-            for (FournisseurEntity f : fournisseurs) {
-                String contact = canal == CampagneEntity.Canal.EMAIL ? f.email : f.telephone;
-                if (contact != null && !contact.isBlank()) {
-                    result.add(new Destinataire(f.nom, contact));
-                }
-            }
-        } else if (cible == CampagneEntity.Cible.TOUS_LES_CLIENTS) {
-            List<ClientEntity> clients = ClientEntity.listAll();
-            for (ClientEntity client : clients) {
-                if (!client.consentement) continue;
-                String contact = canal == CampagneEntity.Canal.EMAIL ? client.email : client.telephone;
-                if (contact != null && !contact.isBlank()) {
-                    String nom = ((client.prenom != null ? client.prenom + " " : "") + client.nom).trim();
-                    result.add(new Destinataire(nom, contact));
-                }
-            }
-        } else {
-            Set<Long> clientIds = new HashSet<>();
-
-            if (cible == CampagneEntity.Cible.PROPRIETAIRE_BATEAU) {
-                List<BateauClientEntity> bateaux = BateauClientEntity.listAll();
-                for (BateauClientEntity b : bateaux) {
-                    for (ClientEntity c : b.proprietaires) {
-                        clientIds.add(c.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_BATEAU_MARQUE) {
-                List<BateauClientEntity> bateaux = BateauClientEntity.listAll();
-                for (BateauClientEntity b : bateaux) {
-                    if (b.modele != null && b.modele.marque != null && b.modele.marque.equals(cibleFiltre)) {
-                        for (ClientEntity c : b.proprietaires) {
-                            clientIds.add(c.id);
-                        }
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_BATEAU_MODELE) {
-                List<BateauClientEntity> bateaux = BateauClientEntity.listAll();
-                for (BateauClientEntity b : bateaux) {
-                    if (b.modele != null && b.modele.modele != null && b.modele.modele.equals(cibleFiltre)) {
-                        for (ClientEntity c : b.proprietaires) {
-                            clientIds.add(c.id);
-                        }
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_MOTEUR) {
-                List<MoteurClientEntity> moteurs = MoteurClientEntity.listAll();
-                for (MoteurClientEntity m : moteurs) {
-                    if (m.proprietaire != null) {
-                        clientIds.add(m.proprietaire.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_MOTEUR_MARQUE) {
-                List<MoteurClientEntity> moteurs = MoteurClientEntity.listAll();
-                for (MoteurClientEntity m : moteurs) {
-                    if (m.proprietaire != null && m.modele != null && m.modele.marque != null && m.modele.marque.equals(cibleFiltre)) {
-                        clientIds.add(m.proprietaire.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_MOTEUR_MODELE) {
-                List<MoteurClientEntity> moteurs = MoteurClientEntity.listAll();
-                for (MoteurClientEntity m : moteurs) {
-                    if (m.proprietaire != null && m.modele != null && m.modele.modele != null && m.modele.modele.equals(cibleFiltre)) {
-                        clientIds.add(m.proprietaire.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_REMORQUE) {
-                List<RemorqueClientEntity> remorques = RemorqueClientEntity.listAll();
-                for (RemorqueClientEntity r : remorques) {
-                    if (r.proprietaire != null) {
-                        clientIds.add(r.proprietaire.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_REMORQUE_MARQUE) {
-                List<RemorqueClientEntity> remorques = RemorqueClientEntity.listAll();
-                for (RemorqueClientEntity r : remorques) {
-                    if (r.proprietaire != null && r.modele != null && r.modele.marque != null && r.modele.marque.equals(cibleFiltre)) {
-                        clientIds.add(r.proprietaire.id);
-                    }
-                }
-            } else if (cible == CampagneEntity.Cible.PROPRIETAIRE_REMORQUE_MODELE) {
-                List<RemorqueClientEntity> remorques = RemorqueClientEntity.listAll();
-                for (RemorqueClientEntity r : remorques) {
-                    if (r.proprietaire != null && r.modele != null && r.modele.modele != null && r.modele.modele.equals(cibleFiltre)) {
-                        clientIds.add(r.proprietaire.id);
-                    }
-                }
-            }
+    long countDestinataires(CampagneEntity.Cible cible, CampagneEntity.Canal canal, String cibleFiltre) {
+        DestinatairesQuery query = destinatairesQuery(cible, canal);
+        TypedQuery<Long> count = CampagneEntity.getEntityManager()
+                .createQuery("SELECT COUNT(DISTINCT " + query.contact() + ")" + query.from(), Long.class);
+        if (query.filtre()) {
+            count.setParameter(1, cibleFiltre);
+        }
+        return count.getSingleResult();
+    }
 
-            for (Long clientId : clientIds) {
-                ClientEntity client = ClientEntity.findById(clientId);
-                if (client != null && client.consentement) {
-                    String contact = canal == CampagneEntity.Canal.EMAIL ? client.email : client.telephone;
-                    if (contact != null && !contact.isBlank()) {
-                        String nom = ((client.prenom != null ? client.prenom + " " : "") + client.nom).trim();
-                        result.add(new Destinataire(nom, contact));
-                    }
-                }
-            }
+    /**
+     * Compiles a campaign target into a single projection returning (nom, contact) rows,
+     * owners being matched through a subquery on the equipment tables.
+     */
+    private static DestinatairesQuery destinatairesQuery(CampagneEntity.Cible cible, CampagneEntity.Canal canal) {
+        String contact = canal == CampagneEntity.Canal.EMAIL ? "e.email" : "e.telephone";
+        String contactRenseigne = " WHERE " + contact + " IS NOT NULL AND TRIM(" + contact + ") <> ''";
+        if (cible == CampagneEntity.Cible.FOURNISSEUR) {
+            return new DestinatairesQuery("e.nom", contact, " FROM FournisseurEntity e" + contactRenseigne, false);
+        }
+        String nom = "TRIM(CONCAT(COALESCE(e.prenom, ''), ' ', e.nom))";
+        String from = " FROM ClientEntity e" + contactRenseigne + " AND e.consentement = true";
+        String proprietaires = switch (cible) {
+            case PROPRIETAIRE_BATEAU -> "SELECT p.id FROM BateauClientEntity b JOIN b.proprietaires p";
+            case PROPRIETAIRE_BATEAU_MARQUE -> "SELECT p.id FROM BateauClientEntity b JOIN b.proprietaires p WHERE b.modele.marque = ?1";
+            case PROPRIETAIRE_BATEAU_MODELE -> "SELECT p.id FROM BateauClientEntity b JOIN b.proprietaires p WHERE b.modele.modele = ?1";
+            case PROPRIETAIRE_MOTEUR -> "SELECT m.proprietaire.id FROM MoteurClientEntity m";
+            case PROPRIETAIRE_MOTEUR_MARQUE -> "SELECT m.proprietaire.id FROM MoteurClientEntity m WHERE m.modele.marque = ?1";
+            case PROPRIETAIRE_MOTEUR_MODELE -> "SELECT m.proprietaire.id FROM MoteurClientEntity m WHERE m.modele.modele = ?1";
+            case PROPRIETAIRE_REMORQUE -> "SELECT r.proprietaire.id FROM RemorqueClientEntity r";
+            case PROPRIETAIRE_REMORQUE_MARQUE -> "SELECT r.proprietaire.id FROM RemorqueClientEntity r WHERE r.modele.marque = ?1";
+            case PROPRIETAIRE_REMORQUE_MODELE -> "SELECT r.proprietaire.id FROM RemorqueClientEntity r WHERE r.modele.modele = ?1";
+            default -> null;
+        };
+        if (proprietaires == null) {
+            return new DestinatairesQuery(nom, contact, from, false);
         }
+        return new DestinatairesQuery(nom, contact, from + " AND e.id IN (" + proprietaires + ")", proprietaires.contains("?1"));
+    }
 
-        return new ArrayList<>(result);
+    private record DestinatairesQuery(String nom, String contact, String from, boolean filtre) {}
+
+    public static class Apercu {
+        public long nombreDestinataires;
+
+        public Apercu() {}
+
+        public Apercu(long nombreDestinataires) {
+            this.nombreDestinataires = nombreDestinataires;
+        }
     }
 
     public static class Destinataire {
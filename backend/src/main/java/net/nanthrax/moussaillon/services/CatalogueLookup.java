@@ -0,0 +1,76 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import jakarta.enterprise.context.RequestScoped;
+import net.nanthrax.moussaillon.persistence.ForfaitEntity;
+import net.nanthrax.moussaillon.persistence.ServiceEntity;
+
+/**
+ * Request-scoped identity map of the catalogue forfaits and services used while saving a
+ * vente. The ids referenced by all the lines are loaded with one IN query per type and
+ * association (taches or produits fetch-joined), instead of one findById and one lazy
+ * collection load per line; later lookups in the same request reuse the loaded rows.
+ */
+@RequestScoped
+public class CatalogueLookup {
+
+    private final Map<Class<?>, Map<Long, PanacheEntity>> entites = new HashMap<>();
+
+    // "Type.association#id" already fetched in this request
+    private final Set<String> chargees = new HashSet<>();
+
+    public Map<Long, ForfaitEntity> forfaitsAvecTaches(Collection<Long> ids) {
+        return charger(ForfaitEntity.class, "taches", ids);
+    }
+
+    public Map<Long, ForfaitEntity> forfaitsAvecProduits(Collection<Long> ids) {
+        return charger(ForfaitEntity.class, "produits", ids);
+    }
+
+    public Map<Long, ServiceEntity> servicesAvecTaches(Collection<Long> ids) {
+        return charger(ServiceEntity.class, "taches", ids);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends PanacheEntity> Map<Long, T> charger(Class<T> type, String association, Collection<Long> ids) {
+        Map<Long, PanacheEntity> cache = entites.computeIfAbsent(type, t -> new HashMap<>());
+        List<Long> demandes = ids.stream().filter(Objects::nonNull).distinct().toList();
+        List<Long> manquants = demandes.stream()
+                .filter(id -> !chargees.contains(cle(type, association, id)))
+                .toList();
+        if (!manquants.isEmpty()) {
+            // One bag per query: fetching taches and produits together would be a cartesian product
+            List<T> trouves = Panache.getEntityManager(type)
+                    .createQuery("select distinct e from " + type.getSimpleName() + " e left join fetch e." + association
+                            + " where e.id in :ids", type)
+                    .setParameter("ids", manquants)
+                    .getResultList();
+            for (T entite : trouves) {
+                cache.put(entite.id, entite);
+            }
+            manquants.forEach(id -> chargees.add(cle(type, association, id)));
+        }
+        Map<Long, T> resultat = new HashMap<>();
+        for (Long id : demandes) {
+            PanacheEntity entite = cache.get(id);
+            if (entite != null) {
+                resultat.put(id, (T) entite);
+            }
+        }
+        return resultat;
+    }
+
+    private static String cle(Class<?> type, String association, Long id) {
+        return type.getSimpleName() + "." + association + "#" + id;
+    }
+
+}
@@ -3,6 +3,7 @@ package net.nanthrax.moussaillon.services;
 import io.quarkus.mailer.Mail;
 import io.quarkus.mailer.Mailer;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
@@ -23,6 +24,12 @@ public class ClientResource {
     @Inject
     Mailer mailer;
 
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
     @GET
     public List<ClientEntity> list() {
         List<ClientEntity> clients = ClientEntity.listAll();
@@ -32,12 +39,12 @@ public class ClientResource {
 
     @GET
     @Path("/search")
-    public List<ClientEntity> search(@QueryParam("q") String q) {
+    public List<ClientEntity> search(@QueryParam("q") String q, @QueryParam("limit") Integer limit) {
         if (q == null || q.trim().isEmpty()) {
             return ClientEntity.listAll();
         }
-        String likePattern = "%" + q.toLowerCase() + "%";
-        List<ClientEntity> clients = ClientEntity.list("LOWER(nom) LIKE ?1 OR LOWER(prenom) LIKE ?1 OR LOWER(type) LIKE ?1 OR LOWER(email) LIKE ?1 OR LOWER(telephone) LIKE ?1", likePattern);
+        List<ClientEntity> clients = SearchIndex.ordonner(searchIndex.chercher(SearchIndex.Type.CLIENTS, q, limit),
+                ids -> ClientEntity.list("id in ?1", ids));
         clients.forEach(c -> c.motDePasse = null);
         return clients;
     }
@@ -53,6 +60,7 @@ public class ClientResource {
         }
         client.persist();
         client.flush();
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.CLIENTS, client));
         ClientEntity.getEntityManager().detach(client);
         client.motDePasse = null;
         return client;
@@ -78,6 +86,7 @@ public class ClientResource {
             throw new WebApplicationException("Le client (" + id + ") n'est pas trouvé", 404);
         }
         entity.delete();
+        searchEvents.fire(SearchIndex.Modification.retirer(SearchIndex.Type.CLIENTS, id));
         return Response.status(204).build();
     }
 
@@ -111,6 +120,7 @@ public class ClientResource {
         }
 
         entity.flush();
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.CLIENTS, entity));
         ClientEntity.getEntityManager().detach(entity);
         entity.motDePasse = null;
         return entity;
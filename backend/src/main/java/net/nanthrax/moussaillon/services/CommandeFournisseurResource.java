@@ -1,8 +1,12 @@
 package net.nanthrax.moussaillon.services;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -20,7 +24,7 @@ import net.nanthrax.moussaillon.persistence.BateauCatalogueEntity;
 import net.nanthrax.moussaillon.persistence.CommandeFournisseurEntity;
 import net.nanthrax.moussaillon.persistence.CommandeFournisseurLigneEntity;
 import net.nanthrax.moussaillon.persistence.MoteurCatalogueEntity;
-import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
 
 @Path("/commandes-fournisseur")
 @ApplicationScoped
@@ -28,6 +32,12 @@ import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class CommandeFournisseurResource {
 
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    @Inject
+    StockLedger stockLedger;
+
     @GET
     public List<CommandeFournisseurEntity> list() {
         return CommandeFournisseurEntity.listAll();
@@ -149,34 +159,32 @@ public class CommandeFournisseurResource {
         if (!entity.stockIncremented && entity.status == CommandeFournisseurEntity.Status.RECUE) {
             incrementStock(entity);
             entity.stockIncremented = true;
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
         }
 
         return entity;
     }
 
     private void incrementStock(CommandeFournisseurEntity commande) {
+        Map<Long, Integer> produits = new HashMap<>();
+        Map<Long, Integer> bateaux = new HashMap<>();
+        Map<Long, Integer> moteurs = new HashMap<>();
         if (commande.lignes != null) {
             for (CommandeFournisseurLigneEntity ligne : commande.lignes) {
                 if (ligne.produit != null) {
-                    ProduitCatalogueEntity p = ProduitCatalogueEntity.findById(ligne.produit.id);
-                    if (p != null) {
-                        p.stock = p.stock + ligne.quantite;
-                    }
+                    produits.merge(ligne.produit.id, ligne.quantite, Integer::sum);
                 }
                 if (ligne.bateau != null) {
-                    BateauCatalogueEntity b = BateauCatalogueEntity.findById(ligne.bateau.id);
-                    if (b != null) {
-                        b.stock = b.stock + ligne.quantite;
-                    }
+                    bateaux.merge(ligne.bateau.id, ligne.quantite, Integer::sum);
                 }
                 if (ligne.moteur != null) {
-                    MoteurCatalogueEntity m = MoteurCatalogueEntity.findById(ligne.moteur.id);
-                    if (m != null) {
-                        m.stock = m.stock + ligne.quantite;
-                    }
+                    moteurs.merge(ligne.moteur.id, ligne.quantite, Integer::sum);
                 }
             }
         }
+        stockLedger.appliquer(produits, MouvementStockEntity.Motif.RECEPTION, "Commande fournisseur " + commande.id);
+        stockLedger.incrementer(BateauCatalogueEntity.class, bateaux);
+        stockLedger.incrementer(MoteurCatalogueEntity.class, moteurs);
     }
 
     private CommandeFournisseurEntity.Status parseStatus(String status) {
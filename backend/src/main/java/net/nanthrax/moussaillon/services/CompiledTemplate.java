@@ -0,0 +1,100 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Email template parsed once into literal and {@code {variable}} segments, rendered in a
+ * single pass. Unknown placeholders are kept as-is, like the former chains of String.replace.
+ */
+public final class CompiledTemplate {
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private final String source;
+
+    // Even indexes are literals, odd indexes are variable names
+    private final String[] segments;
+
+    private final int literalLength;
+
+    private CompiledTemplate(String source, String[] segments, int literalLength) {
+        this.source = source;
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    public static CompiledTemplate compile(String source) {
+        String text = source != null ? source : "";
+        List<String> segments = new ArrayList<>();
+        int literalLength = 0;
+        int start = 0;
+        int cursor = 0;
+        while (cursor < text.length()) {
+            int open = text.indexOf('{', cursor);
+            if (open < 0) {
+                break;
+            }
+            int close = text.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            String name = text.substring(open + 1, close);
+            if (!isVariable(name)) {
+                cursor = open + 1;
+                continue;
+            }
+            segments.add(text.substring(start, open));
+            segments.add(name);
+            literalLength += open - start;
+            start = close + 1;
+            cursor = start;
+        }
+        segments.add(text.substring(start));
+        literalLength += text.length() - start;
+        return new CompiledTemplate(text, segments.toArray(new String[0]), literalLength);
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public String render(Map<String, String> variables) {
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+        out.ensureCapacity(literalLength + 64);
+        for (int i = 0; i < segments.length; i++) {
+            if (i % 2 == 0) {
+                out.append(segments[i]);
+                continue;
+            }
+            String value = variables.get(segments[i]);
+            if (value != null) {
+                out.append(value);
+            } else if (!variables.containsKey(segments[i])) {
+                out.append('{').append(segments[i]).append('}');
+            }
+        }
+        String result = out.toString();
+        if (out.capacity() > 64 * 1024) {
+            // Do not keep a huge buffer around after an exceptionally large email
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    private static boolean isVariable(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,271 @@
+package net.nanthrax.moussaillon.services;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.persistence.TypedQuery;
+import jakarta.transaction.Transactional;
+import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.TechnicienEntity;
+import net.nanthrax.moussaillon.persistence.VenteEntity;
+import net.nanthrax.moussaillon.persistence.VenteForfaitEntity;
+import net.nanthrax.moussaillon.persistence.VenteServiceEntity;
+import net.nanthrax.moussaillon.services.DashboardResource.DashboardData;
+import net.nanthrax.moussaillon.services.DashboardResource.InterventionRow;
+import net.nanthrax.moussaillon.services.DashboardResource.StockAlert;
+
+/**
+ * Dashboard aggregates kept in memory. Each part (ventes, interventions, stock) is only
+ * recomputed after a {@link DashboardEvent} touching it, so reading the dashboard is a plain
+ * field read most of the time. The whole snapshot is recomputed once older than
+ * {@code dashboard.aggregates.max-age}, and a nightly reconciliation recomputes everything.
+ */
+@ApplicationScoped
+public class DashboardAggregates {
+
+    private static final Logger LOG = Logger.getLogger(DashboardAggregates.class);
+
+    private static final int ALL = (1 << DashboardEvent.Type.values().length) - 1;
+
+    @ConfigProperty(name = "dashboard.aggregates.max-age", defaultValue = "60s")
+    Duration maxAge;
+
+    private final AtomicInteger dirty = new AtomicInteger(ALL);
+
+    private volatile DashboardData snapshot;
+
+    private volatile LocalDate snapshotDay;
+
+    private volatile long refreshedAt;
+
+    public DashboardData get() {
+        DashboardData current = snapshot;
+        if (current != null && dirty.get() == 0 && !expired()) {
+            return current;
+        }
+        return refresh(false);
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) DashboardEvent event) {
+        int bit = 1 << event.type.ordinal();
+        dirty.getAndUpdate(mask -> mask | bit);
+    }
+
+    @Scheduled(cron = "0 5 0 * * ?")
+    @Transactional
+    void reconcile() {
+        DashboardData before = snapshot;
+        DashboardData after = refresh(true);
+        if (before != null && LocalDate.now().equals(snapshotDay) && (before.interventionsOuvertes != after.interventionsOuvertes
+                || before.alertesStock != after.alertesStock
+                || Math.abs(before.caDuMois - after.caDuMois) > 0.001)) {
+            LOG.infof("Ecart corrige sur le tableau de bord (interventions %d -> %d, alertes stock %d -> %d, CA %.2f -> %.2f)",
+                    before.interventionsOuvertes, after.interventionsOuvertes,
+                    before.alertesStock, after.alertesStock,
+                    before.caDuMois, after.caDuMois);
+        }
+    }
+
+    private boolean expired() {
+        return !LocalDate.now().equals(snapshotDay) || System.currentTimeMillis() - refreshedAt >= maxAge.toMillis();
+    }
+
+    private synchronized DashboardData refresh(boolean full) {
+        DashboardData previous = snapshot;
+        boolean complete = full || previous == null || expired();
+        int mask = dirty.getAndSet(0);
+        if (complete) {
+            mask = ALL;
+        } else if (mask == 0) {
+            // Already refreshed by a concurrent caller
+            return previous;
+        }
+
+        LocalDate now = LocalDate.now();
+        DashboardData data = new DashboardData();
+        if (previous != null) {
+            data.caDuMois = previous.caDuMois;
+            data.ventesComptoirPct = previous.ventesComptoirPct;
+            data.interventionsOuvertes = previous.interventionsOuvertes;
+            data.retards48h = previous.retards48h;
+            data.interventions = previous.interventions;
+            data.heuresAtelierPct = previous.heuresAtelierPct;
+            data.contratsMaintenancePct = previous.contratsMaintenancePct;
+            data.alertesStock = previous.alertesStock;
+            data.stockAlerts = previous.stockAlerts;
+        }
+        if ((mask & bit(DashboardEvent.Type.VENTE)) != 0) {
+            computeVentes(data, now);
+        }
+        if ((mask & bit(DashboardEvent.Type.INTERVENTION)) != 0) {
+            computeInterventions(data, now);
+        }
+        if ((mask & bit(DashboardEvent.Type.STOCK)) != 0) {
+            computeStock(data);
+        }
+
+        snapshot = data;
+        if (complete) {
+            snapshotDay = now;
+            refreshedAt = System.currentTimeMillis();
+        }
+        return data;
+    }
+
+    private static int bit(DashboardEvent.Type type) {
+        return 1 << type.ordinal();
+    }
+
+    private void computeVentes(DashboardData data, LocalDate now) {
+        Timestamp monthStart = Timestamp.valueOf(now.withDayOfMonth(1).atStartOfDay());
+
+        // CA du mois: sum of prixVenteTTC for PAYEE ventes this month
+        data.caDuMois = sum("select sum(v.prixVenteTTC) from VenteEntity v where v.status = ?1 and v.date >= ?2",
+                VenteEntity.Status.FACTURE_PAYEE, monthStart);
+
+        // Ventes payees
+        long ventesTotal = VenteEntity.count("date >= ?1", monthStart);
+        long ventesPayees = VenteEntity.count("status = ?1 and date >= ?2", VenteEntity.Status.FACTURE_PAYEE, monthStart);
+        data.ventesComptoirPct = ventesTotal > 0 ? (int) Math.round((double) ventesPayees / ventesTotal * 100) : 0;
+    }
+
+    private void computeInterventions(DashboardData data, LocalDate now) {
+        Timestamp monthStart = Timestamp.valueOf(now.withDayOfMonth(1).atStartOfDay());
+
+        // Interventions ouvertes (forfaits + services EN_ATTENTE or EN_COURS)
+        long forfaitsOuverts = VenteForfaitEntity.count("status in (?1, ?2)",
+                VenteForfaitEntity.Status.EN_ATTENTE, VenteForfaitEntity.Status.EN_COURS);
+        long servicesOuverts = VenteServiceEntity.count("status in (?1, ?2)",
+                VenteServiceEntity.Status.EN_ATTENTE, VenteServiceEntity.Status.EN_COURS);
+        data.interventionsOuvertes = (int) (forfaitsOuverts + servicesOuverts);
+
+        // Retards > 48h
+        Timestamp twoDaysAgo = Timestamp.valueOf(now.minusDays(2).atStartOfDay());
+        long forfaitsRetard = VenteForfaitEntity.count("status = ?1 and dateDebut < ?2",
+                VenteForfaitEntity.Status.EN_COURS, twoDaysAgo);
+        long servicesRetard = VenteServiceEntity.count("status = ?1 and dateDebut < ?2",
+                VenteServiceEntity.Status.EN_COURS, twoDaysAgo);
+        data.retards48h = (int) (forfaitsRetard + servicesRetard);
+
+        data.interventions = interventionsDuJour(now);
+
+        // Objectifs mensuels
+        double totalReelle = sum("select sum(vf.dureeReelle) from VenteForfaitEntity vf where vf.dateDebut >= ?1 and vf.status = ?2",
+                monthStart, VenteForfaitEntity.Status.TERMINEE)
+                + sum("select sum(vs.dureeReelle) from VenteServiceEntity vs where vs.dateDebut >= ?1 and vs.status = ?2",
+                monthStart, VenteServiceEntity.Status.TERMINEE);
+        data.heuresAtelierPct = totalReelle > 0 ? (int) Math.min(100, Math.round(totalReelle)) : 0;
+
+        // Contrats de maintenance
+        long itemsTotal = VenteForfaitEntity.count("dateDebut >= ?1", monthStart)
+                + VenteServiceEntity.count("dateDebut >= ?1", monthStart);
+        long itemsTermines = VenteForfaitEntity.count("dateDebut >= ?1 and status = ?2", monthStart, VenteForfaitEntity.Status.TERMINEE)
+                + VenteServiceEntity.count("dateDebut >= ?1 and status = ?2", monthStart, VenteServiceEntity.Status.TERMINEE);
+        data.contratsMaintenancePct = itemsTotal > 0 ? (int) Math.round((double) itemsTermines / itemsTotal * 100) : 0;
+    }
+
+    private void computeStock(DashboardData data) {
+        List<ProduitCatalogueEntity> produitsEnAlerte = ProduitCatalogueEntity.list("stock <= stockMini");
+        data.alertesStock = produitsEnAlerte.size();
+        List<StockAlert> alerts = new ArrayList<>();
+        for (ProduitCatalogueEntity produit : produitsEnAlerte) {
+            StockAlert alert = new StockAlert();
+            alert.produit = produit.nom;
+            alert.niveau = produit.stock <= 0 ? "Critique" : "Bas";
+            alert.color = produit.stock <= 0 ? "red" : "orange";
+            alerts.add(alert);
+        }
+        data.stockAlerts = alerts;
+    }
+
+    // Interventions du jour (started today OR planned/scheduled for today)
+    private List<InterventionRow> interventionsDuJour(LocalDate now) {
+        Timestamp todayStart = Timestamp.valueOf(now.atStartOfDay());
+        Timestamp tomorrowStart = Timestamp.valueOf(now.plusDays(1).atStartOfDay());
+        List<InterventionRow> rows = new ArrayList<>();
+
+        List<Object[]> forfaits = VenteEntity.getEntityManager().createQuery(
+                "select vf, v from VenteEntity v join v.venteForfaits vf where "
+                + "(vf.dateDebut >= ?1 and vf.dateDebut < ?2) or "
+                + "(vf.statusDate >= ?1 and vf.statusDate < ?2) or "
+                + "(vf.datePlanification >= ?1 and vf.datePlanification < ?2)", Object[].class)
+                .setParameter(1, todayStart)
+                .setParameter(2, tomorrowStart)
+                .getResultList();
+        Set<Long> addedForfaitIds = new HashSet<>();
+        for (Object[] result : forfaits) {
+            VenteForfaitEntity vf = (VenteForfaitEntity) result[0];
+            if (addedForfaitIds.add(vf.id)) {
+                rows.add(row("f-" + vf.id, (VenteEntity) result[1], vf.forfait != null ? vf.forfait.nom : "",
+                        vf.techniciens, vf.status != null ? vf.status.name() : null));
+            }
+        }
+
+        List<Object[]> services = VenteEntity.getEntityManager().createQuery(
+                "select vs, v from VenteEntity v join v.venteServices vs where "
+                + "(vs.dateDebut >= ?1 and vs.dateDebut < ?2) or "
+                + "(vs.statusDate >= ?1 and vs.statusDate < ?2) or "
+                + "(vs.datePlanification >= ?1 and vs.datePlanification < ?2)", Object[].class)
+                .setParameter(1, todayStart)
+                .setParameter(2, tomorrowStart)
+                .getResultList();
+        Set<Long> addedServiceIds = new HashSet<>();
+        for (Object[] result : services) {
+            VenteServiceEntity vs = (VenteServiceEntity) result[0];
+            if (addedServiceIds.add(vs.id)) {
+                rows.add(row("s-" + vs.id, (VenteEntity) result[1], vs.service != null ? vs.service.nom : "",
+                        vs.techniciens, vs.status != null ? vs.status.name() : null));
+            }
+        }
+        return rows;
+    }
+
+    private InterventionRow row(String key, VenteEntity vente, String type, List<TechnicienEntity> techniciens, String status) {
+        InterventionRow row = new InterventionRow();
+        row.key = key;
+        row.client = vente.client != null
+                ? (vente.client.prenom != null ? vente.client.prenom + " " : "") + vente.client.nom
+                : "";
+        row.unite = vente.bateau != null ? vente.bateau.name : (vente.moteur != null ? "Moteur" : "");
+        row.type = type;
+        row.technicien = techniciens != null && !techniciens.isEmpty()
+                ? techniciens.stream().map(t -> (t.prenom != null ? t.prenom.substring(0, 1) + ". " : "") + t.nom).collect(Collectors.joining(", "))
+                : "";
+        row.statut = mapStatut(status);
+        return row;
+    }
+
+    private String mapStatut(String status) {
+        if (status == null) return "A faire";
+        return switch (status) {
+            case "PLANIFIEE" -> "Planifiee";
+            case "EN_COURS" -> "En cours";
+            case "TERMINEE" -> "Terminee";
+            default -> "A faire";
+        };
+    }
+
+    private static double sum(String query, Object... params) {
+        TypedQuery<Double> typedQuery = VenteEntity.getEntityManager().createQuery(query, Double.class);
+        for (int i = 0; i < params.length; i++) {
+            typedQuery.setParameter(i + 1, params[i]);
+        }
+        Double result = typedQuery.getSingleResult();
+        return result != null ? result : 0;
+    }
+
+}
@@ -0,0 +1,71 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.nanthrax.moussaillon.persistence.TechnicienEntity;
+
+/**
+ * CDI event fired by the write paths when a dashboard aggregate may have changed.
+ * Events are also pushed as-is to the subscribers of {@link EvenementResource}.
+ */
+public class DashboardEvent {
+
+    public enum Type {
+        VENTE,
+        INTERVENTION,
+        STOCK
+    }
+
+    public final Type type;
+
+    public Long venteId;
+
+    public Long itemId;
+
+    public String itemType; // "forfait" or "service"
+
+    public String status;
+
+    public List<Long> techniciens = new ArrayList<>();
+
+    public String produit;
+
+    public Integer stock;
+
+    public Integer stockMini;
+
+    public DashboardEvent(Type type) {
+        this.type = type;
+    }
+
+    public static DashboardEvent vente(Long venteId, Enum<?> status) {
+        DashboardEvent event = new DashboardEvent(Type.VENTE);
+        event.venteId = venteId;
+        event.status = status != null ? status.name() : null;
+        return event;
+    }
+
+    public static DashboardEvent intervention(String itemType, Long itemId, Long venteId, Enum<?> status, List<TechnicienEntity> techniciens) {
+        DashboardEvent event = new DashboardEvent(Type.INTERVENTION);
+        event.itemType = itemType;
+        event.itemId = itemId;
+        event.venteId = venteId;
+        event.status = status != null ? status.name() : null;
+        if (techniciens != null) {
+            for (TechnicienEntity technicien : techniciens) {
+                event.techniciens.add(technicien.id);
+            }
+        }
+        return event;
+    }
+
+    public static DashboardEvent stock(String produit, int stock, int stockMini) {
+        DashboardEvent event = new DashboardEvent(Type.STOCK);
+        event.produit = produit;
+        event.stock = stock;
+        event.stockMini = stockMini;
+        return event;
+    }
+
+}
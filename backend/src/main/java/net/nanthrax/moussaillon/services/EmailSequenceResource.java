@@ -3,6 +3,8 @@ package net.nanthrax.moussaillon.services;
 import java.util.List;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -17,6 +19,9 @@ import net.nanthrax.moussaillon.persistence.EmailSequenceHistoriqueEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class EmailSequenceResource {
 
+    @Inject
+    Event<EmailTemplates.Modification> templateModifications;
+
     @GET
     public List<EmailSequenceEtapeEntity> list(@QueryParam("cible") String cible) {
         if (cible != null && !cible.isBlank()) {
@@ -57,6 +62,7 @@ public class EmailSequenceResource {
         entity.contenu = etape.contenu;
         entity.description = etape.description;
         entity.actif = etape.actif;
+        templateModifications.fire(new EmailTemplates.Modification(null, entity.id));
         return entity;
     }
 
@@ -70,6 +76,7 @@ public class EmailSequenceResource {
         }
         EmailSequenceHistoriqueEntity.delete("etape.id", id);
         entity.delete();
+        templateModifications.fire(new EmailTemplates.Modification(null, id));
         return Response.status(204).build();
     }
 
@@ -2,20 +2,26 @@ package net.nanthrax.moussaillon.services;
 
 import java.sql.Timestamp;
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import io.quarkus.mailer.Mail;
-import io.quarkus.mailer.Mailer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.scheduler.Scheduled;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
+import jakarta.persistence.TypedQuery;
 import net.nanthrax.moussaillon.persistence.BateauClientEntity;
 import net.nanthrax.moussaillon.persistence.ClientEntity;
 import net.nanthrax.moussaillon.persistence.EmailSequenceEtapeEntity;
 import net.nanthrax.moussaillon.persistence.EmailSequenceEtapeEntity.Cible;
 import net.nanthrax.moussaillon.persistence.EmailSequenceHistoriqueEntity;
+import net.nanthrax.moussaillon.persistence.MailOutboxEntity;
 import net.nanthrax.moussaillon.persistence.MoteurClientEntity;
 import net.nanthrax.moussaillon.persistence.RemorqueClientEntity;
 import net.nanthrax.moussaillon.persistence.SocieteEntity;
@@ -23,117 +29,172 @@ import net.nanthrax.moussaillon.persistence.SocieteEntity;
 @ApplicationScoped
 public class EmailSequenceScheduler {
 
+    private static final Logger LOG = Logger.getLogger(EmailSequenceScheduler.class);
+
+    private static final String CONTACT_CLIENT = "%1$s.consentement = true AND %1$s.email IS NOT NULL AND TRIM(%1$s.email) <> ''";
+
+    @Inject
+    MailOutbox mailOutbox;
+
     @Inject
-    Mailer mailer;
+    EmailTemplates emailTemplates;
+
+    @ConfigProperty(name = "email-sequence.chunk-size", defaultValue = "200")
+    int chunkSize;
 
     @Scheduled(cron = "0 5 8 * * ?")
-    @Transactional
     public void envoyerSequences() {
         LocalDate today = LocalDate.now();
 
-        SocieteEntity societe = SocieteEntity.findById(1L);
-        String societeNom = societe != null ? societe.nom : "moussAIllon";
+        String societeNom = QuarkusTransaction.requiringNew().call(() -> {
+            SocieteEntity societe = SocieteEntity.findById(1L);
+            return societe != null ? societe.nom : "moussAIllon";
+        });
 
-        traiterClients(today, societeNom);
-        traiterBateaux(today, societeNom);
-        traiterMoteurs(today, societeNom);
-        traiterRemorques(today, societeNom);
+        for (Cible cible : Cible.values()) {
+            traiter(cible, today, societeNom);
+        }
     }
 
-    private void traiterClients(LocalDate today, String societeNom) {
-        List<EmailSequenceEtapeEntity> etapes = EmailSequenceEtapeEntity.listActivesByCible(Cible.CLIENT);
-        if (etapes.isEmpty()) return;
-
-        List<ClientEntity> clients = ClientEntity.list("dateCreation is not null and email is not null and consentement = true");
-        for (ClientEntity client : clients) {
-            if (client.email == null || client.email.isBlank()) continue;
-            LocalDate dateCreation = client.dateCreation.toLocalDateTime().toLocalDate();
-            String clientName = client.prenom != null && !client.prenom.isBlank() ? client.prenom : client.nom;
-
-            for (EmailSequenceEtapeEntity etape : etapes) {
-                long jours = ChronoUnit.DAYS.between(dateCreation, today);
-                if (jours >= etape.delaiJours && !EmailSequenceHistoriqueEntity.dejaSent(Cible.CLIENT, client.id, etape.id)) {
-                    String subject = applyClientVariables(etape.sujet, clientName, societeNom, client);
-                    String body = applyClientVariables(etape.contenu, clientName, societeNom, client);
-                    envoyerEtape(Cible.CLIENT, client.id, client.email, etape, subject, body);
-                }
+    private void traiter(Cible cible, LocalDate today, String societeNom) {
+        List<Due> dues = QuarkusTransaction.requiringNew().call(() -> findDues(cible, today));
+        // One transaction per chunk: a failing chunk does not roll back the steps already sent
+        for (int from = 0; from < dues.size(); from += chunkSize) {
+            List<Due> chunk = dues.subList(from, Math.min(from + chunkSize, dues.size()));
+            try {
+                QuarkusTransaction.requiringNew().run(() -> envoyerChunk(cible, chunk, societeNom));
+            } catch (Exception e) {
+                LOG.errorf(e, "Echec de l'envoi d'un lot de %d etapes de sequence %s", chunk.size(), cible);
             }
         }
     }
 
-    private void traiterBateaux(LocalDate today, String societeNom) {
-        List<EmailSequenceEtapeEntity> etapes = EmailSequenceEtapeEntity.listActivesByCible(Cible.BATEAU);
-        if (etapes.isEmpty()) return;
-
-        List<BateauClientEntity> bateaux = BateauClientEntity.list("dateCreation is not null");
-        for (BateauClientEntity bateau : bateaux) {
-            if (bateau.proprietaires == null || bateau.proprietaires.isEmpty()) continue;
-            LocalDate dateCreation = bateau.dateCreation.toLocalDateTime().toLocalDate();
-
-            for (ClientEntity proprietaire : bateau.proprietaires) {
-                if (!proprietaire.consentement) continue;
-                if (proprietaire.email == null || proprietaire.email.isBlank()) continue;
-                String clientName = proprietaire.prenom != null && !proprietaire.prenom.isBlank() ? proprietaire.prenom : proprietaire.nom;
-                String bateauNom = bateau.name != null ? bateau.name : (bateau.immatriculation != null ? bateau.immatriculation : String.valueOf(bateau.id));
-
-                for (EmailSequenceEtapeEntity etape : etapes) {
-                    long jours = ChronoUnit.DAYS.between(dateCreation, today);
-                    if (jours >= etape.delaiJours && !EmailSequenceHistoriqueEntity.dejaSent(Cible.BATEAU, bateau.id, etape.id)) {
-                        String subject = applyEquipementVariables(etape.sujet, clientName, societeNom, bateauNom, proprietaire);
-                        String body = applyEquipementVariables(etape.contenu, clientName, societeNom, bateauNom, proprietaire);
-                        envoyerEtape(Cible.BATEAU, bateau.id, proprietaire.email, etape, subject, body);
-                    }
-                }
-            }
+    /**
+     * Returns the (cible id, etape id) pairs due today with a single anti-join: eligible rows
+     * old enough for an active step and without a matching historique.
+     */
+    List<Due> findDues(Cible cible, LocalDate today) {
+        List<EmailSequenceEtapeEntity> etapes = EmailSequenceEtapeEntity.listActivesByCible(cible);
+        if (etapes.isEmpty()) {
+            return List.of();
         }
-    }
 
-    private void traiterMoteurs(LocalDate today, String societeNom) {
-        List<EmailSequenceEtapeEntity> etapes = EmailSequenceEtapeEntity.listActivesByCible(Cible.MOTEUR);
-        if (etapes.isEmpty()) return;
-
-        List<MoteurClientEntity> moteurs = MoteurClientEntity.list("dateCreation is not null");
-        for (MoteurClientEntity moteur : moteurs) {
-            if (moteur.proprietaire == null || !moteur.proprietaire.consentement || moteur.proprietaire.email == null || moteur.proprietaire.email.isBlank()) continue;
-            LocalDate dateCreation = moteur.dateCreation.toLocalDateTime().toLocalDate();
-            String clientName = moteur.proprietaire.prenom != null && !moteur.proprietaire.prenom.isBlank() ? moteur.proprietaire.prenom : moteur.proprietaire.nom;
-            String moteurNom = moteur.numeroSerie != null ? moteur.numeroSerie : String.valueOf(moteur.id);
-
-            for (EmailSequenceEtapeEntity etape : etapes) {
-                long jours = ChronoUnit.DAYS.between(dateCreation, today);
-                if (jours >= etape.delaiJours && !EmailSequenceHistoriqueEntity.dejaSent(Cible.MOTEUR, moteur.id, etape.id)) {
-                    String subject = applyEquipementVariables(etape.sujet, clientName, societeNom, moteurNom, moteur.proprietaire);
-                    String body = applyEquipementVariables(etape.contenu, clientName, societeNom, moteurNom, moteur.proprietaire);
-                    envoyerEtape(Cible.MOTEUR, moteur.id, moteur.proprietaire.email, etape, subject, body);
-                }
+        List<Object> params = new ArrayList<>();
+        params.add(cible);
+        StringBuilder delais = new StringBuilder();
+        for (EmailSequenceEtapeEntity etape : etapes) {
+            // age in days >= delaiJours  <=>  created before the day following today - delaiJours
+            Timestamp limite = Timestamp.valueOf(today.minusDays(etape.delaiJours - 1L).atStartOfDay());
+            if (delais.length() > 0) {
+                delais.append(" OR ");
             }
+            delais.append("(e.id = ?").append(params.size() + 1).append(" AND x.dateCreation < ?").append(params.size() + 2).append(")");
+            params.add(etape.id);
+            params.add(limite);
+        }
+
+        String hql = "SELECT x.id, e.id FROM " + source(cible) + ", EmailSequenceEtapeEntity e"
+                + " WHERE " + eligibilite(cible)
+                + " AND x.dateCreation IS NOT NULL AND (" + delais + ")"
+                + " AND NOT EXISTS (SELECT h.id FROM EmailSequenceHistoriqueEntity h WHERE h.cible = ?1 AND h.cibleId = x.id AND h.etape.id = e.id)"
+                + " ORDER BY x.id, e.ordre";
+        TypedQuery<Object[]> query = EmailSequenceHistoriqueEntity.getEntityManager().createQuery(hql, Object[].class);
+        for (int i = 0; i < params.size(); i++) {
+            query.setParameter(i + 1, params.get(i));
+        }
+
+        List<Due> dues = new ArrayList<>();
+        for (Object[] row : query.getResultList()) {
+            dues.add(new Due((Long) row[0], (Long) row[1]));
         }
+        return dues;
     }
 
-    private void traiterRemorques(LocalDate today, String societeNom) {
-        List<EmailSequenceEtapeEntity> etapes = EmailSequenceEtapeEntity.listActivesByCible(Cible.REMORQUE);
-        if (etapes.isEmpty()) return;
-
-        List<RemorqueClientEntity> remorques = RemorqueClientEntity.list("dateCreation is not null");
-        for (RemorqueClientEntity remorque : remorques) {
-            if (remorque.proprietaire == null || !remorque.proprietaire.consentement || remorque.proprietaire.email == null || remorque.proprietaire.email.isBlank()) continue;
-            LocalDate dateCreation = remorque.dateCreation.toLocalDateTime().toLocalDate();
-            String clientName = remorque.proprietaire.prenom != null && !remorque.proprietaire.prenom.isBlank() ? remorque.proprietaire.prenom : remorque.proprietaire.nom;
-            String remorqueNom = remorque.immatriculation != null ? remorque.immatriculation : String.valueOf(remorque.id);
-
-            for (EmailSequenceEtapeEntity etape : etapes) {
-                long jours = ChronoUnit.DAYS.between(dateCreation, today);
-                if (jours >= etape.delaiJours && !EmailSequenceHistoriqueEntity.dejaSent(Cible.REMORQUE, remorque.id, etape.id)) {
-                    String subject = applyEquipementVariables(etape.sujet, clientName, societeNom, remorqueNom, remorque.proprietaire);
-                    String body = applyEquipementVariables(etape.contenu, clientName, societeNom, remorqueNom, remorque.proprietaire);
-                    envoyerEtape(Cible.REMORQUE, remorque.id, remorque.proprietaire.email, etape, subject, body);
+    private static String source(Cible cible) {
+        return switch (cible) {
+            case CLIENT -> "ClientEntity x";
+            case BATEAU -> "BateauClientEntity x";
+            case MOTEUR -> "MoteurClientEntity x";
+            case REMORQUE -> "RemorqueClientEntity x";
+        };
+    }
+
+    private static String eligibilite(Cible cible) {
+        return switch (cible) {
+            case CLIENT -> CONTACT_CLIENT.formatted("x");
+            case BATEAU -> "EXISTS (SELECT p.id FROM BateauClientEntity b JOIN b.proprietaires p WHERE b.id = x.id AND "
+                    + CONTACT_CLIENT.formatted("p") + ")";
+            case MOTEUR, REMORQUE -> CONTACT_CLIENT.formatted("x.proprietaire");
+        };
+    }
+
+    private void envoyerChunk(Cible cible, List<Due> chunk, String societeNom) {
+        List<Long> ids = chunk.stream().map(Due::cibleId).distinct().toList();
+        List<? extends PanacheEntity> rows = switch (cible) {
+            case CLIENT -> ClientEntity.list("id in ?1", ids);
+            case BATEAU -> BateauClientEntity.list("id in ?1", ids);
+            case MOTEUR -> MoteurClientEntity.list("id in ?1", ids);
+            case REMORQUE -> RemorqueClientEntity.list("id in ?1", ids);
+        };
+        Map<Long, PanacheEntity> entities = new HashMap<>();
+        for (PanacheEntity row : rows) {
+            entities.put(row.id, row);
+        }
+
+        for (Due due : chunk) {
+            PanacheEntity entity = entities.get(due.cibleId());
+            EmailSequenceEtapeEntity etape = EmailSequenceEtapeEntity.findById(due.etapeId());
+            if (entity == null || etape == null) {
+                continue;
+            }
+            switch (cible) {
+                case CLIENT -> {
+                    ClientEntity client = (ClientEntity) entity;
+                    String clientName = clientName(client);
+                    Map<String, String> variables = clientVariables(clientName, societeNom, client);
+                    EmailTemplates.Compiled template = emailTemplates.etape(etape);
+                    envoyerEtape(Cible.CLIENT, client.id, client.email, etape,
+                            template.sujet.render(variables), template.contenu.render(variables));
+                }
+                case BATEAU -> {
+                    BateauClientEntity bateau = (BateauClientEntity) entity;
+                    ClientEntity proprietaire = bateau.proprietaires.stream()
+                            .filter(p -> p.consentement && p.email != null && !p.email.isBlank())
+                            .findFirst().orElse(null);
+                    if (proprietaire == null) {
+                        continue;
+                    }
+                    String bateauNom = bateau.name != null ? bateau.name : (bateau.immatriculation != null ? bateau.immatriculation : String.valueOf(bateau.id));
+                    envoyerEquipement(Cible.BATEAU, bateau.id, bateauNom, proprietaire, etape, societeNom);
+                }
+                case MOTEUR -> {
+                    MoteurClientEntity moteur = (MoteurClientEntity) entity;
+                    String moteurNom = moteur.numeroSerie != null ? moteur.numeroSerie : String.valueOf(moteur.id);
+                    envoyerEquipement(Cible.MOTEUR, moteur.id, moteurNom, moteur.proprietaire, etape, societeNom);
+                }
+                case REMORQUE -> {
+                    RemorqueClientEntity remorque = (RemorqueClientEntity) entity;
+                    String remorqueNom = remorque.immatriculation != null ? remorque.immatriculation : String.valueOf(remorque.id);
+                    envoyerEquipement(Cible.REMORQUE, remorque.id, remorqueNom, remorque.proprietaire, etape, societeNom);
                 }
             }
         }
     }
 
+    private void envoyerEquipement(Cible cible, long cibleId, String equipementNom, ClientEntity proprietaire, EmailSequenceEtapeEntity etape, String societeNom) {
+        String clientName = clientName(proprietaire);
+        Map<String, String> variables = equipementVariables(clientName, societeNom, equipementNom, proprietaire);
+        EmailTemplates.Compiled template = emailTemplates.etape(etape);
+        envoyerEtape(cible, cibleId, proprietaire.email, etape,
+                template.sujet.render(variables), template.contenu.render(variables));
+    }
+
+    private static String clientName(ClientEntity client) {
+        return client.prenom != null && !client.prenom.isBlank() ? client.prenom : client.nom;
+    }
+
     private void envoyerEtape(Cible cible, long cibleId, String email, EmailSequenceEtapeEntity etape, String subject, String body) {
-        mailer.send(Mail.withHtml(email, subject, body));
+        mailOutbox.enqueue(MailOutboxEntity.Origine.SEQUENCE, email, subject, body);
 
         EmailSequenceHistoriqueEntity historique = new EmailSequenceHistoriqueEntity();
         historique.cible = cible;
@@ -146,21 +207,23 @@ public class EmailSequenceScheduler {
         historique.persist();
     }
 
-    private String applyClientVariables(String text, String clientName, String societeNom, ClientEntity client) {
-        return text
-                .replace("{client}", clientName)
-                .replace("{societe}", societeNom)
-                .replace("{email}", client.email != null ? client.email : "")
-                .replace("{telephone}", client.telephone != null ? client.telephone : "");
+    private static Map<String, String> clientVariables(String clientName, String societeNom, ClientEntity client) {
+        return EmailTemplates.variables(
+                "client", clientName,
+                "societe", societeNom,
+                "email", client.email != null ? client.email : "",
+                "telephone", client.telephone != null ? client.telephone : "");
     }
 
-    private String applyEquipementVariables(String text, String clientName, String societeNom, String equipementNom, ClientEntity proprietaire) {
-        return text
-                .replace("{client}", clientName)
-                .replace("{societe}", societeNom)
-                .replace("{equipement}", equipementNom)
-                .replace("{email}", proprietaire.email != null ? proprietaire.email : "")
-                .replace("{telephone}", proprietaire.telephone != null ? proprietaire.telephone : "");
+    private static Map<String, String> equipementVariables(String clientName, String societeNom, String equipementNom, ClientEntity proprietaire) {
+        return EmailTemplates.variables(
+                "client", clientName,
+                "societe", societeNom,
+                "equipement", equipementNom,
+                "email", proprietaire.email != null ? proprietaire.email : "",
+                "telephone", proprietaire.telephone != null ? proprietaire.telephone : "");
     }
 
+    record Due(long cibleId, long etapeId) {}
+
 }
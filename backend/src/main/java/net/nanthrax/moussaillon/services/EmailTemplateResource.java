@@ -3,6 +3,8 @@ package net.nanthrax.moussaillon.services;
 import java.util.List;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -15,6 +17,9 @@ import net.nanthrax.moussaillon.persistence.EmailTemplateEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class EmailTemplateResource {
 
+    @Inject
+    Event<EmailTemplates.Modification> templateModifications;
+
     @GET
     public List<EmailTemplateEntity> list() {
         return EmailTemplateEntity.listAll();
@@ -41,6 +46,7 @@ public class EmailTemplateResource {
         entity.sujet = template.sujet;
         entity.contenu = template.contenu;
         entity.description = template.description;
+        templateModifications.fire(new EmailTemplates.Modification(entity.type, null));
         return entity;
     }
 
@@ -66,6 +72,7 @@ public class EmailTemplateResource {
                         + "<p>Cordialement,<br/>{societe}</p>";
                 facture.description = "Variables disponibles : {client}, {typeVente}, {reference}, {date}, {statut}, {prixVenteTTC}, {modePaiement}, {lignes}, {societe}";
                 facture.persist();
+                templateModifications.fire(new EmailTemplates.Modification(EmailTemplateEntity.Type.FACTURE, null));
             }
             return Response.ok().build();
         }
@@ -107,6 +114,7 @@ public class EmailTemplateResource {
                 + "<p>Cordialement,<br/>{societe}</p>";
         facture.description = "Variables disponibles : {client}, {typeVente}, {reference}, {date}, {statut}, {prixVenteTTC}, {modePaiement}, {lignes}, {societe}";
         facture.persist();
+        templateModifications.fire(new EmailTemplates.Modification(null, null));
 
         return Response.status(Response.Status.CREATED).build();
     }
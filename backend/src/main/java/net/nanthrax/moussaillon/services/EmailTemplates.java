@@ -0,0 +1,106 @@
+package net.nanthrax.moussaillon.services;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import net.nanthrax.moussaillon.persistence.EmailSequenceEtapeEntity;
+import net.nanthrax.moussaillon.persistence.EmailTemplateEntity;
+
+/**
+ * Cache of compiled email templates, by {@link EmailTemplateEntity.Type} and by sequence step.
+ * Entries are dropped when {@link EmailTemplateResource} or {@link EmailSequenceResource}
+ * commits a change, and reloaded once older than {@code email-templates.cache.max-age}.
+ */
+@ApplicationScoped
+public class EmailTemplates {
+
+    @ConfigProperty(name = "email-templates.cache.max-age", defaultValue = "5m")
+    Duration maxAge;
+
+    private final ConcurrentMap<EmailTemplateEntity.Type, Compiled> parType = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, Compiled> parEtape = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compiled template of the given type, or null when the type has no template
+     * in database (the callers then use their built-in text).
+     */
+    public Compiled template(EmailTemplateEntity.Type type) {
+        Compiled cached = parType.get(type);
+        if (cached == null || System.currentTimeMillis() - cached.chargeA > maxAge.toMillis()) {
+            EmailTemplateEntity entity = EmailTemplateEntity.findByType(type);
+            // A missing template is cached too, as an entry without segments
+            cached = entity != null ? Compiled.of(entity.sujet, entity.contenu) : new Compiled(null, null, System.currentTimeMillis());
+            parType.put(type, cached);
+        }
+        return cached.sujet != null ? cached : null;
+    }
+
+    public Compiled etape(EmailSequenceEtapeEntity etape) {
+        Compiled cached = parEtape.get(etape.id);
+        // The step is already loaded by the caller, so a changed text is detected without a query
+        if (cached == null || !cached.sujet.source().equals(etape.sujet) || !cached.contenu.source().equals(etape.contenu)) {
+            cached = Compiled.of(etape.sujet, etape.contenu);
+            parEtape.put(etape.id, cached);
+        }
+        return cached;
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) Modification modification) {
+        if (modification.type() != null) {
+            parType.remove(modification.type());
+        }
+        if (modification.etapeId() != null) {
+            parEtape.remove(modification.etapeId());
+        }
+        if (modification.type() == null && modification.etapeId() == null) {
+            parType.clear();
+            parEtape.clear();
+        }
+    }
+
+    /**
+     * Builds a variable map from name/value pairs; null values render as an empty string.
+     */
+    public static Map<String, String> variables(String... nameValues) {
+        Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i + 1 < nameValues.length; i += 2) {
+            variables.put(nameValues[i], nameValues[i + 1]);
+        }
+        return variables;
+    }
+
+    /**
+     * CDI event fired by the write endpoints; both fields null means every template.
+     */
+    public record Modification(EmailTemplateEntity.Type type, Long etapeId) {}
+
+    public static final class Compiled {
+
+        public final CompiledTemplate sujet;
+
+        public final CompiledTemplate contenu;
+
+        private final long chargeA;
+
+        private Compiled(CompiledTemplate sujet, CompiledTemplate contenu, long chargeA) {
+            this.sujet = sujet;
+            this.contenu = contenu;
+            this.chargeA = chargeA;
+        }
+
+        static Compiled of(String sujet, String contenu) {
+            return new Compiled(CompiledTemplate.compile(sujet), CompiledTemplate.compile(contenu), System.currentTimeMillis());
+        }
+
+    }
+
+}
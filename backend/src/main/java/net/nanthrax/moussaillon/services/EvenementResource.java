@@ -0,0 +1,55 @@
+package net.nanthrax.moussaillon.services;
+
+import org.jboss.resteasy.reactive.ResponseHeader;
+import org.jboss.resteasy.reactive.RestStreamElementType;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Server-Sent Events stream of the changes committed by the write paths, so the screens
+ * can update themselves instead of polling /dashboard or the technician task list.
+ */
+@Path("/evenements")
+@ApplicationScoped
+public class EvenementResource {
+
+    private final BroadcastProcessor<DashboardEvent> processor = BroadcastProcessor.create();
+
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    @ResponseHeader(name = "X-Accel-Buffering", value = "no")
+    public Multi<DashboardEvent> stream(@QueryParam("ecran") String ecran, @QueryParam("technicienId") Long technicienId) {
+        String screen = ecran == null || ecran.isBlank() ? "dashboard" : ecran.trim();
+        if (!"dashboard".equals(screen) && !"planning".equals(screen)) {
+            throw new WebApplicationException("Ecran invalide: " + ecran, 400);
+        }
+        return processor.filter(event -> accept(event, screen, technicienId));
+    }
+
+    synchronized void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) DashboardEvent event) {
+        processor.onNext(event);
+    }
+
+    private boolean accept(DashboardEvent event, String screen, Long technicienId) {
+        if (technicienId != null) {
+            // Technician screens only follow the interventions they are assigned to
+            return event.type == DashboardEvent.Type.INTERVENTION && event.techniciens.contains(technicienId);
+        }
+        if ("planning".equals(screen)) {
+            return event.type != DashboardEvent.Type.STOCK;
+        }
+        return true;
+    }
+
+}
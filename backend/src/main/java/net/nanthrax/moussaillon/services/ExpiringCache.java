@@ -0,0 +1,116 @@
+package net.nanthrax.moussaillon.services;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Small in-memory cache bounded both in size (least recently used entries go first) and in
+ * time, with hit/miss counters so that its TTL and capacity can be tuned from the figures.
+ */
+public class ExpiringCache<K, V> {
+
+    private final long ttlMillis;
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder expirations = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    public static class Stats {
+        public int taille;
+        public int capacite;
+        public long ttlSecondes;
+        public long hits;
+        public long misses;
+        public long evictions;
+        public long expirations;
+        public long invalidations;
+        public double tauxSucces;
+    }
+
+    public ExpiringCache(Duration ttl, int maxEntries) {
+        this.ttlMillis = ttl.toMillis();
+        this.maxEntries = Math.max(1, maxEntries);
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public V get(K key) {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expiresAt() <= now) {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.value();
+        }
+    }
+
+    public void put(K key, V value) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public void invalidate(Predicate<? super K> predicate) {
+        synchronized (entries) {
+            int before = entries.size();
+            entries.keySet().removeIf(predicate);
+            invalidations.add(before - entries.size());
+        }
+    }
+
+    public void clear() {
+        invalidate(key -> true);
+    }
+
+    public Stats stats() {
+        Stats stats = new Stats();
+        synchronized (entries) {
+            stats.taille = entries.size();
+        }
+        stats.capacite = maxEntries;
+        stats.ttlSecondes = ttlMillis / 1000;
+        stats.hits = hits.sum();
+        stats.misses = misses.sum();
+        stats.evictions = evictions.sum();
+        stats.expirations = expirations.sum();
+        stats.invalidations = invalidations.sum();
+        long total = stats.hits + stats.misses;
+        stats.tauxSucces = total == 0 ? 0 : (double) stats.hits / total;
+        return stats;
+    }
+
+}
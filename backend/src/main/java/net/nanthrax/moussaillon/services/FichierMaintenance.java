@@ -0,0 +1,194 @@
+package net.nanthrax.moussaillon.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.PluralAttribute;
+import jakarta.transaction.Transactional;
+import net.nanthrax.moussaillon.persistence.FichierEntity;
+
+/**
+ * Finds the stored images and documents that no entity references any more. Every String
+ * attribute (plain column, element collection, or List&lt;String&gt; stored as an array column
+ * such as images/documents/photos) is scanned for /images/... and /documents/... URLs, so new
+ * entities are covered without changes here.
+ */
+@ApplicationScoped
+public class FichierMaintenance {
+
+    private static final Logger LOG = Logger.getLogger(FichierMaintenance.class);
+
+    private static final Pattern URL = Pattern.compile("/(images|documents)/([A-Za-z0-9._-]+)");
+
+    private static final List<String> REPERTOIRES = List.of("images", "documents");
+
+    @Inject
+    FichierStore fichierStore;
+
+    @Inject
+    EntityManager entityManager;
+
+    // Files younger than this are kept: the UIs upload first and save the entity afterwards
+    @ConfigProperty(name = "fichiers.orphelins.delai", defaultValue = "P1D")
+    Duration delai;
+
+    @ConfigProperty(name = "fichiers.orphelins.suppression", defaultValue = "false")
+    boolean suppression;
+
+    public static class Orphelin {
+        public String repertoire;
+        public String nom;
+        public long taille;
+    }
+
+    @Scheduled(cron = "0 30 3 * * ?")
+    @Transactional
+    void nettoyer() {
+        List<Orphelin> orphelins = orphelins();
+        long taille = orphelins.stream().mapToLong(o -> o.taille).sum();
+        if (!suppression) {
+            if (!orphelins.isEmpty()) {
+                LOG.infof("%d fichiers orphelins (%d octets), suppression desactivee", orphelins.size(), taille);
+            }
+            return;
+        }
+        supprimer(orphelins);
+        LOG.infof("%d fichiers orphelins supprimes (%d octets)", orphelins.size(), taille);
+    }
+
+    @Transactional
+    public List<Orphelin> orphelins() {
+        Set<String> references = references();
+        long limite = System.currentTimeMillis() - delai.toMillis();
+        List<Orphelin> orphelins = new ArrayList<>();
+        for (String repertoire : REPERTOIRES) {
+            java.nio.file.Path dir;
+            try {
+                dir = fichierStore.directory(repertoire);
+            } catch (IOException e) {
+                LOG.warnf("Repertoire %s inaccessible: %s", repertoire, e.getMessage());
+                continue;
+            }
+            try (Stream<java.nio.file.Path> files = Files.list(dir)) {
+                for (java.nio.file.Path file : (Iterable<java.nio.file.Path>) files::iterator) {
+                    String nom = file.getFileName().toString();
+                    if (nom.startsWith(".") || references.contains(repertoire + "/" + nom)) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (!attributes.isRegularFile() || attributes.lastModifiedTime().toMillis() > limite) {
+                        continue;
+                    }
+                    Orphelin orphelin = new Orphelin();
+                    orphelin.repertoire = repertoire;
+                    orphelin.nom = nom;
+                    orphelin.taille = attributes.size();
+                    orphelins.add(orphelin);
+                }
+            } catch (IOException e) {
+                LOG.warnf("Impossible de parcourir %s: %s", dir, e.getMessage());
+            }
+        }
+        return orphelins;
+    }
+
+    @Transactional
+    public void supprimer(List<Orphelin> orphelins) {
+        for (Orphelin orphelin : orphelins) {
+            try {
+                java.nio.file.Path dir = fichierStore.directory(orphelin.repertoire);
+                Files.deleteIfExists(dir.resolve(orphelin.nom));
+                // Renditions of an image live in sub-directories under the same name
+                for (ImageDerivatives.Taille taille : ImageDerivatives.Taille.values()) {
+                    Files.deleteIfExists(dir.resolve(taille.name().toLowerCase(Locale.ROOT)).resolve(orphelin.nom));
+                }
+                FichierEntity.delete("repertoire = ?1 and nom = ?2", orphelin.repertoire, orphelin.nom);
+            } catch (IOException e) {
+                LOG.warnf("Impossible de supprimer %s/%s: %s", orphelin.repertoire, orphelin.nom, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns every "repertoire/nom" referenced by a String attribute of any entity.
+     */
+    Set<String> references() {
+        Set<String> references = new HashSet<>();
+        for (EntityType<?> entity : entityManager.getMetamodel().getEntities()) {
+            if (entity.getJavaType() == FichierEntity.class) {
+                continue;
+            }
+            for (Attribute<?, ?> attribute : entity.getAttributes()) {
+                if (!(attribute instanceof PluralAttribute) && Collection.class.isAssignableFrom(attribute.getJavaType())) {
+                    // Unannotated List<String> fields are basic array columns: no LIKE, read the values
+                    String hql = "SELECT e." + attribute.getName() + " FROM " + entity.getName() + " e WHERE e."
+                            + attribute.getName() + " IS NOT NULL";
+                    try (Stream<Object> values = entityManager.createQuery(hql, Object.class).getResultStream()) {
+                        values.forEach(value -> {
+                            if (value instanceof Collection<?> elements) {
+                                elements.forEach(element -> ajouter(references, element));
+                            } else if (value instanceof Object[] elements) {
+                                Arrays.stream(elements).forEach(element -> ajouter(references, element));
+                            }
+                        });
+                    }
+                    continue;
+                }
+                String from = " FROM " + entity.getName() + " e";
+                String valeur;
+                if (attribute instanceof PluralAttribute<?, ?, ?> plural) {
+                    if (plural.getElementType().getJavaType() != String.class) {
+                        continue;
+                    }
+                    from += " JOIN e." + attribute.getName() + " v";
+                    valeur = "v";
+                } else if (attribute.getJavaType() == String.class) {
+                    valeur = "e." + attribute.getName();
+                } else {
+                    continue;
+                }
+                String hql = "SELECT " + valeur + from + " WHERE " + valeur + " LIKE '%/images/%' OR " + valeur + " LIKE '%/documents/%'";
+                try (Stream<String> values = entityManager.createQuery(hql, String.class).getResultStream()) {
+                    values.forEach(value -> ajouter(references, value));
+                }
+            }
+        }
+        return references;
+    }
+
+    private static void ajouter(Set<String> references, Object value) {
+        if (value == null) {
+            return;
+        }
+        Matcher matcher = URL.matcher(value.toString());
+        while (matcher.find()) {
+            references.add(matcher.group(1) + "/" + matcher.group(2));
+        }
+    }
+
+    public boolean suppression() {
+        return suppression;
+    }
+
+}
@@ -0,0 +1,43 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.List;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+
+@Path("/fichiers")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+public class FichierResource {
+
+    @Inject
+    FichierMaintenance fichierMaintenance;
+
+    @GET
+    @Path("/orphelins")
+    public List<FichierMaintenance.Orphelin> orphelins() {
+        return fichierMaintenance.orphelins();
+    }
+
+    /**
+     * Deletes the orphans now; refused unless fichiers.orphelins.suppression is enabled, the
+     * same switch as the nightly job.
+     */
+    @DELETE
+    @Path("/orphelins")
+    public List<FichierMaintenance.Orphelin> supprimerOrphelins() {
+        if (!fichierMaintenance.suppression()) {
+            throw new WebApplicationException("La suppression des fichiers orphelins est desactivee (fichiers.orphelins.suppression)", 409);
+        }
+        List<FichierMaintenance.Orphelin> orphelins = fichierMaintenance.orphelins();
+        fichierMaintenance.supprimer(orphelins);
+        return orphelins;
+    }
+
+}
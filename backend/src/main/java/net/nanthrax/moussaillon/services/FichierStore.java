@@ -0,0 +1,432 @@
+package net.nanthrax.moussaillon.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.PathPart;
+import org.jboss.resteasy.reactive.multipart.FileUpload;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import net.nanthrax.moussaillon.persistence.FichierEntity;
+
+/**
+ * Storage of the uploaded images and documents. Files are content-addressed (named after
+ * their SHA-256), streamed from disk with sendfile, honour single byte ranges and
+ * conditional requests, and their content type is resolved once at upload time.
+ */
+@ApplicationScoped
+public class FichierStore {
+
+    private static final Logger LOG = Logger.getLogger(FichierStore.class);
+
+    private static final String OCTET_STREAM = MediaType.APPLICATION_OCTET_STREAM;
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    private static final Pattern EXTENSION = Pattern.compile("\\.[a-z0-9]{1,10}");
+
+    private static final Object[] VERROUS = new Object[64];
+
+    static {
+        for (int i = 0; i < VERROUS.length; i++) {
+            VERROUS[i] = new Object();
+        }
+    }
+
+    @ConfigProperty(name = "moussaillon.data.dir", defaultValue = "./data")
+    String dataDir;
+
+    @ConfigProperty(name = "fichiers.upload.taille-max", defaultValue = "25M")
+    MemorySize tailleMax;
+
+    @ConfigProperty(name = "fichiers.upload.threads", defaultValue = "4")
+    int threads;
+
+    // Content types by stored name (a name always holds the same content), looked up once
+    private final ExpiringCache<String, String> types = new ExpiringCache<>(Duration.ofDays(1), 10_000);
+
+    private ExecutorService executor;
+
+    /**
+     * Outcome of one file of an upload batch.
+     */
+    public static class Televersement {
+
+        public enum Statut {
+            OK,
+            TROP_VOLUMINEUX,
+            ECHEC
+        }
+
+        public String nomOriginal;
+        public String url;
+        public long taille;
+        public Statut statut;
+        public String erreur;
+    }
+
+    public java.nio.file.Path directory(String repertoire) throws IOException {
+        // Absolute and normalized, as the resolved file names it is compared with
+        java.nio.file.Path dir = java.nio.file.Path.of(dataDir, repertoire).toAbsolutePath().normalize();
+        if (!Files.exists(dir)) {
+            Files.createDirectories(dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Stores a batch of uploaded parts concurrently, each one in its own transaction, so that
+     * a file too large or failing to store does not prevent the others from being kept. The
+     * callback runs for every stored file, e.g. to plan the image renditions.
+     */
+    public CompletionStage<List<Televersement>> televerser(String repertoire, List<FileUpload> files,
+                                                           BiConsumer<java.nio.file.Path, FichierEntity> apres) {
+        List<CompletableFuture<Televersement>> futures = new ArrayList<>();
+        for (FileUpload file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> televerser(repertoire, file, apres), executor()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Builds the upload response. With {@code details} every file gets its outcome (207 when
+     * only some were stored), otherwise the list of links is returned as before and the
+     * request fails as soon as one file was refused.
+     */
+    public static Response reponse(List<Televersement> resultats, boolean details, Function<Televersement, String> lien) {
+        long stockes = resultats.stream().filter(r -> r.statut == Televersement.Statut.OK).count();
+        if (details) {
+            int status = stockes == resultats.size() ? 200 : stockes > 0 ? 207 : statutEchec(resultats);
+            return Response.status(status).entity(resultats).type(MediaType.APPLICATION_JSON).build();
+        }
+        for (Televersement resultat : resultats) {
+            if (resultat.statut != Televersement.Statut.OK) {
+                return Response.status(statutEchec(List.of(resultat))).entity(resultat.erreur).type(MediaType.TEXT_PLAIN).build();
+            }
+        }
+        return Response.ok(resultats.stream().map(lien).toList()).type(MediaType.APPLICATION_JSON).build();
+    }
+
+    private static int statutEchec(List<Televersement> resultats) {
+        boolean tropVolumineux = resultats.stream().anyMatch(r -> r.statut == Televersement.Statut.TROP_VOLUMINEUX);
+        return tropVolumineux ? Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode() : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+    }
+
+    private Televersement televerser(String repertoire, FileUpload file, BiConsumer<java.nio.file.Path, FichierEntity> apres) {
+        Televersement resultat = new Televersement();
+        resultat.nomOriginal = file.fileName();
+        resultat.taille = file.size();
+        if (file.size() > tailleMax.asLongValue()) {
+            resultat.statut = Televersement.Statut.TROP_VOLUMINEUX;
+            resultat.erreur = "Fichier trop volumineux (" + file.size() + " octets, maximum " + tailleMax.asLongValue() + ")";
+            return resultat;
+        }
+        try {
+            FichierEntity fichier = store(repertoire, file);
+            resultat.statut = Televersement.Statut.OK;
+            resultat.url = "/" + repertoire + "/" + fichier.nom;
+            if (apres != null) {
+                apres.accept(directory(repertoire).resolve(fichier.nom), fichier);
+            }
+        } catch (Exception e) {
+            LOG.warnf("Impossible d'enregistrer %s: %s", file.fileName(), e.getMessage());
+            resultat.statut = Televersement.Statut.ECHEC;
+            resultat.erreur = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        }
+        return resultat;
+    }
+
+    /**
+     * Stores an uploaded part under the SHA-256 of its content. The part was already written
+     * by the HTTP layer into the uploads directory, which lives in the data directory: it is
+     * only read once to be hashed, then renamed into place instead of being copied again.
+     * Identical content is kept once (the same extension reuses the file, another extension
+     * gets a hard link) and the metadata is recorded once per stored name.
+     */
+    public FichierEntity store(String repertoire, FileUpload file) throws IOException {
+        java.nio.file.Path source = file.uploadedFile();
+        MessageDigest digest = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return enregistrer(repertoire, source, HexFormat.of().formatHex(digest.digest()), file.fileName(), file.contentType());
+    }
+
+    public FichierEntity store(String repertoire, InputStream content, String originalName, String declaredContentType) throws IOException {
+        java.nio.file.Path temporaire = Files.createTempFile(directory(repertoire), ".upload", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(content, digest)) {
+                Files.copy(in, temporaire, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return enregistrer(repertoire, temporaire, HexFormat.of().formatHex(digest.digest()), originalName, declaredContentType);
+        } finally {
+            Files.deleteIfExists(temporaire);
+        }
+    }
+
+    private FichierEntity enregistrer(String repertoire, java.nio.file.Path source, String hash, String originalName, String declaredContentType) throws IOException {
+        java.nio.file.Path dir = directory(repertoire);
+        String nom = hash + extension(originalName);
+        java.nio.file.Path target = dir.resolve(nom);
+        // The same content uploaded twice in a batch is stored by one thread at a time
+        synchronized (VERROUS[Math.floorMod(hash.hashCode(), VERROUS.length)]) {
+            return QuarkusTransaction.joiningExisting().call(() -> {
+                if (!Files.exists(target)) {
+                    FichierEntity meme = FichierEntity.find("repertoire = ?1 and sha256 = ?2", repertoire, hash).firstResult();
+                    java.nio.file.Path existant = meme != null ? dir.resolve(meme.nom) : null;
+                    if (existant == null || !Files.exists(existant) || !link(target, existant)) {
+                        deplacer(source, target);
+                    }
+                }
+
+                FichierEntity fichier = FichierEntity.findByNom(repertoire, nom);
+                if (fichier == null) {
+                    fichier = new FichierEntity();
+                    fichier.repertoire = repertoire;
+                    fichier.nom = nom;
+                    fichier.sha256 = hash;
+                    fichier.nomOriginal = originalName;
+                    fichier.contentType = resolveContentType(target, declaredContentType);
+                    fichier.taille = Files.size(target);
+                    fichier.dateCreation = new Timestamp(System.currentTimeMillis());
+                    fichier.persist();
+                }
+                return fichier;
+            });
+        }
+    }
+
+    private static void deplacer(java.nio.file.Path source, java.nio.file.Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Uploads directory on another file system: copy next to the target, then rename
+            java.nio.file.Path temporaire = Files.createTempFile(target.getParent(), ".upload", ".tmp");
+            try {
+                Files.copy(source, temporaire, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temporaire, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaire);
+            }
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of a content-addressed file name, or null for the files stored
+     * under a random name before.
+     */
+    public static String hash(String filename) {
+        int dot = filename.indexOf('.');
+        String base = dot >= 0 ? filename.substring(0, dot) : filename;
+        return HASH.matcher(base).matches() ? base : null;
+    }
+
+    private static boolean link(java.nio.file.Path link, java.nio.file.Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static String extension(String originalName) {
+        int dotIndex = originalName != null ? originalName.lastIndexOf('.') : -1;
+        if (dotIndex <= 0) {
+            return "";
+        }
+        String extension = originalName.substring(dotIndex).toLowerCase(Locale.ROOT);
+        return EXTENSION.matcher(extension).matches() ? extension : "";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the stored file, or throws 404 when it does not exist or escapes the directory.
+     */
+    public java.nio.file.Path resolve(String repertoire, String filename) throws IOException {
+        java.nio.file.Path dir = directory(repertoire);
+        java.nio.file.Path file = dir.resolve(filename).normalize();
+        if (!file.startsWith(dir) || !Files.isRegularFile(file)) {
+            throw new NotFoundException();
+        }
+        return file;
+    }
+
+    public Response serve(String repertoire, String filename, Request request, String range, String ifRange, String disposition) throws IOException {
+        java.nio.file.Path file = resolve(repertoire, filename);
+        return serveFile(file, () -> contentType(repertoire, filename, file), hash(filename), request, range, ifRange, disposition);
+    }
+
+    /**
+     * Streams a file. When {@code hash} is given the content can never change under this
+     * name, so the hash is the ETag and the response is cacheable forever. The content type
+     * is only resolved when the content is sent, not for a 304.
+     */
+    public Response serveFile(java.nio.file.Path file, Supplier<String> contentType, String hash, Request request, String range, String ifRange, String disposition) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        // HTTP dates have a one second resolution
+        long lastModified = attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+        EntityTag etag = new EntityTag(hash != null ? hash : Long.toHexString(lastModified) + "-" + Long.toHexString(size));
+        String cacheControl = hash != null ? IMMUTABLE : "public, max-age=86400";
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(new Date(lastModified), etag);
+        if (notModified != null) {
+            return notModified.tag(etag).header("Cache-Control", cacheControl).build();
+        }
+
+        Response.ResponseBuilder builder;
+        long[] bounds = ifRange == null || ifRange.equals(etag.toString()) ? parseRange(range, size) : null;
+        if (bounds == null) {
+            builder = Response.ok(new PathPart(file, 0, size));
+        } else if (bounds.length == 0) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size)
+                    .build();
+        } else {
+            long length = bounds[1] - bounds[0] + 1;
+            builder = Response.status(Response.Status.PARTIAL_CONTENT)
+                    .entity(new PathPart(file, bounds[0], length))
+                    .header("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+        }
+        builder.type(contentType.get())
+                .tag(etag)
+                .lastModified(new Date(lastModified))
+                .header("Accept-Ranges", "bytes")
+                .header("Cache-Control", cacheControl);
+        if (disposition != null) {
+            builder.header("Content-Disposition", disposition);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Content type recorded at upload, or probed for the files uploaded before they were recorded.
+     */
+    public String contentType(String repertoire, String filename, java.nio.file.Path file) {
+        String cle = repertoire + "/" + filename;
+        String contentType = types.get(cle);
+        if (contentType == null) {
+            FichierEntity fichier = FichierEntity.findByNom(repertoire, filename);
+            contentType = fichier != null ? fichier.contentType : resolveContentType(file, null);
+            types.put(cle, contentType);
+        }
+        return contentType;
+    }
+
+    static String resolveContentType(java.nio.file.Path file, String declared) {
+        String contentType = null;
+        try {
+            contentType = Files.probeContentType(file);
+        } catch (IOException e) {
+            // fall back on the declared type or the extension
+        }
+        if (contentType == null) {
+            contentType = URLConnection.guessContentTypeFromName(file.getFileName().toString().toLowerCase(Locale.ROOT));
+        }
+        if (contentType == null && declared != null && !declared.isBlank()) {
+            contentType = declared;
+        }
+        return contentType != null ? contentType : OCTET_STREAM;
+    }
+
+    /**
+     * Parses a single "bytes=" range. Returns null to serve the whole file (no or unsupported
+     * header, several ranges), an empty array when the range cannot be satisfied, otherwise
+     * the inclusive first and last byte positions.
+     */
+    static long[] parseRange(String range, long size) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start >= size || start > end) {
+                return new long[0];
+            }
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -3,6 +3,8 @@ package net.nanthrax.moussaillon.services;
 import java.util.List;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -24,6 +26,12 @@ import net.nanthrax.moussaillon.persistence.ForfaitEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class ForfaitResource {
 
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
     @GET
     public List<ForfaitEntity> list() {
         return ForfaitEntity.listAll();
@@ -31,19 +39,20 @@ public class ForfaitResource {
 
     @GET
     @Path("/search")
-    public List<ForfaitEntity> search(@QueryParam("q") String q) {
+    public List<ForfaitEntity> search(@QueryParam("q") String q, @QueryParam("limit") Integer limit) {
         if (q == null || q.trim().isEmpty()) {
             return ForfaitEntity.listAll();
         }
 
-        String likePattern = "%" + q.toLowerCase() + "%";
-        return ForfaitEntity.list("LOWER(nom) LIKE ?1 OR LOWER(reference) LIKE ?1", likePattern);
+        return SearchIndex.ordonner(searchIndex.chercher(SearchIndex.Type.FORFAITS, q, limit),
+                ids -> ForfaitEntity.list("id in ?1", ids));
     }
 
     @POST
     @Transactional
     public Response create(ForfaitEntity forfait) {
         forfait.persist();
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.FORFAITS, forfait));
         return Response.status(Response.Status.CREATED).entity(forfait).build();
     }
 
@@ -67,6 +76,7 @@ public class ForfaitResource {
         }
 
         entity.delete();
+        searchEvents.fire(SearchIndex.Modification.retirer(SearchIndex.Type.FORFAITS, id));
         return Response.status(204).build();
     }
 
@@ -103,6 +113,7 @@ public class ForfaitResource {
             entity.taches.addAll(forfait.taches);
         }
 
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.FORFAITS, entity));
         return entity;
     }
 }
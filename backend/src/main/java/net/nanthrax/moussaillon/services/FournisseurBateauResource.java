@@ -16,8 +16,8 @@ import jakarta.transaction.Transactional;
 public class FournisseurBateauResource {
 
     @GET
-    public List<FournisseurBateauEntity> listAll() {
-        return FournisseurBateauEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurBateauEntity.class, page);
     }
 
     @GET
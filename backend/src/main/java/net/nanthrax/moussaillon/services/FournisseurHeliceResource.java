@@ -16,8 +16,8 @@ import jakarta.transaction.Transactional;
 public class FournisseurHeliceResource {
 
     @GET
-    public List<FournisseurHeliceEntity> listAll() {
-        return FournisseurHeliceEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurHeliceEntity.class, page);
     }
 
     @GET
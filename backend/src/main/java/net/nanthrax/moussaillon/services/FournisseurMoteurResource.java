@@ -16,8 +16,8 @@ import jakarta.transaction.Transactional;
 public class FournisseurMoteurResource {
 
     @GET
-    public List<FournisseurMoteurEntity> listAll() {
-        return FournisseurMoteurEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurMoteurEntity.class, page);
     }
 
     @GET
@@ -19,8 +19,8 @@ import java.util.Map;
 public class FournisseurProduitResource {
 
     @GET
-    public List<FournisseurProduitEntity> listAll() {
-        return FournisseurProduitEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurProduitEntity.class, page);
     }
 
     @GET
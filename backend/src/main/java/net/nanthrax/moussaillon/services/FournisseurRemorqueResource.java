@@ -16,8 +16,8 @@ import jakarta.transaction.Transactional;
 public class FournisseurRemorqueResource {
 
     @GET
-    public List<FournisseurRemorqueEntity> listAll() {
-        return FournisseurRemorqueEntity.listAll();
+    public Response listAll(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurRemorqueEntity.class, page);
     }
 
     @GET
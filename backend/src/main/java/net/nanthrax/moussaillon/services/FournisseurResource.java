@@ -16,8 +16,8 @@ import java.util.List;
 public class FournisseurResource {
 
     @GET
-    public List<FournisseurEntity> list() {
-        return FournisseurEntity.listAll();
+    public Response list(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(FournisseurEntity.class, page);
     }
 
     @GET
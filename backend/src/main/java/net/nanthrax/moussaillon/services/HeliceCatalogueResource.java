@@ -20,8 +20,8 @@ import java.util.Map;
 public class HeliceCatalogueResource {
 
     @GET
-    public List<HeliceCatalogueEntity> list() {
-        return HeliceCatalogueEntity.listAll();
+    public Response list(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(HeliceCatalogueEntity.class, page);
     }
 
     @GET
@@ -0,0 +1,278 @@
+package net.nanthrax.moussaillon.services;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+
+/**
+ * Fixed-width renditions of the uploaded images, stored next to the originals under
+ * images/&lt;taille&gt;/. They are generated by a small worker pool right after the upload,
+ * or on first request for the images uploaded before.
+ */
+@ApplicationScoped
+public class ImageDerivatives {
+
+    private static final Logger LOG = Logger.getLogger(ImageDerivatives.class);
+
+    public enum Taille {
+        MINIATURE,
+        MOYENNE
+    }
+
+    @ConfigProperty(name = "images.miniature.largeur", defaultValue = "320")
+    int largeurMiniature;
+
+    @ConfigProperty(name = "images.moyenne.largeur", defaultValue = "1024")
+    int largeurMoyenne;
+
+    @ConfigProperty(name = "images.derives.threads", defaultValue = "2")
+    int threads;
+
+    @ConfigProperty(name = "images.derives.attente", defaultValue = "30s")
+    Duration attente;
+
+    private final Map<java.nio.file.Path, CompletableFuture<java.nio.file.Path>> enCours = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
+
+    /**
+     * Queues the generation of every rendition of a freshly uploaded image.
+     */
+    public void planifier(java.nio.file.Path original, String contentType) {
+        if (!supporte(contentType)) {
+            return;
+        }
+        for (Taille taille : Taille.values()) {
+            generer(original, contentType, taille);
+        }
+    }
+
+    /**
+     * Returns the rendition, generating it if needed, or null when the image cannot be
+     * resized (unsupported format, corrupted file) and the original should be served.
+     */
+    public java.nio.file.Path obtenir(java.nio.file.Path original, String contentType, Taille taille) {
+        if (!supporte(contentType)) {
+            return null;
+        }
+        java.nio.file.Path cible = cible(original, taille);
+        if (Files.exists(cible)) {
+            return cible;
+        }
+        try {
+            return generer(original, contentType, taille).get(attente.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            LOG.warnf("Impossible de generer la taille %s de %s: %s", taille, original.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    public static String contentType(String originalContentType) {
+        return "image/png".equals(originalContentType) || "image/gif".equals(originalContentType) ? "image/png" : "image/jpeg";
+    }
+
+    private CompletableFuture<java.nio.file.Path> generer(java.nio.file.Path original, String contentType, Taille taille) {
+        java.nio.file.Path cible = cible(original, taille);
+        // A single generation per rendition, whoever asks for it first
+        CompletableFuture<java.nio.file.Path> future = enCours.computeIfAbsent(cible, key -> CompletableFuture.supplyAsync(() -> {
+            try {
+                if (!Files.exists(cible)) {
+                    redimensionner(original, cible, largeur(taille), contentType(contentType));
+                }
+                return cible;
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }, executor()));
+        future.whenComplete((path, error) -> enCours.remove(cible, future));
+        return future;
+    }
+
+    private java.nio.file.Path cible(java.nio.file.Path original, Taille taille) {
+        return original.resolveSibling(taille.name().toLowerCase(Locale.ROOT)).resolve(original.getFileName());
+    }
+
+    private int largeur(Taille taille) {
+        return taille == Taille.MINIATURE ? largeurMiniature : largeurMoyenne;
+    }
+
+    private static boolean supporte(String contentType) {
+        return "image/jpeg".equals(contentType) || "image/png".equals(contentType)
+                || "image/gif".equals(contentType) || "image/bmp".equals(contentType);
+    }
+
+    private static void redimensionner(java.nio.file.Path original, java.nio.file.Path cible, int largeur, String format) throws IOException {
+        BufferedImage source;
+        int largeurSource;
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("format d'image non reconnu");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                largeurSource = reader.getWidth(0);
+                // Decode at most twice the target width, a 24 Mpx photo never lands fully in memory
+                int pas = Math.max(1, largeurSource / (largeur * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(pas, pas, 0, 0);
+                source = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        source = orienter(source, orientation(original));
+
+        int largeurCible = Math.min(largeur, source.getWidth());
+        int hauteurCible = Math.max(1, (int) Math.round((double) source.getHeight() * largeurCible / source.getWidth()));
+        boolean png = "image/png".equals(format);
+        BufferedImage resultat = new BufferedImage(largeurCible, hauteurCible, png ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resultat.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, largeurCible, hauteurCible, null);
+        } finally {
+            g.dispose();
+        }
+
+        Files.createDirectories(cible.getParent());
+        java.nio.file.Path temporaire = Files.createTempFile(cible.getParent(), ".derive", ".tmp");
+        try {
+            if (!ImageIO.write(resultat, png ? "png" : "jpg", temporaire.toFile())) {
+                throw new IOException("aucun encodeur pour " + format);
+            }
+            Files.move(temporaire, cible, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaire);
+        }
+    }
+
+    private static BufferedImage orienter(BufferedImage image, int orientation) {
+        if (orientation != 3 && orientation != 6 && orientation != 8) {
+            return image;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        boolean quart = orientation != 3;
+        BufferedImage resultat = new BufferedImage(quart ? h : w, quart ? w : h,
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        AffineTransform transform = new AffineTransform();
+        if (orientation == 3) {
+            transform.translate(w, h);
+            transform.rotate(Math.PI);
+        } else if (orientation == 6) {
+            transform.translate(h, 0);
+            transform.rotate(Math.PI / 2);
+        } else {
+            transform.translate(0, w);
+            transform.rotate(-Math.PI / 2);
+        }
+        Graphics2D g = resultat.createGraphics();
+        try {
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return resultat;
+    }
+
+    /**
+     * Reads the EXIF orientation of a JPEG (1 when absent): phone photos are stored sideways
+     * and rely on this tag, which ImageIO ignores.
+     */
+    static int orientation(java.nio.file.Path file) {
+        try (InputStream stream = Files.newInputStream(file); DataInputStream in = new DataInputStream(stream)) {
+            if (in.readUnsignedShort() != 0xFFD8) {
+                return 1;
+            }
+            while (true) {
+                int marker = in.readUnsignedShort();
+                int length = in.readUnsignedShort() - 2;
+                if (marker == 0xFFE1 && length > 14) {
+                    byte[] data = new byte[length];
+                    in.readFully(data);
+                    if (data[0] != 'E' || data[1] != 'x' || data[2] != 'i' || data[3] != 'f') {
+                        continue;
+                    }
+                    boolean little = data[6] == 'I';
+                    int ifd = 6 + readInt(data, 10, little);
+                    int entries = readShort(data, ifd, little);
+                    for (int i = 0; i < entries; i++) {
+                        int entry = ifd + 2 + i * 12;
+                        if (entry + 12 > data.length) {
+                            break;
+                        }
+                        if (readShort(data, entry, little) == 0x0112) {
+                            return readShort(data, entry + 8, little);
+                        }
+                    }
+                    return 1;
+                }
+                if (marker == 0xFFDA || (marker & 0xFF00) != 0xFF00) {
+                    return 1;
+                }
+                in.skipNBytes(length);
+            }
+        } catch (IOException | RuntimeException e) {
+            return 1;
+        }
+    }
+
+    private static int readShort(byte[] data, int offset, boolean little) {
+        int a = data[offset] & 0xFF;
+        int b = data[offset + 1] & 0xFF;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean little) {
+        int high = readShort(data, little ? offset + 2 : offset, little);
+        int low = readShort(data, little ? offset : offset + 2, little);
+        return (high << 16) | low;
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -1,64 +1,57 @@
 package net.nanthrax.moussaillon.services;
 
+import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 import org.jboss.resteasy.reactive.RestForm;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
 
 @Path("/images")
 public class ImageResource {
 
-    private static final java.nio.file.Path UPLOAD_DIR = java.nio.file.Path.of("./data/images");
+    private static final String REPERTOIRE = "images";
 
-    private void ensureUploadDir() throws IOException {
-        if (!Files.exists(UPLOAD_DIR)) {
-            Files.createDirectories(UPLOAD_DIR);
-        }
-    }
+    @Inject
+    FichierStore fichierStore;
+
+    @Inject
+    ImageDerivatives imageDerivatives;
 
     @POST
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response upload(@RestForm("files") List<FileUpload> files) throws IOException {
-        ensureUploadDir();
-        List<String> urls = new ArrayList<>();
-        for (FileUpload file : files) {
-            String originalName = file.fileName();
-            String extension = "";
-            int dotIndex = originalName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                extension = originalName.substring(dotIndex);
-            }
-            String storedName = UUID.randomUUID() + extension;
-            java.nio.file.Path target = UPLOAD_DIR.resolve(storedName);
-            Files.copy(file.uploadedFile(), target, StandardCopyOption.REPLACE_EXISTING);
-            urls.add("/images/" + storedName);
-        }
-        return Response.ok(urls).build();
+    public CompletionStage<Response> upload(@RestForm("files") List<FileUpload> files, @QueryParam("details") boolean details) {
+        return fichierStore.televerser(REPERTOIRE, files, (chemin, fichier) -> imageDerivatives.planifier(chemin, fichier.contentType))
+                .thenApply(resultats -> FichierStore.reponse(resultats, details, resultat -> resultat.url));
     }
 
     @GET
     @Path("/{filename}")
-    public Response serve(@PathParam("filename") String filename) throws IOException {
-        java.nio.file.Path file = UPLOAD_DIR.resolve(filename);
-        if (!Files.exists(file)) {
-            throw new NotFoundException();
+    public Response serve(@PathParam("filename") String filename, @QueryParam("taille") String taille, @Context Request request,
+                          @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange) throws IOException {
+        if (taille == null || taille.isBlank()) {
+            return fichierStore.serve(REPERTOIRE, filename, request, range, ifRange, null);
+        }
+        ImageDerivatives.Taille rendu;
+        try {
+            rendu = ImageDerivatives.Taille.valueOf(taille.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException("Taille invalide: " + taille, 400);
         }
-        String contentType = Files.probeContentType(file);
-        if (contentType == null) {
-            contentType = "application/octet-stream";
+        java.nio.file.Path original = fichierStore.resolve(REPERTOIRE, filename);
+        String contentType = fichierStore.contentType(REPERTOIRE, filename, original);
+        java.nio.file.Path derive = imageDerivatives.obtenir(original, contentType, rendu);
+        if (derive == null) {
+            return fichierStore.serveFile(original, () -> contentType, FichierStore.hash(filename), request, range, ifRange, null);
         }
-        return Response.ok(Files.readAllBytes(file))
-                .type(contentType)
-                .header("Cache-Control", "public, max-age=86400")
-                .build();
+        return fichierStore.serveFile(derive, () -> ImageDerivatives.contentType(contentType), null, request, range, ifRange, null);
     }
 }
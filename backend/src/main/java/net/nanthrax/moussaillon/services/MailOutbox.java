@@ -0,0 +1,234 @@
+package net.nanthrax.moussaillon.services;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.mailer.Mail;
+import io.quarkus.mailer.Mailer;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.panache.common.Sort;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import net.nanthrax.moussaillon.persistence.CampagneHistoriqueEntity;
+import net.nanthrax.moussaillon.persistence.MailOutboxEntity;
+
+/**
+ * Persistent mail outbox. Callers only enqueue inside their own transaction; a background
+ * dispatcher claims due messages, sends them in parallel under a global rate limit, and
+ * retries failures with exponential backoff.
+ */
+@ApplicationScoped
+public class MailOutbox {
+
+    private static final Logger LOG = Logger.getLogger(MailOutbox.class);
+
+    // A claimed message not resolved after this delay (crashed replica) becomes due again
+    private static final Duration LEASE = Duration.ofMinutes(10);
+
+    @Inject
+    Mailer mailer;
+
+    @ConfigProperty(name = "mail.outbox.concurrency", defaultValue = "4")
+    int concurrency;
+
+    @ConfigProperty(name = "mail.outbox.rate-per-second", defaultValue = "10")
+    double ratePerSecond;
+
+    @ConfigProperty(name = "mail.outbox.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "mail.outbox.max-tentatives", defaultValue = "5")
+    int maxTentatives;
+
+    @ConfigProperty(name = "mail.outbox.backoff", defaultValue = "30s")
+    Duration backoff;
+
+    private final Object rateLock = new Object();
+
+    private long nextSlot;
+
+    private ExecutorService executor;
+
+    public MailOutboxEntity enqueue(MailOutboxEntity.Origine origine, String destinataire, String sujet, String contenu) {
+        return enqueue(origine, destinataire, sujet, contenu, null);
+    }
+
+    public MailOutboxEntity enqueue(MailOutboxEntity.Origine origine, String destinataire, String sujet, String contenu, CampagneHistoriqueEntity historique) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        MailOutboxEntity message = new MailOutboxEntity();
+        message.origine = origine;
+        message.destinataire = destinataire;
+        message.sujet = sujet;
+        message.contenu = contenu;
+        message.campagneHistorique = historique;
+        message.dateCreation = now;
+        message.prochainEssai = now;
+        message.persist();
+        return message;
+    }
+
+    @Scheduled(every = "${mail.outbox.interval:5s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void dispatch() {
+        List<Pending> batch;
+        while (!(batch = claim()).isEmpty()) {
+            List<Result> results = send(batch);
+            QuarkusTransaction.requiringNew().run(() -> record(results));
+        }
+    }
+
+    private List<Pending> claim() {
+        return QuarkusTransaction.requiringNew().call(() -> {
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            Timestamp lease = new Timestamp(now.getTime() + LEASE.toMillis());
+            List<MailOutboxEntity> due = MailOutboxEntity.find("statut in (?1, ?2) and prochainEssai <= ?3",
+                            Sort.by("prochainEssai").and("id"),
+                            MailOutboxEntity.Statut.EN_ATTENTE, MailOutboxEntity.Statut.EN_COURS, now)
+                    .page(0, batchSize)
+                    .list();
+            List<Pending> claimed = new ArrayList<>();
+            for (MailOutboxEntity message : due) {
+                // Conditional update so that two replicas never send the same message
+                int updated = MailOutboxEntity.update("statut = ?1, prochainEssai = ?2 where id = ?3 and prochainEssai <= ?4",
+                        MailOutboxEntity.Statut.EN_COURS, lease, message.id, now);
+                if (updated == 1) {
+                    claimed.add(new Pending(message.id, message.destinataire, message.sujet, message.contenu));
+                }
+            }
+            return claimed;
+        });
+    }
+
+    private List<Result> send(List<Pending> batch) {
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (Pending pending : batch) {
+            tasks.add(() -> {
+                try {
+                    acquire();
+                    mailer.send(Mail.withHtml(pending.destinataire(), pending.sujet(), pending.contenu()));
+                    return new Result(pending.id(), null);
+                } catch (Exception e) {
+                    return new Result(pending.id(), e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+                }
+            });
+        }
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> future : executor().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOG.error("Erreur lors de l'envoi des emails en attente", e);
+        }
+        return results;
+    }
+
+    private void record(List<Result> results) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Set<Long> historiques = new HashSet<>();
+        for (Result result : results) {
+            MailOutboxEntity message = MailOutboxEntity.findById(result.id());
+            if (message == null) {
+                continue;
+            }
+            message.tentatives++;
+            if (result.erreur() == null) {
+                message.statut = MailOutboxEntity.Statut.ENVOYE;
+                message.dateEnvoi = now;
+                message.erreur = null;
+            } else if (message.tentatives >= maxTentatives) {
+                message.statut = MailOutboxEntity.Statut.ECHEC;
+                message.erreur = truncate(result.erreur());
+                LOG.warnf("Abandon de l'envoi a %s apres %d tentatives: %s", message.destinataire, message.tentatives, result.erreur());
+            } else {
+                message.statut = MailOutboxEntity.Statut.EN_ATTENTE;
+                message.erreur = truncate(result.erreur());
+                message.prochainEssai = new Timestamp(now.getTime() + backoff.toMillis() * (1L << Math.min(message.tentatives - 1, 10)));
+            }
+            if (message.campagneHistorique != null) {
+                historiques.add(message.campagneHistorique.id);
+            }
+        }
+        for (Long historiqueId : historiques) {
+            updateHistorique(historiqueId);
+        }
+    }
+
+    private void updateHistorique(Long historiqueId) {
+        CampagneHistoriqueEntity historique = CampagneHistoriqueEntity.findById(historiqueId);
+        if (historique == null) {
+            return;
+        }
+        historique.nombreEnvoyes = (int) MailOutboxEntity.count("campagneHistorique.id = ?1 and statut = ?2",
+                historiqueId, MailOutboxEntity.Statut.ENVOYE);
+        historique.nombreEchecs = (int) MailOutboxEntity.count("campagneHistorique.id = ?1 and statut = ?2",
+                historiqueId, MailOutboxEntity.Statut.ECHEC);
+        if (historique.nombreEnvoyes + historique.nombreEchecs < historique.nombreDestinataires) {
+            return;
+        }
+        if (historique.nombreEnvoyes == 0) {
+            historique.statut = "ECHEC";
+        } else if (historique.nombreEchecs > 0) {
+            historique.statut = "PARTIEL";
+        } else {
+            historique.statut = "SUCCES";
+        }
+        if (historique.nombreEchecs > 0) {
+            MailOutboxEntity dernierEchec = MailOutboxEntity.find("campagneHistorique.id = ?1 and statut = ?2",
+                    historiqueId, MailOutboxEntity.Statut.ECHEC).firstResult();
+            historique.erreur = dernierEchec != null ? dernierEchec.erreur : null;
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        long wait;
+        synchronized (rateLock) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSlot);
+            nextSlot = slot + intervalNanos;
+            wait = slot - now;
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        }
+        return executor;
+    }
+
+    @PreDestroy
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String truncate(String erreur) {
+        return erreur.length() > 2000 ? erreur.substring(0, 2000) : erreur;
+    }
+
+    private record Pending(Long id, String destinataire, String sujet, String contenu) {}
+
+    private record Result(Long id, String erreur) {}
+
+}
@@ -0,0 +1,491 @@
+package net.nanthrax.moussaillon.services;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.bind.JsonbConfig;
+import jakarta.json.bind.config.PropertyVisibilityStrategy;
+import jakarta.persistence.CascadeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.ManyToMany;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.Version;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.StreamingOutput;
+import net.nanthrax.moussaillon.persistence.AnnonceEntity;
+import net.nanthrax.moussaillon.persistence.BateauCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.BateauClientEntity;
+import net.nanthrax.moussaillon.persistence.CampagneEntity;
+import net.nanthrax.moussaillon.persistence.ClientEntity;
+import net.nanthrax.moussaillon.persistence.CommandeFournisseurEntity;
+import net.nanthrax.moussaillon.persistence.EmailTemplateEntity;
+import net.nanthrax.moussaillon.persistence.ForfaitEntity;
+import net.nanthrax.moussaillon.persistence.FournisseurEntity;
+import net.nanthrax.moussaillon.persistence.HeliceCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.MainOeuvreEntity;
+import net.nanthrax.moussaillon.persistence.MigrationIdEntity;
+import net.nanthrax.moussaillon.persistence.MoteurCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.MoteurClientEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
+import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.RappelHistoriqueEntity;
+import net.nanthrax.moussaillon.persistence.ReferenceValeurEntity;
+import net.nanthrax.moussaillon.persistence.RemorqueCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.RemorqueClientEntity;
+import net.nanthrax.moussaillon.persistence.ServiceEntity;
+import net.nanthrax.moussaillon.persistence.TechnicienEntity;
+import net.nanthrax.moussaillon.persistence.TransactionEntity;
+import net.nanthrax.moussaillon.persistence.VenteEntity;
+
+/**
+ * Bulk export and import of the entities as NDJSON (one JSON object per line), for backups
+ * and nightly syncs. The export scrolls through the table and clears the session as it goes,
+ * the import persists in chunks, so memory does not depend on the size of the table.
+ * Passwords are neither exported nor imported.
+ */
+@Path("/migration")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+public class MigrationResource {
+
+    private static final Logger LOG = Logger.getLogger(MigrationResource.class);
+
+    static final String NDJSON = "application/x-ndjson";
+
+    private static final int MAX_ERREURS = 100;
+
+    private static final Set<String> SECRETS = Set.of("motDePasse", "password");
+
+    // Names follow the REST paths of the entities
+    private static final Map<String, Class<? extends PanacheEntity>> ENTITES = Map.ofEntries(
+            Map.entry("clients", ClientEntity.class),
+            Map.entry("bateaux", BateauClientEntity.class),
+            Map.entry("moteurs", MoteurClientEntity.class),
+            Map.entry("remorques", RemorqueClientEntity.class),
+            Map.entry("ventes", VenteEntity.class),
+            Map.entry("services", ServiceEntity.class),
+            Map.entry("forfaits", ForfaitEntity.class),
+            Map.entry("main-oeuvres", MainOeuvreEntity.class),
+            Map.entry("techniciens", TechnicienEntity.class),
+            Map.entry("transactions", TransactionEntity.class),
+            Map.entry("annonces", AnnonceEntity.class),
+            Map.entry("campagnes", CampagneEntity.class),
+            Map.entry("commandes-fournisseur", CommandeFournisseurEntity.class),
+            Map.entry("email-templates", EmailTemplateEntity.class),
+            Map.entry("rappels", RappelHistoriqueEntity.class),
+            Map.entry("reference-valeurs", ReferenceValeurEntity.class),
+            Map.entry("catalogue-bateaux", BateauCatalogueEntity.class),
+            Map.entry("catalogue-moteurs", MoteurCatalogueEntity.class),
+            Map.entry("catalogue-helices", HeliceCatalogueEntity.class),
+            Map.entry("catalogue-remorques", RemorqueCatalogueEntity.class),
+            Map.entry("catalogue-produits", ProduitCatalogueEntity.class),
+            Map.entry("catalogue-fournisseurs", FournisseurEntity.class));
+
+    @Inject
+    EntityManager entityManager;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
+    @Inject
+    StockLedger stockLedger;
+
+    // Rows written between two clears of the session during an export
+    @ConfigProperty(name = "migration.export.fetch-size", defaultValue = "500")
+    int fetchSize;
+
+    @ConfigProperty(name = "migration.export.timeout", defaultValue = "1h")
+    Duration exportTimeout;
+
+    // Lines persisted in one transaction during an import
+    @ConfigProperty(name = "migration.import.chunk-size", defaultValue = "500")
+    int chunkSize;
+
+    private final Jsonb jsonb = JsonbBuilder.create(new JsonbConfig().withPropertyVisibilityStrategy(new SansSecrets()));
+
+    public static class Bilan {
+        public String entite;
+        public int lignes;
+        public int creees;
+        public int misesAJour;
+        public int nbErreurs;
+        public List<Erreur> erreurs = new ArrayList<>();
+    }
+
+    public static class Erreur {
+        public int ligne;
+        public String message;
+    }
+
+    private record Ligne(int numero, PanacheEntity entite) {}
+
+    // Outcome of a committed chunk: counters and the ids given to the rows created
+    private static class Fusion {
+        int creees;
+        int misesAJour;
+        Map<Long, Long> ids = new HashMap<>();
+    }
+
+    @GET
+    public Set<String> entites() {
+        return new TreeSet<>(ENTITES.keySet());
+    }
+
+    @GET
+    @Path("/{entite}")
+    @Produces(NDJSON)
+    public StreamingOutput exporter(@PathParam("entite") String entite) {
+        Class<? extends PanacheEntity> type = type(entite);
+        return output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            QuarkusTransaction.requiringNew().timeout((int) exportTimeout.toSeconds()).run(() -> ecrire(type, writer));
+            writer.flush();
+        };
+    }
+
+    private void ecrire(Class<? extends PanacheEntity> type, Writer writer) {
+        Session session = entityManager.unwrap(Session.class);
+        int lignes = 0;
+        try (ScrollableResults<? extends PanacheEntity> resultats = session
+                .createSelectionQuery("from " + type.getSimpleName() + " e order by e.id", type)
+                .setReadOnly(true)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (resultats.next()) {
+                writer.write(jsonb.toJson(resultats.get()));
+                writer.write('\n');
+                if (++lignes % fetchSize == 0) {
+                    session.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.debugf("%d %s exportes", lignes, type.getSimpleName());
+    }
+
+    /**
+     * Upserts by id: a line whose id exists updates the entity, any other line is inserted
+     * with a new id, and the exported id is recorded as pointing to it. Later lines with that
+     * id (a new import of the same file) update the row, and the associations of the files
+     * imported next (client of a vente, ...) are rewritten through the recorded ids: importing
+     * the referenced entities first keeps the relationships when restoring into an empty
+     * database. A chunk that fails is replayed line by line so that only the faulty lines are
+     * rejected.
+     */
+    @POST
+    @Path("/{entite}")
+    @Consumes(NDJSON)
+    public Bilan importer(@PathParam("entite") String entite, InputStream body) {
+        Class<? extends PanacheEntity> type = type(entite);
+        Bilan bilan = new Bilan();
+        bilan.entite = entite;
+        // Recorded ids by entity, loaded once per import
+        Map<String, Map<Long, Long>> correspondances = new HashMap<>();
+        List<Ligne> chunk = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String texte;
+            int numero = 0;
+            while ((texte = reader.readLine()) != null) {
+                numero++;
+                if (texte.isBlank()) {
+                    continue;
+                }
+                bilan.lignes++;
+                try {
+                    chunk.add(new Ligne(numero, jsonb.fromJson(texte, type)));
+                } catch (RuntimeException e) {
+                    erreur(bilan, numero, e);
+                    continue;
+                }
+                if (chunk.size() >= chunkSize) {
+                    importerChunk(type, chunk, bilan, correspondances);
+                    chunk.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new WebApplicationException("Lecture de l'import impossible: " + e.getMessage(), 400);
+        }
+        if (!chunk.isEmpty()) {
+            importerChunk(type, chunk, bilan, correspondances);
+        }
+        SearchIndex.Type index = SearchIndex.Type.of(type);
+        if (index != null && bilan.creees + bilan.misesAJour > 0) {
+            searchEvents.fire(SearchIndex.Modification.tout(index));
+        }
+        LOG.infof("Import %s: %d lignes, %d creees, %d mises a jour, %d erreurs",
+                entite, bilan.lignes, bilan.creees, bilan.misesAJour, bilan.nbErreurs);
+        return bilan;
+    }
+
+    private void importerChunk(Class<? extends PanacheEntity> type, List<Ligne> chunk, Bilan bilan,
+                               Map<String, Map<Long, Long>> correspondances) {
+        for (Ligne ligne : chunk) {
+            suivre(ligne.entite(), correspondances);
+        }
+        persister(type, chunk, bilan, correspondances);
+    }
+
+    private void persister(Class<? extends PanacheEntity> type, List<Ligne> chunk, Bilan bilan,
+                           Map<String, Map<Long, Long>> correspondances) {
+        List<Long> exportes = chunk.stream().map(ligne -> ligne.entite().id).toList();
+        try {
+            Fusion fusion = QuarkusTransaction.requiringNew().call(() -> fusionner(type, chunk, correspondances));
+            bilan.creees += fusion.creees;
+            bilan.misesAJour += fusion.misesAJour;
+            // Only the ids of committed rows are followed
+            correspondances(correspondances, type).putAll(fusion.ids);
+        } catch (RuntimeException e) {
+            if (chunk.size() == 1) {
+                erreur(bilan, chunk.get(0).numero(), e);
+                return;
+            }
+            // The lines are replayed as read, before their ids were rewritten
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).entite().id = exportes.get(i);
+            }
+            for (Ligne ligne : chunk) {
+                persister(type, List.of(ligne), bilan, correspondances);
+            }
+        }
+    }
+
+    private Fusion fusionner(Class<? extends PanacheEntity> type, List<Ligne> chunk, Map<String, Map<Long, Long>> correspondances) {
+        Map<Long, Long> recus = correspondances(correspondances, type);
+        List<Long> exportes = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        for (Ligne ligne : chunk) {
+            Long id = ligne.entite().id;
+            exportes.add(id);
+            if (id != null) {
+                ligne.entite().id = recus.getOrDefault(id, id);
+                ids.add(ligne.entite().id);
+            }
+        }
+        Set<Long> existants = ids.isEmpty() ? Set.of() : new HashSet<>(entityManager
+                .createQuery("select e.id from " + type.getSimpleName() + " e where e.id in :ids", Long.class)
+                .setParameter("ids", ids)
+                .getResultList());
+        Fusion fusion = new Fusion();
+        for (int i = 0; i < chunk.size(); i++) {
+            PanacheEntity entite = chunk.get(i).entite();
+            Long exporte = exportes.get(i);
+            int stockAvant = 0;
+            if (entite.id != null && existants.contains(entite.id)) {
+                PanacheEntity existante = entityManager.find(type, entite.id);
+                conserver(entite, existante);
+                if (existante instanceof ProduitCatalogueEntity produit) {
+                    stockAvant = produit.stock;
+                }
+                fusion.misesAJour++;
+            } else {
+                entite.id = null;
+                fusion.creees++;
+            }
+            preparerEnfants(entite);
+            PanacheEntity fusionnee = entityManager.merge(entite);
+            if (exporte != null && entite.id == null) {
+                MigrationIdEntity.delete("entite = ?1 and ancienId = ?2", type.getSimpleName(), exporte);
+                MigrationIdEntity correspondance = new MigrationIdEntity();
+                correspondance.entite = type.getSimpleName();
+                correspondance.ancienId = exporte;
+                correspondance.nouvelId = fusionnee.id;
+                correspondance.persist();
+                fusion.ids.put(exporte, fusionnee.id);
+            }
+            // The stock ledger must account for the imported stock of the produits
+            if (fusionnee instanceof ProduitCatalogueEntity produit && produit.stock != stockAvant) {
+                stockLedger.journaliser(produit.id, produit.stock - stockAvant, produit.stock, MouvementStockEntity.Motif.IMPORT, "Import");
+            }
+        }
+        // Flushed as JDBC batches (quarkus.hibernate-orm.jdbc.statement-batch-size)
+        entityManager.flush();
+        entityManager.clear();
+        return fusion;
+    }
+
+    /**
+     * Rewrites the references (client of a vente, produits of a forfait line, ...) to the rows
+     * created for their exported ids by previous imports. Done once per line, before the
+     * chunk is persisted and possibly replayed.
+     */
+    private void suivre(Object entite, Map<String, Map<Long, Long>> correspondances) {
+        for (Field field : entite.getClass().getFields()) {
+            Object valeur;
+            try {
+                valeur = field.get(entite);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (field.isAnnotationPresent(ManyToOne.class)) {
+                reference(valeur, correspondances);
+            } else if (valeur instanceof Collection<?> elements) {
+                if (field.isAnnotationPresent(ManyToMany.class)) {
+                    elements.forEach(element -> reference(element, correspondances));
+                } else if (field.isAnnotationPresent(OneToMany.class)) {
+                    elements.forEach(enfant -> suivre(enfant, correspondances));
+                }
+            }
+        }
+    }
+
+    private void reference(Object reference, Map<String, Map<Long, Long>> correspondances) {
+        if (reference instanceof PanacheEntity panache && panache.id != null) {
+            panache.id = correspondances(correspondances, panache.getClass()).getOrDefault(panache.id, panache.id);
+        }
+    }
+
+    /**
+     * Cascaded children (lignes of a vente, ...) coming from another database keep their
+     * foreign ids: those are turned into inserts instead of merges of unknown rows.
+     */
+    private void preparerEnfants(Object entite) {
+        for (Field field : entite.getClass().getFields()) {
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            if (oneToMany == null || !cascadeFusion(oneToMany.cascade())) {
+                continue;
+            }
+            Object valeur;
+            try {
+                valeur = field.get(entite);
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            if (!(valeur instanceof Collection<?> enfants)) {
+                continue;
+            }
+            for (Object enfant : enfants) {
+                if (enfant instanceof PanacheEntity panache) {
+                    if (panache.id != null && entityManager.find(panache.getClass(), panache.id) == null) {
+                        panache.id = null;
+                    }
+                    preparerEnfants(panache);
+                }
+            }
+        }
+    }
+
+    private Map<Long, Long> correspondances(Map<String, Map<Long, Long>> correspondances, Class<?> type) {
+        return correspondances.computeIfAbsent(type.getSimpleName(), entite -> {
+            Map<Long, Long> ids = new HashMap<>();
+            for (Object[] ligne : entityManager
+                    .createQuery("select m.ancienId, m.nouvelId from MigrationIdEntity m where m.entite = :entite", Object[].class)
+                    .setParameter("entite", entite)
+                    .getResultList()) {
+                ids.put((Long) ligne[0], (Long) ligne[1]);
+            }
+            return ids;
+        });
+    }
+
+    private static boolean cascadeFusion(CascadeType[] cascades) {
+        for (CascadeType cascade : cascades) {
+            if (cascade == CascadeType.ALL || cascade == CascadeType.MERGE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the passwords and the optimistic version of the existing row, the import
+     * overwrites everything else.
+     */
+    private static void conserver(Object importee, Object existante) {
+        if (existante == null) {
+            return;
+        }
+        for (Field field : importee.getClass().getFields()) {
+            if (SECRETS.contains(field.getName()) || field.isAnnotationPresent(Version.class)) {
+                try {
+                    field.set(importee, field.get(existante));
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private static void erreur(Bilan bilan, int ligne, Exception e) {
+        bilan.nbErreurs++;
+        if (bilan.erreurs.size() < MAX_ERREURS) {
+            Erreur erreur = new Erreur();
+            erreur.ligne = ligne;
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            erreur.message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            bilan.erreurs.add(erreur);
+        }
+    }
+
+    private static Class<? extends PanacheEntity> type(String entite) {
+        Class<? extends PanacheEntity> type = ENTITES.get(entite);
+        if (type == null) {
+            throw new WebApplicationException("L'entité (" + entite + ") n'est pas exportable", 404);
+        }
+        return type;
+    }
+
+    /**
+     * Default visibility (public fields and accessors) minus the password fields.
+     */
+    private static class SansSecrets implements PropertyVisibilityStrategy {
+
+        @Override
+        public boolean isVisible(Field field) {
+            return Modifier.isPublic(field.getModifiers()) && !SECRETS.contains(field.getName());
+        }
+
+        @Override
+        public boolean isVisible(Method method) {
+            if (!Modifier.isPublic(method.getModifiers())) {
+                return false;
+            }
+            String nom = method.getName().replaceFirst("^(get|set|is)", "");
+            return nom.isEmpty() || !SECRETS.contains(Character.toLowerCase(nom.charAt(0)) + nom.substring(1));
+        }
+    }
+
+}
@@ -16,8 +16,8 @@ import java.util.List;
 public class MoteurCatalogueResource {
 
     @GET
-    public List<MoteurCatalogueEntity> list() {
-        return MoteurCatalogueEntity.listAll();
+    public Response list(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(MoteurCatalogueEntity.class, page);
     }
 
     @GET
@@ -0,0 +1,369 @@
+package net.nanthrax.moussaillon.services;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.json.bind.annotation.JsonbTransient;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.ManagedType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.UriInfo;
+
+/**
+ * Keyset pagination, sorting and sparse fieldsets shared by the catalogue and supplier lists.
+ * <p>
+ * {@code limit} caps the page (at most {@link #MAX_PAGE_SIZE}), {@code sort} names one attribute
+ * ({@code -} prefix for descending, nulls last, the id breaking ties), {@code after} is the opaque
+ * cursor of the previous page and {@code fields} a comma separated list of attributes, dotted
+ * paths following to-one relations (e.g. {@code fournisseur.nom}); the id is always returned.
+ * The next page is advertised in the Link (rel="next") and X-Next-Cursor headers, the total in
+ * X-Total-Count. Without any of these parameters the full list of entities is returned, as before.
+ */
+public final class Pagination {
+
+    static final int MAX_PAGE_SIZE = 500;
+
+    private static final String NUL = "~";
+
+    private static final Set<Class<?>> TRIABLES = Set.of(
+            String.class, Long.class, long.class, Integer.class, int.class, Short.class, short.class,
+            Double.class, double.class, Float.class, float.class, Boolean.class, boolean.class,
+            BigDecimal.class, Timestamp.class, Date.class, LocalDate.class, LocalDateTime.class, Instant.class);
+
+    private Pagination() {
+    }
+
+    public static class Parametres {
+
+        @QueryParam("limit")
+        public Integer limit;
+
+        @QueryParam("after")
+        public String after;
+
+        @QueryParam("sort")
+        public String sort;
+
+        @QueryParam("fields")
+        public String fields;
+
+        @Context
+        public UriInfo uriInfo;
+
+    }
+
+    private record Tri(SingularAttribute<?, ?> attribut, boolean descendant) {}
+
+    private record Curseur(Object valeur, long id) {}
+
+    public static Response page(Class<? extends PanacheEntityBase> entite, Parametres parametres) {
+        EntityManager em = Panache.getEntityManager(entite);
+        EntityType<?> type = em.getMetamodel().entity(entite);
+
+        Integer taille = null;
+        if (parametres.limit != null) {
+            if (parametres.limit < 1) {
+                throw new WebApplicationException("La limite doit être positive", 400);
+            }
+            taille = Math.min(parametres.limit, MAX_PAGE_SIZE);
+        }
+        Tri tri = tri(type, parametres.sort);
+        String sens = tri.descendant() ? " desc" : " asc";
+        String tie = "e.id " + (tri.descendant() ? "<" : ">") + " :id";
+        String cle = tri.attribut() != null ? "e." + tri.attribut().getName() : null;
+
+        Map<String, Object> params = new HashMap<>();
+        String where = "";
+        if (parametres.after != null && !parametres.after.isBlank()) {
+            Curseur curseur = curseur(tri, parametres.after.trim());
+            params.put("id", curseur.id());
+            if (cle == null) {
+                where = " where " + tie;
+            } else if (curseur.valeur() == null) {
+                where = " where " + cle + " is null and " + tie;
+            } else {
+                params.put("valeur", curseur.valeur());
+                String comparaison = tri.descendant() ? " < " : " > ";
+                where = " where (" + cle + comparaison + ":valeur or (" + cle + " = :valeur and " + tie + ") or " + cle + " is null)";
+            }
+        }
+        String orderBy = cle == null ? " order by e.id" + sens : " order by " + cle + sens + " nulls last, e.id" + sens;
+
+        List<Object> items = new ArrayList<>();
+        String prochain = null;
+        List<String> champs = champs(em, type, parametres.fields);
+        if (champs == null) {
+            Query query = em.createQuery("select e from " + type.getName() + " e" + where + orderBy, entite);
+            List<?> entites = parametrer(query, params, taille).getResultList();
+            items.addAll(entites);
+            if (taille != null && entites.size() == taille) {
+                Object dernier = entites.get(entites.size() - 1);
+                Object id = em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(dernier);
+                prochain = cle == null ? String.valueOf(id) : encoder(valeur(tri, dernier)) + "." + id;
+            }
+        } else {
+            // Columns: id, sort key, id of each joined relation (to tell a missing relation), fields
+            List<String> colonnes = new ArrayList<>();
+            colonnes.add("e.id");
+            colonnes.add(cle != null ? cle : "e.id");
+            Map<String, String> jointures = new LinkedHashMap<>();
+            StringBuilder from = new StringBuilder(" from " + type.getName() + " e");
+            for (String champ : champs) {
+                String[] segments = champ.split("\\.");
+                String parent = "e";
+                String prefixe = "";
+                for (int i = 0; i < segments.length - 1; i++) {
+                    prefixe = prefixe.isEmpty() ? segments[i] : prefixe + "." + segments[i];
+                    String alias = jointures.get(prefixe);
+                    if (alias == null) {
+                        alias = "j" + jointures.size();
+                        jointures.put(prefixe, alias);
+                        from.append(" left join ").append(parent).append('.').append(segments[i]).append(' ').append(alias);
+                        colonnes.add(alias + ".id");
+                    }
+                    parent = alias;
+                }
+            }
+            for (String champ : champs) {
+                int point = champ.lastIndexOf('.');
+                colonnes.add(point < 0 ? "e." + champ : jointures.get(champ.substring(0, point)) + champ.substring(point));
+            }
+            Query query = em.createQuery("select " + String.join(", ", colonnes) + from + where + orderBy, Object[].class);
+            List<?> lignes = parametrer(query, params, taille).getResultList();
+            for (Object resultat : lignes) {
+                Object[] ligne = (Object[]) resultat;
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("id", ligne[0]);
+                int colonne = 2;
+                for (String prefixe : jointures.keySet()) {
+                    if (ligne[colonne++] == null) {
+                        placer(item, prefixe.split("\\."), null);
+                    }
+                }
+                for (String champ : champs) {
+                    placer(item, champ.split("\\."), ligne[colonne++]);
+                }
+                items.add(item);
+            }
+            if (taille != null && lignes.size() == taille) {
+                Object[] derniere = (Object[]) lignes.get(lignes.size() - 1);
+                prochain = cle == null ? String.valueOf(derniere[0]) : encoder(derniere[1]) + "." + derniere[0];
+            }
+        }
+
+        Response.ResponseBuilder response = Response.ok(items);
+        if (taille != null) {
+            response.header("X-Total-Count", em.createQuery("select count(e) from " + type.getName() + " e", Long.class).getSingleResult());
+        }
+        if (prochain != null) {
+            response.header("X-Next-Cursor", prochain);
+            if (parametres.uriInfo != null) {
+                response.link(parametres.uriInfo.getRequestUriBuilder().replaceQueryParam("after", prochain).build(), "next");
+            }
+        }
+        return response.build();
+    }
+
+    private static Query parametrer(Query query, Map<String, Object> params, Integer taille) {
+        params.forEach(query::setParameter);
+        if (taille != null) {
+            query.setMaxResults(taille);
+        }
+        return query;
+    }
+
+    private static Tri tri(EntityType<?> type, String sort) {
+        if (sort == null || sort.isBlank()) {
+            return new Tri(null, false);
+        }
+        String nom = sort.trim();
+        boolean descendant = nom.startsWith("-");
+        if (descendant) {
+            nom = nom.substring(1);
+        }
+        if ("id".equals(nom)) {
+            return new Tri(null, descendant);
+        }
+        Attribute<?, ?> attribut = attribut(type, nom);
+        if (attribut instanceof SingularAttribute<?, ?> singulier
+                && attribut.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC
+                && (TRIABLES.contains(attribut.getJavaType()) || attribut.getJavaType().isEnum())) {
+            return new Tri(singulier, descendant);
+        }
+        throw new WebApplicationException("Tri invalide: " + sort, 400);
+    }
+
+    /**
+     * Null when the whole entities are requested.
+     */
+    private static List<String> champs(EntityManager em, EntityType<?> type, String fields) {
+        if (fields == null || fields.isBlank() || "all".equals(fields.trim())) {
+            return null;
+        }
+        List<String> champs = new ArrayList<>();
+        for (String brut : fields.split(",")) {
+            String chemin = brut.trim();
+            if (chemin.isEmpty() || "id".equals(chemin) || champs.contains(chemin)) {
+                continue;
+            }
+            ManagedType<?> courant = type;
+            String[] segments = chemin.split("\\.");
+            for (int i = 0; i < segments.length; i++) {
+                Attribute<?, ?> attribut = attribut(courant, segments[i]);
+                boolean dernier = i == segments.length - 1;
+                if (attribut == null || attribut.isCollection() || attribut.isAssociation() == dernier) {
+                    throw new WebApplicationException("Valeur de fields invalide: " + chemin, 400);
+                }
+                if (!dernier) {
+                    courant = em.getMetamodel().managedType(attribut.getJavaType());
+                }
+            }
+            champs.add(chemin);
+        }
+        return champs;
+    }
+
+    /**
+     * Null for unknown attributes and for those hidden from the JSON representation.
+     */
+    private static Attribute<?, ?> attribut(ManagedType<?> type, String nom) {
+        Attribute<?, ?> attribut;
+        try {
+            attribut = type.getAttribute(nom);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (attribut.getJavaMember() instanceof AnnotatedElement membre && membre.isAnnotationPresent(JsonbTransient.class)) {
+            return null;
+        }
+        return attribut;
+    }
+
+    private static void placer(Map<String, Object> item, String[] segments, Object valeur) {
+        Map<String, Object> courant = item;
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (!courant.containsKey(segments[i])) {
+                courant.put(segments[i], new LinkedHashMap<String, Object>());
+            }
+            Object suivant = courant.get(segments[i]);
+            if (suivant == null) {
+                // The relation is missing, its attributes are not rendered
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> relation = (Map<String, Object>) suivant;
+            courant = relation;
+        }
+        courant.put(segments[segments.length - 1], valeur);
+    }
+
+    private static Object valeur(Tri tri, Object entite) {
+        if (tri.attribut() == null) {
+            return null;
+        }
+        try {
+            return ((Field) tri.attribut().getJavaMember()).get(entite);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encoder(Object valeur) {
+        if (valeur == null) {
+            return NUL;
+        }
+        String texte = valeur instanceof Date date ? String.valueOf(date.getTime())
+                : valeur instanceof Enum<?> constante ? constante.name()
+                : String.valueOf(valeur);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(texte.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Curseur curseur(Tri tri, String after) {
+        try {
+            if (tri.attribut() == null) {
+                return new Curseur(null, Long.parseLong(after));
+            }
+            int point = after.lastIndexOf('.');
+            if (point < 0) {
+                throw new IllegalArgumentException();
+            }
+            long id = Long.parseLong(after.substring(point + 1));
+            String encode = after.substring(0, point);
+            if (NUL.equals(encode)) {
+                return new Curseur(null, id);
+            }
+            String texte = new String(Base64.getUrlDecoder().decode(encode), StandardCharsets.UTF_8);
+            return new Curseur(decoder(tri.attribut().getJavaType(), texte), id);
+        } catch (RuntimeException e) {
+            throw new WebApplicationException("Curseur invalide: " + after, 400);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object decoder(Class<?> type, String texte) {
+        if (type == String.class) {
+            return texte;
+        }
+        if (type == Long.class || type == long.class) {
+            return Long.valueOf(texte);
+        }
+        if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(texte);
+        }
+        if (type == Short.class || type == short.class) {
+            return Short.valueOf(texte);
+        }
+        if (type == Double.class || type == double.class) {
+            return Double.valueOf(texte);
+        }
+        if (type == Float.class || type == float.class) {
+            return Float.valueOf(texte);
+        }
+        if (type == Boolean.class || type == boolean.class) {
+            return Boolean.valueOf(texte);
+        }
+        if (type == BigDecimal.class) {
+            return new BigDecimal(texte);
+        }
+        if (type == Timestamp.class) {
+            return new Timestamp(Long.parseLong(texte));
+        }
+        if (type == Date.class) {
+            return new Date(Long.parseLong(texte));
+        }
+        if (type == LocalDate.class) {
+            return LocalDate.parse(texte);
+        }
+        if (type == LocalDateTime.class) {
+            return LocalDateTime.parse(texte);
+        }
+        if (type == Instant.class) {
+            return Instant.parse(texte);
+        }
+        return Enum.valueOf((Class<Enum>) type, texte);
+    }
+
+}
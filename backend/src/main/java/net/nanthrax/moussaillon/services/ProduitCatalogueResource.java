@@ -1,11 +1,15 @@
 package net.nanthrax.moussaillon.services;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.persistence.OptimisticLockException;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import net.nanthrax.moussaillon.persistence.FournisseurProduitEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
 import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
 
 import java.util.List;
@@ -16,23 +20,32 @@ import java.util.List;
 @Consumes(MediaType.APPLICATION_JSON)
 public class ProduitCatalogueResource {
 
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    @Inject
+    SearchIndex searchIndex;
+
+    @Inject
+    Event<SearchIndex.Modification> searchEvents;
+
+    @Inject
+    StockLedger stockLedger;
+
     @GET
-    public List<ProduitCatalogueEntity> list() {
-        return ProduitCatalogueEntity.listAll();
+    public Response list(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(ProduitCatalogueEntity.class, page);
     }
 
     @GET
     @Path("/search")
-    public List<ProduitCatalogueEntity> search(@QueryParam("q") String q) {
+    public List<ProduitCatalogueEntity> search(@QueryParam("q") String q, @QueryParam("limit") Integer limit) {
         if (q == null || q.trim().isEmpty()) {
             return ProduitCatalogueEntity.listAll();
         }
-        String likePattern = "%" + q.toLowerCase() + "%";
-        // Search in 'nom', 'marque', 'categorie', 'ref', 'description'
-        return ProduitCatalogueEntity.list(
-            "LOWER(nom) LIKE ?1 OR LOWER(marque) LIKE ?1 OR LOWER(categorie) LIKE ?1 OR LOWER(ref) LIKE ?1 OR LOWER(description) LIKE ?1",
-            likePattern
-        );
+        // Ranked on 'nom', 'marque', 'categorie', 'ref', 'refs', 'description'
+        return SearchIndex.ordonner(searchIndex.chercher(SearchIndex.Type.PRODUITS, q, limit),
+                ids -> ProduitCatalogueEntity.list("id in ?1", ids));
     }
 
     @GET
@@ -51,6 +64,11 @@ public class ProduitCatalogueResource {
     @Transactional
     public ProduitCatalogueEntity create(ProduitCatalogueEntity produit) {
         produit.persist();
+        if (produit.stock != 0) {
+            stockLedger.journaliser(produit.id, produit.stock, produit.stock, MouvementStockEntity.Motif.OUVERTURE, "Création du produit");
+        }
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.PRODUITS, produit));
         return produit;
     }
 
@@ -73,6 +91,8 @@ public class ProduitCatalogueResource {
             throw new WebApplicationException("Le produit (" + id + ") n'est pas trouvé", 404);
         }
         entity.delete();
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        searchEvents.fire(SearchIndex.Modification.retirer(SearchIndex.Type.PRODUITS, id));
         return Response.status(204).build();
     }
 
@@ -84,6 +104,12 @@ public class ProduitCatalogueResource {
         if (entity == null) {
             throw new WebApplicationException("Le produit (" + id + ") n'est pas trouvé", 404);
         }
+        if (produit.version != entity.version) {
+            throw new WebApplicationException("Le produit (" + id + ") a été modifié entre-temps, rechargez-le", 409);
+        }
+        if (produit.stock != entity.stock) {
+            stockLedger.journaliser(id, produit.stock - entity.stock, produit.stock, MouvementStockEntity.Motif.AJUSTEMENT, "Modification du produit");
+        }
 
         entity.nom = produit.nom;
         entity.marque = produit.marque;
@@ -105,7 +131,15 @@ public class ProduitCatalogueResource {
         entity.tva = produit.tva;
         entity.montantTVA = produit.montantTVA;
         entity.prixVenteTTC = produit.prixVenteTTC;
+        try {
+            // A sale or a reception committed since the produit was read fails the version check
+            ProduitCatalogueEntity.flush();
+        } catch (OptimisticLockException e) {
+            throw new WebApplicationException("Le produit (" + id + ") a été modifié entre-temps, rechargez-le", 409);
+        }
 
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        searchEvents.fire(SearchIndex.Modification.indexer(SearchIndex.Type.PRODUITS, entity));
         return entity;
     }
 
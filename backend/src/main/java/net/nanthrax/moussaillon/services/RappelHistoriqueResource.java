@@ -3,6 +3,7 @@ package net.nanthrax.moussaillon.services;
 import java.util.List;
 
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
@@ -17,6 +18,9 @@ import net.nanthrax.moussaillon.persistence.RappelHistoriqueEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class RappelHistoriqueResource {
 
+    @Inject
+    RappelScheduler rappelScheduler;
+
     @GET
     public List<RappelHistoriqueEntity> list() {
         return RappelHistoriqueEntity.list("order by dateEnvoi desc");
@@ -27,4 +31,10 @@ public class RappelHistoriqueResource {
     public List<RappelHistoriqueEntity> listByVente(@PathParam("venteId") long venteId) {
         return RappelHistoriqueEntity.list("vente.id = ?1 order by dateEnvoi desc", venteId);
     }
+
+    @GET
+    @Path("/execution")
+    public RappelScheduler.Execution execution() {
+        return rappelScheduler.execution();
+    }
 }
@@ -3,62 +3,195 @@ package net.nanthrax.moussaillon.services;
 import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import io.quarkus.mailer.Mail;
-import io.quarkus.mailer.Mailer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.scheduler.Scheduled;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
 import net.nanthrax.moussaillon.persistence.EmailTemplateEntity;
+import net.nanthrax.moussaillon.persistence.JobCheckpointEntity;
+import net.nanthrax.moussaillon.persistence.MailOutboxEntity;
 import net.nanthrax.moussaillon.persistence.RappelHistoriqueEntity;
 import net.nanthrax.moussaillon.persistence.SocieteEntity;
+import net.nanthrax.moussaillon.persistence.TimestampJsonbAdapter;
 import net.nanthrax.moussaillon.persistence.VenteEntity;
 
 @ApplicationScoped
 public class RappelScheduler {
 
+    private static final Logger LOG = Logger.getLogger(RappelScheduler.class);
+
+    static final String CHECKPOINT = "rappels";
+
+    private static final String CANDIDATS = "SELECT v.id, v.date, v.rappel1Jours, v.rappel2Jours, v.rappel3Jours,"
+            + " v.rappel1Envoye, v.rappel2Envoye, v.rappel3Envoye FROM VenteEntity v"
+            + " WHERE v.status IN (?1, ?2) AND v.date IS NOT NULL AND v.id > ?3"
+            + " AND v.client.consentement = true AND v.client.email IS NOT NULL AND TRIM(v.client.email) <> ''"
+            + " AND ((v.rappel1Jours IS NOT NULL AND v.rappel1Envoye = false)"
+            + " OR (v.rappel2Jours IS NOT NULL AND v.rappel2Envoye = false)"
+            + " OR (v.rappel3Jours IS NOT NULL AND v.rappel3Envoye = false))"
+            + " ORDER BY v.id";
+
+    @Inject
+    MailOutbox mailOutbox;
+
     @Inject
-    Mailer mailer;
+    EmailTemplates emailTemplates;
 
-    @Scheduled(cron = "0 0 8 * * ?")
-    @Transactional
+    @ConfigProperty(name = "rappels.chunk-size", defaultValue = "100")
+    int chunkSize;
+
+    private volatile Execution execution = new Execution();
+
+    /**
+     * Sends the due reminders in chunks. Each chunk (reminder flags, outbox rows, checkpoint)
+     * commits in its own transaction, even when called from a transactional caller, so a crash
+     * resumes after the last committed chunk without sending twice.
+     */
+    @Scheduled(cron = "0 0 8 * * ?", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
     public void envoyerRappels() {
         LocalDate today = LocalDate.now();
+        Execution current = new Execution();
+        current.statut = "EN_COURS";
+        current.dateDebut = new Timestamp(System.currentTimeMillis());
+        execution = current;
 
-        List<VenteEntity> ventes = VenteEntity.list(
-                "status in (?1, ?2) and date is not null and client is not null",
-                VenteEntity.Status.DEVIS, VenteEntity.Status.FACTURE_EN_ATTENTE);
+        long reprise = QuarkusTransaction.requiringNew().call(() -> demarrer(today));
+        if (reprise > 0) {
+            LOG.infof("Reprise de l'envoi des rappels apres la vente %d", reprise);
+        }
+        List<Long> ids = QuarkusTransaction.requiringNew().call(() -> candidats(today, reprise));
+        current.candidats = ids.size();
+        RappelContexte contexte = QuarkusTransaction.requiringNew().call(this::contexte);
 
-        for (VenteEntity vente : ventes) {
-            if (vente.client == null || !vente.client.consentement || vente.client.email == null || vente.client.email.isBlank()) {
-                continue;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            try {
+                int envoyes = QuarkusTransaction.requiringNew().call(() -> traiterChunk(chunk, today, contexte));
+                current.rappelsEnvoyes += envoyes;
+            } catch (Exception e) {
+                current.echecs += chunk.size();
+                LOG.errorf(e, "Echec de l'envoi des rappels pour les ventes %d a %d", chunk.get(0), chunk.get(chunk.size() - 1));
             }
+            current.traites += chunk.size();
+        }
 
-            LocalDate dateVente = new Timestamp(vente.date.getTime()).toLocalDateTime().toLocalDate();
-            long joursRestants = ChronoUnit.DAYS.between(today, dateVente);
+        QuarkusTransaction.requiringNew().run(() -> {
+            JobCheckpointEntity checkpoint = JobCheckpointEntity.findByNom(CHECKPOINT);
+            checkpoint.termine = true;
+            checkpoint.dateMaj = new Timestamp(System.currentTimeMillis());
+        });
+        current.dateFin = new Timestamp(System.currentTimeMillis());
+        current.statut = "TERMINE";
+        LOG.infof("Rappels: %d ventes traitees, %d rappels envoyes, %d echecs en %d ms",
+                current.traites, current.rappelsEnvoyes, current.echecs, current.dateFin.getTime() - current.dateDebut.getTime());
+    }
+
+    public Execution execution() {
+        return execution;
+    }
+
+    /**
+     * Returns the id to resume after: the checkpoint of an unfinished run started today,
+     * otherwise 0 with a fresh checkpoint.
+     */
+    private static long demarrer(LocalDate today) {
+        JobCheckpointEntity checkpoint = JobCheckpointEntity.findByNom(CHECKPOINT);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (checkpoint == null) {
+            checkpoint = new JobCheckpointEntity();
+            checkpoint.nom = CHECKPOINT;
+            checkpoint.termine = true;
+            checkpoint.persist();
+        }
+        if (!checkpoint.termine && checkpoint.dateDebut != null
+                && checkpoint.dateDebut.toLocalDateTime().toLocalDate().equals(today)) {
+            checkpoint.dateMaj = now;
+            return checkpoint.dernierId;
+        }
+        checkpoint.dernierId = 0;
+        checkpoint.termine = false;
+        checkpoint.traites = 0;
+        checkpoint.envoyes = 0;
+        checkpoint.dateDebut = now;
+        checkpoint.dateMaj = now;
+        return 0;
+    }
 
-            if (!vente.rappel1Envoye && vente.rappel1Jours != null && joursRestants <= vente.rappel1Jours) {
-                envoyerRappel(vente, 1);
+    private static List<Long> candidats(LocalDate today, long apres) {
+        List<Object[]> rows = VenteEntity.getEntityManager()
+                .createQuery(CANDIDATS, Object[].class)
+                .setParameter(1, VenteEntity.Status.DEVIS)
+                .setParameter(2, VenteEntity.Status.FACTURE_EN_ATTENTE)
+                .setParameter(3, apres)
+                .getResultList();
+        List<Long> ids = new ArrayList<>();
+        for (Object[] row : rows) {
+            long joursRestants = joursRestants(today, (Timestamp) row[1]);
+            if (du((Integer) row[2], (Boolean) row[5], joursRestants)
+                    || du((Integer) row[3], (Boolean) row[6], joursRestants)
+                    || du((Integer) row[4], (Boolean) row[7], joursRestants)) {
+                ids.add((Long) row[0]);
+            }
+        }
+        return ids;
+    }
+
+    private int traiterChunk(List<Long> ids, LocalDate today, RappelContexte contexte) {
+        int envoyes = 0;
+        List<VenteEntity> ventes = VenteEntity.list("id in ?1 order by id", ids);
+        for (VenteEntity vente : ventes) {
+            long joursRestants = joursRestants(today, vente.date);
+
+            if (du(vente.rappel1Jours, vente.rappel1Envoye, joursRestants)) {
+                envoyerRappel(vente, 1, contexte);
                 vente.rappel1Envoye = true;
+                envoyes++;
             }
 
-            if (!vente.rappel2Envoye && vente.rappel2Jours != null && joursRestants <= vente.rappel2Jours) {
-                envoyerRappel(vente, 2);
+            if (du(vente.rappel2Jours, vente.rappel2Envoye, joursRestants)) {
+                envoyerRappel(vente, 2, contexte);
                 vente.rappel2Envoye = true;
+                envoyes++;
             }
 
-            if (!vente.rappel3Envoye && vente.rappel3Jours != null && joursRestants <= vente.rappel3Jours) {
-                envoyerRappel(vente, 3);
+            if (du(vente.rappel3Jours, vente.rappel3Envoye, joursRestants)) {
+                envoyerRappel(vente, 3, contexte);
                 vente.rappel3Envoye = true;
+                envoyes++;
             }
         }
+
+        JobCheckpointEntity checkpoint = JobCheckpointEntity.findByNom(CHECKPOINT);
+        checkpoint.dernierId = ids.get(ids.size() - 1);
+        checkpoint.traites += ids.size();
+        checkpoint.envoyes += envoyes;
+        checkpoint.dateMaj = new Timestamp(System.currentTimeMillis());
+        return envoyes;
+    }
+
+    private static long joursRestants(LocalDate today, Timestamp date) {
+        LocalDate dateVente = new Timestamp(date.getTime()).toLocalDateTime().toLocalDate();
+        return ChronoUnit.DAYS.between(today, dateVente);
+    }
+
+    private static boolean du(Integer jours, Boolean envoye, long joursRestants) {
+        return !Boolean.TRUE.equals(envoye) && jours != null && joursRestants <= jours;
     }
 
     public void envoyerRappel(VenteEntity vente, int numeroRappel) {
-        SocieteEntity societe = SocieteEntity.findById(1L);
-        String societeNom = societe != null ? societe.nom : "moussAIllon";
+        envoyerRappel(vente, numeroRappel, contexte());
+    }
+
+    private void envoyerRappel(VenteEntity vente, int numeroRappel, RappelContexte contexte) {
+        String societeNom = contexte.societeNom();
         String clientName = vente.client.prenom != null ? vente.client.prenom : vente.client.nom;
 
         String typeLabel = "prestation";
@@ -69,12 +202,12 @@ public class RappelScheduler {
 
         String numeroRappelStr = numeroRappel > 0 ? String.valueOf(numeroRappel) : "";
 
-        EmailTemplateEntity template = EmailTemplateEntity.findByType(EmailTemplateEntity.Type.RAPPEL);
         String subject;
         String body;
-        if (template != null) {
-            subject = applyVariables(template.sujet, clientName, typeLabel, vente, datePrevue, societeNom, numeroRappelStr);
-            body = applyVariables(template.contenu, clientName, typeLabel, vente, datePrevue, societeNom, numeroRappelStr);
+        if (contexte.template() != null) {
+            Map<String, String> variables = variables(clientName, typeLabel, vente, datePrevue, societeNom, numeroRappelStr);
+            subject = contexte.template().sujet.render(variables);
+            body = contexte.template().contenu.render(variables);
         } else {
             subject = numeroRappel > 0
                     ? "Rappel " + numeroRappel + " - Votre " + typeLabel + " - " + societeNom
@@ -88,7 +221,7 @@ public class RappelScheduler {
                     + "Cordialement,\n" + societeNom;
         }
 
-        mailer.send(Mail.withHtml(vente.client.email, subject, body));
+        mailOutbox.enqueue(MailOutboxEntity.Origine.RAPPEL, vente.client.email, subject, body);
 
         RappelHistoriqueEntity historique = new RappelHistoriqueEntity();
         historique.vente = vente;
@@ -100,14 +233,46 @@ public class RappelScheduler {
         historique.persist();
     }
 
-    private String applyVariables(String text, String clientName, String typeLabel, VenteEntity vente, String datePrevue, String societeNom, String numeroRappel) {
-        return text
-                .replace("{client}", clientName)
-                .replace("{typeVente}", typeLabel)
-                .replace("{reference}", String.valueOf(vente.id))
-                .replace("{datePrevue}", datePrevue)
-                .replace("{montantTTC}", String.format("%.2f", vente.prixVenteTTC))
-                .replace("{societe}", societeNom)
-                .replace("{numeroRappel}", numeroRappel);
+    private RappelContexte contexte() {
+        SocieteEntity societe = SocieteEntity.findById(1L);
+        return new RappelContexte(
+                societe != null ? societe.nom : "moussAIllon",
+                emailTemplates.template(EmailTemplateEntity.Type.RAPPEL));
+    }
+
+    private static Map<String, String> variables(String clientName, String typeLabel, VenteEntity vente, String datePrevue, String societeNom, String numeroRappel) {
+        return EmailTemplates.variables(
+                "client", clientName,
+                "typeVente", typeLabel,
+                "reference", String.valueOf(vente.id),
+                "datePrevue", datePrevue,
+                "montantTTC", String.format("%.2f", vente.prixVenteTTC),
+                "societe", societeNom,
+                "numeroRappel", numeroRappel);
+    }
+
+    // Company name and reminder template, read once per run instead of once per reminder
+    private record RappelContexte(String societeNom, EmailTemplates.Compiled template) {}
+
+    public static class Execution {
+        public String statut = "JAMAIS_EXECUTE";
+        @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+        public Timestamp dateDebut;
+        @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+        public Timestamp dateFin;
+        public int candidats;
+        public int traites;
+        public int rappelsEnvoyes;
+        public int echecs;
+
+        // Ventes processed per second since the start of the run
+        public double getDebit() {
+            if (dateDebut == null) {
+                return 0;
+            }
+            long fin = dateFin != null ? dateFin.getTime() : System.currentTimeMillis();
+            long duree = Math.max(1, fin - dateDebut.getTime());
+            return traites * 1000.0 / duree;
+        }
     }
 }
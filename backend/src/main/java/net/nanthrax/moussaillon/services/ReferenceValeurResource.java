@@ -9,6 +9,8 @@ import net.nanthrax.moussaillon.persistence.ReferenceValeurEntity;
 
 import java.util.List;
 
+import org.hibernate.jpa.HibernateHints;
+
 @Path("/reference-valeurs")
 @ApplicationScoped
 @Produces(MediaType.APPLICATION_JSON)
@@ -18,9 +20,11 @@ public class ReferenceValeurResource {
     @GET
     public List<ReferenceValeurEntity> list(@QueryParam("type") String type) {
         if (type != null && !type.trim().isEmpty()) {
-            return ReferenceValeurEntity.list("type = ?1 order by ordre, valeur", type);
+            return ReferenceValeurEntity.find("type = ?1 order by ordre, valeur", type)
+                    .withHint(HibernateHints.HINT_CACHEABLE, true).list();
         }
-        return ReferenceValeurEntity.list("order by type, ordre, valeur");
+        return ReferenceValeurEntity.find("order by type, ordre, valeur")
+                .withHint(HibernateHints.HINT_CACHEABLE, true).list();
     }
 
     @GET
@@ -20,8 +20,8 @@ import java.util.Map;
 public class RemorqueCatalogResource {
 
     @GET
-    public List<RemorqueCatalogueEntity> list() {
-        return RemorqueCatalogueEntity.listAll();
+    public Response list(@BeanParam Pagination.Parametres page) {
+        return Pagination.page(RemorqueCatalogueEntity.class, page);
     }
 
     @GET
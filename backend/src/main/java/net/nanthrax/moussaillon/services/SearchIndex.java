@@ -0,0 +1,602 @@
+package net.nanthrax.moussaillon.services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.PluralAttribute;
+import net.nanthrax.moussaillon.persistence.BateauCatalogueEntity;
+import net.nanthrax.moussaillon.persistence.BateauClientEntity;
+import net.nanthrax.moussaillon.persistence.ClientEntity;
+import net.nanthrax.moussaillon.persistence.ForfaitEntity;
+import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+
+/**
+ * In-memory inverted index behind the search-as-you-type endpoints. Texts are folded
+ * (lower case, no accents) and split into terms; a query term matches the indexed terms it
+ * is a prefix of, reference fields also match compacted ("AB-12 3" = "ab123"), anywhere in
+ * the reference from three characters on ("1234" finds "WIC-1234-X") and, from four
+ * characters on, approximately (shared trigrams). Every query term has to match, results are
+ * ranked by the weights of the matched fields.
+ * <p>
+ * An index is loaded on its first query, kept up to date by the {@link Modification} events
+ * fired by the write endpoints once committed, and rebuilt from the database every
+ * {@code search.index.refresh}.
+ */
+@ApplicationScoped
+public class SearchIndex {
+
+    private static final Logger LOG = Logger.getLogger(SearchIndex.class);
+
+    // Indexed terms a query term can expand to; short prefixes beyond that are not worth ranking
+    static final int MAX_EXPANSIONS = 256;
+
+    static final int MAX_RESULTATS = 500;
+
+    // Ids loaded per query when the matching entities are read back
+    static final int TAILLE_CHARGEMENT = 1000;
+
+    static final int MIN_INFIXE = 3;
+
+    static final int MIN_FLOU = 4;
+
+    static final float SEUIL_FLOU = 0.5f;
+
+    public enum Type {
+        PRODUITS(ProduitCatalogueEntity.class,
+                champ("nom", 3), champ("marque", 2), champ("categorie", 1), reference("ref", 3),
+                reference("refs", 3), champ("description", 0.5f)),
+        CLIENTS(ClientEntity.class,
+                champ("nom", 3), champ("prenom", 2), champ("type", 0.5f), reference("email", 1),
+                reference("telephone", 1)),
+        BATEAUX(BateauClientEntity.class,
+                champ("name", 3), reference("immatriculation", 3)),
+        CATALOGUE_BATEAUX(BateauCatalogueEntity.class,
+                champ("modele", 3), champ("marque", 2), champ("type", 1), champ("description", 0.5f)),
+        FORFAITS(ForfaitEntity.class,
+                champ("nom", 3), reference("reference", 3));
+
+        final Class<? extends PanacheEntity> entite;
+
+        final List<Champ> champs;
+
+        Type(Class<? extends PanacheEntity> entite, Champ... champs) {
+            this.entite = entite;
+            this.champs = List.of(champs);
+        }
+
+        public static Type of(Class<?> entite) {
+            for (Type type : values()) {
+                if (type.entite == entite) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A searchable attribute (a string or a collection of strings): plain text, or a reference
+     * (codes, emails, phone numbers) also matched compacted and approximately.
+     */
+    record Champ(String nom, float poids, boolean reference) {}
+
+    private static Champ champ(String nom, float poids) {
+        return new Champ(nom, poids, false);
+    }
+
+    private static Champ reference(String nom, float poids) {
+        return new Champ(nom, poids, true);
+    }
+
+    /**
+     * Texts of one entity, by attribute.
+     */
+    public record Document(long id, Map<Champ, List<String>> valeurs) {}
+
+    /**
+     * CDI event fired by the write endpoints: a null document removes the entity, a null id
+     * drops the whole index of the type (reloaded on the next query).
+     */
+    public record Modification(Type type, Long id, Document document) {
+
+        public static Modification indexer(Type type, PanacheEntity entite) {
+            return new Modification(type, entite.id, document(type, entite));
+        }
+
+        public static Modification retirer(Type type, long id) {
+            return new Modification(type, id, null);
+        }
+
+        public static Modification tout(Type type) {
+            return new Modification(type, null, null);
+        }
+    }
+
+    @Inject
+    EntityManager entityManager;
+
+    private final ConcurrentMap<Type, Segment> segments = new ConcurrentHashMap<>();
+
+    // Records the modifications committed while an index is loaded for the first time
+    private final ConcurrentMap<Type, Segment> chargements = new ConcurrentHashMap<>();
+
+    private final Map<Type, Object> verrous = new EnumMap<>(Type.class);
+
+    public SearchIndex() {
+        for (Type type : Type.values()) {
+            verrous.put(type, new Object());
+        }
+    }
+
+    /**
+     * Ids of the best {@code limite} entities for the query (at most {@link #MAX_RESULTATS}),
+     * best first. Without a limit every matching entity is returned, as the screens listing
+     * the search results as a full table expect.
+     */
+    public List<Long> chercher(Type type, String requete, Integer limite) {
+        Segment segment = segments.get(type);
+        if (segment == null) {
+            segment = reconstruire(type, false);
+        }
+        return segment.chercher(requete, limite == null ? Integer.MAX_VALUE : Math.min(limite, MAX_RESULTATS));
+    }
+
+    /**
+     * Loads the entities of the given ids, in the order of the ids.
+     */
+    public static <T extends PanacheEntity> List<T> ordonner(List<Long> ids, Function<List<Long>, List<T>> chargement) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, T> parId = new HashMap<>();
+        for (int debut = 0; debut < ids.size(); debut += TAILLE_CHARGEMENT) {
+            for (T entite : chargement.apply(ids.subList(debut, Math.min(debut + TAILLE_CHARGEMENT, ids.size())))) {
+                parId.put(entite.id, entite);
+            }
+        }
+        List<T> resultat = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            T entite = parId.get(id);
+            if (entite != null) {
+                resultat.add(entite);
+            }
+        }
+        return resultat;
+    }
+
+    void onChange(@Observes(during = TransactionPhase.AFTER_SUCCESS) Modification modification) {
+        if (modification.id() == null) {
+            segments.remove(modification.type());
+            return;
+        }
+        while (true) {
+            Segment segment = segments.get(modification.type());
+            if (segment == null) {
+                segment = chargements.get(modification.type());
+            }
+            // Not loaded yet: the first query reads the committed state
+            if (segment == null || segment.appliquer(modification)) {
+                return;
+            }
+            // Replaced by a rebuild that is about to be published
+            Thread.onSpinWait();
+        }
+    }
+
+    @Scheduled(every = "${search.index.refresh:15m}", delayed = "${search.index.refresh:15m}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void rafraichir() {
+        for (Type type : segments.keySet()) {
+            try {
+                reconstruire(type, true);
+            } catch (RuntimeException e) {
+                LOG.warnf("Rechargement de l'index %s impossible: %s", type, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Loads the index of a type from the database. The modifications committed meanwhile are
+     * recorded by the previous index and replayed on the new one before it replaces it.
+     */
+    Segment reconstruire(Type type, boolean force) {
+        synchronized (verrous.get(type)) {
+            Segment ancien = segments.get(type);
+            if (ancien != null && !force) {
+                return ancien;
+            }
+            if (ancien == null) {
+                ancien = new Segment();
+                chargements.put(type, ancien);
+            }
+            ancien.ouvrirJournal();
+            long debut = System.currentTimeMillis();
+            Segment nouveau = new Segment();
+            try {
+                List<Document> documents = QuarkusTransaction.requiringNew().call(() -> charger(type));
+                documents.forEach(nouveau::ajouter);
+                ancien.remplacer(nouveau);
+                segments.put(type, nouveau);
+            } catch (RuntimeException e) {
+                ancien.fermerJournal();
+                throw e;
+            } finally {
+                chargements.remove(type);
+            }
+            LOG.debugf("Index %s charge: %d documents, %d termes en %d ms",
+                    type, nouveau.termesParDocument.size(), nouveau.termes.size(), System.currentTimeMillis() - debut);
+            return nouveau;
+        }
+    }
+
+    private List<Document> charger(Type type) {
+        String from = " from " + type.entite.getSimpleName() + " e";
+        EntityType<?> modele = entityManager.getMetamodel().entity(type.entite);
+        List<Champ> simples = new ArrayList<>();
+        List<Champ> pluriels = new ArrayList<>();
+        for (Champ champ : type.champs) {
+            (modele.getAttribute(champ.nom()) instanceof PluralAttribute<?, ?, ?> ? pluriels : simples).add(champ);
+        }
+        Map<Long, Map<Champ, List<String>>> valeurs = new LinkedHashMap<>();
+        String select = "select e.id" + simples.stream().map(c -> ", e." + c.nom()).collect(Collectors.joining());
+        entityManager.createQuery(select + from, Object[].class).getResultStream().forEach(row -> {
+            Map<Champ, List<String>> document = new HashMap<>();
+            for (int i = 0; i < simples.size(); i++) {
+                ajouterValeur(document, simples.get(i), row[i + 1]);
+            }
+            valeurs.put((Long) row[0], document);
+        });
+        for (Champ champ : pluriels) {
+            entityManager.createQuery("select e.id, v" + from + " join e." + champ.nom() + " v", Object[].class)
+                    .getResultStream()
+                    .forEach(row -> {
+                        Map<Champ, List<String>> document = valeurs.get((Long) row[0]);
+                        if (document != null) {
+                            ajouterValeur(document, champ, row[1]);
+                        }
+                    });
+        }
+        List<Document> documents = new ArrayList<>(valeurs.size());
+        valeurs.forEach((id, document) -> documents.add(new Document(id, document)));
+        return documents;
+    }
+
+    /**
+     * Adds a value, a collection or an array (collections mapped as basic arrays) of values.
+     */
+    private static void ajouterValeur(Map<Champ, List<String>> document, Champ champ, Object valeur) {
+        if (valeur instanceof Object[] tableau) {
+            valeur = Arrays.asList(tableau);
+        }
+        if (valeur instanceof Collection<?> collection) {
+            for (Object element : collection) {
+                ajouterValeur(document, champ, element);
+            }
+        } else if (valeur != null) {
+            document.computeIfAbsent(champ, c -> new ArrayList<>()).add(valeur.toString());
+        }
+    }
+
+    static Document document(Type type, PanacheEntity entite) {
+        Map<Champ, List<String>> valeurs = new HashMap<>();
+        for (Champ champ : type.champs) {
+            try {
+                ajouterValeur(valeurs, champ, entite.getClass().getField(champ.nom()).get(entite));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Champ " + champ.nom() + " introuvable sur " + type.entite.getSimpleName(), e);
+            }
+        }
+        return new Document(entite.id, valeurs);
+    }
+
+    /**
+     * Lower case, accents removed, split on anything that is not a letter or a digit.
+     */
+    static List<String> termes(String texte) {
+        String plie = Normalizer.normalize(texte.toLowerCase(Locale.ROOT), Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        List<String> termes = new ArrayList<>();
+        for (String terme : plie.split("[^\\p{Alnum}]+")) {
+            if (!terme.isEmpty()) {
+                termes.add(terme);
+            }
+        }
+        return termes;
+    }
+
+    static Set<String> trigrammes(String terme) {
+        Set<String> trigrammes = new HashSet<>();
+        for (int i = 0; i + 3 <= terme.length(); i++) {
+            trigrammes.add(terme.substring(i, i + 3));
+        }
+        return trigrammes;
+    }
+
+    static final class Segment {
+
+        private final ReentrantReadWriteLock verrou = new ReentrantReadWriteLock();
+
+        // term -> (document id -> best weight of the term in the document)
+        final TreeMap<String, Map<Long, Float>> termes = new TreeMap<>();
+
+        // trigram -> reference terms containing it, for the approximate matching
+        private final Map<String, Set<String>> trigrammes = new HashMap<>();
+
+        private final Map<Long, Set<String>> termesParDocument = new HashMap<>();
+
+        private List<Modification> journal;
+
+        private Segment remplacant;
+
+        boolean appliquer(Modification modification) {
+            verrou.writeLock().lock();
+            try {
+                if (remplacant != null) {
+                    return false;
+                }
+                if (modification.document() == null) {
+                    retirer(modification.id());
+                } else {
+                    ajouter(modification.document());
+                }
+                if (journal != null) {
+                    journal.add(modification);
+                }
+                return true;
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        }
+
+        void ouvrirJournal() {
+            verrou.writeLock().lock();
+            try {
+                journal = new ArrayList<>();
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        }
+
+        void fermerJournal() {
+            verrou.writeLock().lock();
+            try {
+                journal = null;
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        }
+
+        void remplacer(Segment nouveau) {
+            verrou.writeLock().lock();
+            try {
+                for (Modification modification : journal) {
+                    nouveau.appliquer(modification);
+                }
+                journal = null;
+                remplacant = nouveau;
+            } finally {
+                verrou.writeLock().unlock();
+            }
+        }
+
+        void ajouter(Document document) {
+            retirer(document.id());
+            Map<String, Float> poids = new HashMap<>();
+            Set<String> references = new HashSet<>();
+            document.valeurs().forEach((champ, textes) -> {
+                for (String texte : textes) {
+                    List<String> mots = termes(texte);
+                    for (String mot : mots) {
+                        poids.merge(mot, champ.poids(), Math::max);
+                    }
+                    if (champ.reference() && !mots.isEmpty()) {
+                        String compact = String.join("", mots);
+                        poids.merge(compact, champ.poids(), Math::max);
+                        references.add(compact);
+                        references.addAll(mots);
+                    }
+                }
+            });
+            poids.forEach((terme, p) -> termes.computeIfAbsent(terme, t -> new HashMap<>()).put(document.id(), p));
+            for (String reference : references) {
+                for (String trigramme : trigrammes(reference)) {
+                    trigrammes.computeIfAbsent(trigramme, t -> new HashSet<>()).add(reference);
+                }
+            }
+            termesParDocument.put(document.id(), poids.keySet());
+        }
+
+        void retirer(long id) {
+            Set<String> anciens = termesParDocument.remove(id);
+            if (anciens == null) {
+                return;
+            }
+            for (String terme : anciens) {
+                Map<Long, Float> postings = termes.get(terme);
+                if (postings == null) {
+                    continue;
+                }
+                postings.remove(id);
+                if (postings.isEmpty()) {
+                    termes.remove(terme);
+                    for (String trigramme : trigrammes(terme)) {
+                        Set<String> references = trigrammes.get(trigramme);
+                        if (references != null && references.remove(terme) && references.isEmpty()) {
+                            trigrammes.remove(trigramme);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Long> chercher(String requete, int limite) {
+            List<String> mots = termes(requete);
+            if (mots.isEmpty() || limite < 1) {
+                return List.of();
+            }
+            verrou.readLock().lock();
+            try {
+                Map<Long, Float> scores = null;
+                for (String mot : mots) {
+                    Map<Long, Float> correspondances = correspondances(mot);
+                    if (scores == null) {
+                        scores = correspondances;
+                    } else {
+                        Map<Long, Float> communs = new HashMap<>();
+                        for (Map.Entry<Long, Float> entry : scores.entrySet()) {
+                            Float score = correspondances.get(entry.getKey());
+                            if (score != null) {
+                                communs.put(entry.getKey(), entry.getValue() + score);
+                            }
+                        }
+                        scores = communs;
+                    }
+                }
+                // "ab 12" also finds the reference "AB12" even though "12" alone does not match it
+                if (mots.size() > 1) {
+                    Map<Long, Float> compact = correspondances(String.join("", mots));
+                    for (Map.Entry<Long, Float> entry : compact.entrySet()) {
+                        scores.merge(entry.getKey(), entry.getValue() * mots.size(), Math::max);
+                    }
+                }
+                return meilleurs(scores, limite);
+            } finally {
+                verrou.readLock().unlock();
+            }
+        }
+
+        private Map<Long, Float> correspondances(String mot) {
+            Map<Long, Float> scores = new HashMap<>();
+            int expansions = 0;
+            for (Map.Entry<String, Map<Long, Float>> entry : termes.subMap(mot, true, mot + Character.MAX_VALUE, false).entrySet()) {
+                // An exact term ranks above the longer terms it is a prefix of
+                float facteur = entry.getKey().length() == mot.length()
+                        ? 1f
+                        : 0.6f + 0.4f * mot.length() / entry.getKey().length();
+                for (Map.Entry<Long, Float> posting : entry.getValue().entrySet()) {
+                    scores.merge(posting.getKey(), posting.getValue() * facteur, Math::max);
+                }
+                if (++expansions >= MAX_EXPANSIONS) {
+                    break;
+                }
+            }
+            if (mot.length() >= MIN_INFIXE) {
+                for (String reference : contenant(mot)) {
+                    float facteur = 0.4f + 0.4f * mot.length() / reference.length();
+                    for (Map.Entry<Long, Float> posting : termes.get(reference).entrySet()) {
+                        scores.merge(posting.getKey(), posting.getValue() * facteur, Math::max);
+                    }
+                }
+            }
+            if (mot.length() >= MIN_FLOU) {
+                for (Map.Entry<String, Float> proche : proches(mot).entrySet()) {
+                    for (Map.Entry<Long, Float> posting : termes.get(proche.getKey()).entrySet()) {
+                        scores.merge(posting.getKey(), posting.getValue() * proche.getValue() * 0.8f, Math::max);
+                    }
+                }
+            }
+            return scores;
+        }
+
+        /**
+         * Reference terms containing the word elsewhere than at their start: candidates share
+         * the rarest trigram of the word, then are checked.
+         */
+        private List<String> contenant(String mot) {
+            Set<String> candidats = null;
+            for (String trigramme : trigrammes(mot)) {
+                Set<String> references = trigrammes.get(trigramme);
+                if (references == null) {
+                    return List.of();
+                }
+                if (candidats == null || references.size() < candidats.size()) {
+                    candidats = references;
+                }
+            }
+            List<String> contenant = new ArrayList<>();
+            for (String reference : candidats) {
+                if (reference.indexOf(mot, 1) > 0 && termes.containsKey(reference)) {
+                    contenant.add(reference);
+                    if (contenant.size() >= MAX_EXPANSIONS) {
+                        break;
+                    }
+                }
+            }
+            return contenant;
+        }
+
+        /**
+         * Reference terms sharing enough trigrams with the word (Dice coefficient).
+         */
+        private Map<String, Float> proches(String mot) {
+            Set<String> trigrammesMot = trigrammes(mot);
+            Map<String, Integer> communs = new HashMap<>();
+            for (String trigramme : trigrammesMot) {
+                Set<String> references = trigrammes.get(trigramme);
+                if (references != null) {
+                    for (String reference : references) {
+                        communs.merge(reference, 1, Integer::sum);
+                    }
+                }
+            }
+            Map<String, Float> proches = new HashMap<>();
+            communs.forEach((reference, nombre) -> {
+                float dice = 2f * nombre / (trigrammesMot.size() + Math.max(reference.length() - 2, 1));
+                if (dice >= SEUIL_FLOU && termes.containsKey(reference) && !reference.startsWith(mot)) {
+                    proches.put(reference, dice);
+                }
+            });
+            return proches;
+        }
+
+        private static List<Long> meilleurs(Map<Long, Float> scores, int limite) {
+            Comparator<Map.Entry<Long, Float>> ordre = Map.Entry.<Long, Float>comparingByValue()
+                    .thenComparing(Map.Entry.<Long, Float>comparingByKey().reversed());
+            PriorityQueue<Map.Entry<Long, Float>> tas = new PriorityQueue<>(ordre);
+            for (Map.Entry<Long, Float> entry : scores.entrySet()) {
+                if (tas.size() < limite) {
+                    tas.add(entry);
+                } else if (ordre.compare(entry, tas.peek()) > 0) {
+                    tas.poll();
+                    tas.add(entry);
+                }
+            }
+            List<Long> ids = new ArrayList<>(tas.size());
+            while (!tas.isEmpty()) {
+                ids.add(tas.poll().getKey());
+            }
+            Collections.reverse(ids);
+            return ids;
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package net.nanthrax.moussaillon.services;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+
+import io.quarkus.hibernate.orm.panache.Panache;
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import net.nanthrax.moussaillon.persistence.InventaireStockEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
+import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+
+/**
+ * Append-only ledger of the produit stock movements. Movements are applied with set-based
+ * UPDATE statements, one per distinct quantity and without reading the produits first, so
+ * concurrent sales and receptions never lose an update; each one also bumps the optimistic
+ * version of the produits. Periodic inventories compact the ledger: the stock at a past date
+ * is the closest inventory before it plus the movements recorded since.
+ */
+@ApplicationScoped
+public class StockLedger {
+
+    private static final Logger LOG = Logger.getLogger(StockLedger.class);
+
+    // Movements of the transactions still running when an inventory is taken go to the next one
+    static final Duration MARGE = Duration.ofMinutes(5);
+
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    /**
+     * Applies the quantities (by produit id, negative for an outgoing movement) and records
+     * them, in the transaction of the change. Unknown produits are ignored.
+     */
+    public List<MouvementStockEntity> appliquer(Map<Long, Integer> quantites, MouvementStockEntity.Motif motif, String reference) {
+        Map<Integer, List<Long>> parQuantite = parQuantite(quantites);
+        if (parQuantite.isEmpty()) {
+            return List.of();
+        }
+        parQuantite.forEach((quantite, ids) ->
+                ProduitCatalogueEntity.update("stock = stock + ?1, version = version + 1 where id in ?2", quantite, ids));
+
+        List<Long> ids = new ArrayList<>();
+        parQuantite.values().forEach(ids::addAll);
+        List<Object[]> produits = ProduitCatalogueEntity.getEntityManager()
+                .createQuery("select p.id, p.nom, p.stock, p.stockMini from ProduitCatalogueEntity p where p.id in :ids", Object[].class)
+                .setParameter("ids", ids)
+                .getResultList();
+        Timestamp maintenant = new Timestamp(System.currentTimeMillis());
+        List<MouvementStockEntity> mouvements = new ArrayList<>();
+        for (Object[] produit : produits) {
+            long id = (Long) produit[0];
+            int quantite = quantites.get(id);
+            int stock = (Integer) produit[2];
+            int stockMini = (Integer) produit[3];
+            mouvements.add(journaliser(id, quantite, stock, motif, reference, maintenant));
+            int avant = stock - quantite;
+            if ((avant > stockMini) != (stock > stockMini)) {
+                // Alerte stock levee ou declenchee
+                dashboardEvents.fire(DashboardEvent.stock((String) produit[1], stock, stockMini));
+            }
+        }
+        return mouvements;
+    }
+
+    /**
+     * Records a movement already applied to the produit (creation, edition or import of the
+     * produit itself).
+     */
+    public MouvementStockEntity journaliser(long produitId, int quantite, int stock, MouvementStockEntity.Motif motif, String reference) {
+        return journaliser(produitId, quantite, stock, motif, reference, new Timestamp(System.currentTimeMillis()));
+    }
+
+    private MouvementStockEntity journaliser(long produitId, int quantite, int stock, MouvementStockEntity.Motif motif, String reference, Timestamp date) {
+        MouvementStockEntity mouvement = new MouvementStockEntity();
+        mouvement.produitId = produitId;
+        mouvement.quantite = quantite;
+        mouvement.stock = stock;
+        mouvement.motif = motif;
+        mouvement.reference = reference;
+        mouvement.date = date;
+        mouvement.persist();
+        return mouvement;
+    }
+
+    /**
+     * Atomic stock changes of the catalogue items that are not journaled (bateaux, moteurs).
+     */
+    public void incrementer(Class<? extends PanacheEntityBase> type, Map<Long, Integer> quantites) {
+        EntityManager em = Panache.getEntityManager(type);
+        parQuantite(quantites).forEach((quantite, ids) ->
+                em.createQuery("update " + type.getSimpleName() + " e set e.stock = e.stock + :quantite where e.id in :ids")
+                        .setParameter("quantite", (long) quantite)
+                        .setParameter("ids", ids)
+                        .executeUpdate());
+    }
+
+    private static Map<Integer, List<Long>> parQuantite(Map<Long, Integer> quantites) {
+        Map<Integer, List<Long>> parQuantite = new HashMap<>();
+        quantites.forEach((id, quantite) -> {
+            if (id != null && quantite != null && quantite != 0) {
+                parQuantite.computeIfAbsent(quantite, q -> new ArrayList<>()).add(id);
+            }
+        });
+        return parQuantite;
+    }
+
+    /**
+     * Stock of each produit (by id) at the given date. Produits without stock are omitted.
+     */
+    public Map<Long, Integer> stockAu(Timestamp date) {
+        EntityManager em = MouvementStockEntity.getEntityManager();
+        Timestamp inventaire = em.createQuery("select max(i.date) from InventaireStockEntity i where i.date <= :date", Timestamp.class)
+                .setParameter("date", date)
+                .getSingleResult();
+        Map<Long, Integer> stocks = new HashMap<>();
+        if (inventaire != null) {
+            for (Object[] ligne : em.createQuery("select i.produitId, i.stock from InventaireStockEntity i where i.date = :date", Object[].class)
+                    .setParameter("date", inventaire)
+                    .getResultList()) {
+                stocks.put((Long) ligne[0], (Integer) ligne[1]);
+            }
+        }
+        for (Object[] ligne : em.createQuery("select m.produitId, sum(m.quantite) from MouvementStockEntity m "
+                        + "where m.date > :depuis and m.date <= :date group by m.produitId", Object[].class)
+                .setParameter("depuis", inventaire != null ? inventaire : new Timestamp(0))
+                .setParameter("date", date)
+                .getResultList()) {
+            stocks.merge((Long) ligne[0], ((Number) ligne[1]).intValue(), Integer::sum);
+        }
+        stocks.values().removeIf(stock -> stock == 0);
+        return stocks;
+    }
+
+    /**
+     * Records the stock of every produit at the given date, from the previous inventory and
+     * the movements since. Returns the number of produits recorded, or -1 when an inventory
+     * at or after this date already exists.
+     */
+    @Transactional
+    public int inventorier(Timestamp date) {
+        Timestamp dernier = InventaireStockEntity.getEntityManager()
+                .createQuery("select max(i.date) from InventaireStockEntity i", Timestamp.class)
+                .getSingleResult();
+        if (dernier != null && !dernier.before(date)) {
+            return -1;
+        }
+        Map<Long, Integer> stocks = stockAu(date);
+        for (Map.Entry<Long, Integer> entry : stocks.entrySet()) {
+            InventaireStockEntity inventaire = new InventaireStockEntity();
+            inventaire.date = date;
+            inventaire.produitId = entry.getKey();
+            inventaire.stock = entry.getValue();
+            inventaire.persist();
+        }
+        return stocks.size();
+    }
+
+    @Scheduled(every = "${stock.inventaire.interval:24h}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void inventaire() {
+        Timestamp date = new Timestamp(System.currentTimeMillis() - MARGE.toMillis());
+        int produits = QuarkusTransaction.requiringNew().call(() -> inventorier(date));
+        if (produits >= 0) {
+            LOG.infof("Inventaire du stock enregistre (%d produits)", produits);
+        }
+    }
+
+    /**
+     * Opens the ledger of the produits that have a stock but no movement yet (data created
+     * before the ledger existed, or inserted directly in the database).
+     */
+    void ouvrir(@Observes StartupEvent event) {
+        QuarkusTransaction.requiringNew().run(() -> {
+            List<Object[]> produits = ProduitCatalogueEntity.getEntityManager()
+                    .createQuery("select p.id, p.stock from ProduitCatalogueEntity p where p.stock <> 0 "
+                            + "and not exists (select m.id from MouvementStockEntity m where m.produitId = p.id)", Object[].class)
+                    .getResultList();
+            Timestamp maintenant = new Timestamp(System.currentTimeMillis());
+            for (Object[] produit : produits) {
+                int stock = (Integer) produit[1];
+                journaliser((Long) produit[0], stock, stock, MouvementStockEntity.Motif.OUVERTURE, "Ouverture du journal", maintenant);
+            }
+            if (!produits.isEmpty()) {
+                LOG.infof("Journal de stock ouvert pour %d produits", produits.size());
+            }
+        });
+    }
+
+}
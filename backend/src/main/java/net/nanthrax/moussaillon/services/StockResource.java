@@ -0,0 +1,143 @@
+package net.nanthrax.moussaillon.services;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import io.quarkus.panache.common.Sort;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
+import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
+
+@Path("/stock")
+@ApplicationScoped
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class StockResource {
+
+    static final int MAX_MOUVEMENTS = 500;
+
+    @Inject
+    StockLedger stockLedger;
+
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    public static class Ajustement {
+        public Long produitId;
+        public int quantite;
+        public String reference;
+    }
+
+    public static class Niveau {
+        public long produitId;
+        public String produit;
+        public int stock;
+    }
+
+    public static class Inventaire {
+        public String date;
+        public int produits;
+    }
+
+    @GET
+    @Path("/mouvements")
+    public List<MouvementStockEntity> mouvements(
+            @QueryParam("produitId") Long produitId,
+            @QueryParam("limit") @DefaultValue("100") int limit
+    ) {
+        Sort sort = Sort.descending("date", "id");
+        int taille = Math.max(1, Math.min(limit, MAX_MOUVEMENTS));
+        if (produitId != null) {
+            return MouvementStockEntity.find("produitId", sort, produitId).page(0, taille).list();
+        }
+        return MouvementStockEntity.findAll(sort).page(0, taille).list();
+    }
+
+    @POST
+    @Path("/mouvements")
+    @Transactional
+    public MouvementStockEntity ajuster(Ajustement ajustement) {
+        if (ajustement == null || ajustement.produitId == null || ajustement.quantite == 0) {
+            throw new WebApplicationException("Le produit et une quantité non nulle sont requis", 400);
+        }
+        List<MouvementStockEntity> mouvements = stockLedger.appliquer(Map.of(ajustement.produitId, ajustement.quantite),
+                MouvementStockEntity.Motif.AJUSTEMENT, ajustement.reference);
+        if (mouvements.isEmpty()) {
+            throw new WebApplicationException("Le produit (" + ajustement.produitId + ") n'est pas trouvé", 404);
+        }
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        return mouvements.get(0);
+    }
+
+    /**
+     * Stock of the produits at a date (end of day for a plain date, now by default).
+     */
+    @GET
+    @Path("/inventaire")
+    public List<Niveau> inventaire(@QueryParam("date") String date) {
+        Map<Long, Integer> stocks = stockLedger.stockAu(parseDate(date));
+        List<Niveau> niveaux = new ArrayList<>();
+        for (Object[] produit : ProduitCatalogueEntity.getEntityManager()
+                .createQuery("select p.id, p.nom from ProduitCatalogueEntity p", Object[].class)
+                .getResultList()) {
+            Niveau niveau = new Niveau();
+            niveau.produitId = (Long) produit[0];
+            niveau.produit = (String) produit[1];
+            niveau.stock = stocks.getOrDefault(niveau.produitId, 0);
+            niveaux.add(niveau);
+        }
+        niveaux.sort(Comparator.comparing(n -> n.produit));
+        return niveaux;
+    }
+
+    /**
+     * Takes an inventory now, instead of waiting for the periodic one.
+     */
+    @POST
+    @Path("/inventaire")
+    public Inventaire inventorier() {
+        Timestamp date = new Timestamp(System.currentTimeMillis() - StockLedger.MARGE.toMillis());
+        int produits = stockLedger.inventorier(date);
+        if (produits < 0) {
+            throw new WebApplicationException("Un inventaire plus récent existe déjà", 409);
+        }
+        Inventaire inventaire = new Inventaire();
+        inventaire.date = date.toLocalDateTime().toString();
+        inventaire.produits = produits;
+        return inventaire;
+    }
+
+    private static Timestamp parseDate(String date) {
+        if (date == null || date.isBlank()) {
+            return new Timestamp(System.currentTimeMillis());
+        }
+        try {
+            if (date.trim().length() == 10) {
+                return Timestamp.valueOf(LocalDate.parse(date.trim()).atTime(LocalTime.MAX));
+            }
+            return Timestamp.valueOf(LocalDateTime.parse(date.trim()));
+        } catch (DateTimeParseException e) {
+            throw new WebApplicationException("Date invalide: " + date, 400);
+        }
+    }
+
+}
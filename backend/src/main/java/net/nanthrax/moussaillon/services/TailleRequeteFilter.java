@@ -0,0 +1,64 @@
+package net.nanthrax.moussaillon.services;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.configuration.MemorySize;
+import io.quarkus.vertx.http.runtime.filters.Filters;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+
+/**
+ * Refuses oversized requests from their Content-Length, before any byte of the body is read
+ * or written to the uploads directory. quarkus.http.limits.max-body-size has to allow a
+ * batch of photos, so it is only the ceiling of the upload endpoints; every other endpoint
+ * keeps the smaller http.corps.taille-max.
+ */
+@ApplicationScoped
+public class TailleRequeteFilter {
+
+    @ConfigProperty(name = "fichiers.upload.requete-max", defaultValue = "250M")
+    MemorySize requeteMax;
+
+    @ConfigProperty(name = "http.corps.taille-max", defaultValue = "10M")
+    MemorySize corpsMax;
+
+    void enregistrer(@Observes Filters filters) {
+        filters.register(this::verifier, 1000);
+    }
+
+    void verifier(RoutingContext context) {
+        HttpServerRequest request = context.request();
+        String longueur = request.getHeader(HttpHeaders.CONTENT_LENGTH);
+        if (longueur != null) {
+            long maximum = (televersement(request) ? requeteMax : corpsMax).asLongValue();
+            long taille;
+            try {
+                taille = Long.parseLong(longueur.trim());
+            } catch (NumberFormatException e) {
+                taille = -1;
+            }
+            if (taille > maximum) {
+                context.response()
+                        .setStatusCode(413)
+                        .putHeader(HttpHeaders.CONNECTION, "close")
+                        .putHeader(HttpHeaders.CONTENT_TYPE, "text/plain")
+                        .end("Requete trop volumineuse (" + taille + " octets, maximum " + maximum + ")");
+                return;
+            }
+        }
+        context.next();
+    }
+
+    private static boolean televersement(HttpServerRequest request) {
+        String path = request.path();
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return request.method() == HttpMethod.POST && ("/images".equals(path) || "/documents".equals(path));
+    }
+
+}
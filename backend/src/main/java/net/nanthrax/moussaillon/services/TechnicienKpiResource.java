@@ -2,18 +2,19 @@ package net.nanthrax.moussaillon.services;
 
 import java.sql.Timestamp;
 import java.time.LocalDate;
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import io.quarkus.panache.common.Sort;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.TypedQuery;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
-import net.nanthrax.moussaillon.persistence.ForfaitMainOeuvreEntity;
-import net.nanthrax.moussaillon.persistence.ServiceMainOeuvreEntity;
 import net.nanthrax.moussaillon.persistence.TechnicienEntity;
 import net.nanthrax.moussaillon.persistence.VenteForfaitEntity;
 import net.nanthrax.moussaillon.persistence.VenteServiceEntity;
@@ -23,125 +24,144 @@ import net.nanthrax.moussaillon.persistence.VenteServiceEntity;
 @Produces(MediaType.APPLICATION_JSON)
 public class TechnicienKpiResource {
 
+    private static final String FORFAIT_COUNTERS =
+            "SELECT t.id, COUNT(vf.id), "
+            + "SUM(CASE WHEN vf.status = ?1 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.status = ?2 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.status = ?3 OR vf.status = ?4 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.status = ?5 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.status = ?6 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.status = ?1 THEN vf.dureeReelle ELSE 0.0 END), "
+            + "SUM(CASE WHEN vf.dateDebut >= ?7 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.dateDebut >= ?7 AND vf.status = ?1 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN vf.dateDebut >= ?7 AND vf.status = ?1 THEN vf.dureeReelle ELSE 0.0 END), "
+            + "SUM(CASE WHEN vf.status = ?2 AND vf.dateDebut < ?8 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN (vf.status = ?3 OR vf.status = ?2) AND vf.statusDate < ?9 THEN 1 ELSE 0 END), "
+            + "SUM(CASE WHEN f.dureeEstimee > 0 AND vf.dureeReelle > f.dureeEstimee THEN 1 ELSE 0 END) "
+            + "FROM VenteForfaitEntity vf JOIN vf.techniciens t LEFT JOIN vf.forfait f ";
+
+    private static final String SERVICE_COUNTERS = FORFAIT_COUNTERS
+            .replace("VenteForfaitEntity vf", "VenteServiceEntity vf")
+            .replace("vf.forfait f", "vf.service f");
+
+    private static final String FORFAIT_MAIN_OEUVRE =
+            "SELECT t.id, SUM(mo.prixTTC * fmo.quantite * vf.quantite), "
+            + "SUM(CASE WHEN vf.dateDebut >= ?1 THEN mo.prixTTC * fmo.quantite * vf.quantite ELSE 0.0 END) "
+            + "FROM VenteForfaitEntity vf JOIN vf.techniciens t JOIN vf.forfait f JOIN f.mainOeuvres fmo JOIN fmo.mainOeuvre mo ";
+
+    private static final String SERVICE_MAIN_OEUVRE = FORFAIT_MAIN_OEUVRE
+            .replace("VenteForfaitEntity vf", "VenteServiceEntity vf")
+            .replace("vf.forfait f", "vf.service f");
+
     @GET
     public TechnicienKpi get(@PathParam("id") long id) {
         TechnicienEntity technicien = TechnicienEntity.findById(id);
         if (technicien == null) {
             throw new WebApplicationException("Le technicien (" + id + ") n'est pas trouvé", 404);
         }
+        return compute(id).get(id);
+    }
 
-        List<VenteForfaitEntity> allForfaits = VenteForfaitEntity.list("SELECT vf FROM VenteForfaitEntity vf JOIN vf.techniciens t WHERE t.id = ?1", id);
-        List<VenteServiceEntity> allServices = VenteServiceEntity.list("SELECT vs FROM VenteServiceEntity vs JOIN vs.techniciens t WHERE t.id = ?1", id);
-
-        // Combine into a unified list of status/dates/dureeReelle
-        List<PlanningItem> allItems = new ArrayList<>();
-        for (VenteForfaitEntity vf : allForfaits) {
-            allItems.add(new PlanningItem(
-                    vf.status != null ? vf.status.name() : null,
-                    vf.dateDebut, vf.statusDate, vf.dureeReelle,
-                    vf.forfait != null ? vf.forfait.dureeEstimee : 0));
-        }
-        for (VenteServiceEntity vs : allServices) {
-            allItems.add(new PlanningItem(
-                    vs.status != null ? vs.status.name() : null,
-                    vs.dateDebut, vs.statusDate, vs.dureeReelle,
-                    vs.service != null ? vs.service.dureeEstimee : 0));
+    /**
+     * Computes the KPIs of one technician (or of all of them when {@code technicienId} is null)
+     * with grouped aggregate queries, without loading the planning items.
+     */
+    Map<Long, TechnicienKpi> compute(Long technicienId) {
+        Map<Long, TechnicienKpi> kpis = new LinkedHashMap<>();
+        if (technicienId != null) {
+            kpis.put(technicienId, newKpi(technicienId));
+        } else {
+            for (TechnicienEntity technicien : TechnicienEntity.<TechnicienEntity>listAll(Sort.by("id"))) {
+                kpis.put(technicien.id, newKpi(technicien.id));
+            }
         }
 
         LocalDate now = LocalDate.now();
-        LocalDate startOfMonth = now.withDayOfMonth(1);
-        Timestamp monthStart = Timestamp.valueOf(startOfMonth.atStartOfDay());
-
-        TechnicienKpi kpi = new TechnicienKpi();
-
-        kpi.totalTaches = allItems.size();
-        kpi.tachesTerminees = (int) allItems.stream().filter(i -> "TERMINEE".equals(i.status)).count();
-        kpi.tachesEnCours = (int) allItems.stream().filter(i -> "EN_COURS".equals(i.status)).count();
-        kpi.tachesEnAttente = (int) allItems.stream().filter(i -> "EN_ATTENTE".equals(i.status) || "PLANIFIEE".equals(i.status)).count();
-        kpi.tachesIncident = (int) allItems.stream().filter(i -> "INCIDENT".equals(i.status)).count();
-        kpi.tachesAnnulees = (int) allItems.stream().filter(i -> "ANNULEE".equals(i.status)).count();
-
-        kpi.tauxCompletion = kpi.totalTaches > 0 ? Math.round((double) kpi.tachesTerminees / kpi.totalTaches * 100.0 * 10) / 10.0 : 0;
-        kpi.tauxIncident = kpi.totalTaches > 0 ? Math.round((double) kpi.tachesIncident / kpi.totalTaches * 100.0 * 10) / 10.0 : 0;
-
-        kpi.heuresReelles = allItems.stream().filter(i -> "TERMINEE".equals(i.status)).mapToDouble(i -> i.dureeReelle).sum();
+        Timestamp monthStart = Timestamp.valueOf(now.withDayOfMonth(1).atStartOfDay());
+        Timestamp twoDaysAgo = Timestamp.valueOf(now.minusDays(2).atStartOfDay());
+        Timestamp nowTs = Timestamp.valueOf(now.atStartOfDay());
 
-        // KPIs du mois
-        List<PlanningItem> itemsDuMois = allItems.stream()
-                .filter(i -> i.dateDebut != null && !i.dateDebut.before(monthStart))
-                .toList();
-        kpi.tachesMois = itemsDuMois.size();
-        kpi.tachesTermineesMois = (int) itemsDuMois.stream().filter(i -> "TERMINEE".equals(i.status)).count();
-        kpi.heuresReellesMois = itemsDuMois.stream().filter(i -> "TERMINEE".equals(i.status)).mapToDouble(i -> i.dureeReelle).sum();
+        String where = technicienId != null ? "WHERE t.id = ?10 " : "";
+        String mainOeuvreWhere = technicienId != null ? "WHERE t.id = ?2 " : "";
+        addCounters(kpis, counters(FORFAIT_COUNTERS + where + "GROUP BY t.id", technicienId,
+                VenteForfaitEntity.Status.TERMINEE, VenteForfaitEntity.Status.EN_COURS,
+                VenteForfaitEntity.Status.PLANIFIEE, VenteForfaitEntity.Status.EN_ATTENTE,
+                VenteForfaitEntity.Status.INCIDENT, VenteForfaitEntity.Status.ANNULEE,
+                monthStart, twoDaysAgo, nowTs));
+        addCounters(kpis, counters(SERVICE_COUNTERS + where + "GROUP BY t.id", technicienId,
+                VenteServiceEntity.Status.TERMINEE, VenteServiceEntity.Status.EN_COURS,
+                VenteServiceEntity.Status.PLANIFIEE, VenteServiceEntity.Status.EN_ATTENTE,
+                VenteServiceEntity.Status.INCIDENT, VenteServiceEntity.Status.ANNULEE,
+                monthStart, twoDaysAgo, nowTs));
+        addMainOeuvre(kpis, counters(FORFAIT_MAIN_OEUVRE + mainOeuvreWhere + "GROUP BY t.id", technicienId, monthStart));
+        addMainOeuvre(kpis, counters(SERVICE_MAIN_OEUVRE + mainOeuvreWhere + "GROUP BY t.id", technicienId, monthStart));
+
+        for (TechnicienKpi kpi : kpis.values()) {
+            kpi.tauxCompletion = kpi.totalTaches > 0 ? Math.round((double) kpi.tachesTerminees / kpi.totalTaches * 100.0 * 10) / 10.0 : 0;
+            kpi.tauxIncident = kpi.totalTaches > 0 ? Math.round((double) kpi.tachesIncident / kpi.totalTaches * 100.0 * 10) / 10.0 : 0;
+        }
+        return kpis;
+    }
 
-        // Retards > 48h
-        Timestamp twoDaysAgo = Timestamp.valueOf(now.minusDays(2).atStartOfDay());
-        kpi.retards48h = (int) allItems.stream()
-                .filter(i -> "EN_COURS".equals(i.status) && i.dateDebut != null && i.dateDebut.before(twoDaysAgo))
-                .count();
-
-        // Chiffre d'affaire main d'oeuvre (global)
-        double caMainOeuvre = 0;
-        for (VenteForfaitEntity vf : allForfaits) {
-            if (vf.forfait != null && vf.forfait.mainOeuvres != null) {
-                for (ForfaitMainOeuvreEntity fmo : vf.forfait.mainOeuvres) {
-                    if (fmo.mainOeuvre != null) {
-                        caMainOeuvre += fmo.mainOeuvre.prixTTC * fmo.quantite * vf.quantite;
-                    }
-                }
-            }
+    private List<Object[]> counters(String query, Long technicienId, Object... params) {
+        TypedQuery<Object[]> typedQuery = VenteForfaitEntity.getEntityManager().createQuery(query, Object[].class);
+        for (int i = 0; i < params.length; i++) {
+            typedQuery.setParameter(i + 1, params[i]);
         }
-        for (VenteServiceEntity vs : allServices) {
-            if (vs.service != null && vs.service.mainOeuvres != null) {
-                for (ServiceMainOeuvreEntity smo : vs.service.mainOeuvres) {
-                    if (smo.mainOeuvre != null) {
-                        caMainOeuvre += smo.mainOeuvre.prixTTC * smo.quantite * vs.quantite;
-                    }
-                }
-            }
+        if (technicienId != null) {
+            typedQuery.setParameter(params.length + 1, technicienId);
         }
-        kpi.chiffreAffaireMainOeuvre = caMainOeuvre;
-
-        // Chiffre d'affaire main d'oeuvre (mois en cours)
-        double caMainOeuvreMois = 0;
-        for (VenteForfaitEntity vf : allForfaits) {
-            if (vf.dateDebut != null && !vf.dateDebut.before(monthStart) && vf.forfait != null && vf.forfait.mainOeuvres != null) {
-                for (ForfaitMainOeuvreEntity fmo : vf.forfait.mainOeuvres) {
-                    if (fmo.mainOeuvre != null) {
-                        caMainOeuvreMois += fmo.mainOeuvre.prixTTC * fmo.quantite * vf.quantite;
-                    }
-                }
+        return typedQuery.getResultList();
+    }
+
+    private void addCounters(Map<Long, TechnicienKpi> kpis, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            TechnicienKpi kpi = kpis.get((Long) row[0]);
+            if (kpi == null) {
+                continue;
             }
+            kpi.totalTaches += intValue(row[1]);
+            kpi.tachesTerminees += intValue(row[2]);
+            kpi.tachesEnCours += intValue(row[3]);
+            kpi.tachesEnAttente += intValue(row[4]);
+            kpi.tachesIncident += intValue(row[5]);
+            kpi.tachesAnnulees += intValue(row[6]);
+            kpi.heuresReelles += doubleValue(row[7]);
+            kpi.tachesMois += intValue(row[8]);
+            kpi.tachesTermineesMois += intValue(row[9]);
+            kpi.heuresReellesMois += doubleValue(row[10]);
+            kpi.retards48h += intValue(row[11]);
+            kpi.tachesEnRetard += intValue(row[12]);
+            kpi.tachesDepassement += intValue(row[13]);
         }
-        for (VenteServiceEntity vs : allServices) {
-            if (vs.dateDebut != null && !vs.dateDebut.before(monthStart) && vs.service != null && vs.service.mainOeuvres != null) {
-                for (ServiceMainOeuvreEntity smo : vs.service.mainOeuvres) {
-                    if (smo.mainOeuvre != null) {
-                        caMainOeuvreMois += smo.mainOeuvre.prixTTC * smo.quantite * vs.quantite;
-                    }
-                }
+    }
+
+    private void addMainOeuvre(Map<Long, TechnicienKpi> kpis, List<Object[]> rows) {
+        for (Object[] row : rows) {
+            TechnicienKpi kpi = kpis.get((Long) row[0]);
+            if (kpi != null) {
+                kpi.chiffreAffaireMainOeuvre += doubleValue(row[1]);
+                kpi.chiffreAffaireMainOeuvreMois += doubleValue(row[2]);
             }
         }
-        kpi.chiffreAffaireMainOeuvreMois = caMainOeuvreMois;
-
-        // Tâches en retard (date de planification dépassée)
-        Timestamp nowTs = Timestamp.valueOf(now.atStartOfDay());
-        kpi.tachesEnRetard = (int) allItems.stream()
-                .filter(i -> ("PLANIFIEE".equals(i.status) || "EN_COURS".equals(i.status))
-                        && i.statusDate != null && i.statusDate.before(nowTs))
-                .count();
-
-        // Tâches avec dépassement de durée (durée réelle > durée estimée)
-        kpi.tachesDepassement = (int) allItems.stream()
-                .filter(i -> i.dureeEstimee > 0 && i.dureeReelle > i.dureeEstimee)
-                .count();
+    }
 
+    private static TechnicienKpi newKpi(Long technicienId) {
+        TechnicienKpi kpi = new TechnicienKpi();
+        kpi.technicienId = technicienId;
         return kpi;
     }
 
-    private record PlanningItem(String status, Timestamp dateDebut, Timestamp statusDate, double dureeReelle, double dureeEstimee) {}
+    private static int intValue(Object value) {
+        return value != null ? ((Number) value).intValue() : 0;
+    }
+
+    private static double doubleValue(Object value) {
+        return value != null ? ((Number) value).doubleValue() : 0;
+    }
 
     public static class TechnicienKpi {
+        public Long technicienId;
         public int totalTaches;
         public int tachesTerminees;
         public int tachesEnCours;
@@ -1,12 +1,19 @@
 package net.nanthrax.moussaillon.services;
 
 import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import io.quarkus.mailer.Mail;
 import io.quarkus.mailer.Mailer;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
@@ -16,11 +23,13 @@ import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import net.nanthrax.moussaillon.persistence.ForfaitEntity;
 import net.nanthrax.moussaillon.persistence.ForfaitProduitEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
 import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
 import net.nanthrax.moussaillon.persistence.ServiceProduitEntity;
 import net.nanthrax.moussaillon.persistence.SocieteEntity;
@@ -42,6 +51,18 @@ public class TechnicienPortalResource {
     @Inject
     TokenService tokenService;
 
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    @Inject
+    StockLedger stockLedger;
+
+    @Inject
+    CatalogueLookup catalogue;
+
+    @ConfigProperty(name = "technicien-portal.taches.jours", defaultValue = "90")
+    int tachesJours;
+
     public static class LoginRequest {
         public String email;
         public String motDePasse;
@@ -334,29 +355,44 @@ public class TechnicienPortalResource {
 
     @GET
     @Path("/techniciens/{id}/taches")
-    public List<PlanningItemWithVente> getTechnicienTasks(@PathParam("id") long technicienId) {
+    public List<PlanningItemWithVente> getTechnicienTasks(@PathParam("id") long technicienId, @QueryParam("jours") Integer jours) {
         TechnicienEntity technicien = TechnicienEntity.findById(technicienId);
         if (technicien == null) {
             throw new WebApplicationException("Technicien non trouve", Response.Status.NOT_FOUND);
         }
+        int window = jours != null ? jours : tachesJours;
+        if (window < 0) {
+            throw new WebApplicationException("Le nombre de jours doit etre positif", Response.Status.BAD_REQUEST);
+        }
+        // Open items are always returned, closed ones only when they moved within the window
+        Timestamp since = Timestamp.valueOf(LocalDate.now().minusDays(window).atStartOfDay());
 
-        List<VenteEntity> ventes = VenteEntity.listAll();
         List<PlanningItemWithVente> result = new ArrayList<>();
-        for (VenteEntity vente : ventes) {
-            if (vente.venteForfaits != null) {
-                for (VenteForfaitEntity vf : vente.venteForfaits) {
-                    if (vf.techniciens != null && vf.techniciens.stream().anyMatch(t -> t.id.equals(technicienId))) {
-                        result.add(PlanningItemWithVente.fromForfait(vf, vente));
-                    }
-                }
-            }
-            if (vente.venteServices != null) {
-                for (VenteServiceEntity vs : vente.venteServices) {
-                    if (vs.techniciens != null && vs.techniciens.stream().anyMatch(t -> t.id.equals(technicienId))) {
-                        result.add(PlanningItemWithVente.fromService(vs, vente));
-                    }
-                }
-            }
+        List<Object[]> forfaits = VenteEntity.getEntityManager().createQuery(
+                "SELECT vf, v FROM VenteEntity v JOIN v.venteForfaits vf JOIN vf.techniciens t "
+                + "WHERE t.id = ?1 AND (vf.status IS NULL OR vf.status NOT IN (?2, ?3) "
+                + "OR vf.statusDate >= ?4 OR vf.dateFin >= ?4 OR vf.dateDebut >= ?4 OR vf.datePlanification >= ?4) "
+                + "ORDER BY v.id, vf.id", Object[].class)
+                .setParameter(1, technicienId)
+                .setParameter(2, VenteForfaitEntity.Status.TERMINEE)
+                .setParameter(3, VenteForfaitEntity.Status.ANNULEE)
+                .setParameter(4, since)
+                .getResultList();
+        for (Object[] row : forfaits) {
+            result.add(PlanningItemWithVente.fromForfait((VenteForfaitEntity) row[0], (VenteEntity) row[1]));
+        }
+        List<Object[]> services = VenteEntity.getEntityManager().createQuery(
+                "SELECT vs, v FROM VenteEntity v JOIN v.venteServices vs JOIN vs.techniciens t "
+                + "WHERE t.id = ?1 AND (vs.status IS NULL OR vs.status NOT IN (?2, ?3) "
+                + "OR vs.statusDate >= ?4 OR vs.dateFin >= ?4 OR vs.dateDebut >= ?4 OR vs.datePlanification >= ?4) "
+                + "ORDER BY v.id, vs.id", Object[].class)
+                .setParameter(1, technicienId)
+                .setParameter(2, VenteServiceEntity.Status.TERMINEE)
+                .setParameter(3, VenteServiceEntity.Status.ANNULEE)
+                .setParameter(4, since)
+                .getResultList();
+        for (Object[] row : services) {
+            result.add(PlanningItemWithVente.fromService((VenteServiceEntity) row[0], (VenteEntity) row[1]));
         }
         return result;
     }
@@ -370,6 +406,7 @@ public class TechnicienPortalResource {
             throw new WebApplicationException("Element non trouve", Response.Status.NOT_FOUND);
         }
 
+        VenteForfaitEntity.Status previousStatus = vf.status;
         if (request.status != null && !request.status.isBlank()) {
             vf.status = VenteForfaitEntity.Status.valueOf(request.status);
         }
@@ -425,6 +462,12 @@ public class TechnicienPortalResource {
         if (vf.status == VenteForfaitEntity.Status.EN_COURS && parentVente != null && !parentVente.stockDecremented) {
             decrementStock(parentVente);
             parentVente.stockDecremented = true;
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        }
+        if (previousStatus != vf.status) {
+            dashboardEvents.fire(DashboardEvent.intervention("forfait", vf.id, parentVente != null ? parentVente.id : null, vf.status, vf.techniciens));
+        } else {
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.INTERVENTION));
         }
 
         if (parentVente == null) {
@@ -442,6 +485,7 @@ public class TechnicienPortalResource {
             throw new WebApplicationException("Element non trouve", Response.Status.NOT_FOUND);
         }
 
+        VenteServiceEntity.Status previousStatus = vs.status;
         if (request.status != null && !request.status.isBlank()) {
             vs.status = VenteServiceEntity.Status.valueOf(request.status);
         }
@@ -497,6 +541,12 @@ public class TechnicienPortalResource {
         if (vs.status == VenteServiceEntity.Status.EN_COURS && parentVente != null && !parentVente.stockDecremented) {
             decrementStock(parentVente);
             parentVente.stockDecremented = true;
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
+        }
+        if (previousStatus != vs.status) {
+            dashboardEvents.fire(DashboardEvent.intervention("service", vs.id, parentVente != null ? parentVente.id : null, vs.status, vs.techniciens));
+        } else {
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.INTERVENTION));
         }
 
         if (parentVente == null) {
@@ -526,28 +576,27 @@ public class TechnicienPortalResource {
     }
 
     private void decrementStock(VenteEntity vente) {
+        Map<Long, Integer> quantites = new HashMap<>();
         if (vente.produits != null) {
             for (ProduitCatalogueEntity produit : vente.produits) {
-                ProduitCatalogueEntity p = ProduitCatalogueEntity.findById(produit.id);
-                if (p != null) {
-                    p.stock = Math.max(0, p.stock - 1);
-                }
+                quantites.merge(produit.id, -1, Integer::sum);
             }
         }
+        Map<Long, ForfaitEntity> forfaits = catalogue.forfaitsAvecProduits(vente.venteForfaits.stream()
+                .filter(vf -> vf.forfait != null)
+                .map(vf -> vf.forfait.id).toList());
         for (VenteForfaitEntity vf : vente.venteForfaits) {
             if (vf.forfait != null) {
-                ForfaitEntity f = ForfaitEntity.findById(vf.forfait.id);
+                ForfaitEntity f = forfaits.get(vf.forfait.id);
                 if (f != null && f.produits != null) {
                     for (ForfaitProduitEntity fp : f.produits) {
                         if (fp.produit != null) {
-                            ProduitCatalogueEntity p = ProduitCatalogueEntity.findById(fp.produit.id);
-                            if (p != null) {
-                                p.stock = Math.max(0, p.stock - fp.quantite * vf.quantite);
-                            }
+                            quantites.merge(fp.produit.id, -fp.quantite * vf.quantite, Integer::sum);
                         }
                     }
                 }
             }
         }
+        stockLedger.appliquer(quantites, MouvementStockEntity.Motif.VENTE, "Vente " + vente.id);
     }
 }
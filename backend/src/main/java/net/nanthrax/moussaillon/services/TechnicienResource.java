@@ -11,6 +11,7 @@ import jakarta.ws.rs.core.Response;
 import net.nanthrax.moussaillon.persistence.SocieteEntity;
 import net.nanthrax.moussaillon.persistence.TechnicienEntity;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Path("/techniciens")
@@ -22,6 +23,9 @@ public class TechnicienResource {
     @Inject
     Mailer mailer;
 
+    @Inject
+    TechnicienKpiResource kpiResource;
+
     @GET
     public List<TechnicienEntity> list() {
         List<TechnicienEntity> techniciens = TechnicienEntity.listAll();
@@ -41,6 +45,12 @@ public class TechnicienResource {
         return techniciens;
     }
 
+    @GET
+    @Path("/kpi")
+    public List<TechnicienKpiResource.TechnicienKpi> kpis() {
+        return new ArrayList<>(kpiResource.compute(null).values());
+    }
+
     @POST
     @Transactional
     public TechnicienEntity create(TechnicienEntity technicien) {
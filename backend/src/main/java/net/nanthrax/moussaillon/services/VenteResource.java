@@ -9,7 +9,9 @@ import java.util.Map;
 import io.quarkus.mailer.Mail;
 import io.quarkus.mailer.Mailer;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
+import jakarta.json.bind.annotation.JsonbTypeAdapter;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -26,10 +28,12 @@ import jakarta.ws.rs.core.Response;
 import net.nanthrax.moussaillon.persistence.EmailTemplateEntity;
 import net.nanthrax.moussaillon.persistence.ForfaitEntity;
 import net.nanthrax.moussaillon.persistence.ForfaitProduitEntity;
+import net.nanthrax.moussaillon.persistence.MouvementStockEntity;
 import net.nanthrax.moussaillon.persistence.ProduitCatalogueEntity;
 import net.nanthrax.moussaillon.persistence.ServiceEntity;
 import net.nanthrax.moussaillon.persistence.SocieteEntity;
 import net.nanthrax.moussaillon.persistence.TaskEntity;
+import net.nanthrax.moussaillon.persistence.TimestampJsonbAdapter;
 import net.nanthrax.moussaillon.persistence.VenteEntity;
 import net.nanthrax.moussaillon.persistence.VenteForfaitEntity;
 import net.nanthrax.moussaillon.persistence.VenteServiceEntity;
@@ -40,12 +44,26 @@ import net.nanthrax.moussaillon.persistence.VenteServiceEntity;
 @Consumes(MediaType.APPLICATION_JSON)
 public class VenteResource {
 
+    static final int MAX_PAGE_SIZE = 500;
+
     @Inject
     Mailer mailer;
 
     @Inject
     RappelScheduler rappelScheduler;
 
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    @Inject
+    EmailTemplates emailTemplates;
+
+    @Inject
+    StockLedger stockLedger;
+
+    @Inject
+    CatalogueLookup catalogue;
+
     @POST
     @Path("{id}/email")
     @Transactional
@@ -123,30 +141,22 @@ public class VenteResource {
             lignes.append("Aucun élément");
         }
 
-        EmailTemplateEntity template = EmailTemplateEntity.findByType(EmailTemplateEntity.Type.FACTURE);
+        EmailTemplates.Compiled template = emailTemplates.template(EmailTemplateEntity.Type.FACTURE);
         String subject;
         String body;
         if (template != null) {
-            subject = template.sujet
-                    .replace("{client}", clientName)
-                    .replace("{typeVente}", typeLabel)
-                    .replace("{reference}", String.valueOf(entity.id))
-                    .replace("{date}", dateStr)
-                    .replace("{statut}", statutLabel)
-                    .replace("{prixVenteTTC}", prixVenteTTC)
-                    .replace("{modePaiement}", modePaiement)
-                    .replace("{lignes}", lignes.toString().trim())
-                    .replace("{societe}", societeNom);
-            body = template.contenu
-                    .replace("{client}", clientName)
-                    .replace("{typeVente}", typeLabel)
-                    .replace("{reference}", String.valueOf(entity.id))
-                    .replace("{date}", dateStr)
-                    .replace("{statut}", statutLabel)
-                    .replace("{prixVenteTTC}", prixVenteTTC)
-                    .replace("{modePaiement}", modePaiement)
-                    .replace("{lignes}", lignes.toString().trim())
-                    .replace("{societe}", societeNom);
+            Map<String, String> variables = EmailTemplates.variables(
+                    "client", clientName,
+                    "typeVente", typeLabel,
+                    "reference", String.valueOf(entity.id),
+                    "date", dateStr,
+                    "statut", statutLabel,
+                    "prixVenteTTC", prixVenteTTC,
+                    "modePaiement", modePaiement,
+                    "lignes", lignes.toString().trim(),
+                    "societe", societeNom);
+            subject = template.sujet.render(variables);
+            body = template.contenu.render(variables);
         } else {
             subject = "Votre " + typeLabel + " #" + entity.id + " - " + societeNom;
             StringBuilder bodyBuilder = new StringBuilder();
@@ -182,69 +192,197 @@ public class VenteResource {
     }
 
     @GET
-    public List<VenteEntity> list() {
-        return VenteEntity.listAll();
+    public Response list(
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after,
+            @QueryParam("fields") String fields
+    ) {
+        if (limit == null) {
+            return Response.ok(VenteEntity.listAll()).build();
+        }
+        return page(new ArrayList<>(), new ArrayList<>(), limit, after, fields);
     }
 
     @GET
     @Path("/search")
-    public List<VenteEntity> search(
+    public Response search(
             @QueryParam("status") String status,
-            @QueryParam("clientId") Long clientId
+            @QueryParam("clientId") Long clientId,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("after") String after,
+            @QueryParam("fields") String fields
     ) {
         VenteEntity.Status parsedStatus = parseStatus(status);
         boolean hasStatus = parsedStatus != null;
         boolean hasClientId = clientId != null;
 
+        if (limit != null) {
+            List<String> conditions = new ArrayList<>();
+            List<Object> params = new ArrayList<>();
+            if (hasStatus) {
+                params.add(parsedStatus);
+                conditions.add("v.status = ?" + params.size());
+            }
+            if (hasClientId) {
+                params.add(clientId);
+                conditions.add("v.client.id = ?" + params.size());
+            }
+            return page(conditions, params, limit, after, fields);
+        }
+
         if (hasStatus && hasClientId) {
-            return VenteEntity.list("status = ?1 and client.id = ?2", parsedStatus, clientId);
+            return Response.ok(VenteEntity.list("status = ?1 and client.id = ?2", parsedStatus, clientId)).build();
         }
         if (hasStatus) {
-            return VenteEntity.list("status = ?1", parsedStatus);
+            return Response.ok(VenteEntity.list("status = ?1", parsedStatus)).build();
         }
         if (hasClientId) {
-            return VenteEntity.list("client.id = ?1", clientId);
+            return Response.ok(VenteEntity.list("client.id = ?1", clientId)).build();
+        }
+        return Response.ok(VenteEntity.listAll()).build();
+    }
+
+    /**
+     * Keyset pagination on (date desc, id desc), ventes without date coming last.
+     * The cursor of the next page is returned in the X-Next-Cursor header, the total
+     * number of matching ventes in X-Total-Count.
+     */
+    private Response page(List<String> conditions, List<Object> params, int limit, String after, String fields) {
+        if (limit < 1) {
+            throw new WebApplicationException("La limite doit être positive", 400);
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        boolean summary = parseFields(fields);
+
+        String filter = String.join(" and ", conditions);
+        long total = VenteEntity.count("from VenteEntity v" + (filter.isEmpty() ? "" : " where " + filter), params.toArray());
+
+        if (after != null && !after.isBlank()) {
+            Cursor cursor = parseCursor(after);
+            params.add(cursor.id());
+            String idParam = "?" + params.size();
+            if (cursor.date() == null) {
+                conditions.add("(v.date is null and v.id < " + idParam + ")");
+            } else {
+                params.add(cursor.date());
+                String dateParam = "?" + params.size();
+                conditions.add("(v.date < " + dateParam + " or (v.date = " + dateParam + " and v.id < " + idParam + ") or v.date is null)");
+            }
+        }
+        String where = conditions.isEmpty() ? "" : " where " + String.join(" and ", conditions);
+        String orderBy = " order by v.date desc nulls last, v.id desc";
+
+        List<?> items;
+        String nextCursor = null;
+        if (summary) {
+            jakarta.persistence.TypedQuery<Object[]> query = VenteEntity.getEntityManager().createQuery(
+                    "select v.id, v.status, v.date, v.bonPourAccord, v.comptoir, v.prixVenteTTC, v.montantTTC, "
+                    + "c.id, c.prenom, c.nom, b.name "
+                    + "from VenteEntity v left join v.client c left join v.bateau b" + where + orderBy, Object[].class);
+            for (int i = 0; i < params.size(); i++) {
+                query.setParameter(i + 1, params.get(i));
+            }
+            List<VenteSummary> rows = new ArrayList<>();
+            for (Object[] row : query.setMaxResults(pageSize).getResultList()) {
+                VenteSummary s = new VenteSummary();
+                s.id = (Long) row[0];
+                s.status = (VenteEntity.Status) row[1];
+                s.date = (Timestamp) row[2];
+                s.bonPourAccord = (Boolean) row[3];
+                s.comptoir = (Boolean) row[4];
+                s.prixVenteTTC = (Double) row[5];
+                s.montantTTC = (Double) row[6];
+                s.clientId = (Long) row[7];
+                s.client = row[9] != null ? (row[8] != null ? row[8] + " " : "") + row[9] : null;
+                s.bateau = (String) row[10];
+                rows.add(s);
+            }
+            if (rows.size() == pageSize) {
+                VenteSummary last = rows.get(rows.size() - 1);
+                nextCursor = formatCursor(last.date, last.id);
+            }
+            items = rows;
+        } else {
+            List<VenteEntity> ventes = VenteEntity.find("from VenteEntity v" + where + orderBy, params.toArray())
+                    .page(0, pageSize)
+                    .list();
+            if (ventes.size() == pageSize) {
+                VenteEntity last = ventes.get(ventes.size() - 1);
+                nextCursor = formatCursor(last.date, last.id);
+            }
+            items = ventes;
+        }
+
+        Response.ResponseBuilder response = Response.ok(items).header("X-Total-Count", total);
+        if (nextCursor != null) {
+            response.header("X-Next-Cursor", nextCursor);
+        }
+        return response.build();
+    }
+
+    private boolean parseFields(String fields) {
+        if (fields == null || fields.isBlank() || "all".equals(fields.trim())) {
+            return false;
+        }
+        if ("summary".equals(fields.trim())) {
+            return true;
+        }
+        throw new WebApplicationException("Valeur de fields invalide: " + fields, 400);
+    }
+
+    // The date is encoded to the nanosecond (seconds.nanos), as stored: a cursor truncated to the
+    // millisecond would miss the "v.date = " tie-break and skip the rows sharing that date
+    private String formatCursor(Timestamp date, Long id) {
+        String encoded = date != null ? Math.floorDiv(date.getTime(), 1000L) + "." + date.getNanos() : "";
+        return encoded + "_" + id;
+    }
+
+    private Cursor parseCursor(String after) {
+        String[] parts = after.trim().split("_", -1);
+        if (parts.length != 2) {
+            throw new WebApplicationException("Curseur invalide: " + after, 400);
+        }
+        try {
+            Timestamp date = null;
+            if (!parts[0].isEmpty()) {
+                String[] instant = parts[0].split("\\.", -1);
+                int nanos = instant.length == 2 ? Integer.parseInt(instant[1]) : -1;
+                if (nanos < 0 || nanos > 999_999_999) {
+                    throw new WebApplicationException("Curseur invalide: " + after, 400);
+                }
+                date = new Timestamp(Math.multiplyExact(Long.parseLong(instant[0]), 1000L));
+                date.setNanos(nanos);
+            }
+            return new Cursor(date, Long.parseLong(parts[1]));
+        } catch (NumberFormatException | ArithmeticException ex) {
+            throw new WebApplicationException("Curseur invalide: " + after, 400);
         }
-        return VenteEntity.listAll();
     }
 
     @POST
     @Transactional
     public Response create(VenteEntity vente) {
         vente.id = null;
-        // Copy template taches from catalogue forfait if none provided
+        // Copy template taches from catalogue forfaits and services if none provided
         if (vente.venteForfaits != null) {
+            Map<Long, ForfaitEntity> forfaits = catalogue.forfaitsAvecTaches(vente.venteForfaits.stream()
+                    .filter(vf -> (vf.taches == null || vf.taches.isEmpty()) && vf.forfait != null)
+                    .map(vf -> vf.forfait.id).toList());
             for (VenteForfaitEntity vf : vente.venteForfaits) {
-                if ((vf.taches == null || vf.taches.isEmpty()) && vf.forfait != null && vf.forfait.id != null) {
-                    ForfaitEntity catalogueForfait = ForfaitEntity.findById(vf.forfait.id);
-                    if (catalogueForfait != null && catalogueForfait.taches != null) {
-                        if (vf.taches == null) vf.taches = new java.util.ArrayList<>();
-                        for (TaskEntity t : catalogueForfait.taches) {
-                            TaskEntity ct = new TaskEntity();
-                            ct.nom = t.nom;
-                            ct.description = t.description;
-                            ct.done = false;
-                            vf.taches.add(ct);
-                        }
-                    }
+                ForfaitEntity catalogueForfait = vf.forfait != null ? forfaits.get(vf.forfait.id) : null;
+                if ((vf.taches == null || vf.taches.isEmpty()) && catalogueForfait != null) {
+                    vf.taches = copierTaches(catalogueForfait.taches);
                 }
             }
         }
-        // Copy template taches from catalogue service if none provided
         if (vente.venteServices != null) {
+            Map<Long, ServiceEntity> services = catalogue.servicesAvecTaches(vente.venteServices.stream()
+                    .filter(vs -> (vs.taches == null || vs.taches.isEmpty()) && vs.service != null)
+                    .map(vs -> vs.service.id).toList());
             for (VenteServiceEntity vs : vente.venteServices) {
-                if ((vs.taches == null || vs.taches.isEmpty()) && vs.service != null && vs.service.id != null) {
-                    ServiceEntity catalogueService = ServiceEntity.findById(vs.service.id);
-                    if (catalogueService != null && catalogueService.taches != null) {
-                        if (vs.taches == null) vs.taches = new java.util.ArrayList<>();
-                        for (TaskEntity t : catalogueService.taches) {
-                            TaskEntity ct = new TaskEntity();
-                            ct.nom = t.nom;
-                            ct.description = t.description;
-                            ct.done = false;
-                            vs.taches.add(ct);
-                        }
-                    }
+                ServiceEntity catalogueService = vs.service != null ? services.get(vs.service.id) : null;
+                if ((vs.taches == null || vs.taches.isEmpty()) && catalogueService != null) {
+                    vs.taches = copierTaches(catalogueService.taches);
                 }
             }
         }
@@ -252,6 +390,8 @@ public class VenteResource {
             vente.dateDevis = new Timestamp(System.currentTimeMillis());
         }
         vente.persist();
+        dashboardEvents.fire(DashboardEvent.vente(vente.id, vente.status));
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.INTERVENTION));
         return Response.status(Response.Status.CREATED).entity(vente).build();
     }
 
@@ -281,6 +421,8 @@ public class VenteResource {
                     .build());
         }
         entity.delete();
+        dashboardEvents.fire(DashboardEvent.vente(id, null));
+        dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.INTERVENTION));
         return Response.status(204).build();
     }
 
@@ -300,6 +442,10 @@ public class VenteResource {
                     .build());
         }
 
+        VenteEntity.Status previousStatus = entity.status;
+        List<VenteForfaitEntity.Status> previousForfaitStatus = entity.venteForfaits.stream().map(vf -> vf.status).toList();
+        List<VenteServiceEntity.Status> previousServiceStatus = entity.venteServices.stream().map(vs -> vs.status).toList();
+
         // Track step date history on transitions
         Timestamp now = new Timestamp(System.currentTimeMillis());
         if (vente.status != entity.status || vente.bonPourAccord != entity.bonPourAccord) {
@@ -331,6 +477,16 @@ public class VenteResource {
         entity.moteur = vente.moteur;
         entity.remorque = vente.remorque;
 
+        // Catalogue forfaits and services whose template taches are copied, in one query per type
+        Map<Long, ForfaitEntity> catalogueForfaits = catalogue.forfaitsAvecTaches(vente.venteForfaits == null ? List.of()
+                : vente.venteForfaits.stream()
+                        .filter(vf -> (vf.taches == null || vf.taches.isEmpty()) && vf.forfait != null)
+                        .map(vf -> vf.forfait.id).toList());
+        Map<Long, ServiceEntity> catalogueServices = catalogue.servicesAvecTaches(vente.venteServices == null ? List.of()
+                : vente.venteServices.stream()
+                        .filter(vs -> (vs.taches == null || vs.taches.isEmpty()) && vs.service != null)
+                        .map(vs -> vs.service.id).toList());
+
         // Update venteForfaits
         entity.venteForfaits.clear();
         if (vente.venteForfaits != null) {
@@ -358,18 +514,9 @@ public class VenteResource {
                         ct.done = t.done;
                         cloned.taches.add(ct);
                     }
-                } else if (cloned.forfait != null && cloned.forfait.id != null) {
+                } else if (cloned.forfait != null && catalogueForfaits.containsKey(cloned.forfait.id)) {
                     // Copy template taches from catalogue forfait if none provided
-                    ForfaitEntity catalogueForfait = ForfaitEntity.findById(cloned.forfait.id);
-                    if (catalogueForfait != null && catalogueForfait.taches != null) {
-                        for (TaskEntity t : catalogueForfait.taches) {
-                            TaskEntity ct = new TaskEntity();
-                            ct.nom = t.nom;
-                            ct.description = t.description;
-                            ct.done = false;
-                            cloned.taches.add(ct);
-                        }
-                    }
+                    cloned.taches.addAll(copierTaches(catalogueForfaits.get(cloned.forfait.id).taches));
                 }
                 cloned.images = incoming.images != null ? new java.util.ArrayList<>(incoming.images) : new java.util.ArrayList<>();
                 cloned.documents = incoming.documents != null ? new java.util.ArrayList<>(incoming.documents) : new java.util.ArrayList<>();
@@ -404,18 +551,9 @@ public class VenteResource {
                         ct.done = t.done;
                         cloned.taches.add(ct);
                     }
-                } else {
+                } else if (incoming.service != null && catalogueServices.containsKey(incoming.service.id)) {
                     // Copy template taches from catalogue service if none provided
-                    ServiceEntity catalogueService = incoming.service != null && incoming.service.id != null ? ServiceEntity.findById(incoming.service.id) : null;
-                    if (catalogueService != null && catalogueService.taches != null) {
-                        for (TaskEntity t : catalogueService.taches) {
-                            TaskEntity ct = new TaskEntity();
-                            ct.nom = t.nom;
-                            ct.description = t.description;
-                            ct.done = false;
-                            cloned.taches.add(ct);
-                        }
-                    }
+                    cloned.taches.addAll(copierTaches(catalogueServices.get(incoming.service.id).taches));
                 }
                 cloned.images = incoming.images != null ? new java.util.ArrayList<>(incoming.images) : new java.util.ArrayList<>();
                 cloned.documents = incoming.documents != null ? new java.util.ArrayList<>(incoming.documents) : new java.util.ArrayList<>();
@@ -474,6 +612,7 @@ public class VenteResource {
             if (hasEnCours) {
                 decrementStock(entity);
                 entity.stockDecremented = true;
+                dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.STOCK));
             }
         }
 
@@ -540,9 +679,41 @@ public class VenteResource {
         entity.rappel2Jours = vente.rappel2Jours;
         entity.rappel3Jours = vente.rappel3Jours;
 
+        if (previousStatus != entity.status) {
+            dashboardEvents.fire(DashboardEvent.vente(entity.id, entity.status));
+        } else {
+            dashboardEvents.fire(new DashboardEvent(DashboardEvent.Type.VENTE));
+        }
+        fireInterventionEvents(entity, previousForfaitStatus, previousServiceStatus);
         return entity;
     }
 
+    // Items are re-created on each update, so statuses are compared by position
+    private void fireInterventionEvents(VenteEntity entity, List<VenteForfaitEntity.Status> previousForfaitStatus, List<VenteServiceEntity.Status> previousServiceStatus) {
+        // Assign ids to the re-created items before publishing them
+        VenteEntity.flush();
+        boolean fired = false;
+        for (int i = 0; i < entity.venteForfaits.size(); i++) {
+            VenteForfaitEntity vf = entity.venteForfaits.get(i);
+            if (i >= previousForfaitStatus.size() || previousForfaitStatus.get(i) != vf.status) {
+                dashboardEvents.fire(DashboardEvent.intervention("forfait", vf.id, entity.id, vf.status, vf.techniciens));
+                fired = true;
+            }
+        }
+        for (int i = 0; i < entity.venteServices.size(); i++) {
+            VenteServiceEntity vs = entity.venteServices.get(i);
+            if (i >= previousServiceStatus.size() || previousServiceStatus.get(i) != vs.status) {
+                dashboardEvents.fire(DashboardEvent.intervention("service", vs.id, entity.id, vs.status, vs.techniciens));
+                fired = true;
+            }
+        }
+        if (!fired) {
+            DashboardEvent event = new DashboardEvent(DashboardEvent.Type.INTERVENTION);
+            event.venteId = entity.id;
+            dashboardEvents.fire(event);
+        }
+    }
+
     private void sendIncidentNotification(VenteEntity vente, String itemNom, String incidentDetails, java.sql.Date incidentDate) {
         SocieteEntity societe = SocieteEntity.findById(1L);
         String societeNom = societe != null ? societe.nom : "moussAIllon";
@@ -557,22 +728,18 @@ public class VenteResource {
             dateBlock = "Date de l'incident : " + incidentDate + "\n\n";
         }
 
-        EmailTemplateEntity template = EmailTemplateEntity.findByType(EmailTemplateEntity.Type.INCIDENT);
+        EmailTemplates.Compiled template = emailTemplates.template(EmailTemplateEntity.Type.INCIDENT);
         String subject;
         String body;
         if (template != null) {
-            subject = template.sujet
-                    .replace("{client}", clientName)
-                    .replace("{intervention}", itemNom)
-                    .replace("{details}", detailsBlock)
-                    .replace("{dateIncident}", dateBlock)
-                    .replace("{societe}", societeNom);
-            body = template.contenu
-                    .replace("{client}", clientName)
-                    .replace("{intervention}", itemNom)
-                    .replace("{details}", detailsBlock)
-                    .replace("{dateIncident}", dateBlock)
-                    .replace("{societe}", societeNom);
+            Map<String, String> variables = EmailTemplates.variables(
+                    "client", clientName,
+                    "intervention", itemNom,
+                    "details", detailsBlock,
+                    "dateIncident", dateBlock,
+                    "societe", societeNom);
+            subject = template.sujet.render(variables);
+            body = template.contenu.render(variables);
         } else {
             subject = "Incident sur votre intervention - " + societeNom;
             body = "Bonjour " + clientName + ",\n\n"
@@ -586,30 +753,43 @@ public class VenteResource {
         mailer.send(Mail.withHtml(vente.client.email, subject, body));
     }
 
+    private static List<TaskEntity> copierTaches(List<TaskEntity> modeles) {
+        List<TaskEntity> taches = new ArrayList<>();
+        if (modeles != null) {
+            for (TaskEntity t : modeles) {
+                TaskEntity ct = new TaskEntity();
+                ct.nom = t.nom;
+                ct.description = t.description;
+                ct.done = false;
+                taches.add(ct);
+            }
+        }
+        return taches;
+    }
+
     private void decrementStock(VenteEntity vente) {
+        Map<Long, Integer> quantites = new HashMap<>();
         if (vente.produits != null) {
             for (ProduitCatalogueEntity produit : vente.produits) {
-                ProduitCatalogueEntity p = ProduitCatalogueEntity.findById(produit.id);
-                if (p != null) {
-                    p.stock = Math.max(0, p.stock - 1);
-                }
+                quantites.merge(produit.id, -1, Integer::sum);
             }
         }
+        Map<Long, ForfaitEntity> forfaits = catalogue.forfaitsAvecProduits(vente.venteForfaits.stream()
+                .filter(vf -> vf.forfait != null)
+                .map(vf -> vf.forfait.id).toList());
         for (VenteForfaitEntity vf : vente.venteForfaits) {
             if (vf.forfait != null) {
-                ForfaitEntity f = ForfaitEntity.findById(vf.forfait.id);
+                ForfaitEntity f = forfaits.get(vf.forfait.id);
                 if (f != null && f.produits != null) {
                     for (ForfaitProduitEntity fp : f.produits) {
                         if (fp.produit != null) {
-                            ProduitCatalogueEntity p = ProduitCatalogueEntity.findById(fp.produit.id);
-                            if (p != null) {
-                                p.stock = Math.max(0, p.stock - fp.quantite * vf.quantite);
-                            }
+                            quantites.merge(fp.produit.id, -fp.quantite * vf.quantite, Integer::sum);
                         }
                     }
                 }
             }
         }
+        stockLedger.appliquer(quantites, MouvementStockEntity.Motif.VENTE, "Vente " + vente.id);
     }
 
     private VenteEntity.Status parseStatus(String status) {
@@ -623,4 +803,20 @@ public class VenteResource {
         }
     }
 
+    private record Cursor(Timestamp date, long id) {}
+
+    public static class VenteSummary {
+        public Long id;
+        public VenteEntity.Status status;
+        @JsonbTypeAdapter(TimestampJsonbAdapter.class)
+        public Timestamp date;
+        public boolean bonPourAccord;
+        public boolean comptoir;
+        public double prixVenteTTC;
+        public double montantTTC;
+        public Long clientId;
+        public String client;
+        public String bateau;
+    }
+
 }
@@ -1,15 +1,46 @@
 package net.nanthrax.moussaillon.mcp;
 
+import java.util.List;
+import java.util.Map;
+
 import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.*;
 
 @QuarkusTest
 public class McpServerResourceTest {
 
+    @Inject
+    McpApiDispatcher dispatcher;
+
+    @Inject
+    McpResultCache resultCache;
+
+    private static String appel(String method, String path, String body) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":\"30\",\"method\":\"tools/call\",\"params\":{\"name\":\"moussaillon_call_api_resource\",\"arguments\":{\"method\":\""
+                + method + "\",\"path\":\"" + path + "\"" + (body != null ? ",\"body\":" + body : "") + "}}}";
+    }
+
+    private static String dupont(String notes) {
+        return "{\"prenom\":\"Jean\",\"nom\":\"Dupont\",\"type\":\"Particulier\",\"email\":\"jean.dupont@test.com\",\"telephone\":\"0612345678\","
+                + "\"adresse\":\"1 rue du Port\",\"consentement\":true,\"evaluation\":4.5,\"remise\":0.0,\"date\":\"2025-01-15\",\"notes\":\"" + notes + "\"}";
+    }
+
+    private static void lireDupont(String notes) {
+        given()
+            .contentType("application/json")
+            .body(appel("GET", "/clients/100", null))
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("result.structuredContent.body.notes", is(notes));
+    }
+
     @Test
     void testInitialiser() {
         given()
@@ -240,4 +271,122 @@ public class McpServerResourceTest {
             .statusCode(200)
             .body("result.structuredContent.status", is(204));
     }
+
+    @Test
+    void testAppelOutilApiRessourceGetParId() {
+        given()
+            .contentType("application/json")
+            .body("{\"jsonrpc\":\"2.0\",\"id\":19,\"method\":\"tools/call\",\"params\":{\"name\":\"moussaillon_call_api_resource\",\"arguments\":{\"method\":\"GET\",\"path\":\"/clients/100\"}}}")
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("id", is(19))
+            .body("result.structuredContent.status", is(200))
+            .body("result.structuredContent.body.id", is(100))
+            .body("result.structuredContent.body.nom", is("Dupont"))
+            .body("result.content[0].text", containsString("\"nom\":\"Dupont\""))
+            .body("result.isError", is(false));
+    }
+
+    @Test
+    void testAppelOutilApiMethodeNonAutorisee() {
+        given()
+            .contentType("application/json")
+            .body("{\"jsonrpc\":\"2.0\",\"id\":\"20\",\"method\":\"tools/call\",\"params\":{\"name\":\"moussaillon_call_api_resource\",\"arguments\":{\"method\":\"DELETE\",\"path\":\"/clients/search\"}}}")
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("result.structuredContent.status", is(405))
+            .body("result.isError", is(true));
+    }
+
+    @Test
+    void testCacheLecture() {
+        String appel = "{\"jsonrpc\":\"2.0\",\"id\":\"21\",\"method\":\"tools/call\",\"params\":{\"name\":\"moussaillon_call_api_resource\",\"arguments\":{\"method\":\"GET\",\"path\":\"/clients/100\"}}}";
+        given().contentType("application/json").body(appel).when().post("/mcp").then().statusCode(200);
+        int hits = given().when().get("/mcp/cache").then().statusCode(200).extract().path("hits");
+
+        given()
+            .contentType("application/json")
+            .body(appel)
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("result.structuredContent.body.nom", is("Dupont"));
+
+        given()
+            .when().get("/mcp/cache")
+            .then()
+            .statusCode(200)
+            .body("hits", greaterThanOrEqualTo(hits + 1));
+    }
+
+    @Test
+    void testListePagineeEnProcessus() {
+        // @BeanParam pagination is bound from the query, without the HTTP loopback
+        McpApiDispatcher.Resultat resultat = dispatcher.appeler("GET", "/catalogue/produits", Map.of(), null);
+        assertNotNull(resultat);
+        assertEquals(200, resultat.status());
+        assertFalse(((List<?>) resultat.entity()).isEmpty());
+
+        resultat = dispatcher.appeler("GET", "/catalogue/produits", Map.of("limit", "1"), null);
+        assertNotNull(resultat);
+        assertEquals(1, ((List<?>) resultat.entity()).size());
+
+        resultat = dispatcher.appeler("GET", "/catalogue/produits", Map.of("limit", "x"), null);
+        assertNotNull(resultat);
+        assertEquals(400, resultat.status());
+
+        assertNotNull(dispatcher.appeler("GET", "/catalogue/fournisseurs", Map.of(), null));
+    }
+
+    @Test
+    void testEcritureRestInvalideLeCache() {
+        given().contentType("application/json").body(dupont("avant")).when().put("/clients/100").then().statusCode(200);
+        lireDupont("avant");
+        assertNotNull(resultCache.get("/clients/100", null));
+
+        given().contentType("application/json").body(dupont("apres REST")).when().put("/clients/100").then().statusCode(200);
+
+        assertNull(resultCache.get("/clients/100", null));
+        lireDupont("apres REST");
+    }
+
+    @Test
+    void testEcritureMcpInvalideLeCache() {
+        given().contentType("application/json").body(dupont("avant")).when().put("/clients/100").then().statusCode(200);
+        lireDupont("avant");
+        assertNotNull(resultCache.get("/clients/100", null));
+
+        given()
+            .contentType("application/json")
+            .body(appel("PUT", "/clients/100", dupont("apres MCP")))
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("result.structuredContent.status", is(200));
+
+        assertNull(resultCache.get("/clients/100", null));
+        lireDupont("apres MCP");
+    }
+
+    @Test
+    void testEcritureEnEchecGardeLeCache() {
+        given().contentType("application/json").body(dupont("stable")).when().put("/clients/100").then().statusCode(200);
+        lireDupont("stable");
+
+        // A failed write on the same resource root, through REST then through MCP
+        given().contentType("application/json").body(dupont("inconnu")).when().put("/clients/999999").then().statusCode(404);
+        assertNotNull(resultCache.get("/clients/100", null));
+
+        given()
+            .contentType("application/json")
+            .body(appel("PUT", "/clients/999999", dupont("inconnu")))
+            .when().post("/mcp")
+            .then()
+            .statusCode(200)
+            .body("result.structuredContent.status", is(404))
+            .body("result.isError", is(true));
+        assertNotNull(resultCache.get("/clients/100", null));
+    }
 }
@@ -0,0 +1,220 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The AI chat against {@link FournisseurIaSimule} instead of the real providers and MCP server.
+ */
+@QuarkusTest
+@TestProfile(AiChatFournisseurSimuleTest.Simulation.class)
+public class AiChatFournisseurSimuleTest {
+
+    public static class Simulation implements QuarkusTestProfile {
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            String base = "http://localhost:${quarkus.http.test-port:8081}/simulation-ia";
+            return Map.of(
+                    "ai.openai.base-url", base + "/openai",
+                    "ai.anthropic.base-url", base + "/anthropic",
+                    "ai.anthropic.mcp.enabled", "true",
+                    "ai.anthropic.mcp.endpoint", base + "/mcp",
+                    "ai.anthropic.mcp.tools-max-age", "2s");
+        }
+    }
+
+    private static final String TEXTE_FINAL = "{\"content\":[{\"type\":\"text\",\"text\":\"Fini\"}],\"stop_reason\":\"end_turn\"}";
+
+    @Inject
+    AiChatResource aiChatResource;
+
+    @BeforeEach
+    void reinitialiser() {
+        FournisseurIaSimule.reinitialiser();
+        aiChatResource.oublierOutilsMcp();
+    }
+
+    private static String toolUses(String... noms) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < noms.length; i++) {
+            if (i > 0) {
+                content.append(',');
+            }
+            content.append("{\"type\":\"tool_use\",\"id\":\"t").append(i).append("\",\"name\":\"").append(noms[i]).append("\",\"input\":{}}");
+        }
+        return "{\"content\":[" + content + "],\"stop_reason\":\"tool_use\"}";
+    }
+
+    private static void demander(String provider) {
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"" + provider + "\",\"message\":\"Stock bas ?\"}")
+            .when().post("/ai/chat")
+            .then()
+            .statusCode(200)
+            .body("answer", is("Fini"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> outilsEnvoyes(int requete) {
+        List<Map<String, Object>> tools = (List<Map<String, Object>>) FournisseurIaSimule.REQUETES.get(requete).get("tools");
+        return tools.stream().map(tool -> String.valueOf(tool.get("name"))).toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> dernierMessage(int requete) {
+        List<Map<String, Object>> messages = (List<Map<String, Object>>) FournisseurIaSimule.REQUETES.get(requete).get("messages");
+        return (List<Map<String, Object>>) messages.get(messages.size() - 1).get("content");
+    }
+
+    @Test
+    void testReponseOpenAi() {
+        FournisseurIaSimule.repondre("{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"Bonjour\"}}]}");
+
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"openai\",\"message\":\"Salut\"}")
+            .when().post("/ai/chat")
+            .then()
+            .statusCode(200)
+            .body("provider", is("openai"))
+            .body("answer", is("Bonjour"));
+
+        assertEquals(1, FournisseurIaSimule.REQUETES.size());
+        assertEquals("test-model", FournisseurIaSimule.REQUETES.get(0).get("model"));
+    }
+
+    @Test
+    void testOutilsConcurrentsDansUnTour() {
+        FournisseurIaSimule.outils = List.of("clients", "stock");
+        // Each call only answers once the other one has started
+        FournisseurIaSimule.rendezVous = new CountDownLatch(2);
+        FournisseurIaSimule.repondre(toolUses("clients", "stock"));
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+
+        demander("anthropic");
+
+        assertEquals(2, FournisseurIaSimule.MAX_EN_COURS.get(), "Les outils d'un meme tour doivent etre appeles en parallele");
+        assertEquals(List.of("clients", "stock"), outilsEnvoyes(0));
+        List<Map<String, Object>> resultats = dernierMessage(1);
+        assertEquals(2, resultats.size());
+        assertEquals("t0", resultats.get(0).get("tool_use_id"));
+        assertEquals("t1", resultats.get(1).get("tool_use_id"));
+        assertNull(resultats.get(0).get("is_error"));
+        assertTrue(String.valueOf(resultats.get(1).get("content")).contains("resultat stock"));
+    }
+
+    @Test
+    void testSchemaOutilsEnCache() throws InterruptedException {
+        FournisseurIaSimule.outils = List.of("clients", "stock");
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+
+        demander("anthropic");
+        demander("anthropic");
+        assertEquals(1, FournisseurIaSimule.LISTES_OUTILS.get(), "Le schema des outils doit etre reutilise");
+
+        // Past tools-max-age: the cached schema is still used while it is checked in the background
+        Thread.sleep(2500);
+        FournisseurIaSimule.outils = List.of("clients", "ventes");
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+        demander("anthropic");
+        assertEquals(List.of("clients", "stock"), outilsEnvoyes(2));
+        attendre(() -> FournisseurIaSimule.LISTES_OUTILS.get() == 2);
+
+        // The changed tool set is used from the next question on
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+        demander("anthropic");
+        assertEquals(List.of("clients", "ventes"), outilsEnvoyes(3));
+        assertEquals(2, FournisseurIaSimule.LISTES_OUTILS.get());
+    }
+
+    @Test
+    void testOutilInconnuRechargeLesOutils() {
+        FournisseurIaSimule.outils = List.of("clients");
+        FournisseurIaSimule.repondre(toolUses("supprime"));
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+
+        demander("anthropic");
+
+        List<Map<String, Object>> resultats = dernierMessage(1);
+        assertEquals(Boolean.TRUE, resultats.get(0).get("is_error"));
+        assertTrue(String.valueOf(resultats.get(0).get("content")).contains("Unknown tool"));
+        assertEquals(1, FournisseurIaSimule.LISTES_OUTILS.get());
+
+        // The schema was dropped: the next question lists the tools again before calling the provider
+        FournisseurIaSimule.repondre(TEXTE_FINAL);
+        demander("anthropic");
+        assertEquals(2, FournisseurIaSimule.LISTES_OUTILS.get());
+    }
+
+    @Test
+    void testErreurFournisseur() {
+        FournisseurIaSimule.repondre(429, "application/json", "{\"error\":{\"type\":\"rate_limit_error\"}}");
+
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"anthropic\",\"message\":\"test\"}")
+            .when().post("/ai/chat")
+            .then()
+            .statusCode(502)
+            .body("error", is("AI_PROVIDER_ERROR"))
+            .body("message", containsString("upstreamStatus=429"))
+            .body("message", containsString("rate_limit_error"));
+    }
+
+    @Test
+    void testErreurInterne() {
+        FournisseurIaSimule.repondre(200, "application/json", "pas du json");
+
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"openai\",\"message\":\"test\"}")
+            .when().post("/ai/chat")
+            .then()
+            .statusCode(500)
+            .body("error", is("AI_INTERNAL_ERROR"))
+            .body("message", containsString("traceId="));
+    }
+
+    @Test
+    void testLimiteToursOutils() {
+        FournisseurIaSimule.outils = List.of("clients");
+        for (int i = 0; i < 10; i++) {
+            FournisseurIaSimule.repondre(toolUses("clients"));
+        }
+
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"anthropic\",\"message\":\"test\"}")
+            .when().post("/ai/chat")
+            .then()
+            .statusCode(502)
+            .body("error", is("AI_PROVIDER_ERROR"))
+            .body("message", containsString("MAX_MCP_TOOL_ROUNDS"));
+
+        assertEquals(7, FournisseurIaSimule.REQUETES.size());
+        assertEquals(7, FournisseurIaSimule.APPELS_OUTILS.get());
+    }
+
+    private static void attendre(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long fin = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < fin, "Condition non atteinte");
+            Thread.sleep(50);
+        }
+    }
+
+}
@@ -106,4 +106,28 @@ public class AiChatResourceTest {
             // Doit tenter l'appel (pas de retour INVALID_PROVIDER)
             .statusCode(anyOf(is(200), is(500), is(502)));
     }
+
+    @Test
+    void testFluxFournisseurInvalide() {
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"gemini\",\"message\":\"Bonjour\"}")
+            .when().post("/ai/chat/stream")
+            .then()
+            .statusCode(400)
+            .body("error", is("INVALID_PROVIDER"));
+    }
+
+    @Test
+    void testFluxErreurFournisseur() {
+        // Avec la clef de test, le flux se termine par un evenement d'erreur
+        given()
+            .contentType("application/json")
+            .body("{\"provider\":\"openai\",\"message\":\"test\"}")
+            .when().post("/ai/chat/stream")
+            .then()
+            .statusCode(200)
+            .contentType(containsString("text/event-stream"))
+            .body(containsString("\"type\":\"error\""));
+    }
 }
@@ -0,0 +1,226 @@
+package net.nanthrax.moussaillon.services;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+import net.nanthrax.moussaillon.services.AiChatStreams.AnthropicStreamState;
+import net.nanthrax.moussaillon.services.AiChatStreams.ChatStream;
+import net.nanthrax.moussaillon.services.AiChatStreams.OpenAiStreamState;
+import net.nanthrax.moussaillon.services.AiChatStreams.SseSubscriber;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AiChatStreamsTest {
+
+    private static class Abonnement implements Flow.Subscription {
+        long demandes;
+        boolean annule;
+
+        @Override
+        public void request(long n) {
+            demandes += n;
+        }
+
+        @Override
+        public void cancel() {
+            annule = true;
+        }
+    }
+
+    // Events relayed to the client connection
+    private final List<Map<String, Object>> relayes = new CopyOnWriteArrayList<>();
+
+    private Cancellable client;
+
+    private ChatStream ouvrir() {
+        AtomicReference<ChatStream> stream = new AtomicReference<>();
+        client = Multi.createFrom().<Map<String, Object>>emitter(emitter -> {
+            ChatStream chatStream = new ChatStream(emitter);
+            // Same wiring as AiChatResource.stream
+            emitter.onTermination(chatStream::cancel);
+            stream.set(chatStream);
+        }).subscribe().with(relayes::add);
+        return stream.get();
+    }
+
+    private static void lire(SseSubscriber subscriber, Abonnement abonnement, String... lignes) {
+        subscriber.onSubscribe(abonnement);
+        for (String ligne : lignes) {
+            subscriber.onNext(ligne);
+        }
+        subscriber.onComplete();
+    }
+
+    private static String delta(int index, String type, String champ, String valeur) {
+        return "data: {\"type\":\"content_block_delta\",\"index\":" + index + ",\"delta\":{\"type\":\"" + type + "\",\""
+                + champ + "\":\"" + valeur + "\"}}";
+    }
+
+    private SseSubscriber subscriber(BiConsumer<String, String> listener, ChatStream stream) {
+        return new SseSubscriber(listener, stream);
+    }
+
+    @Test
+    void testTexteAnthropic() {
+        ChatStream stream = ouvrir();
+        AnthropicStreamState state = new AnthropicStreamState(text -> stream.emit(Map.of("type", "token", "text", text)));
+        Abonnement abonnement = new Abonnement();
+
+        lire(subscriber(state, stream), abonnement,
+                "event: message_start",
+                "data: {\"type\":\"message_start\",\"message\":{\"id\":\"msg_1\",\"content\":[]}}",
+                "",
+                ": ping",
+                "event: content_block_start",
+                "data: {\"type\":\"content_block_start\",\"index\":0,\"content_block\":{\"type\":\"text\",\"text\":\"\"}}",
+                "",
+                "event: content_block_delta",
+                delta(0, "text_delta", "text", "Trois ventes"),
+                "",
+                "event: content_block_delta",
+                delta(0, "text_delta", "text", " en attente."),
+                "",
+                "event: content_block_stop",
+                "data: {\"type\":\"content_block_stop\",\"index\":0}",
+                "",
+                "event: message_stop",
+                "data: {\"type\":\"message_stop\"}");
+
+        assertEquals(Long.MAX_VALUE, abonnement.demandes);
+        assertEquals("Trois ventes en attente.", state.text());
+        assertNull(state.error());
+        assertEquals(List.of("Trois ventes", " en attente."), relayes.stream().map(e -> e.get("text")).toList());
+        List<Map<String, Object>> blocks = state.contentBlocks();
+        assertEquals(1, blocks.size());
+        assertEquals("text", blocks.get(0).get("type"));
+        assertEquals("Trois ventes en attente.", blocks.get(0).get("text"));
+    }
+
+    @Test
+    void testToolUseJsonPartiel() {
+        ChatStream stream = ouvrir();
+        AnthropicStreamState state = new AnthropicStreamState(text -> stream.emit(Map.of("type", "token", "text", text)));
+
+        lire(subscriber(state, stream), new Abonnement(),
+                "event: content_block_start",
+                "data: {\"type\":\"content_block_start\",\"index\":0,\"content_block\":{\"type\":\"text\",\"text\":\"\"}}",
+                "",
+                "event: content_block_delta",
+                delta(0, "text_delta", "text", "Je regarde."),
+                "",
+                "event: content_block_start",
+                "data: {\"type\":\"content_block_start\",\"index\":1,\"content_block\":"
+                        + "{\"type\":\"tool_use\",\"id\":\"toolu_1\",\"name\":\"moussaillon_call_api_resource\",\"input\":{}}}",
+                "",
+                // The input JSON arrives cut in the middle of a key and of a value
+                delta(1, "input_json_delta", "partial_json", ""),
+                "",
+                delta(1, "input_json_delta", "partial_json", "{\\\"pa"),
+                "",
+                delta(1, "input_json_delta", "partial_json", "th\\\": \\\"/ventes/1"),
+                "",
+                delta(1, "input_json_delta", "partial_json", "2\\\"}"),
+                "");
+
+        List<Map<String, Object>> blocks = state.contentBlocks();
+        assertEquals(2, blocks.size());
+        assertEquals("Je regarde.", blocks.get(0).get("text"));
+        Map<?, ?> toolUse = blocks.get(1);
+        assertEquals("tool_use", toolUse.get("type"));
+        assertEquals("toolu_1", toolUse.get("id"));
+        assertEquals(Map.of("path", "/ventes/12"), toolUse.get("input"));
+        // Only the text is relayed, not the tool input
+        assertEquals(1, relayes.size());
+    }
+
+    @Test
+    void testErreurEnCoursDeFlux() {
+        ChatStream stream = ouvrir();
+        AnthropicStreamState state = new AnthropicStreamState(text -> stream.emit(Map.of("type", "token", "text", text)));
+
+        lire(subscriber(state, stream), new Abonnement(),
+                "event: content_block_start",
+                "data: {\"type\":\"content_block_start\",\"index\":0,\"content_block\":{\"type\":\"text\",\"text\":\"\"}}",
+                "",
+                "event: content_block_delta",
+                delta(0, "text_delta", "text", "Debut"),
+                "",
+                "event: error",
+                "data: {\"type\":\"error\",\"error\":{\"type\":\"overloaded_error\",\"message\":\"Overloaded\"}}",
+                "");
+
+        assertEquals("Overloaded", state.error());
+        assertEquals("Debut", state.text());
+    }
+
+    @Test
+    void testTexteOpenAi() {
+        ChatStream stream = ouvrir();
+        OpenAiStreamState state = new OpenAiStreamState(text -> stream.emit(Map.of("type", "token", "text", text)));
+
+        lire(subscriber(state, stream), new Abonnement(),
+                "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}",
+                "",
+                "data: {\"choices\":[{\"delta\":{\"content\":\"Stock \"}}]}",
+                "",
+                // Unparsable event: skipped, the stream goes on
+                "data: {pas du json",
+                "",
+                // One event on two data lines
+                "data: {\"choices\":[{\"delta\":",
+                "data: {\"content\":\"bas\"}}]}",
+                "",
+                "data: [DONE]",
+                "");
+
+        assertEquals("Stock bas", state.text());
+        assertEquals(List.of("Stock ", "bas"), relayes.stream().map(e -> e.get("text")).toList());
+    }
+
+    @Test
+    void testAnnulationALaDeconnexion() {
+        ChatStream stream = ouvrir();
+        OpenAiStreamState state = new OpenAiStreamState(text -> stream.emit(Map.of("type", "token", "text", text)));
+        SseSubscriber subscriber = subscriber(state, stream);
+        Abonnement abonnement = new Abonnement();
+        subscriber.onSubscribe(abonnement);
+        subscriber.onNext("data: {\"choices\":[{\"delta\":{\"content\":\"Avant\"}}]}");
+        subscriber.onNext("");
+
+        // The client goes away: the provider stream is cancelled and nothing more is relayed
+        client.cancel();
+        assertTrue(abonnement.annule);
+        assertTrue(stream.isCancelled());
+        subscriber.onNext("data: {\"choices\":[{\"delta\":{\"content\":\"Apres\"}}]}");
+        subscriber.onNext("");
+        assertEquals(List.of("Avant"), relayes.stream().map(e -> e.get("text")).toList());
+
+        // A provider stream attached after the disconnection is cancelled right away
+        Abonnement tardif = new Abonnement();
+        subscriber(state, stream).onSubscribe(tardif);
+        assertTrue(tardif.annule);
+    }
+
+    @Test
+    void testAucunEvenementSansDonnees() {
+        List<String> recus = new ArrayList<>();
+        ChatStream stream = ouvrir();
+        lire(subscriber((event, data) -> recus.add(event + "=" + data), stream), new Abonnement(),
+                "event: ping",
+                "",
+                "event: message",
+                "data:sans espace",
+                "");
+
+        assertEquals(List.of("message=sans espace"), recus);
+    }
+
+}
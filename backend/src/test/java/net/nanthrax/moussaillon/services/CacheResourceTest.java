@@ -0,0 +1,69 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+@QuarkusTest
+public class CacheResourceTest {
+
+    @Test
+    void testLecturesServiesParLeCache() {
+        for (int i = 0; i < 3; i++) {
+            given()
+                .when().get("/catalogue/produits/101")
+                .then()
+                .statusCode(200)
+                .body("nom", is("Filtre a huile"));
+        }
+
+        given()
+            .when().get("/cache")
+            .then()
+            .statusCode(200)
+            .body("find { it.region.endsWith('ProduitCatalogueEntity') }.hits", greaterThanOrEqualTo(2))
+            .body("find { it.region == 'requetes' }", notNullValue());
+    }
+
+    @Test
+    void testEcritureVisibleApresMiseEnCache() {
+        int id = given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Cosse a sertir\",\"marque\":\"Test\",\"categorie\":\"Test\"}")
+            .when().post("/catalogue/produits")
+            .then().statusCode(200).extract().path("id");
+
+        given()
+            .when().get("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("nom", is("Cosse a sertir"));
+
+        given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Cosse etamee\",\"marque\":\"Test\",\"categorie\":\"Test\"}")
+            .when().put("/catalogue/produits/" + id)
+            .then().statusCode(200);
+
+        given()
+            .when().get("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("nom", is("Cosse etamee"));
+
+        given()
+            .when().delete("/cache")
+            .then()
+            .statusCode(204);
+
+        given()
+            .when().get("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("nom", is("Cosse etamee"));
+    }
+
+}
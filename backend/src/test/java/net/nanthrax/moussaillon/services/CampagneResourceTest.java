@@ -0,0 +1,73 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+@QuarkusTest
+public class CampagneResourceTest {
+
+    @Test
+    void testApercuTousLesClients() {
+        given()
+            .queryParam("cible", "TOUS_LES_CLIENTS")
+            .queryParam("canal", "EMAIL")
+            .when().get("/campagnes/apercu")
+            .then()
+            .statusCode(200)
+            .body("nombreDestinataires", greaterThanOrEqualTo(2));
+    }
+
+    @Test
+    void testApercuMarqueInconnue() {
+        given()
+            .queryParam("cible", "PROPRIETAIRE_BATEAU_MARQUE")
+            .queryParam("canal", "EMAIL")
+            .queryParam("cibleFiltre", "Marque inexistante")
+            .when().get("/campagnes/apercu")
+            .then()
+            .statusCode(200)
+            .body("nombreDestinataires", is(0));
+    }
+
+    @Test
+    void testApercuSansCible() {
+        given()
+            .when().get("/campagnes/apercu")
+            .then()
+            .statusCode(400);
+    }
+
+    @Test
+    void testDestinatairesCampagne() {
+        int id = given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Campagne fournisseurs\",\"canal\":\"EMAIL\",\"cible\":\"FOURNISSEUR\",\"sujet\":\"Test\",\"contenu\":\"Bonjour\"}")
+            .when().post("/campagnes")
+            .then()
+            .statusCode(200)
+            .extract().path("id");
+
+        given()
+            .when().get("/campagnes/" + id + "/destinataires")
+            .then()
+            .statusCode(200)
+            .body("email", hasItem("contact@marineparts.com"))
+            .body("nom", hasItem("Marine Parts SA"));
+
+        given()
+            .when().get("/campagnes/" + id + "/destinataires/nombre")
+            .then()
+            .statusCode(200)
+            .body("nombreDestinataires", greaterThanOrEqualTo(1));
+
+        given()
+            .when().delete("/campagnes/" + id)
+            .then()
+            .statusCode(204);
+    }
+
+}
@@ -0,0 +1,35 @@
+package net.nanthrax.moussaillon.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledTemplateTest {
+
+    @Test
+    void testRenduVariables() {
+        CompiledTemplate template = CompiledTemplate.compile("Bonjour {client}, votre {typeVente} #{reference} - {societe}");
+        String rendu = template.render(EmailTemplates.variables(
+                "client", "Jean", "typeVente", "Devis", "reference", "42", "societe", "MS Plaisance"));
+        assertEquals("Bonjour Jean, votre Devis #42 - MS Plaisance", rendu);
+    }
+
+    @Test
+    void testVariableInconnueConservee() {
+        CompiledTemplate template = CompiledTemplate.compile("<style>p { color: red; }</style>{client} {inconnue}");
+        assertEquals("<style>p { color: red; }</style>Jean {inconnue}", template.render(EmailTemplates.variables("client", "Jean")));
+    }
+
+    @Test
+    void testValeurNonReinterpretee() {
+        CompiledTemplate template = CompiledTemplate.compile("{client} / {societe}");
+        assertEquals("{societe} / MS", template.render(EmailTemplates.variables("client", "{societe}", "societe", "MS")));
+    }
+
+    @Test
+    void testValeurNulle() {
+        CompiledTemplate template = CompiledTemplate.compile("[{details}]");
+        assertEquals("[]", template.render(EmailTemplates.variables("details", null)));
+    }
+
+}
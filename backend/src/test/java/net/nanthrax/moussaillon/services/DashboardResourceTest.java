@@ -25,4 +25,27 @@ public class DashboardResourceTest {
             .body("ventesComptoirPct", notNullValue())
             .body("contratsMaintenancePct", notNullValue());
     }
+
+    @Test
+    void testTableauDeBordMisAJourApresModificationStock() {
+        int alertesAvant = given()
+            .when().get("/dashboard")
+            .then()
+            .statusCode(200)
+            .extract().path("alertesStock");
+
+        given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Anode zinc dashboard\",\"categorie\":\"Anodes\",\"stock\":0,\"stockMini\":2}")
+            .when().post("/catalogue/produits")
+            .then()
+            .statusCode(200);
+
+        given()
+            .when().get("/dashboard")
+            .then()
+            .statusCode(200)
+            .body("alertesStock", is(alertesAvant + 1))
+            .body("stockAlerts.produit", hasItem("Anode zinc dashboard"));
+    }
 }
@@ -0,0 +1,70 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import net.nanthrax.moussaillon.persistence.ClientEntity;
+import net.nanthrax.moussaillon.persistence.EmailSequenceEtapeEntity;
+import net.nanthrax.moussaillon.persistence.EmailSequenceHistoriqueEntity;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class EmailSequenceSchedulerTest {
+
+    @Inject
+    EmailSequenceScheduler emailSequenceScheduler;
+
+    @Test
+    void testEtapeEnvoyeeUneSeuleFois() {
+        long[] ids = QuarkusTransaction.requiringNew().call(() -> {
+            ClientEntity client = new ClientEntity();
+            client.nom = "Sequence";
+            client.prenom = "Paul";
+            client.email = "paul.sequence@test.com";
+            client.consentement = true;
+            client.dateCreation = Timestamp.valueOf(LocalDate.now().minusDays(3).atStartOfDay());
+            client.persist();
+
+            ClientEntity recent = new ClientEntity();
+            recent.nom = "Recent";
+            recent.email = "recent.sequence@test.com";
+            recent.consentement = true;
+            recent.dateCreation = new Timestamp(System.currentTimeMillis());
+            recent.persist();
+
+            EmailSequenceEtapeEntity etape = new EmailSequenceEtapeEntity();
+            etape.cible = EmailSequenceEtapeEntity.Cible.CLIENT;
+            etape.ordre = 99;
+            etape.delaiJours = 2;
+            etape.sujet = "Bienvenue {client}";
+            etape.contenu = "Bonjour {client}, merci de votre confiance. {societe}";
+            etape.persist();
+            return new long[] { client.id, recent.id, etape.id };
+        });
+
+        try {
+            emailSequenceScheduler.envoyerSequences();
+            emailSequenceScheduler.envoyerSequences();
+
+            QuarkusTransaction.requiringNew().run(() -> {
+                assertEquals(1, EmailSequenceHistoriqueEntity.count("cible = ?1 and cibleId = ?2 and etape.id = ?3",
+                        EmailSequenceEtapeEntity.Cible.CLIENT, ids[0], ids[2]), "L'etape doit etre envoyee une seule fois");
+                assertEquals(0, EmailSequenceHistoriqueEntity.count("cibleId = ?1 and etape.id = ?2", ids[1], ids[2]),
+                        "Le delai de l'etape n'est pas atteint pour un client cree aujourd'hui");
+                EmailSequenceHistoriqueEntity historique = EmailSequenceHistoriqueEntity.find("cibleId = ?1 and etape.id = ?2", ids[0], ids[2]).firstResult();
+                assertEquals("Bienvenue Paul", historique.sujet);
+            });
+        } finally {
+            QuarkusTransaction.requiringNew().run(() -> {
+                EmailSequenceEtapeEntity etape = EmailSequenceEtapeEntity.findById(ids[2]);
+                etape.actif = false;
+            });
+        }
+    }
+
+}
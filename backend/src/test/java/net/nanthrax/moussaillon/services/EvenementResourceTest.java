@@ -0,0 +1,199 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonNumber;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.client.WebTarget;
+import jakarta.ws.rs.sse.SseEventSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class EvenementResourceTest {
+
+    private static final String SENTINELLE = "sentinelle";
+
+    private static final AtomicLong SENTINELLES = new AtomicLong();
+
+    @TestHTTPResource("/evenements")
+    URI evenements;
+
+    @Inject
+    Event<DashboardEvent> dashboardEvents;
+
+    @Test
+    void testEcranInvalide() {
+        given()
+            .queryParam("ecran", "inconnu")
+            .when().get("/evenements")
+            .then()
+            .statusCode(400);
+    }
+
+    @Test
+    void testEvenementsFiltresParEcranEtTechnicien() throws Exception {
+        Client client = ClientBuilder.newClient();
+        try (Abonnement dashboard = new Abonnement(client.target(evenements));
+             Abonnement planning = new Abonnement(client.target(evenements).queryParam("ecran", "planning"));
+             Abonnement technicien = new Abonnement(client.target(evenements).queryParam("technicienId", 100));
+             Abonnement autreTechnicien = new Abonnement(client.target(evenements).queryParam("technicienId", 9999))) {
+            List<Abonnement> abonnements = List.of(dashboard, planning, technicien, autreTechnicien);
+            connecter(abonnements);
+
+            // Creation: VENTE event for the dashboard and planning screens
+            int venteId = given()
+                .contentType("application/json")
+                .body(vente("EN_ATTENTE"))
+                .when().post("/ventes")
+                .then().statusCode(201).extract().path("id");
+
+            Predicate<JsonObject> venteCreee = e -> "VENTE".equals(e.getString("type")) && venteId == entier(e, "venteId");
+            assertEquals("DEVIS", dashboard.attendre(venteCreee).getString("status"));
+            assertEquals("DEVIS", planning.attendre(venteCreee).getString("status"));
+
+            // Update of the status of a forfait assigned to technicien 100
+            given()
+                .contentType("application/json")
+                .body(vente("PLANIFIEE"))
+                .when().put("/ventes/" + venteId)
+                .then().statusCode(200);
+
+            JsonObject intervention = technicien.attendre(e -> "INTERVENTION".equals(e.getString("type"))
+                    && venteId == entier(e, "venteId") && "forfait".equals(e.getString("itemType", null)));
+            assertEquals("PLANIFIEE", intervention.getString("status"));
+            assertEquals(100, intervention.getJsonArray("techniciens").getJsonNumber(0).longValue());
+
+            // Stock change: dashboard only
+            int produitId = given()
+                .contentType("application/json")
+                .body("{\"nom\":\"Anode SSE\",\"marque\":\"Test\",\"categorie\":\"Test\"}")
+                .when().post("/catalogue/produits")
+                .then().statusCode(200).extract().path("id");
+            given()
+                .contentType("application/json")
+                .body("{\"produitId\":" + produitId + ",\"quantite\":3,\"reference\":\"SSE\"}")
+                .when().post("/stock/mouvements")
+                .then().statusCode(200);
+            dashboard.attendre(e -> "STOCK".equals(e.getString("type")));
+
+            // Each stream is ordered: whatever was not filtered out came before this sentinel
+            synchroniser(abonnements);
+            assertTrue(planning.recus.stream().noneMatch(e -> "STOCK".equals(e.getString("type"))),
+                    "L'ecran planning ne suit pas le stock");
+            assertTrue(technicien.recus.stream().noneMatch(e -> !"INTERVENTION".equals(e.getString("type"))),
+                    "Un technicien ne suit que les interventions");
+            assertTrue(autreTechnicien.recus.stream().noneMatch(e -> venteId == entier(e, "venteId")),
+                    "Un technicien ne suit pas les interventions des autres");
+        } finally {
+            client.close();
+        }
+    }
+
+    private static String vente(String statusForfait) {
+        return "{\"status\":\"DEVIS\",\"prixVenteTTC\":100.0,\"client\":{\"id\":100},"
+            + "\"venteForfaits\":[{\"forfait\":{\"id\":100},\"quantite\":1,\"status\":\"" + statusForfait + "\","
+            + "\"techniciens\":[{\"id\":100}]}]}";
+    }
+
+    private static long entier(JsonObject evenement, String nom) {
+        return evenement.get(nom) instanceof JsonNumber nombre ? nombre.longValue() : -1;
+    }
+
+    // The subscriptions are asynchronous: fire sentinels until every stream receives one
+    private void connecter(List<Abonnement> abonnements) throws InterruptedException {
+        long fin = System.currentTimeMillis() + 10_000;
+        List<Abonnement> attente = new ArrayList<>(abonnements);
+        while (!attente.isEmpty()) {
+            assertTrue(System.currentTimeMillis() < fin, "Abonnement SSE non etabli");
+            long id = sentinelle();
+            for (Abonnement abonnement : List.copyOf(attente)) {
+                if (abonnement.recevoir(e -> sentinelle(e, id), 200) != null) {
+                    attente.remove(abonnement);
+                }
+            }
+        }
+        abonnements.forEach(abonnement -> abonnement.recus.clear());
+    }
+
+    private void synchroniser(List<Abonnement> abonnements) throws InterruptedException {
+        long id = sentinelle();
+        for (Abonnement abonnement : abonnements) {
+            abonnement.attendre(e -> sentinelle(e, id));
+        }
+    }
+
+    // Accepted by every screen, including technicien 100 and 9999
+    private long sentinelle() {
+        DashboardEvent event = new DashboardEvent(DashboardEvent.Type.INTERVENTION);
+        event.itemType = SENTINELLE;
+        event.itemId = SENTINELLES.incrementAndGet();
+        event.techniciens.add(100L);
+        event.techniciens.add(9999L);
+        dashboardEvents.fire(event);
+        return event.itemId;
+    }
+
+    private static boolean sentinelle(JsonObject evenement, long id) {
+        return SENTINELLE.equals(evenement.getString("itemType", null)) && id == entier(evenement, "itemId");
+    }
+
+    private static class Abonnement implements AutoCloseable {
+
+        private final SseEventSource source;
+
+        private final BlockingQueue<JsonObject> file = new LinkedBlockingQueue<>();
+
+        // Every event read so far, matching or not
+        final List<JsonObject> recus = new ArrayList<>();
+
+        Abonnement(WebTarget target) {
+            source = SseEventSource.target(target).build();
+            source.register(event -> file.add(Json.createReader(new StringReader(event.readData())).readObject()));
+            source.open();
+        }
+
+        JsonObject attendre(Predicate<JsonObject> condition) throws InterruptedException {
+            JsonObject evenement = recevoir(condition, 10_000);
+            assertNotNull(evenement, "Evenement attendu non recu");
+            return evenement;
+        }
+
+        JsonObject recevoir(Predicate<JsonObject> condition, long delai) throws InterruptedException {
+            long fin = System.currentTimeMillis() + delai;
+            for (long reste = delai; reste > 0; reste = fin - System.currentTimeMillis()) {
+                JsonObject evenement = file.poll(reste, TimeUnit.MILLISECONDS);
+                if (evenement == null) {
+                    return null;
+                }
+                recus.add(evenement);
+                if (condition.test(evenement)) {
+                    return evenement;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+
+@QuarkusTest
+public class FichierMaintenanceTest {
+
+    @Inject
+    FichierStore fichierStore;
+
+    private String upload(String contenu) {
+        return given()
+            .multiPart("files", "photo.png", contenu.getBytes(StandardCharsets.US_ASCII), "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(200)
+            .extract().path("[0]");
+    }
+
+    // Older than fichiers.orphelins.delai
+    private String vieillir(String url) throws IOException {
+        String nom = url.substring("/images/".length());
+        Files.setLastModifiedTime(fichierStore.resolve("images", nom), FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+        return nom;
+    }
+
+    @Test
+    void testImageDeBateauNonOrpheline() throws IOException {
+        String attachee = vieillir(upload("photo du bateau"));
+        String orpheline = vieillir(upload("photo abandonnee"));
+
+        given()
+            .contentType("application/json")
+            .body("{\"name\":\"Bateau Photo\",\"images\":[\"/images/" + attachee + "\"]}")
+            .when().post("/bateaux")
+            .then()
+            .statusCode(201);
+
+        given()
+            .when().get("/fichiers/orphelins")
+            .then()
+            .statusCode(200)
+            .body("nom", not(hasItem(attachee)))
+            .body("nom", hasItem(orpheline));
+    }
+
+    @Test
+    void testSuppressionDesactivee() {
+        given()
+            .when().delete("/fichiers/orphelins")
+            .then()
+            .statusCode(409);
+    }
+
+}
@@ -0,0 +1,27 @@
+package net.nanthrax.moussaillon.services;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FichierStoreTest {
+
+    @Test
+    void testResoudreAvecRepertoireRelatif() throws Exception {
+        FichierStore store = new FichierStore();
+        // Same form as the production default (./data)
+        store.dataDir = "./target/data-relatif";
+        Path dir = store.directory("images");
+        Path fichier = dir.resolve("a".repeat(64) + ".jpg");
+        Files.writeString(fichier, "image");
+
+        assertEquals(fichier, store.resolve("images", fichier.getFileName().toString()));
+        assertThrows(NotFoundException.class, () -> store.resolve("images", "../images/absent.jpg"));
+        assertThrows(NotFoundException.class, () -> store.resolve("images", "../../../pom.xml"));
+    }
+
+}
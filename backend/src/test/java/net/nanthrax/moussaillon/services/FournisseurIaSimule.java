@@ -0,0 +1,132 @@
+package net.nanthrax.moussaillon.services;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for the OpenAI and Anthropic APIs and for the MCP server in the AI chat tests:
+ * replays the queued provider answers in order, records the requests, and serves a
+ * configurable tool list.
+ */
+@Path("/simulation-ia")
+@ApplicationScoped
+public class FournisseurIaSimule {
+
+    record Reponse(int status, String contentType, String corps) {}
+
+    static final ConcurrentLinkedQueue<Reponse> REPONSES = new ConcurrentLinkedQueue<>();
+
+    // Payloads received by the provider endpoints, in order
+    static final List<Map<String, Object>> REQUETES = Collections.synchronizedList(new ArrayList<>());
+
+    static volatile List<String> outils = List.of();
+
+    static final AtomicInteger LISTES_OUTILS = new AtomicInteger();
+
+    static final AtomicInteger APPELS_OUTILS = new AtomicInteger();
+
+    private static final AtomicInteger EN_COURS = new AtomicInteger();
+
+    static final AtomicInteger MAX_EN_COURS = new AtomicInteger();
+
+    // When set, each tool call waits for the others before answering
+    static volatile CountDownLatch rendezVous;
+
+    static void reinitialiser() {
+        REPONSES.clear();
+        REQUETES.clear();
+        outils = List.of();
+        LISTES_OUTILS.set(0);
+        APPELS_OUTILS.set(0);
+        EN_COURS.set(0);
+        MAX_EN_COURS.set(0);
+        rendezVous = null;
+    }
+
+    static void repondre(String corps) {
+        REPONSES.add(new Reponse(200, MediaType.APPLICATION_JSON, corps));
+    }
+
+    static void repondre(int status, String contentType, String corps) {
+        REPONSES.add(new Reponse(status, contentType, corps));
+    }
+
+    @POST
+    @Path("/openai/v1/chat/completions")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.WILDCARD)
+    public Response openAi(Map<String, Object> payload) {
+        return rejouer(payload);
+    }
+
+    @POST
+    @Path("/anthropic/v1/messages")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.WILDCARD)
+    public Response anthropic(Map<String, Object> payload) {
+        return rejouer(payload);
+    }
+
+    @POST
+    @Path("/mcp")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> mcp(Map<String, Object> requete) throws InterruptedException {
+        Map<String, Object> reponse = new LinkedHashMap<>();
+        reponse.put("jsonrpc", "2.0");
+        reponse.put("id", requete.get("id"));
+        if ("tools/list".equals(requete.get("method"))) {
+            LISTES_OUTILS.incrementAndGet();
+            List<Map<String, Object>> tools = new ArrayList<>();
+            for (String nom : outils) {
+                tools.add(Map.of("name", nom, "description", "Outil " + nom,
+                        "inputSchema", Map.of("type", "object", "properties", Map.of())));
+            }
+            reponse.put("result", Map.of("tools", tools));
+            return reponse;
+        }
+        String nom = String.valueOf(((Map<?, ?>) requete.get("params")).get("name"));
+        APPELS_OUTILS.incrementAndGet();
+        if (!outils.contains(nom)) {
+            reponse.put("error", Map.of("code", -32602, "message", "Unknown tool: " + nom));
+            return reponse;
+        }
+        MAX_EN_COURS.accumulateAndGet(EN_COURS.incrementAndGet(), Math::max);
+        try {
+            CountDownLatch latch = rendezVous;
+            if (latch != null) {
+                latch.countDown();
+                latch.await(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            EN_COURS.decrementAndGet();
+        }
+        reponse.put("result", Map.of("content", List.of(Map.of("type", "text", "text", "resultat " + nom)), "isError", false));
+        return reponse;
+    }
+
+    private Response rejouer(Map<String, Object> payload) {
+        REQUETES.add(payload);
+        Reponse reponse = REPONSES.poll();
+        if (reponse == null) {
+            return Response.status(500).entity("{\"error\":\"aucune reponse prevue\"}").type(MediaType.APPLICATION_JSON).build();
+        }
+        return Response.status(reponse.status()).entity(reponse.corps()).type(reponse.contentType()).build();
+    }
+
+}
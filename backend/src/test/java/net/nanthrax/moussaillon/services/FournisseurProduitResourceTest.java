@@ -17,6 +17,20 @@ public class FournisseurProduitResourceTest {
             .statusCode(200);
     }
 
+    @Test
+    void testListerChampsDesRelations() {
+        given()
+            .queryParam("fields", "reference,fournisseur.nom,produit.nom")
+            .queryParam("limit", 50)
+            .when().get("/fournisseur-produit")
+            .then()
+            .statusCode(200)
+            .body("find { it.id == 100 }.reference", is("MP-H4T"))
+            .body("find { it.id == 100 }.fournisseur.nom", is("Marine Parts SA"))
+            .body("find { it.id == 100 }.produit.nom", is("Huile moteur 4T"))
+            .body("find { it.id == 100 }.prixAchatHT", nullValue());
+    }
+
     @Test
     void testObtenirNonTrouve() {
         given()
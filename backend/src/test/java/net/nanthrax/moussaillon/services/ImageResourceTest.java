@@ -0,0 +1,193 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.response.Response;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+public class ImageResourceTest {
+
+    private static final byte[] CONTENU = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
+    private String upload() {
+        return given()
+            .multiPart("files", "photo.png", CONTENU, "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(200)
+            .extract().path("[0]");
+    }
+
+    @Test
+    void testServirImage() {
+        String url = upload();
+
+        given()
+            .when().get(url)
+            .then()
+            .statusCode(200)
+            .contentType("image/png")
+            .header("Accept-Ranges", is("bytes"))
+            .header("ETag", notNullValue())
+            .header("Last-Modified", notNullValue())
+            .body(is(new String(CONTENU, StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void testRange() {
+        String url = upload();
+
+        given()
+            .header("Range", "bytes=5-9")
+            .when().get(url)
+            .then()
+            .statusCode(206)
+            .header("Content-Range", is("bytes 5-9/20"))
+            .body(is("56789"));
+
+        given()
+            .header("Range", "bytes=-3")
+            .when().get(url)
+            .then()
+            .statusCode(206)
+            .body(is("hij"));
+
+        given()
+            .header("Range", "bytes=50-")
+            .when().get(url)
+            .then()
+            .statusCode(416)
+            .header("Content-Range", is("bytes */20"));
+    }
+
+    @Test
+    void testNonModifie() {
+        String url = upload();
+        Response response = given().when().get(url);
+        String etag = response.getHeader("ETag");
+
+        given()
+            .header("If-None-Match", etag)
+            .when().get(url)
+            .then()
+            .statusCode(304);
+    }
+
+    @Test
+    void testImageInconnue() {
+        given()
+            .when().get("/images/inconnue.png")
+            .then()
+            .statusCode(404);
+    }
+
+    @Test
+    void testMiniature() throws IOException {
+        BufferedImage image = new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        String url = given()
+            .multiPart("files", "grande.png", png.toByteArray(), "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(200)
+            .extract().path("[0]");
+
+        byte[] miniature = given()
+            .queryParam("taille", "miniature")
+            .when().get(url)
+            .then()
+            .statusCode(200)
+            .contentType("image/png")
+            .extract().asByteArray();
+
+        BufferedImage rendu = ImageIO.read(new ByteArrayInputStream(miniature));
+        assertEquals(320, rendu.getWidth());
+        assertEquals(160, rendu.getHeight());
+    }
+
+    @Test
+    void testTailleInvalide() {
+        String url = upload();
+
+        given()
+            .queryParam("taille", "geante")
+            .when().get(url)
+            .then()
+            .statusCode(400);
+    }
+
+    @Test
+    void testDeduplication() {
+        String premiere = upload();
+        String seconde = given()
+            .multiPart("files", "copie.PNG", CONTENU, "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(200)
+            .extract().path("[0]");
+
+        assertEquals(premiere, seconde, "Un contenu identique doit etre stocke une seule fois");
+
+        given()
+            .when().get(premiere)
+            .then()
+            .statusCode(200)
+            .header("Cache-Control", containsString("immutable"))
+            .header("ETag", containsString(premiere.substring("/images/".length(), "/images/".length() + 64)));
+    }
+
+    @Test
+    void testLotPartiel() {
+        given()
+            .multiPart("files", "photo.png", CONTENU, "image/png")
+            .multiPart("files", "enorme.png", new byte[128 * 1024], "image/png")
+            .queryParam("details", true)
+            .when().post("/images")
+            .then()
+            .statusCode(207)
+            .body("[0].statut", is("OK"))
+            .body("[0].url", startsWith("/images/"))
+            .body("[1].statut", is("TROP_VOLUMINEUX"))
+            .body("[1].url", nullValue());
+
+        given()
+            .multiPart("files", "enorme.png", new byte[128 * 1024], "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(413);
+    }
+
+    @Test
+    void testRequeteTropVolumineuse() {
+        // Refused from the Content-Length, above fichiers.upload.requete-max (1M in tests)
+        given()
+            .multiPart("files", "lot.png", new byte[2 * 1024 * 1024], "image/png")
+            .when().post("/images")
+            .then()
+            .statusCode(413)
+            .body(containsString("Requete trop volumineuse"));
+
+        // Other endpoints keep http.corps.taille-max (256K in tests)
+        given()
+            .contentType("application/json")
+            .body("{\"nom\":\"" + "x".repeat(300 * 1024) + "\"}")
+            .when().post("/clients")
+            .then()
+            .statusCode(413)
+            .body(containsString("Requete trop volumineuse"));
+    }
+
+}
@@ -0,0 +1,44 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import net.nanthrax.moussaillon.persistence.MailOutboxEntity;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class MailOutboxTest {
+
+    @Inject
+    MailOutbox mailOutbox;
+
+    @Test
+    void testEnqueueEtEnvoi() {
+        Long id = QuarkusTransaction.requiringNew().call(() ->
+                mailOutbox.enqueue(MailOutboxEntity.Origine.RAPPEL, "jean.dupont@test.com", "Sujet outbox", "Contenu outbox").id);
+
+        MailOutboxEntity enAttente = QuarkusTransaction.requiringNew().call(() -> MailOutboxEntity.findById(id));
+        assertEquals(MailOutboxEntity.Statut.EN_ATTENTE, enAttente.statut, "Le message doit etre en attente avant le dispatch");
+
+        mailOutbox.dispatch();
+
+        MailOutboxEntity envoye = QuarkusTransaction.requiringNew().call(() -> MailOutboxEntity.findById(id));
+        assertEquals(MailOutboxEntity.Statut.ENVOYE, envoye.statut);
+        assertEquals(1, envoye.tentatives);
+        assertNotNull(envoye.dateEnvoi);
+        assertNull(envoye.erreur);
+    }
+
+    @Test
+    void testEnqueueContenuLong() {
+        String contenu = "Bonjour Jean,\n" + "x".repeat(20000);
+        Long id = QuarkusTransaction.requiringNew().call(() ->
+                mailOutbox.enqueue(MailOutboxEntity.Origine.RAPPEL, "jean.dupont@test.com", "Sujet long", contenu).id);
+
+        MailOutboxEntity enAttente = QuarkusTransaction.requiringNew().call(() -> MailOutboxEntity.findById(id));
+        assertEquals(contenu, enAttente.contenu);
+    }
+
+}
@@ -0,0 +1,151 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.Arrays;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+
+@QuarkusTest
+public class MigrationResourceTest {
+
+    @Test
+    void testListerEntites() {
+        given()
+            .when().get("/migration")
+            .then()
+            .statusCode(200)
+            .body("$", hasItems("clients", "ventes", "catalogue-moteurs"));
+    }
+
+    @Test
+    void testExporterClients() {
+        given()
+            .when().get("/migration/clients")
+            .then()
+            .statusCode(200)
+            .contentType(containsString("application/x-ndjson"))
+            .body(containsString("\"nom\":\"Dupont\""))
+            .body(containsString("\"nom\":\"Martin\""))
+            .body(not(containsString("motDePasse")))
+            .body(not(containsString("client123")));
+    }
+
+    @Test
+    void testImporterClients() {
+        given()
+            .contentType("application/x-ndjson")
+            .body("{\"nom\":\"Importe\",\"prenom\":\"Ndjson\",\"type\":\"Particulier\",\"email\":\"import.ndjson@test.com\"}\n")
+            .when().post("/migration/clients")
+            .then()
+            .statusCode(200)
+            .body("lignes", is(1))
+            .body("creees", is(1))
+            .body("nbErreurs", is(0));
+
+        int id = given()
+            .when().get("/clients/search?q=import.ndjson@test.com")
+            .then()
+            .statusCode(200)
+            .extract().path("[0].id");
+
+        given()
+            .contentType("application/x-ndjson")
+            .body("{\"id\":" + id + ",\"nom\":\"Importe\",\"type\":\"Professionnel\",\"email\":\"import.ndjson@test.com\"}\n"
+                + "{\"nom\":\n"
+                + "\n")
+            .when().post("/migration/clients")
+            .then()
+            .statusCode(200)
+            .body("lignes", is(2))
+            .body("misesAJour", is(1))
+            .body("creees", is(0))
+            .body("nbErreurs", is(1))
+            .body("erreurs[0].ligne", is(2));
+
+        given()
+            .when().get("/clients/" + id)
+            .then()
+            .statusCode(200)
+            .body("type", is("Professionnel"));
+    }
+
+    private static String ligne(String export, String marqueur) {
+        return Arrays.stream(export.split("\n")).filter(l -> l.contains(marqueur)).findFirst().orElseThrow();
+    }
+
+    @Test
+    void testRestaurerVenteEtClient() {
+        int clientId = given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Restaure\",\"prenom\":\"Migration\",\"type\":\"Particulier\",\"email\":\"restaure.migration@test.com\"}")
+            .when().post("/clients")
+            .then().statusCode(200).extract().path("id");
+        int venteId = given()
+            .contentType("application/json")
+            .body("{\"status\":\"DEVIS\",\"client\":{\"id\":" + clientId + "},\"signatureBonPourAccord\":\"migration-restauration\"}")
+            .when().post("/ventes")
+            .then().statusCode(201).extract().path("id");
+
+        String client = ligne(given().when().get("/migration/clients").then().statusCode(200).extract().asString(),
+                "restaure.migration@test.com");
+        String vente = ligne(given().when().get("/migration/ventes").then().statusCode(200).extract().asString(),
+                "migration-restauration");
+
+        // Restore into tables where the exported rows no longer exist
+        given().when().delete("/ventes/" + venteId).then().statusCode(204);
+        given().when().delete("/clients/" + clientId).then().statusCode(204);
+
+        given()
+            .contentType("application/x-ndjson")
+            .body(client + "\n")
+            .when().post("/migration/clients")
+            .then()
+            .statusCode(200)
+            .body("creees", is(1))
+            .body("nbErreurs", is(0));
+        given()
+            .contentType("application/x-ndjson")
+            .body(vente + "\n")
+            .when().post("/migration/ventes")
+            .then()
+            .statusCode(200)
+            .body("creees", is(1))
+            .body("nbErreurs", is(0));
+
+        int restaure = given()
+            .when().get("/clients/search?q=restaure.migration@test.com")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1))
+            .extract().path("[0].id");
+        given()
+            .queryParam("clientId", restaure)
+            .when().get("/ventes/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1))
+            .body("[0].signatureBonPourAccord", is("migration-restauration"))
+            .body("[0].client.email", is("restaure.migration@test.com"));
+
+        // Importing the same file again updates the restored row instead of creating another one
+        given()
+            .contentType("application/x-ndjson")
+            .body(client + "\n")
+            .when().post("/migration/clients")
+            .then()
+            .statusCode(200)
+            .body("creees", is(0))
+            .body("misesAJour", is(1));
+    }
+
+    @Test
+    void testEntiteInconnue() {
+        given()
+            .when().get("/migration/inconnue")
+            .then()
+            .statusCode(404);
+    }
+}
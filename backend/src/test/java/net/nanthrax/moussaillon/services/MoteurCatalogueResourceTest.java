@@ -1,6 +1,7 @@
 package net.nanthrax.moussaillon.services;
 
 import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.response.Response;
 import org.junit.jupiter.api.Test;
 
 import static io.restassured.RestAssured.given;
@@ -19,6 +20,77 @@ public class MoteurCatalogueResourceTest {
             .body("size()", greaterThanOrEqualTo(1));
     }
 
+    @Test
+    void testListerMoteursPagine() {
+        given()
+            .contentType("application/json")
+            .body("{\"modele\":\"Yamaha F40\",\"marque\":\"Yamaha\",\"type\":\"Hors-bord\"}")
+            .when().post("/catalogue/moteurs")
+            .then().statusCode(200);
+
+        Response premiere = given()
+            .queryParam("limit", 1)
+            .queryParam("sort", "-modele")
+            .when().get("/catalogue/moteurs");
+        premiere.then()
+            .statusCode(200)
+            .header("X-Total-Count", notNullValue())
+            .header("Link", containsString("rel=\"next\""))
+            .body("size()", is(1));
+
+        String modele = premiere.path("[0].modele");
+        given()
+            .queryParam("limit", 1)
+            .queryParam("sort", "-modele")
+            .queryParam("after", premiere.header("X-Next-Cursor"))
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1))
+            .body("[0].modele", not(is(modele)));
+    }
+
+    @Test
+    void testListerMoteursChampsSelectionnes() {
+        given()
+            .queryParam("fields", "modele,marque")
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(200)
+            .body("find { it.id == 100 }.modele", is("Mercury 115 EFI"))
+            .body("find { it.id == 100 }.images", nullValue())
+            .body("find { it.id == 100 }.prixVenteTTC", nullValue());
+    }
+
+    @Test
+    void testListerMoteursParametresInvalides() {
+        given()
+            .queryParam("limit", 0)
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(400);
+
+        given()
+            .queryParam("sort", "images")
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(400);
+
+        given()
+            .queryParam("fields", "helicesCompatibles")
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(400);
+
+        given()
+            .queryParam("limit", 10)
+            .queryParam("sort", "modele")
+            .queryParam("after", "invalide")
+            .when().get("/catalogue/moteurs")
+            .then()
+            .statusCode(400);
+    }
+
     @Test
     void testObtenirMoteur() {
         given()
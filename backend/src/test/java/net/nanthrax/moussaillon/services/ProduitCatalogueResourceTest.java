@@ -76,6 +76,69 @@ public class ProduitCatalogueResourceTest {
             .body("size()", greaterThanOrEqualTo(1));
     }
 
+    @Test
+    void testRechercherProduitsIndexe() {
+        int id = given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Manille lyre\",\"marque\":\"Wichard\",\"categorie\":\"Accastillage\",\"ref\":\"WIC-1234-X\"}")
+            .when().post("/catalogue/produits")
+            .then().statusCode(200).extract().path("id");
+
+        given()
+            .queryParam("q", "wic1234")
+            .when().get("/catalogue/produits/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1))
+            .body("[0].id", is(id));
+
+        given()
+            .queryParam("q", "hui")
+            .queryParam("limit", 1)
+            .when().get("/catalogue/produits/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1));
+
+        given()
+            .when().delete("/catalogue/produits/" + id)
+            .then().statusCode(204);
+
+        given()
+            .queryParam("q", "manille lyre")
+            .when().get("/catalogue/produits/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(0));
+    }
+
+    @Test
+    void testRechercherSansLimite() {
+        for (int i = 0; i < 55; i++) {
+            given()
+                .contentType("application/json")
+                .body("{\"nom\":\"Garcette lot " + i + "\",\"marque\":\"Test\",\"categorie\":\"Test\"}")
+                .when().post("/catalogue/produits")
+                .then().statusCode(200);
+        }
+
+        // The catalogue screen shows the whole result
+        given()
+            .queryParam("q", "garcette")
+            .when().get("/catalogue/produits/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(55));
+
+        given()
+            .queryParam("q", "garcette")
+            .queryParam("limit", 10)
+            .when().get("/catalogue/produits/search")
+            .then()
+            .statusCode(200)
+            .body("size()", is(10));
+    }
+
     @Test
     void testListerFournisseurs() {
         given()
@@ -1,9 +1,10 @@
 package net.nanthrax.moussaillon.services;
 
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
-import jakarta.transaction.Transactional;
 import net.nanthrax.moussaillon.persistence.ClientEntity;
+import net.nanthrax.moussaillon.persistence.JobCheckpointEntity;
 import net.nanthrax.moussaillon.persistence.RappelHistoriqueEntity;
 import net.nanthrax.moussaillon.persistence.VenteEntity;
 import org.junit.jupiter.api.Test;
@@ -14,6 +15,10 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+/**
+ * The scheduler commits each chunk in its own transaction, so the fixtures are committed
+ * before the run and read back in a new transaction afterwards.
+ */
 @QuarkusTest
 public class RappelSchedulerTest {
 
@@ -21,27 +26,20 @@ public class RappelSchedulerTest {
     RappelScheduler rappelScheduler;
 
     @Test
-    @Transactional
     void testEnvoyerRappelQuandDateAtteinte() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(5).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, 5, 500.0);
         vente.rappel1Jours = 10;
         vente.rappel2Jours = 3;
-        vente.prixVenteTTC = 500.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
+        VenteEntity updated = recharger(vente.id);
         assertTrue(updated.rappel1Envoye, "Rappel 1 aurait du etre envoye (5 jours restants <= 10 jours)");
         assertFalse(updated.rappel2Envoye, "Rappel 2 ne devrait pas etre envoye (5 jours restants > 3 jours)");
         assertFalse(updated.rappel3Envoye, "Rappel 3 non configure, ne devrait pas etre envoye");
 
-        List<RappelHistoriqueEntity> historique = RappelHistoriqueEntity.list("vente.id", vente.id);
+        List<RappelHistoriqueEntity> historique = historique(vente.id);
         assertEquals(1, historique.size(), "Un seul historique de rappel doit etre cree");
         assertEquals(1, historique.get(0).numeroRappel);
         assertEquals("jean.dupont@test.com", historique.get(0).destinataire);
@@ -51,151 +49,161 @@ public class RappelSchedulerTest {
     }
 
     @Test
-    @Transactional
     void testPasDeRappelQuandDateLointaine() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(60).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, 60, 1000.0);
         vente.rappel1Jours = 30;
         vente.rappel2Jours = 7;
         vente.rappel3Jours = 1;
-        vente.prixVenteTTC = 1000.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
+        VenteEntity updated = recharger(vente.id);
         assertFalse(updated.rappel1Envoye, "Rappel 1 ne devrait pas etre envoye (60 jours restants > 30 jours)");
         assertFalse(updated.rappel2Envoye, "Rappel 2 ne devrait pas etre envoye (60 jours restants > 7 jours)");
         assertFalse(updated.rappel3Envoye, "Rappel 3 ne devrait pas etre envoye (60 jours restants > 1 jour)");
     }
 
     @Test
-    @Transactional
     void testPasDeRappelSansConfiguration() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(1).atStartOfDay());
-        vente.prixVenteTTC = 200.0;
-        vente.persist();
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, 1, 200.0);
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
+        VenteEntity updated = recharger(vente.id);
         assertFalse(updated.rappel1Envoye, "Aucun rappel configure, rien ne devrait etre envoye");
         assertFalse(updated.rappel2Envoye);
         assertFalse(updated.rappel3Envoye);
     }
 
     @Test
-    @Transactional
     void testPasDeDoublonRappelDejaEnvoye() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.FACTURE_EN_ATTENTE;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(2).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.FACTURE_EN_ATTENTE, 2, 300.0);
         vente.rappel1Jours = 10;
         vente.rappel1Envoye = true;
-        vente.prixVenteTTC = 300.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
-        assertTrue(updated.rappel1Envoye, "Le drapeau doit rester vrai");
+        assertTrue(recharger(vente.id).rappel1Envoye, "Le drapeau doit rester vrai");
+        assertEquals(0, historique(vente.id).size(), "Le rappel deja envoye ne doit pas etre renvoye");
     }
 
     @Test
-    @Transactional
     void testPasDeRappelPourVentePayee() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.FACTURE_PAYEE;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(1).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.FACTURE_PAYEE, 1, 400.0);
         vente.rappel1Jours = 10;
-        vente.prixVenteTTC = 400.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
-        assertFalse(updated.rappel1Envoye, "Pas de rappel pour une vente payee");
+        assertFalse(recharger(vente.id).rappel1Envoye, "Pas de rappel pour une vente payee");
     }
 
     @Test
-    @Transactional
     void testPasDeRappelSansEmailClient() {
-        ClientEntity clientSansEmail = new ClientEntity();
-        clientSansEmail.nom = "SansEmail";
-        clientSansEmail.type = "Particulier";
-        clientSansEmail.persist();
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = clientSansEmail;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(1).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, 1, 100.0);
         vente.rappel1Jours = 10;
-        vente.prixVenteTTC = 100.0;
-        vente.persist();
+        QuarkusTransaction.requiringNew().run(() -> {
+            ClientEntity clientSansEmail = new ClientEntity();
+            clientSansEmail.nom = "SansEmail";
+            clientSansEmail.type = "Particulier";
+            clientSansEmail.persist();
+            vente.client = clientSansEmail;
+            vente.persist();
+        });
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
-        assertFalse(updated.rappel1Envoye, "Pas de rappel sans email client");
+        assertFalse(recharger(vente.id).rappel1Envoye, "Pas de rappel sans email client");
     }
 
     @Test
-    @Transactional
     void testTousRappelsEnvoyesQuandDatePassee() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().minusDays(1).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, -1, 600.0);
         vente.rappel1Jours = 30;
         vente.rappel2Jours = 7;
         vente.rappel3Jours = 1;
-        vente.prixVenteTTC = 600.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        VenteEntity updated = VenteEntity.findById(vente.id);
+        VenteEntity updated = recharger(vente.id);
         assertTrue(updated.rappel1Envoye, "Tous les rappels devraient etre envoyes quand la date est passee");
         assertTrue(updated.rappel2Envoye);
         assertTrue(updated.rappel3Envoye);
 
-        List<RappelHistoriqueEntity> historique = RappelHistoriqueEntity.list("vente.id", vente.id);
-        assertEquals(3, historique.size(), "3 historiques de rappel doivent etre crees");
+        assertEquals(3, historique(vente.id).size(), "3 historiques de rappel doivent etre crees");
     }
 
     @Test
-    @Transactional
     void testPasHistoriqueSansRappelEnvoye() {
-        ClientEntity client = ClientEntity.findById(100L);
-
-        VenteEntity vente = new VenteEntity();
-        vente.status = VenteEntity.Status.DEVIS;
-        vente.client = client;
-        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(60).atStartOfDay());
+        VenteEntity vente = vente(VenteEntity.Status.DEVIS, 60, 100.0);
         vente.rappel1Jours = 30;
-        vente.prixVenteTTC = 100.0;
-        vente.persist();
+        persister(vente);
 
         rappelScheduler.envoyerRappels();
 
-        List<RappelHistoriqueEntity> historique = RappelHistoriqueEntity.list("vente.id", vente.id);
-        assertEquals(0, historique.size(), "Aucun historique ne doit etre cree si aucun rappel envoye");
+        assertEquals(0, historique(vente.id).size(), "Aucun historique ne doit etre cree si aucun rappel envoye");
+    }
+
+    @Test
+    void testRepriseApresCheckpoint() {
+        VenteEntity dejaTraitee = vente(VenteEntity.Status.DEVIS, 1, 100.0);
+        dejaTraitee.rappel1Jours = 10;
+        VenteEntity suivante = vente(VenteEntity.Status.DEVIS, 1, 100.0);
+        suivante.rappel1Jours = 10;
+
+        // Simule une execution interrompue aujourd'hui apres la premiere vente
+        QuarkusTransaction.requiringNew().run(() -> {
+            ClientEntity client = ClientEntity.findById(100L);
+            dejaTraitee.client = client;
+            dejaTraitee.persist();
+
+            JobCheckpointEntity checkpoint = JobCheckpointEntity.findByNom(RappelScheduler.CHECKPOINT);
+            if (checkpoint == null) {
+                checkpoint = new JobCheckpointEntity();
+                checkpoint.nom = RappelScheduler.CHECKPOINT;
+                checkpoint.persist();
+            }
+            checkpoint.termine = false;
+            checkpoint.dernierId = dejaTraitee.id;
+            checkpoint.dateDebut = new Timestamp(System.currentTimeMillis());
+
+            suivante.client = client;
+            suivante.persist();
+        });
+
+        rappelScheduler.envoyerRappels();
+
+        assertFalse(recharger(dejaTraitee.id).rappel1Envoye, "La vente avant le checkpoint ne doit pas etre retraitee");
+        assertTrue(recharger(suivante.id).rappel1Envoye, "La reprise doit traiter les ventes apres le checkpoint");
+        assertTrue(QuarkusTransaction.requiringNew().call(() -> JobCheckpointEntity.findByNom(RappelScheduler.CHECKPOINT).termine));
+        assertEquals("TERMINE", rappelScheduler.execution().statut);
+    }
+
+    private static VenteEntity vente(VenteEntity.Status status, int joursAvantDate, double prixVenteTTC) {
+        VenteEntity vente = new VenteEntity();
+        vente.status = status;
+        vente.date = Timestamp.valueOf(LocalDate.now().plusDays(joursAvantDate).atStartOfDay());
+        vente.prixVenteTTC = prixVenteTTC;
+        return vente;
+    }
+
+    // Commits the vente for client 100 (jean.dupont@test.com)
+    private static void persister(VenteEntity vente) {
+        QuarkusTransaction.requiringNew().run(() -> {
+            vente.client = ClientEntity.findById(100L);
+            vente.persist();
+        });
+    }
+
+    private static VenteEntity recharger(Long id) {
+        return QuarkusTransaction.requiringNew().call(() -> VenteEntity.findById(id));
+    }
+
+    private static List<RappelHistoriqueEntity> historique(Long id) {
+        return QuarkusTransaction.requiringNew().call(() -> RappelHistoriqueEntity.<RappelHistoriqueEntity>list("vente.id", id));
     }
 }
@@ -0,0 +1,99 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+
+    private static SearchIndex.Document produit(long id, String nom, String marque, String ref, String description) {
+        Map<SearchIndex.Champ, List<String>> valeurs = new HashMap<>();
+        for (SearchIndex.Champ champ : SearchIndex.Type.PRODUITS.champs) {
+            String valeur = switch (champ.nom()) {
+                case "nom" -> nom;
+                case "marque" -> marque;
+                case "ref" -> ref;
+                case "description" -> description;
+                default -> null;
+            };
+            if (valeur != null) {
+                valeurs.put(champ, List.of(valeur));
+            }
+        }
+        return new SearchIndex.Document(id, valeurs);
+    }
+
+    private static SearchIndex.Segment segment() {
+        SearchIndex.Segment segment = new SearchIndex.Segment();
+        segment.ajouter(produit(1, "Hélice inox 3 pales", "Solas", "SOL-1234-X", null));
+        segment.ajouter(produit(2, "Huile moteur 4T", "Motul", "MOT-4T-1L", "Huile marine"));
+        segment.ajouter(produit(3, "Filtre a huile", "Mercury", "35-866340Q03", "Filtre compatible Mercury"));
+        segment.ajouter(produit(4, "Anode", "Tecnoseal", "TEC-00101", "Pour moteur Mercury"));
+        return segment;
+    }
+
+    @Test
+    void testPrefixeEtAccents() {
+        SearchIndex.Segment segment = segment();
+        assertEquals(List.of(1L), segment.chercher("helic", 10));
+        assertEquals(List.of(1L), segment.chercher("HÉLICE", 10));
+    }
+
+    @Test
+    void testClassementParChamp() {
+        // The nom and marque matches rank above the match in the description only
+        List<Long> ids = segment().chercher("mercury", 10);
+        assertEquals(3L, ids.get(0));
+        assertTrue(ids.contains(4L));
+    }
+
+    @Test
+    void testTousLesTermes() {
+        assertEquals(List.of(2L), segment().chercher("huile mot", 10));
+    }
+
+    @Test
+    void testReferenceCompacteeEtApprochee() {
+        SearchIndex.Segment segment = segment();
+        assertEquals(List.of(1L), segment.chercher("sol1234", 10));
+        assertEquals(List.of(1L), segment.chercher("sol 1234", 10));
+        assertEquals(List.of(3L), segment.chercher("35866340q3", 10));
+    }
+
+    @Test
+    void testInfixeReference() {
+        SearchIndex.Segment segment = segment();
+        // Part of a reference, as the former LIKE '%q%' search found it
+        assertEquals(List.of(3L), segment.chercher("6340", 10));
+        assertEquals(List.of(1L), segment.chercher("1234x", 10));
+        // Text fields keep matching by term prefix only
+        assertTrue(segment.chercher("uile", 10).isEmpty());
+    }
+
+    @Test
+    void testModificationEtSuppression() {
+        SearchIndex.Segment segment = segment();
+        segment.ajouter(produit(2, "Graisse marine", "Motul", "MOT-GR", null));
+        assertTrue(segment.chercher("huile", 10).stream().noneMatch(id -> id == 2L));
+        assertEquals(List.of(2L), segment.chercher("graisse", 10));
+
+        segment.retirer(2);
+        assertTrue(segment.chercher("graisse", 10).isEmpty());
+        assertFalse(segment.termes.containsKey("graisse"));
+    }
+
+    @Test
+    void testLimite() {
+        SearchIndex.Segment segment = new SearchIndex.Segment();
+        for (long id = 1; id <= 100; id++) {
+            segment.ajouter(produit(id, "Manille " + id, "Wichard", "WIC-" + id, null));
+        }
+        assertEquals(5, segment.chercher("manille", 5).size());
+        assertEquals(100, segment.chercher("manille", Integer.MAX_VALUE).size());
+        assertEquals(List.of(42L), segment.chercher("manille 42", 5).subList(0, 1));
+    }
+}
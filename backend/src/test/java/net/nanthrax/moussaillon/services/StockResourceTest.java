@@ -0,0 +1,165 @@
+package net.nanthrax.moussaillon.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+public class StockResourceTest {
+
+    private int creerProduit(String nom, int stock) {
+        return given()
+            .contentType("application/json")
+            .body("{\"nom\":\"" + nom + "\",\"marque\":\"Test\",\"categorie\":\"Test\",\"stock\":" + stock + ",\"stockMini\":2}")
+            .when().post("/catalogue/produits")
+            .then().statusCode(200).extract().path("id");
+    }
+
+    @Test
+    void testReceptionJournalisee() {
+        int id = creerProduit("Anode reception", 4);
+        int commande = given()
+            .contentType("application/json")
+            .body("{\"status\":\"BROUILLON\",\"reference\":\"CF-STOCK\",\"fournisseur\":{\"id\":100},\"lignes\":[{\"produit\":{\"id\":" + id + "},\"quantite\":6}]}")
+            .when().post("/commandes-fournisseur")
+            .then().statusCode(201).extract().path("id");
+
+        given()
+            .contentType("application/json")
+            .body("{\"status\":\"RECUE\",\"reference\":\"CF-STOCK\",\"fournisseur\":{\"id\":100},\"lignes\":[{\"produit\":{\"id\":" + id + "},\"quantite\":6}]}")
+            .when().put("/commandes-fournisseur/" + commande)
+            .then().statusCode(200);
+
+        given()
+            .when().get("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("stock", is(10));
+
+        given()
+            .queryParam("produitId", id)
+            .when().get("/stock/mouvements")
+            .then()
+            .statusCode(200)
+            .body("size()", is(2))
+            .body("[0].motif", is("RECEPTION"))
+            .body("[0].quantite", is(6))
+            .body("[0].stock", is(10))
+            .body("[1].motif", is("OUVERTURE"))
+            .body("[1].quantite", is(4));
+    }
+
+    @Test
+    void testAjustementsConcurrents() throws Exception {
+        int id = creerProduit("Manille concurrente", 0);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> reponses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                reponses.add(executor.submit(() -> given()
+                    .contentType("application/json")
+                    .body("{\"produitId\":" + id + ",\"quantite\":1,\"reference\":\"Test\"}")
+                    .when().post("/stock/mouvements")
+                    .then().extract().statusCode()));
+            }
+            for (Future<Integer> reponse : reponses) {
+                assertEquals(200, reponse.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        given()
+            .when().get("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("stock", is(10));
+    }
+
+    @Test
+    void testStockALaDate() {
+        int id = creerProduit("Gilet inventaire", 7);
+        given()
+            .contentType("application/json")
+            .body("{\"produitId\":" + id + ",\"quantite\":-3}")
+            .when().post("/stock/mouvements")
+            .then()
+            .statusCode(200)
+            .body("stock", is(4));
+
+        given()
+            .queryParam("date", "2000-01-01")
+            .when().get("/stock/inventaire")
+            .then()
+            .statusCode(200)
+            .body("find { it.produitId == " + id + " }.stock", is(0));
+
+        given()
+            .when().get("/stock/inventaire")
+            .then()
+            .statusCode(200)
+            .body("find { it.produitId == " + id + " }.stock", is(4));
+
+        given()
+            .queryParam("date", "hier")
+            .when().get("/stock/inventaire")
+            .then()
+            .statusCode(400);
+    }
+
+    @Test
+    void testModificationProduitVersionPerimee() {
+        int id = creerProduit("Bouee version", 5);
+        given()
+            .contentType("application/json")
+            .body("{\"produitId\":" + id + ",\"quantite\":-1}")
+            .when().post("/stock/mouvements")
+            .then().statusCode(200);
+
+        given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Bouee version\",\"marque\":\"Test\",\"categorie\":\"Test\",\"stock\":5,\"version\":0}")
+            .when().put("/catalogue/produits/" + id)
+            .then()
+            .statusCode(409);
+
+        int version = given()
+            .when().get("/catalogue/produits/" + id)
+            .then().statusCode(200).extract().path("version");
+        given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Bouee version\",\"marque\":\"Test\",\"categorie\":\"Test\",\"stock\":8,\"version\":" + version + "}")
+            .when().put("/catalogue/produits/" + id)
+            .then()
+            .statusCode(200)
+            .body("stock", is(8));
+
+        given()
+            .queryParam("produitId", id)
+            .queryParam("limit", 1)
+            .when().get("/stock/mouvements")
+            .then()
+            .statusCode(200)
+            .body("[0].motif", is("AJUSTEMENT"))
+            .body("[0].quantite", is(4));
+    }
+
+    @Test
+    void testAjusterProduitInconnu() {
+        given()
+            .contentType("application/json")
+            .body("{\"produitId\":9999,\"quantite\":1}")
+            .when().post("/stock/mouvements")
+            .then()
+            .statusCode(404);
+    }
+}
@@ -0,0 +1,40 @@
+package net.nanthrax.moussaillon.services;
+
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+@QuarkusTest
+public class TechnicienKpiResourceTest {
+
+    @Test
+    void testObtenirKpiTechnicien() {
+        given()
+            .when().get("/techniciens/100/kpi")
+            .then()
+            .statusCode(200)
+            .body("technicienId", is(100))
+            .body("totalTaches", greaterThanOrEqualTo(1));
+    }
+
+    @Test
+    void testObtenirKpiTechnicienNonTrouve() {
+        given()
+            .when().get("/techniciens/9999/kpi")
+            .then()
+            .statusCode(404);
+    }
+
+    @Test
+    void testObtenirKpiTousTechniciens() {
+        given()
+            .when().get("/techniciens/kpi")
+            .then()
+            .statusCode(200)
+            .body("technicienId", hasItem(100))
+            .body("find { it.technicienId == 100 }.totalTaches", greaterThanOrEqualTo(1));
+    }
+}
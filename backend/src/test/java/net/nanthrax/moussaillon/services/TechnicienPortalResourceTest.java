@@ -117,6 +117,25 @@ public class TechnicienPortalResourceTest {
             .statusCode(200);
     }
 
+    @Test
+    void testObtenirTachesTechnicienFenetre() {
+        given()
+            .queryParam("jours", 0)
+            .when().get("/technicien-portal/techniciens/100/taches")
+            .then()
+            .statusCode(200)
+            .body("itemId", hasItem(100));
+    }
+
+    @Test
+    void testObtenirTachesTechnicienFenetreInvalide() {
+        given()
+            .queryParam("jours", -1)
+            .when().get("/technicien-portal/techniciens/100/taches")
+            .then()
+            .statusCode(400);
+    }
+
     @Test
     void testObtenirTachesTechnicienNonTrouve() {
         given()
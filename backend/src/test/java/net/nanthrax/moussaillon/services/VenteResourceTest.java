@@ -1,11 +1,29 @@
 package net.nanthrax.moussaillon.services;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import io.quarkus.hibernate.orm.PersistenceUnitExtension;
+import io.quarkus.narayana.jta.QuarkusTransaction;
 import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+import jakarta.enterprise.context.ApplicationScoped;
+import net.nanthrax.moussaillon.persistence.ClientEntity;
+import net.nanthrax.moussaillon.persistence.VenteEntity;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
 import org.junit.jupiter.api.Test;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @QuarkusTest
 public class VenteResourceTest {
@@ -253,4 +271,195 @@ public class VenteResourceTest {
             .then()
             .statusCode(400);
     }
+
+    @Test
+    void testListerVentesPagine() {
+        given()
+            .contentType("application/json")
+            .body("{\"status\":\"DEVIS\",\"prixVenteTTC\":10.0,\"date\":\"2025-01-01\"}")
+            .when().post("/ventes")
+            .then().statusCode(201);
+
+        // Cross-origin, as from the frontend: the pagination headers must be readable
+        String cursor = given()
+            .header("Origin", "http://localhost:5173")
+            .queryParam("limit", 1)
+            .when().get("/ventes")
+            .then()
+            .statusCode(200)
+            .header("X-Total-Count", notNullValue())
+            .header("X-Next-Cursor", notNullValue())
+            .header("Link", containsString("rel=\"next\""))
+            .header("Access-Control-Expose-Headers", containsString("Link"))
+            .body("size()", is(1))
+            .extract().header("X-Next-Cursor");
+
+        given()
+            .queryParam("limit", 1)
+            .queryParam("after", cursor)
+            .when().get("/ventes")
+            .then()
+            .statusCode(200)
+            .body("size()", is(1));
+    }
+
+    @Test
+    void testListerVentesPagineDatesSousMilliseconde() {
+        int clientId = given()
+            .contentType("application/json")
+            .body("{\"nom\":\"Curseur\",\"prenom\":\"Test\",\"type\":\"Particulier\",\"email\":\"curseur@test.com\"}")
+            .when().post("/clients")
+            .then().statusCode(200).extract().path("id");
+
+        // Two ventes on the same microsecond, a third later within the same millisecond
+        List<Long> ids = QuarkusTransaction.requiringNew().call(() -> {
+            List<Long> crees = new ArrayList<>();
+            for (int nanos : new int[] {123_456_000, 123_456_000, 123_789_000}) {
+                VenteEntity vente = new VenteEntity();
+                vente.status = VenteEntity.Status.DEVIS;
+                vente.client = ClientEntity.findById((long) clientId);
+                vente.date = Timestamp.valueOf("2025-03-01 10:00:00");
+                vente.date.setNanos(nanos);
+                vente.persist();
+                crees.add(vente.id);
+            }
+            return crees;
+        });
+
+        List<Long> pages = new ArrayList<>();
+        String cursor = null;
+        for (int i = 0; i < 3; i++) {
+            RequestSpecification requete = given().queryParam("clientId", clientId).queryParam("limit", 1);
+            if (cursor != null) {
+                requete.queryParam("after", cursor);
+            }
+            ExtractableResponse<Response> reponse = requete.when().get("/ventes/search")
+                .then().statusCode(200).body("size()", is(1)).extract();
+            pages.add(((Number) reponse.path("[0].id")).longValue());
+            cursor = reponse.header("X-Next-Cursor");
+        }
+
+        assertEquals(List.of(ids.get(2), ids.get(1), ids.get(0)), pages);
+    }
+
+    @Test
+    void testListerVentesResume() {
+        given()
+            .queryParam("limit", 10)
+            .queryParam("fields", "summary")
+            .queryParam("status", "FACTURE_PAYEE")
+            .when().get("/ventes/search")
+            .then()
+            .statusCode(200)
+            .body("find { it.id == 100 }.client", is("Jean Dupont"))
+            .body("find { it.id == 100 }.venteForfaits", nullValue());
+    }
+
+    @Test
+    void testListerVentesPagineParametresInvalides() {
+        given()
+            .queryParam("limit", 0)
+            .when().get("/ventes")
+            .then()
+            .statusCode(400);
+
+        given()
+            .queryParam("limit", 10)
+            .queryParam("after", "invalide")
+            .when().get("/ventes")
+            .then()
+            .statusCode(400);
+
+        // Millisecond cursor of the previous format
+        given()
+            .queryParam("limit", 10)
+            .queryParam("after", "1740819600123_5")
+            .when().get("/ventes")
+            .then()
+            .statusCode(400);
+
+        given()
+            .queryParam("limit", 10)
+            .queryParam("fields", "inconnu")
+            .when().get("/ventes")
+            .then()
+            .statusCode(400);
+    }
+
+    /**
+     * Counts the SELECT statements reading the catalogue forfaits and services (and their
+     * taches / produits tables), whatever the thread running them.
+     */
+    @ApplicationScoped
+    @PersistenceUnitExtension
+    public static class RequetesCatalogue implements StatementInspector {
+
+        static final AtomicInteger COMPTEUR = new AtomicInteger();
+
+        private static final Pattern CATALOGUE = Pattern.compile(
+                "(?is)^\\s*select\\b.*\\bfrom\\s+((forfait|service)\\w*entity\\b|taskentity\\b.*\\b(forfait|service)_id\\s*=)");
+
+        @Override
+        public String inspect(String sql) {
+            if (CATALOGUE.matcher(sql).find()) {
+                COMPTEUR.incrementAndGet();
+            }
+            return sql;
+        }
+    }
+
+    @Test
+    void testRequetesCatalogueParSauvegarde() {
+        int lignes = 10;
+        StringBuilder forfaits = new StringBuilder();
+        StringBuilder services = new StringBuilder();
+        for (int i = 0; i < lignes; i++) {
+            int forfait = given()
+                .contentType("application/json")
+                .body("{\"nom\":\"Forfait requetes " + i + "\",\"reference\":\"REQ-F-" + i + "\",\"taches\":[{\"nom\":\"Demontage\"},{\"nom\":\"Remontage\"}]}")
+                .when().post("/forfaits")
+                .then().statusCode(201).extract().path("id");
+            int service = given()
+                .contentType("application/json")
+                .body("{\"nom\":\"Service requetes " + i + "\",\"taches\":[{\"nom\":\"Controle\"}]}")
+                .when().post("/services")
+                .then().statusCode(200).extract().path("id");
+            forfaits.append(i > 0 ? "," : "").append("{\"forfait\":{\"id\":").append(forfait).append("},\"quantite\":1,\"status\":\"%s\"}");
+            services.append(i > 0 ? "," : "").append("{\"service\":{\"id\":").append(service).append("},\"quantite\":1,\"status\":\"%s\"}");
+        }
+        String lignesEnAttente = "\"venteForfaits\":[" + forfaits.toString().replace("%s", "EN_ATTENTE")
+                + "],\"venteServices\":[" + services.toString().replace("%s", "EN_ATTENTE") + "]";
+        String lignesEnCours = "\"venteForfaits\":[" + forfaits.toString().replace("%s", "EN_COURS")
+                + "],\"venteServices\":[" + services.toString().replace("%s", "EN_COURS") + "]";
+
+        // Creation: one query for the forfaits and one for the services, whatever the number of lines
+        RequetesCatalogue.COMPTEUR.set(0);
+        given()
+            .contentType("application/json")
+            .body("{\"status\":\"DEVIS\"," + lignesEnAttente + "}")
+            .when().post("/ventes")
+            .then()
+            .statusCode(201)
+            .body("venteForfaits.size()", is(lignes))
+            .body("venteForfaits[0].taches.size()", is(2))
+            .body("venteServices[" + (lignes - 1) + "].taches.size()", is(1));
+        assertThat(RequetesCatalogue.COMPTEUR.get(), lessThanOrEqualTo(2));
+
+        // Update starting the work: template taches of both types, then the forfait produits for the stock
+        int id = given()
+            .contentType("application/json")
+            .body("{\"status\":\"DEVIS\"}")
+            .when().post("/ventes")
+            .then().statusCode(201).extract().path("id");
+        RequetesCatalogue.COMPTEUR.set(0);
+        given()
+            .contentType("application/json")
+            .body("{\"status\":\"DEVIS\",\"bonPourAccord\":true," + lignesEnCours + "}")
+            .when().put("/ventes/" + id)
+            .then()
+            .statusCode(200)
+            .body("venteForfaits[" + (lignes - 1) + "].taches.size()", is(2))
+            .body("stockDecremented", is(true));
+        assertThat(RequetesCatalogue.COMPTEUR.get(), lessThanOrEqualTo(3));
+    }
 }
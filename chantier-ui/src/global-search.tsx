@@ -113,7 +113,7 @@ export default function GlobalSearch() {
         try {
             const promises = categories.map(async (cat) => {
                 try {
-                    const res = await api.get(cat.endpoint, { params: { q: q.trim() } });
+                    const res = await api.get(cat.endpoint, { params: { q: q.trim(), limit: 5 } });
                     return { category: cat, items: (res.data || []).slice(0, 5) };
                 } catch {
                     return { category: cat, items: [] };
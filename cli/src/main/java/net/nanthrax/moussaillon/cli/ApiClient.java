@@ -12,6 +12,8 @@ import jakarta.json.JsonWriterFactory;
 import jakarta.json.stream.JsonGenerator;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
@@ -20,7 +22,15 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 @ApplicationScoped
 public class ApiClient {
@@ -28,69 +38,124 @@ public class ApiClient {
     @ConfigProperty(name = "moussaillon.api.url")
     String apiUrl;
 
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    // A single client keeps its connections open: HTTP/2 multiplexes the batch requests on one
+    // connection when the backend offers it, HTTP/1.1 reuses a small pool of kept-alive ones
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
     private final JsonWriterFactory prettyWriterFactory = Json.createWriterFactory(
             Map.of(JsonGenerator.PRETTY_PRINTING, true));
 
     public String get(String path) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + path))
-                .header("Accept", "application/json")
-                .GET()
-                .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkResponse(response);
-        return response.body();
+        return send(request("GET", path, null));
     }
 
     public String post(String path, String jsonBody) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + path))
-                .header("Content-Type", "application/json")
-                .header("Accept", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkResponse(response);
-        return response.body();
+        return send(request("POST", path, jsonBody));
     }
 
     public String put(String path, String jsonBody) throws Exception {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(apiUrl + path))
-                .header("Content-Type", "application/json")
-                .header("Accept", "application/json")
-                .PUT(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkResponse(response);
-        return response.body();
+        return send(request("PUT", path, jsonBody));
     }
 
     public String mergeAndPut(String path, String partialJson) throws Exception {
-        String existing = get(path);
-        try (JsonReader existingReader = Json.createReader(new StringReader(existing));
-             JsonReader partialReader = Json.createReader(new StringReader(partialJson))) {
-            JsonObject existingObj = existingReader.readObject();
-            JsonObject partialObj = partialReader.readObject();
-            JsonObjectBuilder merged = Json.createObjectBuilder();
-            for (String key : existingObj.keySet()) {
-                merged.add(key, existingObj.get(key));
-            }
-            for (String key : partialObj.keySet()) {
-                merged.add(key, partialObj.get(key));
+        return put(path, merge(get(path), partialJson));
+    }
+
+    public void delete(String path) throws Exception {
+        send(request("DELETE", path, null));
+    }
+
+    /**
+     * Copies the response body to {@code target} as it arrives, without holding it in memory.
+     */
+    public void download(String path, OutputStream target) throws Exception {
+        HttpResponse<InputStream> response = httpClient.send(request("GET", path, null), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (response.statusCode() >= 400) {
+                String message = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                throw new RuntimeException("Erreur HTTP " + response.statusCode() + (message.isBlank() ? "" : " : " + message));
             }
-            return put(path, merged.build().toString());
+            body.transferTo(target);
         }
     }
 
-    public void delete(String path) throws Exception {
+    /**
+     * Streams a file as the body of a POST.
+     */
+    public String upload(String path, Path source, String contentType) throws Exception {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(apiUrl + path))
-                .DELETE()
+                .header("Content-Type", contentType)
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofFile(source))
                 .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        checkResponse(response);
+        return send(request);
+    }
+
+    public CompletableFuture<String> getAsync(String path) {
+        return sendAsync(request("GET", path, null));
+    }
+
+    public CompletableFuture<String> postAsync(String path, String jsonBody) {
+        return sendAsync(request("POST", path, jsonBody));
+    }
+
+    public CompletableFuture<String> putAsync(String path, String jsonBody) {
+        return sendAsync(request("PUT", path, jsonBody));
+    }
+
+    public CompletableFuture<String> mergeAndPutAsync(String path, String partialJson) {
+        return getAsync(path).thenCompose(existing -> putAsync(path, merge(existing, partialJson)));
+    }
+
+    public CompletableFuture<String> deleteAsync(String path) {
+        return sendAsync(request("DELETE", path, null));
+    }
+
+    /**
+     * Runs one asynchronous call per item with at most {@code concurrency} calls in flight, and
+     * hands every outcome to {@code listener} as soon as it is known (so not in input order).
+     * Completes once every item has been processed; a failed item does not stop the others.
+     */
+    public <T> CompletableFuture<Void> batch(List<T> items, int concurrency,
+                                             Function<T, CompletableFuture<String>> call,
+                                             BiConsumer<T, Throwable> listener) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (items.isEmpty()) {
+            done.complete(null);
+            return done;
+        }
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(items.size());
+        Runnable[] launch = new Runnable[1];
+        launch[0] = () -> {
+            int index = next.getAndIncrement();
+            if (index >= items.size()) {
+                return;
+            }
+            T item = items.get(index);
+            CompletableFuture<String> future;
+            try {
+                future = call.apply(item);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            // Async so that items failing immediately do not nest the launches on one stack
+            future.whenCompleteAsync((response, error) -> {
+                listener.accept(item, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                if (remaining.decrementAndGet() == 0) {
+                    done.complete(null);
+                } else {
+                    launch[0].run();
+                }
+            });
+        };
+        for (int i = 0; i < Math.max(1, concurrency); i++) {
+            launch[0].run();
+        }
+        return done;
     }
 
     public String encodeQuery(String query) {
@@ -177,7 +242,49 @@ public class ApiClient {
         };
     }
 
-    private void checkResponse(HttpResponse<String> response) throws Exception {
+    private HttpRequest request(String method, String path, String jsonBody) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(apiUrl + path));
+        if (jsonBody != null) {
+            builder.header("Content-Type", "application/json");
+        }
+        if (!"DELETE".equals(method)) {
+            builder.header("Accept", "application/json");
+        }
+        return builder.method(method, jsonBody != null
+                ? HttpRequest.BodyPublishers.ofString(jsonBody)
+                : HttpRequest.BodyPublishers.noBody()).build();
+    }
+
+    private String send(HttpRequest request) throws Exception {
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        checkResponse(response);
+        return response.body();
+    }
+
+    private CompletableFuture<String> sendAsync(HttpRequest request) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).thenApply(response -> {
+            checkResponse(response);
+            return response.body();
+        });
+    }
+
+    private String merge(String existing, String partialJson) {
+        try (JsonReader existingReader = Json.createReader(new StringReader(existing));
+             JsonReader partialReader = Json.createReader(new StringReader(partialJson))) {
+            JsonObject existingObj = existingReader.readObject();
+            JsonObject partialObj = partialReader.readObject();
+            JsonObjectBuilder merged = Json.createObjectBuilder();
+            for (String key : existingObj.keySet()) {
+                merged.add(key, existingObj.get(key));
+            }
+            for (String key : partialObj.keySet()) {
+                merged.add(key, partialObj.get(key));
+            }
+            return merged.build().toString();
+        }
+    }
+
+    private void checkResponse(HttpResponse<String> response) {
         if (response.statusCode() >= 400) {
             String body = response.body();
             String message = "Erreur HTTP " + response.statusCode();
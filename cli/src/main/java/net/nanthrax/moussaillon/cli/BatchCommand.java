@@ -0,0 +1,165 @@
+package net.nanthrax.moussaillon.cli;
+
+import jakarta.inject.Inject;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import picocli.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base of the "batch" sub-command of each entity: reads one ID or one JSON object per line
+ * (from a file or the standard input) and sends the matching requests with a bounded number
+ * in flight, printing the outcome of every line and the overall throughput.
+ */
+public abstract class BatchCommand implements Callable<Integer> {
+
+    @Inject ApiClient api;
+
+    @CommandLine.Parameters(index = "0", description = "Opération : get, create, update ou delete")
+    String operation;
+
+    @CommandLine.Option(names = {"-f", "--fichier"}, defaultValue = "-",
+            description = "Fichier d'entrée, un ID ou un objet JSON par ligne (- pour l'entrée standard)")
+    String fichier;
+
+    @CommandLine.Option(names = {"-c", "--concurrence"}, defaultValue = "8",
+            description = "Nombre maximum de requêtes simultanées (défaut : ${DEFAULT-VALUE})")
+    int concurrence;
+
+    @CommandLine.Option(names = "--json", description = "Afficher le résultat de chaque ligne en JSON")
+    boolean json;
+
+    /**
+     * Base path of the entity, e.g. /catalogue/moteurs.
+     */
+    protected abstract String path();
+
+    static class Ligne {
+        final int numero;
+        final String texte;
+        long debut;
+
+        Ligne(int numero, String texte) {
+            this.numero = numero;
+            this.texte = texte;
+        }
+    }
+
+    @Override
+    public Integer call() {
+        if (!List.of("get", "create", "update", "delete").contains(operation)) {
+            System.err.println("Erreur : opération inconnue " + operation + " (get, create, update ou delete)");
+            return 2;
+        }
+        List<Ligne> lignes;
+        try {
+            lignes = lire();
+        } catch (Exception e) {
+            System.err.println("Erreur : " + e.getMessage());
+            return 2;
+        }
+
+        AtomicInteger succes = new AtomicInteger();
+        AtomicInteger erreurs = new AtomicInteger();
+        long debut = System.nanoTime();
+        api.batch(lignes, concurrence, this::appeler, (ligne, erreur) -> {
+            long duree = (System.nanoTime() - ligne.debut) / 1_000_000;
+            if (erreur == null) {
+                succes.incrementAndGet();
+            } else {
+                erreurs.incrementAndGet();
+            }
+            afficher(ligne, duree, erreur);
+        }).join();
+
+        double secondes = Math.max(System.nanoTime() - debut, 1) / 1e9;
+        String bilan = String.format("%d ligne(s) : %d succès, %d erreur(s) en %.2f s (%.1f lignes/s)",
+                lignes.size(), succes.get(), erreurs.get(), secondes, lignes.size() / secondes);
+        // With --json the standard output only carries the per-line results
+        (json ? System.err : System.out).println(bilan);
+        return erreurs.get() == 0 ? 0 : 1;
+    }
+
+    private CompletableFuture<String> appeler(Ligne ligne) {
+        ligne.debut = System.nanoTime();
+        return switch (operation) {
+            case "get" -> api.getAsync(path() + "/" + id(ligne));
+            case "delete" -> api.deleteAsync(path() + "/" + id(ligne));
+            case "create" -> api.postAsync(path(), objet(ligne).toString());
+            default -> api.mergeAndPutAsync(path() + "/" + id(ligne), objet(ligne).toString());
+        };
+    }
+
+    private synchronized void afficher(Ligne ligne, long duree, Throwable erreur) {
+        String message = erreur == null ? null : erreur.getMessage() != null ? erreur.getMessage() : erreur.toString();
+        if (json) {
+            JsonObjectBuilder builder = Json.createObjectBuilder()
+                    .add("ligne", ligne.numero)
+                    .add("entree", ligne.texte)
+                    .add("statut", erreur == null ? "ok" : "erreur")
+                    .add("dureeMs", duree);
+            if (message != null) {
+                builder.add("erreur", message);
+            }
+            System.out.println(builder.build());
+        } else if (erreur == null) {
+            System.out.println("[ok]     ligne " + ligne.numero + " (" + duree + " ms)");
+        } else {
+            System.out.println("[erreur] ligne " + ligne.numero + " (" + duree + " ms) : " + message);
+        }
+    }
+
+    private List<Ligne> lire() throws Exception {
+        List<String> textes;
+        if ("-".equals(fichier)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            textes = reader.lines().toList();
+        } else {
+            textes = Files.readAllLines(Path.of(fichier), StandardCharsets.UTF_8);
+        }
+        List<Ligne> lignes = new ArrayList<>();
+        for (int i = 0; i < textes.size(); i++) {
+            String texte = textes.get(i).trim();
+            if (!texte.isEmpty() && !texte.startsWith("#")) {
+                lignes.add(new Ligne(i + 1, texte));
+            }
+        }
+        return lignes;
+    }
+
+    private static long id(Ligne ligne) {
+        if (!ligne.texte.startsWith("{")) {
+            try {
+                return Long.parseLong(ligne.texte);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("ID invalide : " + ligne.texte);
+            }
+        }
+        JsonObject objet = objet(ligne);
+        if (!objet.containsKey("id") || objet.isNull("id")) {
+            throw new IllegalArgumentException("Champ id manquant");
+        }
+        return objet.getJsonNumber("id").longValue();
+    }
+
+    private static JsonObject objet(Ligne ligne) {
+        try (JsonReader reader = Json.createReader(new StringReader(ligne.texte))) {
+            return reader.readObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Objet JSON invalide : " + ligne.texte);
+        }
+    }
+}
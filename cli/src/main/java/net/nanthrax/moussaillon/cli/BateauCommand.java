@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 BateauCommand.Search.class,
                 BateauCommand.Create.class,
                 BateauCommand.Update.class,
-                BateauCommand.Delete.class
+                BateauCommand.Delete.class,
+                BateauCommand.Batch.class
         }
 )
 public class BateauCommand {
@@ -194,4 +195,12 @@ public class BateauCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des bateaux en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/catalogue/bateaux";
+        }
+    }
 }
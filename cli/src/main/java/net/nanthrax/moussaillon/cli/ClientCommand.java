@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 ClientCommand.Search.class,
                 ClientCommand.Create.class,
                 ClientCommand.Update.class,
-                ClientCommand.Delete.class
+                ClientCommand.Delete.class,
+                ClientCommand.Batch.class
         }
 )
 public class ClientCommand {
@@ -186,4 +187,12 @@ public class ClientCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des clients en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/clients";
+        }
+    }
 }
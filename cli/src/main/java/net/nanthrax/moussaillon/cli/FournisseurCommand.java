@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 FournisseurCommand.Search.class,
                 FournisseurCommand.Create.class,
                 FournisseurCommand.Update.class,
-                FournisseurCommand.Delete.class
+                FournisseurCommand.Delete.class,
+                FournisseurCommand.Batch.class
         }
 )
 public class FournisseurCommand {
@@ -186,4 +187,12 @@ public class FournisseurCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des fournisseurs en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/catalogue/fournisseurs";
+        }
+    }
 }
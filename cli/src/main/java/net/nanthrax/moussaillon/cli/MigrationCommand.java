@@ -0,0 +1,86 @@
+package net.nanthrax.moussaillon.cli;
+
+import jakarta.inject.Inject;
+import picocli.CommandLine;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+@CommandLine.Command(
+        name = "migration",
+        description = "Export et import en masse des données (NDJSON)",
+        mixinStandardHelpOptions = true,
+        subcommands = {
+                MigrationCommand.Entites.class,
+                MigrationCommand.Export.class,
+                MigrationCommand.Import.class
+        }
+)
+public class MigrationCommand {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    @CommandLine.Command(name = "entites", description = "Lister les entités exportables")
+    static class Entites implements Runnable {
+        @Inject ApiClient api;
+
+        @Override
+        public void run() {
+            try {
+                System.out.println(api.prettyPrint(api.get("/migration")));
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+            }
+        }
+    }
+
+    @CommandLine.Command(name = "export", description = "Exporter une entité en NDJSON")
+    static class Export implements Runnable {
+        @Inject ApiClient api;
+
+        @CommandLine.Parameters(index = "0", description = "Entité (clients, ventes, catalogue-moteurs...)")
+        String entite;
+
+        @CommandLine.Option(names = {"-f", "--fichier"}, description = "Fichier de sortie (sortie standard par défaut)")
+        Path fichier;
+
+        @Override
+        public void run() {
+            try {
+                if (fichier == null) {
+                    api.download("/migration/" + entite, System.out);
+                    System.out.flush();
+                } else {
+                    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(fichier))) {
+                        api.download("/migration/" + entite, out);
+                    }
+                    System.err.println("Export de " + entite + " écrit dans " + fichier);
+                }
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+            }
+        }
+    }
+
+    @CommandLine.Command(name = "import", description = "Importer une entité depuis un fichier NDJSON")
+    static class Import implements Runnable {
+        @Inject ApiClient api;
+
+        @CommandLine.Parameters(index = "0", description = "Entité (clients, ventes, catalogue-moteurs...)")
+        String entite;
+
+        @CommandLine.Option(names = {"-f", "--fichier"}, required = true, description = "Fichier NDJSON à importer")
+        Path fichier;
+
+        @Override
+        public void run() {
+            try {
+                System.out.println(api.prettyPrint(api.upload("/migration/" + entite, fichier, NDJSON)));
+            } catch (Exception e) {
+                System.err.println("Erreur : " + e.getMessage());
+            }
+        }
+    }
+}
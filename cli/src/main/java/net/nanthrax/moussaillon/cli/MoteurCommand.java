@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 MoteurCommand.Search.class,
                 MoteurCommand.Create.class,
                 MoteurCommand.Update.class,
-                MoteurCommand.Delete.class
+                MoteurCommand.Delete.class,
+                MoteurCommand.Batch.class
         }
 )
 public class MoteurCommand {
@@ -194,4 +195,12 @@ public class MoteurCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des moteurs en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/catalogue/moteurs";
+        }
+    }
 }
@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 MoteurCommand.class,
                 TechnicienCommand.class,
                 FournisseurCommand.class,
-                VenteCommand.class
+                VenteCommand.class,
+                MigrationCommand.class
         }
 )
 public class MoussaillonCommand {
@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 TechnicienCommand.Search.class,
                 TechnicienCommand.Create.class,
                 TechnicienCommand.Update.class,
-                TechnicienCommand.Delete.class
+                TechnicienCommand.Delete.class,
+                TechnicienCommand.Batch.class
         }
 )
 public class TechnicienCommand {
@@ -178,4 +179,12 @@ public class TechnicienCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des techniciens en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/techniciens";
+        }
+    }
 }
@@ -15,7 +15,8 @@ import picocli.CommandLine;
                 VenteCommand.Search.class,
                 VenteCommand.Create.class,
                 VenteCommand.Update.class,
-                VenteCommand.Delete.class
+                VenteCommand.Delete.class,
+                VenteCommand.Batch.class
         }
 )
 public class VenteCommand {
@@ -195,4 +196,12 @@ public class VenteCommand {
             }
         }
     }
+
+    @CommandLine.Command(name = "batch", description = "Traiter des ventes en lot depuis un fichier ou l'entrée standard")
+    static class Batch extends BatchCommand {
+        @Override
+        protected String path() {
+            return "/ventes";
+        }
+    }
 }
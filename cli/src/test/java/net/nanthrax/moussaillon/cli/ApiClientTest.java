@@ -7,6 +7,11 @@ import jakarta.inject.Inject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -176,4 +181,29 @@ class ApiClientTest {
                 .withRequestBody(containing("\"stock\":0"))
                 .withRequestBody(containing("\"nom\":\"Ancien\"")));
     }
+
+    @Test
+    void testLotConcurrenceBornee() {
+        for (int i = 1; i <= 10; i++) {
+            wireMock.stubFor(get(urlEqualTo("/items/" + i))
+                    .willReturn(okJson("{\"id\":" + i + "}").withFixedDelay(50)));
+        }
+
+        List<Integer> ids = IntStream.rangeClosed(1, 10).boxed().toList();
+        List<Integer> succes = new CopyOnWriteArrayList<>();
+        AtomicInteger enCours = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        api.batch(ids, 3, id -> {
+            maximum.accumulateAndGet(enCours.incrementAndGet(), Math::max);
+            return api.getAsync("/items/" + id).whenComplete((r, e) -> enCours.decrementAndGet());
+        }, (id, erreur) -> {
+            if (erreur == null) {
+                succes.add(id);
+            }
+        }).join();
+
+        assertEquals(10, succes.size());
+        assertTrue(maximum.get() <= 3);
+        wireMock.verify(10, getRequestedFor(urlMatching("/items/\\d+")));
+    }
 }
@@ -0,0 +1,69 @@
+package net.nanthrax.moussaillon.cli;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+@QuarkusTestResource(WireMockResource.class)
+class MigrationCommandTest {
+
+    @InjectWireMock
+    WireMockServer wireMock;
+
+    @Inject
+    CommandLine.IFactory factory;
+
+    @BeforeEach
+    void resetStubs() {
+        wireMock.resetAll();
+    }
+
+    @Test
+    void testExporterVersFichier() throws Exception {
+        wireMock.stubFor(get(urlEqualTo("/migration/clients"))
+                .willReturn(aResponse().withStatus(200)
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"id\":1,\"nom\":\"Dupont\"}\n{\"id\":2,\"nom\":\"Martin\"}\n")));
+
+        Path fichier = Files.createTempFile("clients", ".ndjson");
+        try {
+            int exitCode = new CommandLine(MigrationCommand.Export.class, factory)
+                    .execute("clients", "--fichier", fichier.toString());
+            assertEquals(0, exitCode);
+            assertEquals(2, Files.readAllLines(fichier).size());
+            assertTrue(Files.readString(fichier).contains("Martin"));
+        } finally {
+            Files.deleteIfExists(fichier);
+        }
+    }
+
+    @Test
+    void testImporterDepuisFichier() throws Exception {
+        wireMock.stubFor(post(urlEqualTo("/migration/clients"))
+                .willReturn(okJson("{\"entite\":\"clients\",\"lignes\":1,\"creees\":1,\"misesAJour\":0,\"nbErreurs\":0}")));
+
+        Path fichier = Files.createTempFile("clients", ".ndjson");
+        Files.writeString(fichier, "{\"nom\":\"Dupont\",\"type\":\"Particulier\"}\n");
+        try {
+            int exitCode = new CommandLine(MigrationCommand.Import.class, factory)
+                    .execute("clients", "--fichier", fichier.toString());
+            assertEquals(0, exitCode);
+        } finally {
+            Files.deleteIfExists(fichier);
+        }
+        wireMock.verify(postRequestedFor(urlEqualTo("/migration/clients"))
+                .withHeader("Content-Type", containing("application/x-ndjson"))
+                .withRequestBody(containing("\"nom\":\"Dupont\"")));
+    }
+}
@@ -10,6 +10,8 @@ import picocli.CommandLine;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -130,4 +132,40 @@ class MoteurCommandTest {
         }
         assertTrue(err.toString().contains("Erreur"));
     }
+
+    @Test
+    void testMiseAJourEnLotViaCommande() throws Exception {
+        wireMock.stubFor(get(urlEqualTo("/catalogue/moteurs/1"))
+                .willReturn(okJson("{\"id\":1,\"marque\":\"Yamaha\",\"stock\":5}")));
+        wireMock.stubFor(put(urlEqualTo("/catalogue/moteurs/1"))
+                .willReturn(okJson("{\"id\":1,\"marque\":\"Yamaha\",\"stock\":0}")));
+        wireMock.stubFor(get(urlEqualTo("/catalogue/moteurs/2"))
+                .willReturn(okJson("{\"id\":2,\"marque\":\"Suzuki\",\"stock\":3}")));
+        wireMock.stubFor(put(urlEqualTo("/catalogue/moteurs/2"))
+                .willReturn(okJson("{\"id\":2,\"marque\":\"Suzuki\",\"stock\":0}")));
+        wireMock.stubFor(get(urlEqualTo("/catalogue/moteurs/9999"))
+                .willReturn(aResponse().withStatus(404)));
+
+        Path fichier = Files.createTempFile("moteurs", ".jsonl");
+        Files.writeString(fichier, "{\"id\":1,\"stock\":0}\n\n{\"id\":2,\"stock\":0}\n{\"id\":9999,\"stock\":0}\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(out));
+        int exitCode;
+        try {
+            exitCode = new CommandLine(MoteurCommand.Batch.class, factory)
+                    .execute("update", "--fichier", fichier.toString(), "--concurrence", "2");
+        } finally {
+            System.setOut(original);
+            Files.deleteIfExists(fichier);
+        }
+        assertEquals(1, exitCode);
+        assertTrue(out.toString().contains("3 ligne(s) : 2 succès, 1 erreur(s)"));
+        assertTrue(out.toString().contains("[erreur] ligne 4"));
+        wireMock.verify(putRequestedFor(urlEqualTo("/catalogue/moteurs/2"))
+                .withRequestBody(containing("\"marque\":\"Suzuki\""))
+                .withRequestBody(containing("\"stock\":0")));
+        wireMock.verify(0, putRequestedFor(urlEqualTo("/catalogue/moteurs/9999")));
+    }
 }